@@ -0,0 +1,312 @@
+/*-
+ * #%L
+ * CTC-Fiji-plugins
+ * %%
+ * Copyright (C) 2017 - 2023 Vladimír Ulman
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package net.celltrackingchallenge.fiji.plugins;
+
+import net.imagej.ops.OpService;
+import org.scijava.Context;
+import org.scijava.ItemIO;
+import org.scijava.ItemVisibility;
+import org.scijava.command.Command;
+import org.scijava.convert.ConvertService;
+import org.scijava.log.LogService;
+import org.scijava.plugin.Parameter;
+import org.scijava.plugin.Plugin;
+import org.scijava.service.Service;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Runs any of the CTC commands from the command line, without starting
+ * the full ImageJ: the SciJava context is made with the LogService and the
+ * ConvertService only (and with the OpService only if the Sha is to be
+ * calculated with ImageJ Ops),
+ * the command is created directly and its parameters are set from the
+ * 'name=value' arguments, where the names are those of its fields and the
+ * values are converted with the ConvertService, e.g.
+ *
+ * java -jar CTC-Fiji-plugins.jar CTC_TRA gtPath=/data/01_GT resPath=/data/01_RES noOfDigits=3
+ *
+ * The outputs of the command are printed as 'name=value' lines on stdout.
+ */
+public class CommandLineLauncher
+{
+	static final List<Class<? extends Command>> COMMANDS = new ArrayList<>();
+	static {
+		COMMANDS.add(plugin_TRAmeasure.class);
+		COMMANDS.add(plugin_AOGMmeasure.class);
+		COMMANDS.add(plugin_SEGmeasure.class);
+		COMMANDS.add(plugin_DETmeasure.class);
+		COMMANDS.add(plugin_BIOmeasures.class);
+		COMMANDS.add(plugin_ICTmeasures.class);
+		COMMANDS.add(plugin_DSmeasures.class);
+		COMMANDS.add(plugin_CreateBGMask.class);
+		COMMANDS.add(plugin_AOGMconsistency.class);
+		COMMANDS.add(plugin_CTCconsistency.class);
+		COMMANDS.add(plugin_MeasureShard.class);
+		COMMANDS.add(plugin_MergeShards.class);
+	}
+
+	public static void main(final String... args)
+	{
+		if (args.length == 0)
+		{
+			printUsage();
+			System.exit(1);
+		}
+
+		final Class<? extends Command> commandClass = findCommand(args[0]);
+		if (commandClass == null)
+		{
+			System.err.println("Unknown command: "+args[0]);
+			printUsage();
+			System.exit(1);
+		}
+
+		try (Context context = new Context(LogService.class, ConvertService.class))
+		{
+			final Command command;
+			try {
+				command = commandClass.getDeclaredConstructor().newInstance();
+				setInputs(command, Arrays.copyOfRange(args, 1, args.length), context.service(ConvertService.class));
+				validateInputs(command);
+			}
+			catch (IllegalArgumentException e) {
+				System.err.println(e.getMessage());
+				printInputs(commandClass);
+				System.exit(1);
+				return;
+			}
+
+			if (needsOps(command))
+			{
+				try (Context opsContext = new Context(LogService.class, OpService.class))
+				{
+					opsContext.inject(command);
+					command.run();
+				}
+			}
+			else
+			{
+				context.inject(command);
+				command.run();
+			}
+
+			for (Field f : parameterFields(commandClass))
+			{
+				final Parameter p = f.getAnnotation(Parameter.class);
+				if (p.type() != ItemIO.OUTPUT) continue;
+				f.setAccessible(true);
+				System.out.println(f.getName()+"="+f.get(command));
+			}
+		}
+		catch (ReflectiveOperationException e) {
+			System.err.println("Cannot run "+args[0]+": "+e.getMessage());
+			System.exit(2);
+		}
+		catch (Exception e) {
+			System.err.println(args[0]+" has failed: "+(e.getMessage() != null ? e.getMessage() : e.toString()));
+			System.exit(2);
+		}
+	}
+
+	static Class<? extends Command> findCommand(final String name)
+	{
+		for (Class<? extends Command> c : COMMANDS)
+			if (c.getAnnotation(Plugin.class).name().equals(name) || c.getSimpleName().equals(name))
+				return c;
+		return null;
+	}
+
+	/** the @Parameter fields of the class and of its super classes */
+	static List<Field> parameterFields(final Class<?> commandClass)
+	{
+		final List<Field> fields = new ArrayList<>();
+		for (Class<?> c = commandClass; c != null && c != Object.class; c = c.getSuperclass())
+			for (Field f : c.getDeclaredFields())
+				if (f.isAnnotationPresent(Parameter.class)) fields.add(f);
+		return fields;
+	}
+
+	/** the fields that can be set from the command line */
+	static boolean isInput(final Field f)
+	{
+		final Parameter p = f.getAnnotation(Parameter.class);
+		return p.type() != ItemIO.OUTPUT && p.visibility() != ItemVisibility.MESSAGE
+			&& !Service.class.isAssignableFrom(f.getType()) && !Modifier.isFinal(f.getModifiers());
+	}
+
+	/**
+	 * sets the inputs as the GUI would do: the choice parameters without
+	 * a value start with their first choice, then the 'name=value' arguments
+	 * are set one after another, each followed by the 'callback' of its
+	 * parameter; finally, every required input must have a value
+	 */
+	static void setInputs(final Command command, final String[] args, final ConvertService convert)
+	throws ReflectiveOperationException
+	{
+		for (Field f : parameterFields(command.getClass()))
+		{
+			final Parameter p = f.getAnnotation(Parameter.class);
+			if (!isInput(f) || p.choices().length == 0) continue;
+			f.setAccessible(true);
+			if (f.get(command) == null) f.set(command, p.choices()[0]);
+		}
+
+		for (String arg : args)
+		{
+			final int eq = arg.indexOf('=');
+			if (eq < 1) throw new IllegalArgumentException("Expected 'name=value' but got: "+arg);
+			setInput(command, arg.substring(0,eq), arg.substring(eq+1), convert);
+		}
+
+		final List<String> missing = new ArrayList<>();
+		for (Field f : parameterFields(command.getClass()))
+		{
+			if (!isInput(f) || !f.getAnnotation(Parameter.class).required()) continue;
+			f.setAccessible(true);
+			if (f.get(command) == null) missing.add(f.getName());
+		}
+		if (missing.size() > 0)
+			throw new IllegalArgumentException("Missing required parameter"+(missing.size() > 1 ? "s: " : ": ")
+				+String.join(", ", missing));
+	}
+
+	/** converts the value to the type of the parameter, checks its choices, and runs its callback */
+	static void setInput(final Command command, final String name, final String value, final ConvertService convert)
+	throws ReflectiveOperationException
+	{
+		for (Field f : parameterFields(command.getClass()))
+		{
+			if (!f.getName().equals(name) || !isInput(f)) continue;
+			final Parameter p = f.getAnnotation(Parameter.class);
+			f.setAccessible(true);
+
+			final Class<?> t = f.getType();
+			if (!convert.supports(String.class, t))
+				throw new IllegalArgumentException("Parameter "+name+" cannot be given on the command line.");
+			Object converted;
+			try {
+				converted = convert.convert(value, t);
+			}
+			catch (RuntimeException e) {
+				converted = null;
+			}
+			if (converted == null)
+				throw new IllegalArgumentException("Parameter "+name+" expects "+t.getSimpleName()+", got: "+value);
+
+			if (p.choices().length > 0 && !Arrays.asList(p.choices()).contains(converted.toString()))
+				throw new IllegalArgumentException("Parameter "+name+" must be one of: "
+					+String.join(" | ", p.choices())+", got: "+value);
+
+			f.set(command, converted);
+			if (p.callback().length() > 0)
+			{
+				final Method callback = f.getDeclaringClass().getDeclaredMethod(p.callback());
+				callback.setAccessible(true);
+				try {
+					callback.invoke(command);
+				}
+				catch (InvocationTargetException e) {
+					throw new IllegalArgumentException("Parameter "+name+" is not valid: "+e.getCause().getMessage());
+				}
+			}
+			return;
+		}
+		throw new IllegalArgumentException("Unknown parameter: "+name);
+	}
+
+	/**
+	 * checks the inputs as the GUI would do: the 'min' and 'max' bounds of the
+	 * numeric parameters, and the 'validater' methods of the command
+	 */
+	static void validateInputs(final Command command)
+	throws ReflectiveOperationException
+	{
+		for (Field f : parameterFields(command.getClass()))
+		{
+			if (!isInput(f)) continue;
+			final Parameter p = f.getAnnotation(Parameter.class);
+			f.setAccessible(true);
+
+			final Object value = f.get(command);
+			if (value instanceof Number)
+			{
+				final double v = ((Number)value).doubleValue();
+				if (p.min().length() > 0 && v < Double.parseDouble(p.min()))
+					throw new IllegalArgumentException("Parameter "+f.getName()+" must be at least "+p.min()+", got: "+value);
+				if (p.max().length() > 0 && v > Double.parseDouble(p.max()))
+					throw new IllegalArgumentException("Parameter "+f.getName()+" must be at most "+p.max()+", got: "+value);
+			}
+
+			if (p.validater().length() == 0) continue;
+			final Method validater = f.getDeclaringClass().getDeclaredMethod(p.validater());
+			validater.setAccessible(true);
+			try {
+				validater.invoke(command);
+			}
+			catch (InvocationTargetException e) {
+				throw new IllegalArgumentException("Parameter "+f.getName()+" is not valid: "+e.getCause().getMessage());
+			}
+		}
+	}
+
+	/** only the dataset measures may need ImageJ Ops, and only for Sha */
+	static boolean needsOps(final Command command)
+	throws IllegalAccessException
+	{
+		if (!(command instanceof plugin_DSmeasures)) return false;
+		return ((plugin_DSmeasures)command).needsOps();
+	}
+
+	static void printUsage()
+	{
+		System.err.println("Usage: <command> [name=value ...]");
+		System.err.println("Commands:");
+		for (Class<? extends Command> c : COMMANDS)
+			System.err.println("  "+c.getAnnotation(Plugin.class).name()+"  ("+c.getAnnotation(Plugin.class).menuPath()+")");
+	}
+
+	static void printInputs(final Class<? extends Command> commandClass)
+	{
+		System.err.println("Parameters of "+commandClass.getAnnotation(Plugin.class).name()+":");
+		for (Field f : parameterFields(commandClass))
+		{
+			if (!isInput(f)) continue;
+			final Parameter p = f.getAnnotation(Parameter.class);
+			System.err.println("  "+f.getName()+" ("+f.getType().getSimpleName()+")  "+p.label()
+				+(p.choices().length > 0 ? " one of: "+String.join(" | ", p.choices()) : ""));
+		}
+	}
+}
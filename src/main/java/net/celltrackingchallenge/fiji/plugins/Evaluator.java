@@ -0,0 +1,276 @@
+/*-
+ * #%L
+ * CTC-Fiji-plugins
+ * %%
+ * Copyright (C) 2017 - 2023 Vladimír Ulman
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package net.celltrackingchallenge.fiji.plugins;
+
+import net.celltrackingchallenge.fiji.plugins.io.DefaultFrameCacheService;
+import net.celltrackingchallenge.fiji.plugins.io.FrameCacheService;
+import net.celltrackingchallenge.fiji.plugins.io.FrameSourceTrackDataCache;
+import net.celltrackingchallenge.fiji.plugins.io.FrameSources;
+import net.celltrackingchallenge.fiji.plugins.util.SEGmeasureEngine;
+import net.celltrackingchallenge.measures.DET;
+import net.celltrackingchallenge.measures.SEG;
+import net.celltrackingchallenge.measures.TRA;
+import org.scijava.log.Logger;
+import org.scijava.log.StderrLogService;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.Set;
+
+/**
+ * Calculates the TRA, DET and SEG measures of many results against the same
+ * ground truth, without the SciJava command machinery, e.g. from within
+ * a loop that tunes parameters of a tracker:
+ *
+ * try (Evaluator e = Evaluator.forGT(gtPath).measures(Evaluator.Measure.TRA, Evaluator.Measure.SEG).build())
+ * {
+ *     for (Path res : resultFolders) System.out.println(e.evaluate(res));
+ * }
+ *
+ * The Evaluator keeps its reading threads between the calls, and keeps the
+ * images in its frame cache so that the GT images (of TRA, and of SEG with the
+ * built-in engine) are read from the disk only once. SEG is, however, by default
+ * calculated with CTC-measures, as in the SEG plugin. Calls for different result
+ * folders can run concurrently.
+ */
+public class Evaluator implements AutoCloseable
+{
+	public enum Measure { TRA, DET, SEG }
+
+	/** the CTC-measures SEG, or the built-in one that reads only the annotated slices */
+	public enum SegEngine { CTC_MEASURES, BUILT_IN }
+
+	/** the values of one evaluation, -1 for the measures that were not calculated */
+	public static class Result
+	{
+		Result(final Path resPath) { this.resPath = resPath; }
+
+		public final Path resPath;
+		public double TRA = -1;
+		public double DET = -1;
+		public double SEG = -1;
+
+		@Override
+		public String toString()
+		{ return resPath+": TRA="+TRA+" DET="+DET+" SEG="+SEG; }
+	}
+
+	public static Builder forGT(final Path gtPath)
+	{ return new Builder(gtPath); }
+
+	public static class Builder
+	{
+		Builder(final Path gtPath) { this.gtPath = gtPath; }
+
+		private final Path gtPath;
+		private int noOfDigits = 3;
+		private EnumSet<Measure> measures = EnumSet.allOf(Measure.class);
+		private boolean doConsistencyCheck = true;
+		private boolean doStopOnEmptyImages = false;
+		private Set<Integer> segTimepoints = Collections.emptySet();
+		private SegEngine segEngine = SegEngine.CTC_MEASURES;
+		private int noOfThreads = Runtime.getRuntime().availableProcessors();
+		private int noOfIoThreads = 2;
+		private int readAhead = 2;
+		private FrameCacheService frameCache = null;
+		private Logger log = null;
+
+		/** set to 3 if the files are, e.g., t000.tif, or to 5 if they are, e.g., t00021.tif */
+		public Builder noOfDigits(final int noOfDigits)
+		{ this.noOfDigits = noOfDigits; return this; }
+
+		public Builder measures(final Measure first, final Measure... rest)
+		{ this.measures = EnumSet.of(first, rest); return this; }
+
+		/** checks the GT and RES data before measuring TRA */
+		public Builder doConsistencyCheck(final boolean doConsistencyCheck)
+		{ this.doConsistencyCheck = doConsistencyCheck; return this; }
+
+		/** the official measures do not accept empty images */
+		public Builder doStopOnEmptyImages(final boolean doStopOnEmptyImages)
+		{ this.doStopOnEmptyImages = doStopOnEmptyImages; return this; }
+
+		/** SEG only on these timepoints, empty set for all of them */
+		public Builder segTimepoints(final Set<Integer> timepoints)
+		{ this.segTimepoints = timepoints; return this; }
+
+		/** which implementation calculates SEG, CTC-measures if not given */
+		public Builder segEngine(final SegEngine segEngine)
+		{ this.segEngine = segEngine; return this; }
+
+		/** the number of threads that decode the TIFF images */
+		public Builder noOfThreads(final int noOfThreads)
+		{ this.noOfThreads = noOfThreads; return this; }
+
+		/** the number of images read ahead, and with how many threads */
+		public Builder readAhead(final int readAhead, final int noOfIoThreads)
+		{ this.readAhead = readAhead; this.noOfIoThreads = noOfIoThreads; return this; }
+
+		/** the cache of the images to use, e.g. the one of the SciJava context;
+		    if not given, the Evaluator uses its own (with a quarter of the heap) */
+		public Builder frameCache(final FrameCacheService frameCache)
+		{ this.frameCache = frameCache; return this; }
+
+		/** where the measures report, the standard error if not given */
+		public Builder log(final Logger log)
+		{ this.log = log; return this; }
+
+		public Evaluator build()
+		{
+			if (noOfDigits < 1) throw new IllegalArgumentException("The number of digits must be at least 1.");
+			if ((measures.contains(Measure.TRA) || measures.contains(Measure.DET))
+					&& !Files.isDirectory(gtPath.resolve("TRA")))
+				throw new IllegalArgumentException("There is no TRA folder in the GT folder: "+gtPath);
+			if (measures.contains(Measure.SEG) && !Files.isDirectory(gtPath.resolve("SEG")))
+				throw new IllegalArgumentException("There is no SEG folder in the GT folder: "+gtPath);
+			return new Evaluator(this);
+		}
+	}
+
+
+	private Evaluator(final Builder b)
+	{
+		this.log = b.log != null ? b.log : new StderrLogService();
+		this.gtPath = b.gtPath;
+		this.GTdir = b.gtPath.toString();
+		this.noOfDigits = b.noOfDigits;
+		this.measures = EnumSet.copyOf(b.measures);
+		this.doConsistencyCheck = b.doConsistencyCheck;
+		this.doStopOnEmptyImages = b.doStopOnEmptyImages;
+		this.segTimepoints = b.segTimepoints;
+		this.segEngine = b.segEngine;
+
+		if (b.frameCache != null)
+		{
+			this.frameCache = b.frameCache;
+			this.ownFrameCache = null;
+		}
+		else
+		{
+			this.ownFrameCache = new DefaultFrameCacheService();
+			this.ownFrameCache.initialize();
+			this.ownFrameCache.setBudget(Runtime.getRuntime().maxMemory() / 4);
+			this.frameCache = ownFrameCache;
+		}
+
+		this.frameSources = new FrameSources(log, b.noOfThreads, b.noOfIoThreads, b.readAhead, 0);
+		this.frameSources.useFrameCache(frameCache);
+	}
+
+	private final Logger log;
+	private final Path gtPath;
+	private final String GTdir;
+	private final int noOfDigits;
+	private final EnumSet<Measure> measures;
+	private final boolean doConsistencyCheck;
+	private final boolean doStopOnEmptyImages;
+	private final Set<Integer> segTimepoints;
+	private final SegEngine segEngine;
+
+	private final FrameCacheService frameCache;
+	/** the cache made by this Evaluator, to be disposed with it */
+	private final DefaultFrameCacheService ownFrameCache;
+	private final FrameSources frameSources;
+
+	/** calculates the chosen measures of the result in the given folder */
+	public Result evaluate(final Path resPath)
+	throws IOException
+	{
+		final Result result = new Result(resPath);
+		final String RESdir = resPath.toString();
+
+		try {
+			if (measures.contains(Measure.TRA) || measures.contains(Measure.DET))
+			{
+				//one classification of the images serves both measures
+				final FrameSourceTrackDataCache cache = FrameSourceTrackDataCache.calculateFor(GTdir, RESdir,
+						noOfDigits, doStopOnEmptyImages, log, frameSources);
+
+				if (measures.contains(Measure.TRA))
+				{
+					final TRA tra = new TRA(log);
+					tra.doConsistencyCheck  = doConsistencyCheck;
+					tra.doLogReports        = false;
+					tra.doMatchingReports   = false;
+					tra.noOfDigits          = noOfDigits;
+					tra.doStopOnEmptyImages = doStopOnEmptyImages;
+					result.TRA = tra.calculate(GTdir, RESdir, cache);
+				}
+
+				if (measures.contains(Measure.DET))
+				{
+					final DET det = new DET(log);
+					det.doLogReports        = false;
+					det.doMatchingReports   = false;
+					det.noOfDigits          = noOfDigits;
+					det.doStopOnEmptyImages = doStopOnEmptyImages;
+					result.DET = det.calculate(GTdir, RESdir, cache);
+				}
+			}
+
+			if (measures.contains(Measure.SEG) && segEngine == SegEngine.BUILT_IN)
+			{
+				//the GT images through the frame cache, only the annotated slices of the RES masks
+				try (SEGmeasureEngine seg = new SEGmeasureEngine(log, frameSources))
+				{
+					seg.noOfDigits          = noOfDigits;
+					seg.doStopOnEmptyImages = doStopOnEmptyImages;
+					seg.doOnlyTheseTimepoints = segTimepoints;
+					result.SEG = seg.calculate(gtPath, resPath);
+				}
+			}
+			else if (measures.contains(Measure.SEG))
+			{
+				final SEG seg = new SEG(log);
+				seg.doLogReports        = false;
+				seg.noOfDigits          = noOfDigits;
+				seg.doStopOnEmptyImages = doStopOnEmptyImages;
+				if (segTimepoints.size() > 0)
+					seg.doOnlyTheseTimepoints = segTimepoints;
+				result.SEG = seg.calculate(GTdir, RESdir);
+			}
+		}
+		finally {
+			//the GT sources are kept, the ones of this result are not needed anymore
+			frameSources.forget(resPath);
+		}
+
+		return result;
+	}
+
+	@Override
+	public void close()
+	{
+		frameSources.close();
+		if (ownFrameCache != null) ownFrameCache.dispose();
+	}
+}
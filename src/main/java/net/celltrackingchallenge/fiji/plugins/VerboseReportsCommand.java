@@ -0,0 +1,65 @@
+/*-
+ * #%L
+ * CTC-Fiji-plugins
+ * %%
+ * Copyright (C) 2017 - 2023 Vladimír Ulman
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package net.celltrackingchallenge.fiji.plugins;
+
+import org.scijava.command.Command;
+import org.scijava.log.Logger;
+import org.scijava.plugin.Parameter;
+
+import org.scijava.widget.FileWidget;
+import java.io.File;
+import java.io.IOException;
+
+import net.celltrackingchallenge.fiji.plugins.util.AsyncLogSink;
+
+/**
+ * Common part of the measure commands that can produce verbose reports:
+ * where the reports are written to and how many of their lines at most,
+ * and the opening of the AsyncLogSink accordingly.
+ */
+abstract class VerboseReportsCommand implements Command
+{
+	@Parameter(label = "Write verbose reports into file (optional):",
+		style = FileWidget.SAVE_STYLE, required = false,
+		description = "If given, the verbose reports are written into this file instead of into the log. "
+			+"Either way, they are written by a separate thread so that the measuring is not slowed down.")
+	File reportsFile = null;
+
+	@Parameter(label = "Max. number of report lines:", min = "0",
+		description = "Report lines beyond this number are only counted, and the last few of them are written "
+			+"at the end (e.g. the measured values). Errors and warnings always go also into the log. Set to 0 for no limit.")
+	int maxReportLines = 1000000;
+
+	/** returns the sink for the verbose reports, or null if no reports are wanted */
+	AsyncLogSink openReports(final Logger log, final boolean doReports)
+	throws IOException
+	{
+		return doReports ? AsyncLogSink.forReports(log, reportsFile, maxReportLines) : null;
+	}
+}
@@ -0,0 +1,120 @@
+/*-
+ * #%L
+ * CTC-Fiji-plugins
+ * %%
+ * Copyright (C) 2017 - 2023 Vladimír Ulman
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package net.celltrackingchallenge.fiji.plugins.io;
+
+import net.celltrackingchallenge.fiji.plugins.util.HeapPressureMonitor;
+import net.imglib2.img.Img;
+import net.imglib2.type.numeric.integer.UnsignedShortType;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Keeps the last few requested frames in memory, so that they are not read
+ * again when requested repeatedly (e.g. the RES mask that is used for both
+ * SEG and DET). The returned images are shared and must not be modified.
+ *
+ * When the heap is low, the kept frames are turned into CompactLabelFrames,
+ * which are decoded (and not kept decoded anymore) when requested again.
+ */
+public class CachingFrameSource implements FrameSource, HeapPressureMonitor.Listener
+{
+	public CachingFrameSource(final FrameSource source, final int capacity)
+	{
+		this.source = source;
+		this.frames = new LinkedHashMap<Integer,Object>(2*capacity, 0.75f, true)
+		{
+			@Override
+			protected boolean removeEldestEntry(final Map.Entry<Integer,Object> eldest)
+			{ return size() > capacity; }
+		};
+	}
+
+	private final FrameSource source;
+	/** either the Img or its CompactLabelFrame, guarded with itself */
+	private final Map<Integer,Object> frames;
+
+	@Override
+	public boolean hasFrame(final int timepoint)
+	{
+		synchronized (frames)
+		{
+			if (frames.containsKey(timepoint)) return true;
+		}
+		return source.hasFrame(timepoint);
+	}
+
+	@Override
+	public Img<UnsignedShortType> getFrame(final int timepoint)
+	throws IOException
+	{
+		final Object kept;
+		synchronized (frames)
+		{
+			kept = frames.get(timepoint);
+		}
+		if (kept instanceof CompactLabelFrame) return ((CompactLabelFrame)kept).toImg();
+		if (kept != null) return asImg(kept);
+
+		final Img<UnsignedShortType> img = source.getFrame(timepoint);
+		synchronized (frames)
+		{
+			frames.put(timepoint, img);
+		}
+		return img;
+	}
+
+	@SuppressWarnings("unchecked")
+	private static Img<UnsignedShortType> asImg(final Object kept)
+	{ return (Img<UnsignedShortType>)kept; }
+
+	@Override
+	public void heapIsLow()
+	{
+		final Map<Integer,Object> decoded = new HashMap<>();
+		synchronized (frames)
+		{
+			for (Map.Entry<Integer,Object> e : frames.entrySet())
+				if (!(e.getValue() instanceof CompactLabelFrame)) decoded.put(e.getKey(), e.getValue());
+		}
+
+		for (Map.Entry<Integer,Object> e : decoded.entrySet())
+		{
+			final CompactLabelFrame compact = CompactLabelFrame.of(asImg(e.getValue()));
+			synchronized (frames)
+			{
+				//replace only if it is still there, without touching the access order
+				for (Map.Entry<Integer,Object> f : frames.entrySet())
+					if (f.getKey().equals(e.getKey()) && f.getValue() == e.getValue()) f.setValue(compact);
+			}
+		}
+	}
+}
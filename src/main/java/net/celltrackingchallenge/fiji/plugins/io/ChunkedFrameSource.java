@@ -0,0 +1,230 @@
+/*-
+ * #%L
+ * CTC-Fiji-plugins
+ * %%
+ * Copyright (C) 2017 - 2023 Vladimír Ulman
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package net.celltrackingchallenge.fiji.plugins.io;
+
+import net.imglib2.img.Img;
+import net.imglib2.img.array.ArrayImgs;
+import net.imglib2.type.numeric.integer.UnsignedShortType;
+import org.janelia.saalfeldlab.n5.DataBlock;
+import org.janelia.saalfeldlab.n5.DatasetAttributes;
+import org.janelia.saalfeldlab.n5.N5FSReader;
+import org.janelia.saalfeldlab.n5.N5Reader;
+import org.janelia.saalfeldlab.n5.zarr.N5ZarrReader;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * Label images stored in a local N5 or Zarr container, instead of in
+ * the individual mask%0Nd.tif files. The labels of a timepoint are either
+ * in the dataset named like the file would be (e.g. "mask007"), or in the
+ * 3D or 4D dataset "mask" whose last axis is the time.
+ *
+ * Blocks (chunks) of the requested timepoint are read in parallel, and
+ * blocks that are not present in the container (typically the ones without
+ * any label) are not read at all and stay zero.
+ */
+public class ChunkedFrameSource implements FrameSource
+{
+	public ChunkedFrameSource(final Path container, final String datasetPrefix, final int noOfDigits,
+	                          final ExecutorService workers)
+	{
+		this.n5 = isZarr(container) ? new N5ZarrReader(container.toString()) : new N5FSReader(container.toString());
+		this.container = container;
+		this.prefix = datasetPrefix;
+		this.noOfDigits = noOfDigits;
+		this.workers = workers;
+	}
+
+	private final N5Reader n5;
+	private final Path container;
+	private final String prefix;
+	private final int noOfDigits;
+	private final ExecutorService workers;
+
+	/** returns true if the folder is an N5 or a Zarr container */
+	public static boolean isContainer(final Path folder)
+	{
+		return Files.isRegularFile(folder.resolve("attributes.json")) || isZarr(folder);
+	}
+
+	static boolean isZarr(final Path folder)
+	{
+		return Files.isRegularFile(folder.resolve(".zgroup")) || Files.isRegularFile(folder.resolve(".zarray"));
+	}
+
+
+	private String frameDataset(final int timepoint)
+	{
+		return String.format("%s%0"+noOfDigits+"d", prefix, timepoint);
+	}
+
+	@Override
+	public boolean hasFrame(final int timepoint)
+	{
+		if (n5.datasetExists(frameDataset(timepoint))) return true;
+		if (!n5.datasetExists(prefix)) return false;
+		final long[] dims = n5.getDatasetAttributes(prefix).getDimensions();
+		return dims.length > 2 && timepoint >= 0 && timepoint < dims[dims.length-1];
+	}
+
+	@Override
+	public Img<UnsignedShortType> getFrame(final int timepoint)
+	throws IOException
+	{
+		final String dataset = frameDataset(timepoint);
+		if (n5.datasetExists(dataset)) return readVolume(dataset, -1);
+		if (!hasFrame(timepoint))
+			throw new IOException(container+": no labels for timepoint "+timepoint);
+		return readVolume(prefix, timepoint);
+	}
+
+
+	/** reads the whole dataset, or its slice at the given timepoint if it is non-negative */
+	private Img<UnsignedShortType> readVolume(final String dataset, final int timepoint)
+	throws IOException
+	{
+		final DatasetAttributes attrs = n5.getDatasetAttributes(dataset);
+		final long[] allDims = attrs.getDimensions();
+		final int[] blockSize = attrs.getBlockSize();
+		final int n = timepoint < 0 ? allDims.length : allDims.length-1;
+		if (n < 2 || n > 3)
+			throw new IOException(container+"/"+dataset+": only 2D and 3D labels are supported");
+
+		//image size, and the number of blocks along every (spatial) axis
+		final long[] dims = new long[n];
+		final long[] noOfBlocks = new long[n];
+		long noOfPixels = 1, noOfAllBlocks = 1;
+		for (int d = 0; d < n; ++d)
+		{
+			dims[d] = allDims[d];
+			noOfBlocks[d] = (dims[d] + blockSize[d] - 1) / blockSize[d];
+			noOfPixels *= dims[d];
+			noOfAllBlocks *= noOfBlocks[d];
+		}
+		if (noOfPixels > Integer.MAX_VALUE)
+			throw new IOException(container+"/"+dataset+": image is too large for one array");
+		final short[] pixels = new short[(int)noOfPixels];
+
+		//one task per block
+		final List<Future<?>> tasks = new ArrayList<>();
+		for (long b = 0; b < noOfAllBlocks; ++b)
+		{
+			final long[] gridPos = new long[allDims.length];
+			long rest = b;
+			for (int d = 0; d < n; ++d)
+			{
+				gridPos[d] = rest % noOfBlocks[d];
+				rest /= noOfBlocks[d];
+			}
+			if (timepoint >= 0) gridPos[n] = timepoint / blockSize[n];
+			tasks.add( workers.submit(() -> {
+				copyBlock(n5.readBlock(dataset, attrs, gridPos), gridPos, blockSize,
+						timepoint >= 0 ? timepoint % blockSize[n] : 0, pixels, dims);
+				return null;
+			}) );
+		}
+
+		for (Future<?> t : tasks)
+		{
+			try { t.get(); }
+			catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IOException(container+"/"+dataset+": interrupted");
+			}
+			catch (ExecutionException e) {
+				throw new IOException(container+"/"+dataset+": "+e.getCause().getMessage(), e.getCause());
+			}
+		}
+		return ArrayImgs.unsignedShorts(pixels, dims);
+	}
+
+	/** copies the (spatial part of the) block into the image, missing block is skipped */
+	static void copyBlock(final DataBlock<?> block, final long[] gridPos, final int[] blockSize,
+	                      final int timeInBlock, final short[] pixels, final long[] dims)
+	throws IOException
+	{
+		if (block == null) return;
+		final int[] size = block.getSize();
+		final Object data = block.getData();
+
+		final int sx = size[0];
+		final int sy = size[1];
+		final int sz = dims.length > 2 ? size[2] : 1;
+		final int x0 = (int)(gridPos[0] * blockSize[0]);
+		final int y0 = (int)(gridPos[1] * blockSize[1]);
+		final int z0 = dims.length > 2 ? (int)(gridPos[2] * blockSize[2]) : 0;
+		final int w = (int)dims[0];
+		final int h = (int)dims[1];
+		final int d = dims.length > 2 ? (int)dims[2] : 1;
+		final int cols = Math.min(sx, w - x0);
+		final int rows = Math.min(sy, h - y0);
+		final int slices = Math.min(sz, d - z0);
+		final int tOffset = timeInBlock * sx * sy * sz;
+
+		for (int z = 0; z < slices; ++z)
+			for (int y = 0; y < rows; ++y)
+			{
+				final int src = tOffset + (z*sy + y)*sx;
+				final int dst = ((z0+z)*h + y0+y)*w + x0;
+				if (data instanceof short[])
+					System.arraycopy((short[])data, src, pixels, dst, cols);
+				else if (data instanceof byte[])
+				{
+					final byte[] in = (byte[])data;
+					for (int x = 0; x < cols; ++x) pixels[dst+x] = (short)(in[src+x] & 0xff);
+				}
+				else if (data instanceof int[])
+				{
+					final int[] in = (int[])data;
+					for (int x = 0; x < cols; ++x) pixels[dst+x] = toLabel(in[src+x]);
+				}
+				else if (data instanceof long[])
+				{
+					final long[] in = (long[])data;
+					for (int x = 0; x < cols; ++x) pixels[dst+x] = toLabel(in[src+x]);
+				}
+				else throw new IOException("labels must be stored as integers");
+			}
+	}
+
+	private static short toLabel(final long label)
+	throws IOException
+	{
+		if (label < 0 || label > 65535)
+			throw new IOException("label "+label+" does not fit into 16 bits");
+		return (short)label;
+	}
+}
@@ -0,0 +1,146 @@
+/*-
+ * #%L
+ * CTC-Fiji-plugins
+ * %%
+ * Copyright (C) 2017 - 2023 Vladimír Ulman
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package net.celltrackingchallenge.fiji.plugins.io;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Memory-maps a file created with ColumnarTableWriter and provides
+ * the columns as views on the mapped memory (no parsing, no copying).
+ * Every column is mapped on its own, so the file can be much larger than
+ * 2 GB as long as no single column is.
+ */
+public class ColumnarTableReader
+{
+	public ColumnarTableReader(final Path inFile)
+	throws IOException
+	{
+		//NB: the mappings remain valid even after the channel is closed
+		try (FileChannel ch = FileChannel.open(inFile, StandardOpenOption.READ))
+		{
+			if (ch.size() < ColumnarTableWriter.HEADER_SIZE)
+				throw new IOException("Not a CTC columnar table: "+inFile);
+			final MappedByteBuffer header = ch.map(FileChannel.MapMode.READ_ONLY, 0, ColumnarTableWriter.HEADER_SIZE);
+			header.order(ByteOrder.LITTLE_ENDIAN);
+
+			final byte[] magic = new byte[ColumnarTableWriter.MAGIC.length];
+			header.get(magic);
+			if (!Arrays.equals(magic, ColumnarTableWriter.MAGIC))
+				throw new IOException("Not a CTC columnar table: "+inFile);
+
+			final int C = header.getInt(8);
+			noOfRows = header.getLong(16);
+
+			final MappedByteBuffer descriptors = ch.map(FileChannel.MapMode.READ_ONLY,
+					ColumnarTableWriter.HEADER_SIZE, (long)C*ColumnarTableWriter.DESCRIPTOR_SIZE);
+			descriptors.order(ByteOrder.LITTLE_ENDIAN);
+
+			names   = new String[C];
+			types   = new byte[C];
+			columns = new MappedByteBuffer[C];
+			for (int c = 0; c < C; ++c)
+			{
+				final int descPos = c*ColumnarTableWriter.DESCRIPTOR_SIZE;
+				final byte[] name = new byte[ColumnarTableWriter.NAME_SIZE];
+				descriptors.position(descPos);
+				descriptors.get(name);
+				int len = 0;
+				while (len < name.length && name[len] != 0) ++len;
+				names[c] = new String(name,0,len, StandardCharsets.UTF_8);
+				types[c] = descriptors.get(descPos + ColumnarTableWriter.NAME_SIZE);
+				final long offset = descriptors.getLong(descPos + ColumnarTableWriter.NAME_SIZE + 8);
+
+				final long columnSize = noOfRows * ColumnarTableWriter.typeSize(types[c]);
+				if (columnSize > Integer.MAX_VALUE)
+					throw new IOException("Column "+names[c]+" is too large to map into one buffer: "+columnSize+" bytes");
+				if (offset + columnSize > ch.size())
+					throw new IOException("Column "+names[c]+" is truncated in: "+inFile);
+				columns[c] = ch.map(FileChannel.MapMode.READ_ONLY, offset, columnSize);
+			}
+		}
+	}
+
+	private final long noOfRows;
+	private final String[] names;
+	private final byte[] types;
+	private final MappedByteBuffer[] columns;
+
+	public long getNoOfRows()
+	{ return noOfRows; }
+
+	public int getNoOfColumns()
+	{ return names.length; }
+
+	public String getColumnName(final int column)
+	{ return names[column]; }
+
+	/** returns one of ColumnarTableWriter.TYPE_* codes */
+	public byte getColumnType(final int column)
+	{ return types[column]; }
+
+	public int findColumn(final String name)
+	{
+		for (int c = 0; c < names.length; ++c)
+			if (names[c].equals(name)) return c;
+		return -1;
+	}
+
+	public IntBuffer getIntColumn(final int column)
+	{ return columnBytes(column, ColumnarTableWriter.TYPE_INT).asIntBuffer(); }
+
+	public LongBuffer getLongColumn(final int column)
+	{ return columnBytes(column, ColumnarTableWriter.TYPE_LONG).asLongBuffer(); }
+
+	public FloatBuffer getFloatColumn(final int column)
+	{ return columnBytes(column, ColumnarTableWriter.TYPE_FLOAT).asFloatBuffer(); }
+
+	public DoubleBuffer getDoubleColumn(final int column)
+	{ return columnBytes(column, ColumnarTableWriter.TYPE_DOUBLE).asDoubleBuffer(); }
+
+	private ByteBuffer columnBytes(final int column, final byte expectedType)
+	{
+		if (types[column] != expectedType)
+			throw new IllegalArgumentException("Column "+names[column]+" is of type '"
+					+(char)types[column]+"', not '"+(char)expectedType+"'");
+
+		return columns[column].duplicate().order(ByteOrder.LITTLE_ENDIAN);
+	}
+}
@@ -0,0 +1,185 @@
+/*-
+ * #%L
+ * CTC-Fiji-plugins
+ * %%
+ * Copyright (C) 2017 - 2023 Vladimír Ulman
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package net.celltrackingchallenge.fiji.plugins.io;
+
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Writes a table of "plain holder" rows (e.g. ImgQualityDataCache.MeasuresTableRow)
+ * into a columnar binary file: a small header followed by one primitive array per
+ * column. The file is meant to be memory-mapped by the consumers, see ColumnarTableReader.
+ *
+ * Every public, non-static field of a primitive numeric type becomes one column,
+ * in the order of their declaration in the row class. Other fields are skipped.
+ *
+ * File layout, all little-endian:
+ * <pre>
+ *  0: 8 bytes magic "CTCCOLS1"
+ *  8: int    number of columns C
+ * 12: int    reserved (zero)
+ * 16: long   number of rows N
+ * 24: C times a column descriptor of DESCRIPTOR_SIZE bytes:
+ *       NAME_SIZE bytes of UTF-8 name (zero padded), 1 byte type ('I','J','F','D'),
+ *       7 bytes padding, long absolute offset of the column data
+ *  ...: column data, every column starts at 8-bytes aligned offset
+ * </pre>
+ */
+public class ColumnarTableWriter
+{
+	public static final byte[] MAGIC = "CTCCOLS1".getBytes(StandardCharsets.US_ASCII);
+	public static final int NAME_SIZE = 40;
+	public static final int DESCRIPTOR_SIZE = NAME_SIZE + 16;
+	public static final int HEADER_SIZE = 24;
+
+	public static final byte TYPE_INT    = 'I';
+	public static final byte TYPE_LONG   = 'J';
+	public static final byte TYPE_FLOAT  = 'F';
+	public static final byte TYPE_DOUBLE = 'D';
+
+	/** size of the intermediate buffer used when streaming the columns out */
+	private static final int CHUNK_SIZE = 1 << 16;
+
+	public static <T> void write(final Path outFile, final List<T> rows, final Class<T> rowClass)
+	throws IOException
+	{
+		final List<Field> columns = new ArrayList<>();
+		for (Field f : rowClass.getDeclaredFields())
+		{
+			final int mods = f.getModifiers();
+			if (!Modifier.isPublic(mods) || Modifier.isStatic(mods)) continue;
+			if (typeCode(f.getType()) == 0) continue;
+			columns.add(f);
+		}
+		if (columns.size() == 0)
+			throw new IllegalArgumentException("No numeric public field found in "+rowClass.getSimpleName());
+
+		final long N = rows.size();
+
+		//header with the column descriptors, and the offsets of the columns
+		final ByteBuffer header = ByteBuffer.allocate(align8(HEADER_SIZE + columns.size()*DESCRIPTOR_SIZE))
+				.order(ByteOrder.LITTLE_ENDIAN);
+		header.put(MAGIC);
+		header.putInt(columns.size());
+		header.putInt(0);
+		header.putLong(N);
+
+		long offset = header.capacity();
+		for (Field f : columns)
+		{
+			final byte[] name = f.getName().getBytes(StandardCharsets.UTF_8);
+			final byte[] paddedName = new byte[NAME_SIZE];
+			System.arraycopy(name,0, paddedName,0, Math.min(name.length,NAME_SIZE));
+			header.put(paddedName);
+			header.put(typeCode(f.getType()));
+			header.put(new byte[7]);
+			header.putLong(offset);
+			offset += align8(N * typeSize(typeCode(f.getType())));
+		}
+		header.rewind();
+
+		try (FileChannel ch = FileChannel.open(outFile,
+				StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING))
+		{
+			writeFully(ch,header);
+
+			final ByteBuffer buf = ByteBuffer.allocate(CHUNK_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+			long flushedBytes = 0;
+			for (Field f : columns)
+			{
+				final byte type = typeCode(f.getType());
+				for (T row : rows)
+				{
+					if (buf.remaining() < 8)
+					{
+						flushedBytes += buf.position();
+						buf.flip();
+						writeFully(ch,buf);
+						buf.clear();
+					}
+					try {
+						switch (type)
+						{
+						case TYPE_INT:    buf.putInt( ((Number)f.get(row)).intValue() ); break;
+						case TYPE_LONG:   buf.putLong( ((Number)f.get(row)).longValue() ); break;
+						case TYPE_FLOAT:  buf.putFloat( ((Number)f.get(row)).floatValue() ); break;
+						default:          buf.putDouble( ((Number)f.get(row)).doubleValue() );
+						}
+					}
+					catch (IllegalAccessException e) {
+						throw new IOException("Cannot read column "+f.getName()+": "+e.getMessage());
+					}
+				}
+				//pad to keep the next column aligned
+				while (((flushedBytes + buf.position()) & 7) != 0) buf.put((byte)0);
+			}
+			buf.flip();
+			writeFully(ch,buf);
+		}
+	}
+
+	static byte typeCode(final Class<?> c)
+	{
+		if (c == int.class || c == short.class || c == byte.class) return TYPE_INT;
+		if (c == long.class)   return TYPE_LONG;
+		if (c == float.class)  return TYPE_FLOAT;
+		if (c == double.class) return TYPE_DOUBLE;
+		return 0;
+	}
+
+	static int typeSize(final byte typeCode)
+	{
+		return (typeCode == TYPE_INT || typeCode == TYPE_FLOAT) ? 4 : 8;
+	}
+
+	static int align8(final int v)
+	{
+		return (v + 7) & ~7;
+	}
+
+	static long align8(final long v)
+	{
+		return (v + 7) & ~7L;
+	}
+
+	private static void writeFully(final FileChannel ch, final ByteBuffer buf)
+	throws IOException
+	{
+		while (buf.hasRemaining()) ch.write(buf);
+	}
+}
@@ -0,0 +1,167 @@
+/*-
+ * #%L
+ * CTC-Fiji-plugins
+ * %%
+ * Copyright (C) 2017 - 2023 Vladimír Ulman
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package net.celltrackingchallenge.fiji.plugins.io;
+
+import net.celltrackingchallenge.fiji.plugins.util.ParallelLabelClassifier;
+import net.imglib2.Cursor;
+import net.imglib2.img.Img;
+import net.imglib2.img.array.ArrayImgs;
+import net.imglib2.type.numeric.integer.UnsignedShortType;
+import net.imglib2.view.Views;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+/**
+ * Label image stored run-length encoded (in the x-fastest order), which
+ * for the typical label images (mostly background, and compact objects)
+ * takes only a fraction of the memory of the decoded image. Images for
+ * which this does not pay off are stored as they are.
+ */
+public class CompactLabelFrame
+{
+	private final long[] dims;
+	private final int noOfPixels;
+
+	/** labels of the runs, or all pixels if runEnds is null */
+	private final short[] values;
+	/** index after the last pixel of every run */
+	private final int[] runEnds;
+
+	private CompactLabelFrame(final long[] dims, final int noOfPixels, final short[] values, final int[] runEnds)
+	{
+		this.dims = dims;
+		this.noOfPixels = noOfPixels;
+		this.values = values;
+		this.runEnds = runEnds;
+	}
+
+	public static CompactLabelFrame of(final Img<UnsignedShortType> img)
+	{
+		final long[] dims = new long[img.numDimensions()];
+		img.dimensions(dims);
+		long size = 1;
+		for (long d : dims) size *= d;
+		final int noOfPixels = (int)size;
+
+		short[] pixels = ParallelLabelClassifier.shortArrayOf(img);
+		if (pixels == null)
+		{
+			pixels = new short[noOfPixels];
+			final Cursor<UnsignedShortType> c = Views.flatIterable(img).cursor();
+			for (int i = 0; i < noOfPixels; ++i) pixels[i] = (short)c.next().get();
+		}
+
+		//count the runs first
+		int noOfRuns = noOfPixels > 0 ? 1 : 0;
+		for (int i = 1; i < noOfPixels; ++i)
+			if (pixels[i] != pixels[i-1]) ++noOfRuns;
+
+		//run takes 6 bytes, pixel 2 bytes
+		if (3L*noOfRuns >= noOfPixels)
+			return new CompactLabelFrame(dims, noOfPixels, Arrays.copyOf(pixels, noOfPixels), null);
+
+		final short[] values = new short[noOfRuns];
+		final int[] runEnds = new int[noOfRuns];
+		int r = 0;
+		for (int i = 1; i < noOfPixels; ++i)
+			if (pixels[i] != pixels[i-1])
+			{
+				values[r] = pixels[i-1];
+				runEnds[r++] = i;
+			}
+		if (noOfPixels > 0)
+		{
+			values[r] = pixels[noOfPixels-1];
+			runEnds[r] = noOfPixels;
+		}
+		return new CompactLabelFrame(dims, noOfPixels, values, runEnds);
+	}
+
+	public Img<UnsignedShortType> toImg()
+	{
+		final short[] pixels;
+		if (runEnds == null) pixels = Arrays.copyOf(values, noOfPixels);
+		else
+		{
+			pixels = new short[noOfPixels];
+			int start = 0;
+			for (int r = 0; r < runEnds.length; ++r)
+			{
+				if (values[r] != 0) Arrays.fill(pixels, start, runEnds[r], values[r]);
+				start = runEnds[r];
+			}
+		}
+		return ArrayImgs.unsignedShorts(pixels, dims);
+	}
+
+	/** approximate memory occupied by this frame */
+	public long sizeInBytes()
+	{
+		return 64 + 2L*values.length + (runEnds != null ? 4L*runEnds.length : 0);
+	}
+
+	/** saves the frame as it is, in its compact form */
+	public void writeTo(final Path file)
+	throws IOException
+	{
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file))))
+		{
+			out.writeInt(dims.length);
+			for (long d : dims) out.writeLong(d);
+			out.writeInt(noOfPixels);
+			out.writeInt(values.length);
+			out.writeBoolean(runEnds != null);
+			for (short v : values) out.writeShort(v);
+			if (runEnds != null) for (int e : runEnds) out.writeInt(e);
+		}
+	}
+
+	public static CompactLabelFrame readFrom(final Path file)
+	throws IOException
+	{
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file))))
+		{
+			final long[] dims = new long[in.readInt()];
+			for (int i = 0; i < dims.length; ++i) dims[i] = in.readLong();
+			final int noOfPixels = in.readInt();
+			final short[] values = new short[in.readInt()];
+			final int[] runEnds = in.readBoolean() ? new int[values.length] : null;
+			for (int i = 0; i < values.length; ++i) values[i] = in.readShort();
+			if (runEnds != null) for (int i = 0; i < runEnds.length; ++i) runEnds[i] = in.readInt();
+			return new CompactLabelFrame(dims, noOfPixels, values, runEnds);
+		}
+	}
+}
@@ -0,0 +1,310 @@
+/*-
+ * #%L
+ * CTC-Fiji-plugins
+ * %%
+ * Copyright (C) 2017 - 2023 Vladimír Ulman
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package net.celltrackingchallenge.fiji.plugins.io;
+
+import net.celltrackingchallenge.fiji.plugins.util.HeapPressureMonitor;
+import net.imglib2.img.Img;
+import net.imglib2.type.numeric.integer.UnsignedShortType;
+import org.scijava.plugin.Plugin;
+import org.scijava.service.AbstractService;
+import org.scijava.service.Service;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The FrameCacheService that keeps the images in the CompactLabelFrame form
+ * in a least-recently-used order, within the set budget. The budget is zero
+ * by default, i.e. nothing is cached and no memory is taken from the Fiji
+ * session, until the caching is enabled with CTC_FrameCache (plugin_FrameCache)
+ * or with setBudget().
+ *
+ * When the HeapPressureMonitor reports low heap, all cached images are moved
+ * into temporary files (within the budget of four times the memory budget),
+ * and are loaded back to memory when requested and the heap has recovered.
+ */
+@Plugin(type = Service.class)
+public class DefaultFrameCacheService extends AbstractService
+implements FrameCacheService, HeapPressureMonitor.Listener
+{
+	private long budget = 0;
+	private long usedBytes = 0;
+	private long spilledBytes = 0;
+
+	/** the folder of the spilled images, created when first needed */
+	private Path spillFolder = null;
+
+	private static class Entry
+	{
+		final long modifiedTime, fileSize, sizeInBytes;
+		/** exactly one of these two is not null, guarded with the service */
+		CompactLabelFrame frame;
+		Path spillFile = null;
+
+		Entry(final long modifiedTime, final long fileSize, final CompactLabelFrame frame)
+		{
+			this.modifiedTime = modifiedTime;
+			this.fileSize = fileSize;
+			this.sizeInBytes = frame.sizeInBytes();
+			this.frame = frame;
+		}
+	}
+
+	/** in the access order, guarded with 'this' */
+	private final LinkedHashMap<Path,Entry> frames = new LinkedHashMap<>(256, 0.75f, true);
+
+	@Override
+	public void initialize()
+	{
+		HeapPressureMonitor.addListener(this);
+	}
+
+	@Override
+	public Img<UnsignedShortType> get(final Path file)
+	{
+		final Path key = file.toAbsolutePath();
+		final Entry e;
+		CompactLabelFrame frame;
+		final Path spillFile;
+		synchronized (this)
+		{
+			e = frames.get(key);
+			if (e == null) return null;
+			frame = e.frame;
+			spillFile = e.spillFile;
+		}
+
+		try {
+			final BasicFileAttributes attrs = Files.readAttributes(key, BasicFileAttributes.class);
+			if (attrs.lastModifiedTime().toMillis() == e.modifiedTime && attrs.size() == e.fileSize)
+			{
+				if (frame == null)
+				{
+					frame = CompactLabelFrame.readFrom(spillFile);
+					if (!HeapPressureMonitor.isHeapLow()) reload(key, e, frame);
+				}
+				return frame.toImg();
+			}
+		}
+		catch (IOException ex) {
+			//the file (or its spilled image) is gone, so is the entry below
+		}
+
+		synchronized (this)
+		{
+			if (frames.get(key) == e) remove(key);
+		}
+		return null;
+	}
+
+	private synchronized void reload(final Path key, final Entry e, final CompactLabelFrame frame)
+	{
+		if (frames.get(key) != e || e.frame != null || usedBytes + e.sizeInBytes > budget) return;
+		deleteSpillFile(e);
+		e.frame = frame;
+		usedBytes += e.sizeInBytes;
+	}
+
+	@Override
+	public void put(final Path file, final Img<UnsignedShortType> img)
+	{
+		synchronized (this)
+		{
+			if (budget <= 0) return;
+		}
+
+		final Path key = file.toAbsolutePath();
+		final BasicFileAttributes attrs;
+		try {
+			attrs = Files.readAttributes(key, BasicFileAttributes.class);
+		}
+		catch (IOException ex) {
+			return;
+		}
+
+		final CompactLabelFrame frame = CompactLabelFrame.of(img);
+		if (frame.sizeInBytes() > budget) return;
+
+		synchronized (this)
+		{
+			remove(key);
+			frames.put(key, new Entry(attrs.lastModifiedTime().toMillis(), attrs.size(), frame));
+			usedBytes += frame.sizeInBytes();
+			evictOverBudget();
+		}
+	}
+
+	private void remove(final Path key)
+	{
+		final Entry old = frames.remove(key);
+		if (old != null) forget(old);
+	}
+
+	/** updates the statistics (and deletes the spilled image) of the removed entry */
+	private void forget(final Entry e)
+	{
+		if (e.frame != null) usedBytes -= e.sizeInBytes;
+		else deleteSpillFile(e);
+	}
+
+	private void deleteSpillFile(final Entry e)
+	{
+		if (e.spillFile == null) return;
+		try {
+			Files.deleteIfExists(e.spillFile);
+		}
+		catch (IOException ex) {
+			//left for the OS to clean the temp folder
+		}
+		e.spillFile = null;
+		spilledBytes -= e.sizeInBytes;
+	}
+
+	private void evictOverBudget()
+	{
+		final Iterator<Map.Entry<Path,Entry>> it = frames.entrySet().iterator();
+		while ((usedBytes > budget || spilledBytes > 4*budget) && it.hasNext())
+		{
+			final Entry e = it.next().getValue();
+			//only the kind that is over its budget
+			if (e.frame != null ? usedBytes > budget : spilledBytes > 4*budget)
+			{
+				forget(e);
+				it.remove();
+			}
+		}
+	}
+
+	@Override
+	public void heapIsLow()
+	{
+		final List<Map.Entry<Path,Entry>> inMemory = new ArrayList<>();
+		synchronized (this)
+		{
+			for (Map.Entry<Path,Entry> e : frames.entrySet())
+				if (e.getValue().frame != null) inMemory.add(e);
+		}
+
+		for (Map.Entry<Path,Entry> me : inMemory)
+		{
+			final Entry e = me.getValue();
+			Path spillFile = null;
+			try {
+				spillFile = Files.createTempFile(getSpillFolder(), "frame", ".clf");
+				final CompactLabelFrame frame;
+				synchronized (this) { frame = e.frame; }
+				if (frame != null) frame.writeTo(spillFile);
+			}
+			catch (IOException ex) {
+				//cannot be spilled, it is better to forget it than to keep it
+				if (spillFile != null) spillFile.toFile().delete();
+				spillFile = null;
+			}
+
+			synchronized (this)
+			{
+				if (frames.get(me.getKey()) != e || e.frame == null)
+				{
+					//meanwhile replaced or removed
+					if (spillFile != null) spillFile.toFile().delete();
+					continue;
+				}
+				usedBytes -= e.sizeInBytes;
+				if (spillFile == null)
+				{
+					frames.remove(me.getKey());
+					continue;
+				}
+				e.frame = null;
+				e.spillFile = spillFile;
+				spilledBytes += e.sizeInBytes;
+			}
+		}
+
+		synchronized (this)
+		{
+			evictOverBudget();
+		}
+	}
+
+	private synchronized Path getSpillFolder()
+	throws IOException
+	{
+		if (spillFolder == null)
+		{
+			spillFolder = Files.createTempDirectory("ctc-frame-cache");
+			spillFolder.toFile().deleteOnExit();
+		}
+		return spillFolder;
+	}
+
+	@Override
+	public synchronized long getBudget()
+	{ return budget; }
+
+	@Override
+	public synchronized void setBudget(final long bytes)
+	{
+		budget = bytes;
+		evictOverBudget();
+	}
+
+	@Override
+	public synchronized long getUsedBytes()
+	{ return usedBytes; }
+
+	@Override
+	public synchronized long getSpilledBytes()
+	{ return spilledBytes; }
+
+	@Override
+	public synchronized void clear()
+	{
+		for (Entry e : frames.values()) forget(e);
+		frames.clear();
+	}
+
+	@Override
+	public void dispose()
+	{
+		HeapPressureMonitor.removeListener(this);
+		clear();
+		synchronized (this)
+		{
+			if (spillFolder != null) spillFolder.toFile().delete();
+		}
+	}
+}
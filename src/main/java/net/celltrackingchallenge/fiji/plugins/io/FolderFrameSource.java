@@ -0,0 +1,78 @@
+/*-
+ * #%L
+ * CTC-Fiji-plugins
+ * %%
+ * Copyright (C) 2017 - 2023 Vladimír Ulman
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package net.celltrackingchallenge.fiji.plugins.io;
+
+import net.imglib2.img.Img;
+import net.imglib2.type.numeric.integer.UnsignedShortType;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Label images stored in the CTC folder layout, one file per timepoint,
+ * e.g. RES/mask%03d.tif or TRA/man_track%03d.tif.
+ */
+public class FolderFrameSource implements FrameSource
+{
+	public interface FileReader
+	{
+		Img<UnsignedShortType> read(Path file) throws IOException;
+	}
+
+	public FolderFrameSource(final Path folder, final String filePrefix, final int noOfDigits,
+	                         final FileReader reader)
+	{
+		this.folder = folder;
+		this.fileNameFormat = filePrefix+"%0"+noOfDigits+"d.tif";
+		this.reader = reader;
+	}
+
+	private final Path folder;
+	private final String fileNameFormat;
+	private final FileReader reader;
+
+	public Path fileOf(final int timepoint)
+	{
+		return folder.resolve(String.format(fileNameFormat, timepoint));
+	}
+
+	@Override
+	public boolean hasFrame(final int timepoint)
+	{
+		return Files.isReadable(fileOf(timepoint));
+	}
+
+	@Override
+	public Img<UnsignedShortType> getFrame(final int timepoint)
+	throws IOException
+	{
+		return reader.read(fileOf(timepoint));
+	}
+}
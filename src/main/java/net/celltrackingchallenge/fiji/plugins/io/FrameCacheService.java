@@ -0,0 +1,63 @@
+/*-
+ * #%L
+ * CTC-Fiji-plugins
+ * %%
+ * Copyright (C) 2017 - 2023 Vladimír Ulman
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package net.celltrackingchallenge.fiji.plugins.io;
+
+import net.imglib2.img.Img;
+import net.imglib2.type.numeric.integer.UnsignedShortType;
+import org.scijava.service.SciJavaService;
+
+import java.nio.file.Path;
+
+/**
+ * Session-wide cache of label images, shared by all CTC plugins, so that
+ * consecutive evaluations over the same folders do not read the images again.
+ * Images are identified by their file path, its modification time and size,
+ * so a changed file is never served from the cache.
+ */
+public interface FrameCacheService extends SciJavaService
+{
+	/** returns a (private) copy of the cached image of this file, or null */
+	Img<UnsignedShortType> get(Path file);
+
+	/** stores the image of this file, possibly evicting the least recently used ones */
+	void put(Path file, Img<UnsignedShortType> img);
+
+	/** the maximal memory that the cached images may occupy */
+	long getBudget();
+
+	void setBudget(long bytes);
+
+	/** the memory currently occupied by the cached images */
+	long getUsedBytes();
+
+	/** the disk space occupied by the cached images moved out of memory when the heap was low */
+	long getSpilledBytes();
+
+	void clear();
+}
@@ -0,0 +1,322 @@
+/*-
+ * #%L
+ * CTC-Fiji-plugins
+ * %%
+ * Copyright (C) 2017 - 2023 Vladimír Ulman
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package net.celltrackingchallenge.fiji.plugins.io;
+
+import net.celltrackingchallenge.fiji.plugins.util.LabelOverlaps;
+import net.celltrackingchallenge.measures.TrackDataCache;
+import net.imglib2.IterableInterval;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.img.Img;
+import net.imglib2.img.array.ArrayImgs;
+import net.imglib2.type.numeric.integer.UnsignedShortType;
+import org.scijava.log.Logger;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * TrackDataCache that reads the label images through the FrameSources,
+ * that is, with the parallel TIFF reader (or from N5/Zarr containers),
+ * with prefetching of the next frames and optional in-memory caching,
+ * that parses the lineage files with the LineageStore, and that classifies
+ * the labels of every frame with the ParallelLabelClassifier. The classified
+ * frames can be checkpointed, so that an interrupted calculation is resumed
+ * without reading and classifying them again, see useCheckpoint().
+ *
+ * The measures (TRA, DET, and the BIO ones) use a given cache only if it
+ * is already calculated for the data in question, so call calculate() on
+ * this one first and then hand it over to the measure.
+ */
+public class FrameSourceTrackDataCache extends TrackDataCache
+{
+	public FrameSourceTrackDataCache(final Logger log, final FrameSources sources)
+	{
+		super(log);
+		this.log = log;
+		this.sources = sources;
+	}
+
+	private final Logger log;
+	private final FrameSources sources;
+
+	/** creates the cache and calculates it for the given GT and RES folders */
+	public static FrameSourceTrackDataCache calculateFor(final String gtPath, final String resPath,
+	                                                     final int noOfDigits, final boolean complainOnEmptyImages,
+	                                                     final Logger log, final FrameSources sources)
+	throws IOException
+	{
+		final FrameSourceTrackDataCache cache = new FrameSourceTrackDataCache(log, sources);
+		cache.noOfDigits = noOfDigits;
+		cache.shouldComplainOnEmptyImages = complainOnEmptyImages;
+		cache.calculate(gtPath, resPath);
+		return cache;
+	}
+
+	private Path checkpoint = null;
+	private int checkpointPeriod = 10;
+	private boolean doResume = false;
+	private String checkpointSettings = "";
+	/** the levels from the checkpoint, they are used instead of reading and classifying the frames */
+	private final List<TemporalLevel> restoredLevels = new ArrayList<>();
+
+	/**
+	 * Makes calculate() save the classified timepoints into the file after every
+	 * 'period' of them (and at the end), and, if 'doResume' is set and the file
+	 * exists for the same folders, to take the timepoints found in it instead of
+	 * reading and classifying them again. The lineages are always loaded anew.
+	 */
+	public void useCheckpoint(final Path file, final int period, final boolean doResume)
+	{
+		this.checkpoint = file;
+		this.checkpointPeriod = Math.max(1, period);
+		this.doResume = doResume;
+	}
+
+	@Override
+	public void calculate(final String gtPath, final String resPath)
+	throws IOException
+	{
+		restoredLevels.clear();
+		checkpointSettings = gtPath+" ; "+resPath+" ; "+noOfDigits;
+		if (doResume && CheckpointFiles.exists(checkpoint))
+		{
+			loadLevels(checkpoint, checkpointSettings, restoredLevels);
+			log.info("Resuming with "+restoredLevels.size()+" timepoints from: "+checkpoint);
+		}
+
+		super.calculate(gtPath, resPath);
+		if (checkpoint != null) saveCheckpoint();
+		restoredLevels.clear();
+	}
+
+	private void saveCheckpoint()
+	throws IOException
+	{
+		CheckpointFiles.writeAtomically(checkpoint, f -> saveLevels(f, checkpointSettings, levels));
+		log.info("Checkpoint saved: "+levels.size()+" timepoints");
+	}
+
+	static final long LEVELS_MAGIC = 0x4354434c564c5331L; //"CTCLVLS1"
+
+	/** saves the levels, the settings is any string that must match when loading them */
+	static void saveLevels(final Path file, final String settings, final List<TemporalLevel> levels)
+	throws IOException
+	{
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file))))
+		{
+			out.writeLong(LEVELS_MAGIC);
+			out.writeUTF(settings);
+			out.writeInt(levels.size());
+			for (TemporalLevel level : levels)
+			{
+				out.writeInt(level.level);
+				writeInts(out, level.m_gt_lab);
+				writeInts(out, level.m_res_lab);
+				writeInts(out, level.m_gt_match);
+				for (HashSet<Integer> match : level.m_res_match)
+				{
+					out.writeInt(match.size());
+					for (int i : match) out.writeInt(i);
+				}
+			}
+		}
+	}
+
+	/** adds the saved levels, provided they were saved with the same settings */
+	void loadLevels(final Path file, final String settings, final List<TemporalLevel> levels)
+	throws IOException
+	{
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file))))
+		{
+			if (in.readLong() != LEVELS_MAGIC)
+				throw new IOException(file+" is not a checkpoint of classified timepoints.");
+			final String saved = in.readUTF();
+			if (!saved.equals(settings))
+				throw new IllegalArgumentException("The checkpoint was created for other data: "+saved);
+
+			final int noOfLevels = in.readInt();
+			for (int n = 0; n < noOfLevels; ++n)
+			{
+				final TemporalLevel level = new TemporalLevel(in.readInt());
+				level.m_gt_lab = readInts(in);
+				level.m_res_lab = readInts(in);
+				level.m_gt_match = readInts(in);
+				@SuppressWarnings("unchecked")
+				final HashSet<Integer>[] resMatch = new HashSet[level.m_res_lab.length];
+				for (int j = 0; j < resMatch.length; ++j)
+				{
+					final int size = in.readInt();
+					resMatch[j] = new HashSet<>();
+					for (int i = 0; i < size; ++i) resMatch[j].add(in.readInt());
+				}
+				level.m_res_match = resMatch;
+				levels.add(level);
+			}
+		}
+	}
+
+	private static void writeInts(final DataOutputStream out, final int[] values)
+	throws IOException
+	{
+		out.writeInt(values.length);
+		for (int v : values) out.writeInt(v);
+	}
+
+	private static int[] readInts(final DataInputStream in)
+	throws IOException
+	{
+		final int[] values = new int[in.readInt()];
+		for (int i = 0; i < values.length; ++i) values[i] = in.readInt();
+		return values;
+	}
+
+
+	private LineageStore gtLineage = null, resLineage = null;
+
+	/** the GT lineage, available after calculate() */
+	public LineageStore getGtLineage()
+	{ return gtLineage; }
+
+	/** the RES lineage, available after calculate() */
+	public LineageStore getResLineage()
+	{ return resLineage; }
+
+	/**
+	 * Parses the file with the (zero-copy) LineageStore parser and fills the
+	 * tracks from it. The measures of CTC-measures keep on querying the lineages
+	 * through the given map, which is how they store them; the code of these
+	 * plugins uses the LineageStore itself, see getGtLineage() and getResLineage().
+	 */
+	@Override
+	public void LoadTrackFile(final String fname, final Map<Integer,Track> track_list)
+	throws IOException
+	{
+		final LineageStore lineage = LineageStore.load(Paths.get(fname));
+		if (track_list == gt_tracks) gtLineage = lineage;
+		else if (track_list == res_tracks) resLineage = lineage;
+		for (int i = 0; i < lineage.size(); ++i)
+			track_list.put(lineage.id(i), new Track(lineage.id(i), lineage.begin(i), lineage.end(i), lineage.parent(i)));
+	}
+
+	/**
+	 * Collects the labels and their overlaps with the ParallelLabelClassifier
+	 * (with the decoding threads of the FrameSources), and fills them into
+	 * the next TemporalLevel exactly as TrackDataCache does it: a GT label is
+	 * matched by the RES label that covers more than half of it.
+	 */
+	@Override
+	public void ClassifyLabels(final IterableInterval<UnsignedShortType> gt_img,
+	                           final RandomAccessibleInterval<UnsignedShortType> res_img,
+	                           final boolean complainOnEmptyImages)
+	{
+		if (levels.size() < restoredLevels.size())
+		{
+			levels.add(restoredLevels.get(levels.size()));
+			return;
+		}
+		classifyLabels(gt_img, res_img, complainOnEmptyImages);
+
+		if (checkpoint != null && levels.size() % checkpointPeriod == 0)
+		{
+			try {
+				saveCheckpoint();
+			}
+			catch (IOException e) {
+				log.error("Checkpoint error: "+e.getMessage());
+			}
+		}
+	}
+
+	private void classifyLabels(final IterableInterval<UnsignedShortType> gt_img,
+	                            final RandomAccessibleInterval<UnsignedShortType> res_img,
+	                            final boolean complainOnEmptyImages)
+	{
+		if (!(gt_img instanceof RandomAccessibleInterval))
+		{
+			super.ClassifyLabels(gt_img, res_img, complainOnEmptyImages);
+			return;
+		}
+
+		@SuppressWarnings("unchecked")
+		final LabelOverlaps o = sources.getClassifier()
+				.classify((RandomAccessibleInterval<UnsignedShortType>)gt_img, res_img);
+
+		final TemporalLevel level = new TemporalLevel(levels.size());
+		if (complainOnEmptyImages)
+		{
+			if (o.gtLabels.length == 0)
+				throw new IllegalArgumentException("GT image at time "+level.level+" is empty!");
+			if (o.resLabels.length == 0)
+				throw new IllegalArgumentException("RES image at time "+level.level+" is empty!");
+		}
+
+		level.m_gt_lab = o.gtLabels.clone();
+		level.m_res_lab = o.resLabels.clone();
+		level.m_gt_match = new int[o.gtLabels.length];
+		@SuppressWarnings("unchecked")
+		final HashSet<Integer>[] resMatch = new HashSet[o.resLabels.length];
+		for (int j = 0; j < resMatch.length; ++j) resMatch[j] = new HashSet<>();
+		level.m_res_match = resMatch;
+
+		for (int i = 0; i < o.gtLabels.length; ++i)
+		{
+			final int resLabel = o.matchOfGt(o.gtLabels[i]);
+			level.m_gt_match[i] = resLabel > 0 ? o.resIndexOf(resLabel) : -1;
+			if (resLabel > 0) resMatch[ level.m_gt_match[i] ].add(i);
+		}
+		levels.add(level);
+	}
+
+	/**
+	 * Reads the image, or returns a placeholder if the timepoint it is read
+	 * for (which is always the next one to be classified) is restored from
+	 * the checkpoint.
+	 */
+	@Override
+	public Img<UnsignedShortType> ReadImageG16(final String fname)
+	{
+		if (levels.size() < restoredLevels.size()) return ArrayImgs.unsignedShorts(1);
+		try {
+			return sources.read(fname, noOfDigits);
+		}
+		catch (IOException e) {
+			throw new IllegalArgumentException(e.getMessage(), e);
+		}
+	}
+}
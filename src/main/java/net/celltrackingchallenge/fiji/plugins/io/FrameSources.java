@@ -0,0 +1,235 @@
+/*-
+ * #%L
+ * CTC-Fiji-plugins
+ * %%
+ * Copyright (C) 2017 - 2023 Vladimír Ulman
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package net.celltrackingchallenge.fiji.plugins.io;
+
+import net.celltrackingchallenge.fiji.plugins.util.HeapPressureMonitor;
+import net.celltrackingchallenge.fiji.plugins.util.ParallelLabelClassifier;
+import net.celltrackingchallenge.measures.TrackDataCache;
+import net.imglib2.img.Img;
+import net.imglib2.type.numeric.integer.UnsignedShortType;
+import org.scijava.log.Logger;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Provides the FrameSources for the folders of one evaluation, all sharing
+ * the same TIFF decoding threads and the same I/O (prefetching) threads.
+ *
+ * A source is created for every folder and file name prefix: it is the
+ * ChunkedFrameSource if the folder is an N5/Zarr container, or the
+ * FolderFrameSource otherwise, optionally wrapped with the prefetching
+ * and then with the in-memory caching of the recent frames. These two
+ * release their frames when the HeapPressureMonitor reports low heap.
+ */
+public class FrameSources implements AutoCloseable
+{
+	public FrameSources(final Logger log, final int noOfDecodingThreads,
+	                    final int noOfIoThreads, final int readAhead, final int noOfCachedFrames)
+	{
+		this.log = log;
+		this.reader = new TiffLabelReader(noOfDecodingThreads);
+		this.classifier = new ParallelLabelClassifier(reader.getWorkers(), noOfDecodingThreads);
+		this.ioThreads = readAhead > 0 ? Executors.newFixedThreadPool(noOfIoThreads, r -> {
+			final Thread t = new Thread(r, "CTC frame prefetching");
+			t.setDaemon(true);
+			return t;
+		}) : null;
+		this.readAhead = readAhead;
+		this.noOfCachedFrames = noOfCachedFrames;
+	}
+
+	/** reading with all cores and a little read-ahead, no caching */
+	public FrameSources(final Logger log, final int noOfIoThreads, final int readAhead)
+	{
+		this(log, Runtime.getRuntime().availableProcessors(), noOfIoThreads, readAhead, 0);
+	}
+
+	private final Logger log;
+	private final TiffLabelReader reader;
+	private final ParallelLabelClassifier classifier;
+	private final ExecutorService ioThreads;
+	private final int readAhead;
+	private final int noOfCachedFrames;
+
+	private final Map<String,FrameSource> sources = new HashMap<>();
+
+	/** the sources (per key of 'sources') that release their frames when the heap is low, guarded with 'sources' */
+	private final Map<String,List<HeapPressureMonitor.Listener>> releasingSources = new HashMap<>();
+
+	/** the session-wide cache to look into first, if any */
+	private FrameCacheService frameCache = null;
+
+	public void useFrameCache(final FrameCacheService frameCache)
+	{ this.frameCache = frameCache; }
+
+	/** the classifier of the frames that works with the decoding threads */
+	public ParallelLabelClassifier getClassifier()
+	{ return classifier; }
+
+	/** the parallel TIFF reader, e.g. for reading only some slices of a file */
+	public TiffLabelReader getReader()
+	{ return reader; }
+
+	@Override
+	public void close()
+	{
+		synchronized (sources)
+		{
+			for (List<HeapPressureMonitor.Listener> ls : releasingSources.values())
+				for (HeapPressureMonitor.Listener l : ls) HeapPressureMonitor.removeListener(l);
+			releasingSources.clear();
+		}
+		reader.close();
+		if (ioThreads != null) ioThreads.shutdownNow();
+	}
+
+
+	/** returns the source of the files 'filePrefix%0Nd.tif' in the folder (or container) */
+	public FrameSource forFolder(final Path folder, final String filePrefix, final int noOfDigits)
+	{
+		synchronized (sources)
+		{
+			return sources.computeIfAbsent(folder+"/"+filePrefix+"/"+noOfDigits, k -> {
+				FrameSource s = ChunkedFrameSource.isContainer(folder)
+					? new ChunkedFrameSource(folder, filePrefix, noOfDigits, reader.getWorkers())
+					: new FolderFrameSource(folder, filePrefix, noOfDigits, this::readFile);
+				if (readAhead > 0) s = releasingWhenHeapIsLow(k, new PrefetchingFrameSource(s, readAhead, ioThreads));
+				if (noOfCachedFrames > 0) s = releasingWhenHeapIsLow(k, new CachingFrameSource(s, noOfCachedFrames));
+				return s;
+			});
+		}
+	}
+
+	private <S extends FrameSource & HeapPressureMonitor.Listener> S releasingWhenHeapIsLow(final String key, final S source)
+	{
+		HeapPressureMonitor.addListener(source);
+		releasingSources.computeIfAbsent(key, k -> new ArrayList<>()).add(source);
+		return source;
+	}
+
+	/** drops the sources of the folder (or container) together with their read-ahead and cached frames,
+	    so that a long-lived FrameSources does not keep every folder it has ever read */
+	public void forget(final Path folder)
+	{
+		final String keyPrefix = folder+"/";
+		synchronized (sources)
+		{
+			sources.keySet().removeIf(k -> k.startsWith(keyPrefix) && k.indexOf('/',keyPrefix.length()) == k.lastIndexOf('/'));
+			final Iterator<Map.Entry<String,List<HeapPressureMonitor.Listener>>> it = releasingSources.entrySet().iterator();
+			while (it.hasNext())
+			{
+				final Map.Entry<String,List<HeapPressureMonitor.Listener>> e = it.next();
+				if (sources.containsKey(e.getKey())) continue;
+				for (HeapPressureMonitor.Listener l : e.getValue())
+				{
+					HeapPressureMonitor.removeListener(l);
+					//cancels the frames still being read ahead
+					if (l instanceof PrefetchingFrameSource) l.heapIsLow();
+				}
+				it.remove();
+			}
+		}
+	}
+
+	/** the frames of the CTC folders: RES/maskT.tif, TRA/man_trackT.tif, SEG/man_segT.tif and the raw tT.tif,
+	    but not e.g. SEG/man_seg_T_Z.tif as that is a single slice and not a frame of a series */
+	static final Pattern FRAME_FILE = Pattern.compile("(mask|man_track|man_seg|t)(\\d+)\\.tif");
+
+	/** returns the source of the frames named as the given file, e.g. 'mask000.tif' */
+	public FrameSource forFramesLike(final Path file)
+	{
+		final Matcher m = FRAME_FILE.matcher(file.getFileName().toString());
+		if (file.getParent() == null || !m.matches())
+			throw new IllegalArgumentException(file+" is not named as a frame of a video");
+		return forFolder(file.getParent(), m.group(1), m.group(2).length());
+	}
+
+	/** reads the file, via the source of its folder if it is named as a frame */
+	public Img<UnsignedShortType> read(final String fname)
+	throws IOException
+	{
+		return read(fname, -1);
+	}
+
+	/**
+	 * reads the file, via the source of its folder if it is named as a frame
+	 * with exactly 'noOfDigits' digits (any number of them if negative),
+	 * other files are read on their own
+	 */
+	public Img<UnsignedShortType> read(final String fname, final int noOfDigits)
+	throws IOException
+	{
+		final Path file = Paths.get(fname);
+		final Path folder = file.getParent();
+		final Matcher m = FRAME_FILE.matcher(file.getFileName().toString());
+		if (folder != null && m.matches() && (noOfDigits < 0 || m.group(2).length() == noOfDigits))
+			return forFolder(folder, m.group(1), m.group(2).length()).getFrame(Integer.parseInt(m.group(2)));
+		return readFile(file);
+	}
+
+	/** reads the file from the session-wide cache, or with the parallel reader, or with the general one */
+	public Img<UnsignedShortType> readFile(final Path file)
+	throws IOException
+	{
+		if (frameCache != null)
+		{
+			final Img<UnsignedShortType> img = frameCache.get(file);
+			if (img != null) return img;
+		}
+
+		final Img<UnsignedShortType> img = readFileFromDisk(file);
+		if (frameCache != null) frameCache.put(file, img);
+		return img;
+	}
+
+	private Img<UnsignedShortType> readFileFromDisk(final Path file)
+	{
+		try {
+			return reader.read(file);
+		}
+		catch (TiffLabelReader.UnsupportedTiffException e) {
+			log.debug("Reading with the general reader, "+e.getMessage());
+		}
+		catch (IOException e) {
+			log.warn("Reading with the general reader, "+file+": "+e.getMessage());
+		}
+		return new TrackDataCache(log).ReadImageG16(file.toString());
+	}
+}
@@ -0,0 +1,276 @@
+/*-
+ * #%L
+ * CTC-Fiji-plugins
+ * %%
+ * Copyright (C) 2017 - 2023 Vladimír Ulman
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package net.celltrackingchallenge.fiji.plugins.io;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Compact, primitive-array-backed representation of the CTC lineage files
+ * (man_track.txt, res_track.txt), where every line is "id begin end parent".
+ *
+ * Tracks are stored sorted by their ids, the i-th track is described with
+ * id(i), begin(i), end(i) and parent(i), which is the parent's id or 0.
+ * Daughters of the i-th track are stored in the CSR fashion: they are the
+ * tracks children[childrenStart[i]] ... children[childrenStart[i+1]-1].
+ */
+public class LineageStore
+{
+	private final int[] ids;
+	private final int[] begins;
+	private final int[] ends;
+	private final int[] parents;
+	private final int[] parentIdxs;
+
+	private final int[] childrenStart;
+	private final int[] children;
+
+	/** direct id-to-index table, used only when the ids are not too sparse */
+	private final int[] idToIdx;
+
+	private LineageStore(final int[] ids, final int[] begins, final int[] ends, final int[] parents)
+	{
+		this.ids = ids;
+		this.begins = begins;
+		this.ends = ends;
+		this.parents = parents;
+		final int N = ids.length;
+
+		final int maxId = N > 0 ? ids[N-1] : 0;
+		if (N > 0 && ids[0] >= 0 && maxId < 4*N + 1024)
+		{
+			idToIdx = new int[maxId+1];
+			Arrays.fill(idToIdx,-1);
+			for (int i = 0; i < N; ++i) idToIdx[ids[i]] = i;
+		}
+		else idToIdx = null;
+
+		//parents, and the number of daughters of every track
+		parentIdxs = new int[N];
+		childrenStart = new int[N+1];
+		for (int i = 0; i < N; ++i)
+		{
+			parentIdxs[i] = parents[i] > 0 ? indexOf(parents[i]) : -1;
+			if (parentIdxs[i] >= 0) ++childrenStart[parentIdxs[i]+1];
+		}
+		for (int i = 0; i < N; ++i) childrenStart[i+1] += childrenStart[i];
+
+		//daughters, they are listed in the increasing order of their ids
+		children = new int[childrenStart[N]];
+		final int[] fillPos = Arrays.copyOf(childrenStart, N);
+		for (int i = 0; i < N; ++i)
+			if (parentIdxs[i] >= 0) children[ fillPos[parentIdxs[i]]++ ] = i;
+	}
+
+
+	public int size()
+	{ return ids.length; }
+
+	/** returns index of the track with this id, or -1 if there is no such track */
+	public int indexOf(final int id)
+	{
+		if (idToIdx != null) return (id >= 0 && id < idToIdx.length) ? idToIdx[id] : -1;
+		final int i = Arrays.binarySearch(ids, id);
+		return i >= 0 ? i : -1;
+	}
+
+	public int id(final int idx)     { return ids[idx]; }
+	public int begin(final int idx)  { return begins[idx]; }
+	public int end(final int idx)    { return ends[idx]; }
+	/** returns the parent's id, or 0 if the track has no parent */
+	public int parent(final int idx) { return parents[idx]; }
+	/** returns the parent's index, or -1 if the track has no (known) parent */
+	public int parentIndex(final int idx) { return parentIdxs[idx]; }
+
+	public int noOfChildren(final int idx)
+	{ return childrenStart[idx+1] - childrenStart[idx]; }
+
+	/** returns the index of the k-th daughter of the idx-th track */
+	public int child(final int idx, final int k)
+	{ return children[childrenStart[idx]+k]; }
+
+
+	/** number of (track, timepoint) occurrences, that is, vertices in the AOGM graph */
+	public long noOfVertices()
+	{
+		long cnt = 0;
+		for (int i = 0; i < ids.length; ++i) cnt += ends[i] - begins[i] + 1;
+		return cnt;
+	}
+
+	/** number of vertices at timepoints from the given interval (inclusive) */
+	public long noOfVertices(final int fromTime, final int toTime)
+	{
+		long cnt = 0;
+		for (int i = 0; i < ids.length; ++i)
+		{
+			final int b = Math.max(begins[i], fromTime);
+			final int e = Math.min(ends[i], toTime);
+			if (b <= e) cnt += e - b + 1;
+		}
+		return cnt;
+	}
+
+	/** number of edges in the AOGM graph: within-track links plus parent-daughter links */
+	public long noOfEdges()
+	{
+		long cnt = 0;
+		for (int i = 0; i < ids.length; ++i)
+		{
+			cnt += ends[i] - begins[i];
+			if (parentIdxs[i] >= 0) ++cnt;
+		}
+		return cnt;
+	}
+
+	/** number of tracks that have at least two daughters */
+	public int noOfDivisions()
+	{
+		int cnt = 0;
+		for (int i = 0; i < ids.length; ++i)
+			if (noOfChildren(i) > 1) ++cnt;
+		return cnt;
+	}
+
+	public int firstTimepoint()
+	{
+		int t = Integer.MAX_VALUE;
+		for (int b : begins) t = Math.min(t,b);
+		return t;
+	}
+
+	public int lastTimepoint()
+	{
+		int t = Integer.MIN_VALUE;
+		for (int e : ends) t = Math.max(t,e);
+		return t;
+	}
+
+
+	/**
+	 * Parses the lineage file directly from its memory-mapped content,
+	 * without creating any intermediate String or boxed object.
+	 */
+	public static LineageStore load(final Path trackFile)
+	throws IOException
+	{
+		final MappedByteBuffer buf;
+		try (FileChannel ch = FileChannel.open(trackFile, StandardOpenOption.READ))
+		{
+			buf = ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size());
+		}
+
+		int capacity = 1024;
+		int[] ids = new int[capacity];
+		int[] begins = new int[capacity];
+		int[] ends = new int[capacity];
+		int[] parents = new int[capacity];
+		int N = 0;
+
+		final int[] line = new int[4];
+		int lineNo = 0;
+		final int len = buf.limit();
+		int pos = 0;
+		while (pos < len)
+		{
+			++lineNo;
+			int noOfValues = 0;
+
+			//parse one line
+			while (pos < len)
+			{
+				byte c = buf.get(pos);
+				if (c == '\n') { ++pos; break; }
+				if (c == ' ' || c == '\t' || c == '\r') { ++pos; continue; }
+
+				boolean negative = false;
+				if (c == '-') { negative = true; ++pos; }
+				int val = 0;
+				int digits = 0;
+				while (pos < len && (c = buf.get(pos)) >= '0' && c <= '9')
+				{
+					val = 10*val + (c - '0');
+					++digits;
+					++pos;
+				}
+				if (digits == 0 || noOfValues == 4)
+					throw new IOException(trackFile+":"+lineNo+": expected four integers per line");
+				line[noOfValues++] = negative ? -val : val;
+			}
+
+			if (noOfValues == 0) continue; //empty line
+			if (noOfValues != 4)
+				throw new IOException(trackFile+":"+lineNo+": expected four integers per line");
+
+			if (N == capacity)
+			{
+				capacity *= 2;
+				ids = Arrays.copyOf(ids, capacity);
+				begins = Arrays.copyOf(begins, capacity);
+				ends = Arrays.copyOf(ends, capacity);
+				parents = Arrays.copyOf(parents, capacity);
+			}
+			ids[N] = line[0];
+			begins[N] = line[1];
+			ends[N] = line[2];
+			parents[N] = line[3];
+			++N;
+		}
+
+		//make sure the tracks are sorted by their ids
+		boolean isSorted = true;
+		for (int i = 1; i < N && isSorted; ++i) isSorted = ids[i-1] < ids[i];
+		if (!isSorted)
+		{
+			final long[] keys = new long[N];
+			for (int i = 0; i < N; ++i) keys[i] = ((long)ids[i] << 32) | i;
+			Arrays.sort(keys);
+
+			final int[] sIds = new int[N], sBegins = new int[N], sEnds = new int[N], sParents = new int[N];
+			for (int i = 0; i < N; ++i)
+			{
+				final int o = (int)keys[i];
+				sIds[i] = ids[o];
+				sBegins[i] = begins[o];
+				sEnds[i] = ends[o];
+				sParents[i] = parents[o];
+				if (i > 0 && sIds[i] == sIds[i-1])
+					throw new IOException(trackFile+": track "+sIds[i]+" is defined more than once");
+			}
+			return new LineageStore(sIds, sBegins, sEnds, sParents);
+		}
+
+		return new LineageStore(Arrays.copyOf(ids,N), Arrays.copyOf(begins,N),
+				Arrays.copyOf(ends,N), Arrays.copyOf(parents,N));
+	}
+}
@@ -0,0 +1,66 @@
+/*-
+ * #%L
+ * CTC-Fiji-plugins
+ * %%
+ * Copyright (C) 2017 - 2023 Vladimír Ulman
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package net.celltrackingchallenge.fiji.plugins.io;
+
+import ij.IJ;
+import ij.ImagePlus;
+import ij.ImageStack;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Saves binary masks, e.g. BG/mask000.tif, as 8-bit TIFFs with
+ * the mask pixels set to 255.
+ */
+public class MaskTiffWriter
+{
+	/** saves the mask given as non-zero pixels, in which x runs the fastest */
+	public static void write(final Path file, final short[] mask, final long[] dims)
+	throws IOException
+	{
+		final int w = (int)dims[0];
+		final int h = (int)dims[1];
+		final int d = dims.length > 2 ? (int)dims[2] : 1;
+
+		final ImageStack stack = new ImageStack(w, h);
+		for (int z = 0; z < d; ++z)
+		{
+			final byte[] slice = new byte[w*h];
+			for (int i = 0; i < slice.length; ++i)
+				if (mask[z*slice.length + i] != 0) slice[i] = (byte)255;
+			stack.addSlice(null, slice);
+		}
+
+		if (file.getParent() != null) Files.createDirectories(file.getParent());
+		if (!IJ.saveAsTiff(new ImagePlus(file.getFileName().toString(), stack), file.toString()))
+			throw new IOException("Cannot save mask: "+file);
+	}
+}
@@ -0,0 +1,125 @@
+/*-
+ * #%L
+ * CTC-Fiji-plugins
+ * %%
+ * Copyright (C) 2017 - 2023 Vladimír Ulman
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package net.celltrackingchallenge.fiji.plugins.io;
+
+import net.celltrackingchallenge.fiji.plugins.util.HeapPressureMonitor;
+import net.imglib2.img.Img;
+import net.imglib2.type.numeric.integer.UnsignedShortType;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * Assumes the frames are requested in increasing order of timepoints, and
+ * whenever a frame is requested, the reading of the following 'readAhead'
+ * frames is started with the given I/O threads. The reading of the next
+ * frames thus overlaps with the processing of the current one.
+ *
+ * When the heap is low, the frames read ahead are dropped (and read again
+ * when requested), and no reading ahead is started until it recovers.
+ */
+public class PrefetchingFrameSource implements FrameSource, HeapPressureMonitor.Listener
+{
+	public PrefetchingFrameSource(final FrameSource source, final int readAhead, final ExecutorService ioThreads)
+	{
+		this.source = source;
+		this.readAhead = readAhead;
+		this.ioThreads = ioThreads;
+	}
+
+	private final FrameSource source;
+	private final int readAhead;
+	private final ExecutorService ioThreads;
+
+	/** the frames being read or already read, guarded with 'this' */
+	private final Map<Integer,Future<Img<UnsignedShortType>>> pending = new HashMap<>();
+
+	@Override
+	public boolean hasFrame(final int timepoint)
+	{
+		return source.hasFrame(timepoint);
+	}
+
+	@Override
+	public Img<UnsignedShortType> getFrame(final int timepoint)
+	throws IOException
+	{
+		final Future<Img<UnsignedShortType>> frame;
+		synchronized (this)
+		{
+			frame = pending.remove(timepoint);
+
+			//frames before this one will not be requested anymore
+			final Iterator<Map.Entry<Integer,Future<Img<UnsignedShortType>>>> it = pending.entrySet().iterator();
+			while (it.hasNext())
+			{
+				final Map.Entry<Integer,Future<Img<UnsignedShortType>>> e = it.next();
+				if (e.getKey() < timepoint)
+				{
+					e.getValue().cancel(false);
+					it.remove();
+				}
+			}
+
+			final int lastAhead = HeapPressureMonitor.isHeapLow() ? timepoint : timepoint+readAhead;
+			for (int t = timepoint+1; t <= lastAhead; ++t)
+			{
+				if (pending.containsKey(t) || !source.hasFrame(t)) continue;
+				final int time = t;
+				pending.put(t, ioThreads.submit(() -> source.getFrame(time)));
+			}
+		}
+
+		if (frame == null) return source.getFrame(timepoint);
+		try {
+			return frame.get();
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("interrupted while reading timepoint "+timepoint);
+		}
+		catch (ExecutionException e) {
+			if (e.getCause() instanceof IOException) throw (IOException)e.getCause();
+			if (e.getCause() instanceof RuntimeException) throw (RuntimeException)e.getCause();
+			throw new IOException(e.getCause());
+		}
+	}
+
+	@Override
+	public synchronized void heapIsLow()
+	{
+		for (Future<Img<UnsignedShortType>> f : pending.values()) f.cancel(false);
+		pending.clear();
+	}
+}
@@ -0,0 +1,86 @@
+/*-
+ * #%L
+ * CTC-Fiji-plugins
+ * %%
+ * Copyright (C) 2017 - 2023 Vladimír Ulman
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package net.celltrackingchallenge.fiji.plugins.io;
+
+import ij.IJ;
+import ij.ImagePlus;
+import ij.ImageStack;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+/**
+ * Reads the raw (microscopy) images, e.g. t000.tif, and provides their
+ * pixels in their native type (8-bit, 16-bit or 32-bit float), without
+ * any conversion or copying: the RawFrame holds the pixel arrays of the
+ * slices as ImageJ has read them.
+ */
+public class RawImageReader
+{
+	public RawFrame read(final Path file)
+	throws IOException
+	{
+		final ImagePlus imp = IJ.openImage(file.toString());
+		if (imp == null) throw new IOException("Cannot open raw image: "+file);
+
+		final ImageStack stack = imp.getStack();
+		if ((long)stack.getWidth() * stack.getHeight() * stack.getSize() > Integer.MAX_VALUE)
+			throw new IOException(file+": image is too large for one array");
+
+		final Object[] slices = new Object[stack.getSize()];
+		for (int z = 0; z < slices.length; ++z) slices[z] = stack.getPixels(z+1);
+
+		final Object first = slices[0];
+		if (!(first instanceof byte[] || first instanceof short[] || first instanceof float[]))
+			throw new IOException(file+": only 8-bit, 16-bit and 32-bit (float) grayscale raw images are supported");
+		return new RawFrame(stack.getWidth(), stack.getHeight(), slices);
+	}
+
+
+	/** pixels of one raw image, as an array of slices, each of the same primitive type */
+	public static class RawFrame
+	{
+		public RawFrame(final int width, final int height, final Object[] slices)
+		{
+			this.width = width;
+			this.height = height;
+			this.slices = slices;
+		}
+
+		public final int width, height;
+		/** all byte[] (unsigned), all short[] (unsigned), or all float[] */
+		public final Object[] slices;
+
+		public int depth()
+		{ return slices.length; }
+
+		public int noOfPixels()
+		{ return width * height * slices.length; }
+	}
+}
@@ -0,0 +1,678 @@
+/*-
+ * #%L
+ * CTC-Fiji-plugins
+ * %%
+ * Copyright (C) 2017 - 2023 Vladimír Ulman
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package net.celltrackingchallenge.fiji.plugins.io;
+
+import net.imglib2.img.Img;
+import net.imglib2.img.array.ArrayImgs;
+import net.imglib2.type.numeric.integer.UnsignedShortType;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Reader of 8- and 16-bit single-channel (label) TIFF images and stacks,
+ * which decompresses the strips (or tiles) of all slices in parallel.
+ * Supported are uncompressed, LZW, Deflate and PackBits compressions,
+ * with or without the horizontal predictor.
+ *
+ * The buffers for the compressed and decompressed data, as well as the
+ * LZW tables and the Inflater, are kept per worker thread and are reused
+ * across strips and frames, so only the resulting image is allocated.
+ * Selected slices of a stack can be read alone, without reading the others.
+ * Anything else (e.g. BigTIFF, float or multi-channel images) is reported
+ * with the UnsupportedTiffException, and the caller is expected to fall
+ * back to a general-purpose reader.
+ */
+public class TiffLabelReader implements AutoCloseable
+{
+	public TiffLabelReader(final int noOfThreads)
+	{
+		this.workers = Executors.newFixedThreadPool(noOfThreads, r -> {
+			final Thread t = new Thread(r, "TIFF decoder");
+			t.setDaemon(true);
+			return t;
+		});
+		this.ownsWorkers = true;
+		this.noOfThreads = noOfThreads;
+	}
+
+	/** uses the given workers, up to noOfThreads of them for one reading; they are not shut down in close() */
+	public TiffLabelReader(final ExecutorService workers, final int noOfThreads)
+	{
+		this.workers = workers;
+		this.ownsWorkers = false;
+		this.noOfThreads = noOfThreads;
+	}
+
+	private final ExecutorService workers;
+	private final boolean ownsWorkers;
+	private final int noOfThreads;
+
+	@Override
+	public void close()
+	{
+		if (ownsWorkers) workers.shutdown();
+	}
+
+	/** the threads that do the decoding, they may be used also for other reading */
+	public ExecutorService getWorkers()
+	{ return workers; }
+
+	public static class UnsupportedTiffException extends IOException
+	{
+		private static final long serialVersionUID = 1L;
+
+		public UnsupportedTiffException(final String msg)
+		{ super(msg); }
+	}
+
+
+	/** reads the file into 2D or 3D (if there is more slices) image */
+	public Img<UnsignedShortType> read(final Path file)
+	throws IOException
+	{
+		final long[] dims = new long[3];
+		final short[] pixels = readPixels(file, dims);
+		return dims[2] > 1 ? ArrayImgs.unsignedShorts(pixels, dims)
+		                   : ArrayImgs.unsignedShorts(pixels, dims[0], dims[1]);
+	}
+
+	/**
+	 * reads the file into an array of pixels, in which x is the fastest
+	 * running index and z the slowest one; fills the image size into dims
+	 */
+	public short[] readPixels(final Path file, final long[] dims)
+	throws IOException
+	{
+		try (FileChannel ch = FileChannel.open(file, StandardOpenOption.READ))
+		{
+			final List<Ifd> slices = readIfds(ch, file);
+			final long sliceSize = fillDims(slices, dims);
+			if (sliceSize * slices.size() > Integer.MAX_VALUE)
+				throw new UnsupportedTiffException(file+": image is too large for one array");
+
+			final short[] pixels = new short[(int)(sliceSize * slices.size())];
+			final short[][] targets = new short[slices.size()][];
+			final int[] targetOffsets = new int[slices.size()];
+			for (int z = 0; z < slices.size(); ++z)
+			{
+				targets[z] = pixels;
+				targetOffsets[z] = (int)(z * sliceSize);
+			}
+			decodeSlices(ch, file, slices, targets, targetOffsets);
+			return pixels;
+		}
+	}
+
+	/**
+	 * reads only the given slices of the file, each into its own array of pixels
+	 * (returned in the order of 'zPlanes'); the data of other slices is not read
+	 * at all, only their IFDs are walked through; fills the size of the whole
+	 * image into dims
+	 */
+	public short[][] readSlices(final Path file, final long[] dims, final int[] zPlanes)
+	throws IOException
+	{
+		try (FileChannel ch = FileChannel.open(file, StandardOpenOption.READ))
+		{
+			final List<Ifd> allSlices = readIfds(ch, file);
+			final long sliceSize = fillDims(allSlices, dims);
+			if (sliceSize > Integer.MAX_VALUE)
+				throw new UnsupportedTiffException(file+": slice is too large for one array");
+
+			final List<Ifd> slices = new ArrayList<>(zPlanes.length);
+			final short[][] targets = new short[zPlanes.length][];
+			for (int i = 0; i < zPlanes.length; ++i)
+			{
+				if (zPlanes[i] < 0 || zPlanes[i] >= allSlices.size())
+					throw new IOException(file+": there is no slice "+zPlanes[i]+", the image has "+allSlices.size());
+				slices.add(allSlices.get(zPlanes[i]));
+				targets[i] = new short[(int)sliceSize];
+			}
+			decodeSlices(ch, file, slices, targets, new int[zPlanes.length]);
+			return targets;
+		}
+	}
+
+	private static long fillDims(final List<Ifd> slices, final long[] dims)
+	{
+		dims[0] = slices.get(0).width;
+		dims[1] = slices.get(0).height;
+		dims[2] = slices.size();
+		return dims[0] * dims[1];
+	}
+
+	/**
+	 * decodes the slices, each into its target array from the given offset;
+	 * the strips (or tiles) are taken one by one by the workers as well as by
+	 * the calling thread itself, which then waits only for those already being
+	 * decoded by the workers, so the reading finishes even if it is called from
+	 * a worker thread (the workers may be shared) and all workers are busy
+	 */
+	private void decodeSlices(final FileChannel ch, final Path file, final List<Ifd> slices,
+	                          final short[][] targets, final int[] targetOffsets)
+	throws IOException
+	{
+		final int width = slices.get(0).width;
+		final int height = slices.get(0).height;
+
+		//one block per strip or tile
+		final List<Block> blocks = new ArrayList<>();
+		for (int z = 0; z < slices.size(); ++z)
+		{
+			final Ifd ifd = slices.get(z);
+			final short[] pixels = targets[z];
+			final int sliceOffset = targetOffsets[z];
+			final int blockWidth  = ifd.tileWidth > 0 ? ifd.tileWidth  : width;
+			final int blockHeight = ifd.tileWidth > 0 ? ifd.tileHeight : Math.min(ifd.rowsPerStrip, height);
+			final int blocksPerRow = (width + blockWidth - 1) / blockWidth;
+
+			for (int b = 0; b < ifd.offsets.length; ++b)
+			{
+				final int x0 = (b % blocksPerRow) * blockWidth;
+				final int y0 = (b / blocksPerRow) * blockHeight;
+				if (y0 >= height) break;
+				final long offset = ifd.offsets[b];
+				final int byteCount = (int)ifd.byteCounts[b];
+				blocks.add( () -> decodeBlock(ch, ifd, offset, byteCount, blockWidth, blockHeight,
+						pixels, sliceOffset, width, height, x0, y0) );
+			}
+		}
+
+		final BlockQueue queue = new BlockQueue(blocks);
+		try {
+			for (int i = Math.min(blocks.size(), noOfThreads) - 1; i > 0; --i) workers.execute(queue::decodeAll);
+		}
+		catch (RejectedExecutionException e) {
+			//the workers are shut down, the blocks are decoded by this thread
+		}
+		queue.decodeAll();
+
+		try { queue.done.await(); }
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException(file+": interrupted");
+		}
+		final Throwable error = queue.error.get();
+		if (error instanceof IOException) throw (IOException)error;
+		if (error != null) throw new IOException(file+": "+error.getMessage(), error);
+	}
+
+	interface Block
+	{
+		void decode() throws IOException;
+	}
+
+	/** the blocks of one reading, they are decoded (in any thread) in the order they are taken */
+	static class BlockQueue
+	{
+		BlockQueue(final List<Block> blocks)
+		{
+			this.blocks = blocks;
+			this.done = new CountDownLatch(blocks.size());
+		}
+
+		final List<Block> blocks;
+		final AtomicInteger next = new AtomicInteger(0);
+		final CountDownLatch done;
+		final AtomicReference<Throwable> error = new AtomicReference<>();
+
+		void decodeAll()
+		{
+			int b;
+			while ((b = next.getAndIncrement()) < blocks.size())
+			{
+				try {
+					if (error.get() == null) blocks.get(b).decode();
+				}
+				catch (Throwable e) {
+					error.compareAndSet(null, e);
+				}
+				finally {
+					done.countDown();
+				}
+			}
+		}
+	}
+
+
+	// ------------------ decoding of strips/tiles ------------------
+	static final int COMPRESSION_NONE = 1, COMPRESSION_LZW = 5, COMPRESSION_DEFLATE = 8,
+		COMPRESSION_DEFLATE_OLD = 32946, COMPRESSION_PACKBITS = 32773;
+
+	/** per-thread, reused decoding buffers */
+	static class DecodeBuffers
+	{
+		byte[] compressed = new byte[1 << 16];
+		byte[] raw = new byte[1 << 16];
+		final Inflater inflater = new Inflater();
+
+		final int[] lzwPrefix = new int[4096];
+		final byte[] lzwSuffix = new byte[4096];
+		final byte[] lzwFirst = new byte[4096];
+		final int[] lzwLength = new int[4096];
+
+		DecodeBuffers()
+		{
+			for (int i = 0; i < 256; ++i)
+			{
+				lzwPrefix[i] = -1;
+				lzwSuffix[i] = (byte)i;
+				lzwFirst[i] = (byte)i;
+				lzwLength[i] = 1;
+			}
+		}
+
+		byte[] compressed(final int size)
+		{
+			if (compressed.length < size) compressed = new byte[size];
+			return compressed;
+		}
+
+		byte[] raw(final int size)
+		{
+			if (raw.length < size) raw = new byte[size];
+			return raw;
+		}
+	}
+
+	private static final ThreadLocal<DecodeBuffers> buffers = ThreadLocal.withInitial(DecodeBuffers::new);
+
+	static void decodeBlock(final FileChannel ch, final Ifd ifd, final long offset, final int byteCount,
+	                        final int blockWidth, final int blockHeight,
+	                        final short[] pixels, final int sliceOffset, final int width, final int height,
+	                        final int x0, final int y0)
+	throws IOException
+	{
+		final DecodeBuffers buf = buffers.get();
+		final int bytesPerSample = ifd.bits / 8;
+		final int rawSize = blockWidth * blockHeight * bytesPerSample;
+
+		//read the block
+		final byte[] in = buf.compressed(byteCount);
+		final ByteBuffer bb = ByteBuffer.wrap(in, 0, byteCount);
+		long pos = offset;
+		while (bb.hasRemaining())
+		{
+			final int n = ch.read(bb, pos);
+			if (n < 0) throw new IOException("unexpected end of the file");
+			pos += n;
+		}
+
+		//decompress the block
+		final byte[] raw;
+		int rawLength;
+		switch (ifd.compression)
+		{
+		case COMPRESSION_NONE:
+			raw = in;
+			rawLength = byteCount;
+			break;
+		case COMPRESSION_LZW:
+			raw = buf.raw(rawSize);
+			rawLength = decodeLZW(in, byteCount, raw, rawSize, buf);
+			break;
+		case COMPRESSION_DEFLATE:
+		case COMPRESSION_DEFLATE_OLD:
+			raw = buf.raw(rawSize);
+			rawLength = decodeDeflate(in, byteCount, raw, rawSize, buf.inflater);
+			break;
+		case COMPRESSION_PACKBITS:
+			raw = buf.raw(rawSize);
+			rawLength = decodePackBits(in, byteCount, raw, rawSize);
+			break;
+		default:
+			throw new UnsupportedTiffException("compression "+ifd.compression+" is not supported");
+		}
+
+		//store the block into the image, and undo the horizontal differencing if used
+		final boolean isBigEndian = ifd.order == ByteOrder.BIG_ENDIAN;
+		final int rows = Math.min(blockHeight, height - y0);
+		final int cols = Math.min(blockWidth, width - x0);
+		for (int r = 0; r < rows; ++r)
+		{
+			final int rowStart = r * blockWidth;
+			if ((rowStart + blockWidth) * bytesPerSample > rawLength) break; //incomplete block
+			int o = sliceOffset + (y0+r)*width + x0;
+
+			int prev = 0;
+			for (int x = 0; x < blockWidth; ++x)
+			{
+				int val;
+				if (bytesPerSample == 1)
+					val = raw[rowStart+x] & 0xff;
+				else
+				{
+					final int i = (rowStart+x) << 1;
+					val = isBigEndian ? ((raw[i] & 0xff) << 8) | (raw[i+1] & 0xff)
+					                  : ((raw[i+1] & 0xff) << 8) | (raw[i] & 0xff);
+				}
+				if (ifd.predictor == 2)
+				{
+					val = (val + prev) & (bytesPerSample == 1 ? 0xff : 0xffff);
+					prev = val;
+				}
+				if (x < cols) pixels[o++] = (short)val;
+			}
+		}
+	}
+
+	/** the TIFF variant of LZW: MSB-first codes of 9 to 12 bits, with the "early change" */
+	static int decodeLZW(final byte[] in, final int inLength, final byte[] out, final int outLength,
+	                     final DecodeBuffers t)
+	throws IOException
+	{
+		if (inLength >= 2 && in[0] == 0 && (in[1] & 1) == 1)
+			throw new UnsupportedTiffException("old-style LZW compression is not supported");
+
+		final int[] prefix = t.lzwPrefix;
+		final byte[] suffix = t.lzwSuffix;
+		final byte[] first = t.lzwFirst;
+		final int[] length = t.lzwLength;
+
+		final long noOfBits = 8L * inLength;
+		long bitPos = 0;
+		int codeWidth = 9;
+		int next = 258;
+		int old = -1;
+		int o = 0;
+
+		while (o < outLength && bitPos + codeWidth <= noOfBits)
+		{
+			//read the next code
+			final int b = (int)(bitPos >>> 3);
+			final int window = ((in[b] & 0xff) << 16)
+				| (b+1 < inLength ? (in[b+1] & 0xff) << 8 : 0)
+				| (b+2 < inLength ?  in[b+2] & 0xff       : 0);
+			final int code = (window >>> (24 - (int)(bitPos & 7) - codeWidth)) & ((1 << codeWidth) - 1);
+			bitPos += codeWidth;
+
+			if (code == 257) break; //end of information
+			if (code == 256)
+			{
+				codeWidth = 9;
+				next = 258;
+				old = -1;
+				continue;
+			}
+
+			if (old == -1)
+			{
+				if (code > 255) throw new IOException("corrupted LZW data");
+				out[o++] = (byte)code;
+				old = code;
+				continue;
+			}
+
+			//the new table entry is the previous string followed by the first byte of the current one
+			if (code > next) throw new IOException("corrupted LZW data");
+			if (next < 4096)
+			{
+				prefix[next] = old;
+				suffix[next] = code < next ? first[code] : first[old];
+				first[next] = first[old];
+				length[next] = length[old] + 1;
+				++next;
+			}
+
+			//output the string of the code, it is walked from its end
+			final int len = length[code];
+			int p = o + len - 1;
+			for (int c = code; c >= 0; c = prefix[c], --p)
+				if (p < outLength) out[p] = suffix[c];
+			o = Math.min(o + len, outLength);
+			old = code;
+
+			if (next >= (1 << codeWidth) - 1 && codeWidth < 12) ++codeWidth;
+		}
+		return o;
+	}
+
+	static int decodeDeflate(final byte[] in, final int inLength, final byte[] out, final int outLength,
+	                         final Inflater inflater)
+	throws IOException
+	{
+		inflater.reset();
+		inflater.setInput(in, 0, inLength);
+		int o = 0;
+		try {
+			while (o < outLength && !inflater.finished())
+			{
+				final int n = inflater.inflate(out, o, outLength - o);
+				if (n == 0 && (inflater.needsInput() || inflater.needsDictionary())) break;
+				o += n;
+			}
+		}
+		catch (DataFormatException e) {
+			throw new IOException("corrupted Deflate data: "+e.getMessage());
+		}
+		return o;
+	}
+
+	static int decodePackBits(final byte[] in, final int inLength, final byte[] out, final int outLength)
+	{
+		int i = 0, o = 0;
+		while (i < inLength && o < outLength)
+		{
+			final int n = in[i++];
+			if (n >= 0)
+			{
+				final int cnt = Math.min(n+1, Math.min(inLength - i, outLength - o));
+				System.arraycopy(in, i, out, o, cnt);
+				i += n+1;
+				o += cnt;
+			}
+			else if (n != -128 && i < inLength)
+			{
+				final byte val = in[i++];
+				final int cnt = Math.min(1-n, outLength - o);
+				for (int k = 0; k < cnt; ++k) out[o++] = val;
+			}
+		}
+		return o;
+	}
+
+
+	// ------------------ parsing of the TIFF structure ------------------
+	/** the parsed image file directory, i.e. description of one slice */
+	static class Ifd
+	{
+		ByteOrder order;
+		int width, height;
+		int bits = 1, samplesPerPixel = 1, sampleFormat = 1;
+		int compression = COMPRESSION_NONE, predictor = 1;
+		int rowsPerStrip = Integer.MAX_VALUE;
+		int tileWidth = 0, tileHeight = 0;
+		int subfileType = 0;
+		long[] offsets, byteCounts;
+		String description = null;
+	}
+
+	static final Pattern IMAGEJ_IMAGES = Pattern.compile("images=(\\d+)");
+
+	static List<Ifd> readIfds(final FileChannel ch, final Path file)
+	throws IOException
+	{
+		final ByteBuffer header = readAt(ch, 0, 8, ByteOrder.LITTLE_ENDIAN);
+		final ByteOrder order;
+		if (header.get(0) == 'I' && header.get(1) == 'I') order = ByteOrder.LITTLE_ENDIAN;
+		else if (header.get(0) == 'M' && header.get(1) == 'M') order = ByteOrder.BIG_ENDIAN;
+		else throw new UnsupportedTiffException(file+": not a TIFF file");
+		header.order(order);
+		if (header.getShort(2) == 43) throw new UnsupportedTiffException(file+": BigTIFF is not supported");
+		if (header.getShort(2) != 42) throw new UnsupportedTiffException(file+": not a TIFF file");
+
+		final List<Ifd> ifds = new ArrayList<>();
+		final Set<Long> visitedOffsets = new HashSet<>();
+		long ifdOffset = header.getInt(4) & 0xffffffffL;
+		while (ifdOffset != 0)
+		{
+			if (!visitedOffsets.add(ifdOffset))
+				throw new UnsupportedTiffException(file+": the IFDs form a cycle at offset "+ifdOffset);
+			final int noOfEntries = readAt(ch, ifdOffset, 2, order).getShort(0) & 0xffff;
+			final ByteBuffer entries = readAt(ch, ifdOffset+2, 12*noOfEntries + 4, order);
+
+			final Ifd ifd = new Ifd();
+			ifd.order = order;
+			for (int e = 0; e < noOfEntries; ++e)
+			{
+				final int tag = entries.getShort(12*e) & 0xffff;
+				final int type = entries.getShort(12*e + 2) & 0xffff;
+				final int count = entries.getInt(12*e + 4);
+				switch (tag)
+				{
+				case 254: ifd.subfileType     = (int)readValues(ch, entries, 12*e, type, count)[0]; break;
+				case 256: ifd.width           = (int)readValues(ch, entries, 12*e, type, count)[0]; break;
+				case 257: ifd.height          = (int)readValues(ch, entries, 12*e, type, count)[0]; break;
+				case 258: ifd.bits            = (int)readValues(ch, entries, 12*e, type, count)[0]; break;
+				case 259: ifd.compression     = (int)readValues(ch, entries, 12*e, type, count)[0]; break;
+				case 270: ifd.description     = readAscii(ch, entries, 12*e, count); break;
+				case 273: ifd.offsets         = readValues(ch, entries, 12*e, type, count); break;
+				case 277: ifd.samplesPerPixel = (int)readValues(ch, entries, 12*e, type, count)[0]; break;
+				case 278: ifd.rowsPerStrip    = (int)Math.min(readValues(ch, entries, 12*e, type, count)[0], Integer.MAX_VALUE); break;
+				case 279: ifd.byteCounts      = readValues(ch, entries, 12*e, type, count); break;
+				case 317: ifd.predictor       = (int)readValues(ch, entries, 12*e, type, count)[0]; break;
+				case 322: ifd.tileWidth       = (int)readValues(ch, entries, 12*e, type, count)[0]; break;
+				case 323: ifd.tileHeight      = (int)readValues(ch, entries, 12*e, type, count)[0]; break;
+				case 324: ifd.offsets         = readValues(ch, entries, 12*e, type, count); break;
+				case 325: ifd.byteCounts      = readValues(ch, entries, 12*e, type, count); break;
+				case 339: ifd.sampleFormat    = (int)readValues(ch, entries, 12*e, type, count)[0]; break;
+				default:
+				}
+			}
+			ifdOffset = entries.getInt(12*noOfEntries) & 0xffffffffL;
+
+			if ((ifd.subfileType & 1) == 1) continue; //a thumbnail
+			if (ifd.bits != 8 && ifd.bits != 16)
+				throw new UnsupportedTiffException(file+": only 8- and 16-bit images are supported");
+			if (ifd.samplesPerPixel != 1 || ifd.sampleFormat == 3)
+				throw new UnsupportedTiffException(file+": only single-channel integer images are supported");
+			if (ifd.offsets == null || ifd.byteCounts == null || ifd.offsets.length != ifd.byteCounts.length)
+				throw new UnsupportedTiffException(file+": image data is not described properly");
+			if (ifds.size() > 0 && (ifd.width != ifds.get(0).width || ifd.height != ifds.get(0).height))
+				throw new UnsupportedTiffException(file+": slices are not of the same size");
+			ifds.add(ifd);
+		}
+		if (ifds.size() == 0) throw new UnsupportedTiffException(file+": no image found");
+
+		//large ImageJ stacks are saved with only the first IFD, the slices follow uncompressed one after another
+		final Ifd first = ifds.get(0);
+		if (ifds.size() == 1 && first.description != null && first.compression == COMPRESSION_NONE)
+		{
+			final Matcher m = IMAGEJ_IMAGES.matcher(first.description);
+			final int noOfImages = m.find() ? Integer.parseInt(m.group(1)) : 1;
+			final long sliceBytes = (long)first.width * first.height * (first.bits/8);
+			for (int z = 1; z < noOfImages; ++z)
+			{
+				final Ifd ifd = new Ifd();
+				ifd.order = first.order;
+				ifd.width = first.width;
+				ifd.height = first.height;
+				ifd.bits = first.bits;
+				ifd.offsets = new long[] { first.offsets[0] + z*sliceBytes };
+				ifd.byteCounts = new long[] { sliceBytes };
+				ifds.add(ifd);
+			}
+			if (noOfImages > 1)
+			{
+				first.rowsPerStrip = Integer.MAX_VALUE;
+				first.offsets = new long[] { first.offsets[0] };
+				first.byteCounts = new long[] { sliceBytes };
+			}
+		}
+		return ifds;
+	}
+
+	private static ByteBuffer readAt(final FileChannel ch, long pos, final int size, final ByteOrder order)
+	throws IOException
+	{
+		final ByteBuffer buf = ByteBuffer.allocate(size).order(order);
+		while (buf.hasRemaining())
+		{
+			final int n = ch.read(buf, pos);
+			if (n < 0) throw new IOException("unexpected end of the file");
+			pos += n;
+		}
+		buf.flip();
+		return buf;
+	}
+
+	/** reads the SHORT or LONG values of the IFD entry that starts at the given position */
+	private static long[] readValues(final FileChannel ch, final ByteBuffer entries, final int entryPos,
+	                                 final int type, final int count)
+	throws IOException
+	{
+		final int size = type == 3 ? 2 : (type == 4 ? 4 : (type == 1 ? 1 : 0));
+		if (size == 0) throw new UnsupportedTiffException("unexpected type "+type+" of a TIFF tag");
+
+		final ByteBuffer values = size*count <= 4
+			? entries.duplicate().order(entries.order())
+			: readAt(ch, entries.getInt(entryPos+8) & 0xffffffffL, size*count, entries.order());
+		final int start = size*count <= 4 ? entryPos+8 : 0;
+
+		final long[] v = new long[count];
+		for (int i = 0; i < count; ++i)
+		{
+			if (size == 1)      v[i] = values.get(start + i) & 0xff;
+			else if (size == 2) v[i] = values.getShort(start + 2*i) & 0xffff;
+			else                v[i] = values.getInt(start + 4*i) & 0xffffffffL;
+		}
+		return v;
+	}
+
+	private static String readAscii(final FileChannel ch, final ByteBuffer entries, final int entryPos, final int count)
+	throws IOException
+	{
+		final byte[] bytes = new byte[count];
+		if (count <= 4)
+			for (int i = 0; i < count; ++i) bytes[i] = entries.get(entryPos+8+i);
+		else
+			readAt(ch, entries.getInt(entryPos+8) & 0xffffffffL, count, entries.order()).get(bytes);
+		return new String(bytes, StandardCharsets.US_ASCII);
+	}
+}
@@ -39,10 +39,13 @@ import net.imglib2.type.numeric.integer.UnsignedShortType;
 
 import org.scijava.widget.FileWidget;
 import java.io.File;
-import java.nio.file.Files;
 
 import net.celltrackingchallenge.measures.TRA;
 import net.celltrackingchallenge.measures.TrackDataCache;
+import net.celltrackingchallenge.fiji.plugins.io.FrameSource;
+import net.celltrackingchallenge.fiji.plugins.io.FrameCacheService;
+import net.celltrackingchallenge.fiji.plugins.io.FrameSourceTrackDataCache;
+import net.celltrackingchallenge.fiji.plugins.io.FrameSources;
 
 @Plugin(type = Command.class, menuPath = "Plugins>Tracking>AOGM: Tracking data consistency",
         name = "CTC_AOGM_consistency", headless = true,
@@ -57,6 +60,9 @@ public class plugin_AOGMconsistency implements Command
 	@Parameter
 	private LogService log;
 
+	@Parameter(required = false)
+	private FrameCacheService frameCache;
+
 	@Parameter(label = "Path to tracking data folder:",
 		style = FileWidget.DIRECTORY_STYLE,
 		description = "Path should contain result files directly, or TRA folder with the files.",
@@ -75,6 +81,14 @@ public class plugin_AOGMconsistency implements Command
 		description = "Checks if no label is found in either ground-truth or result image before measuring TRA.")
 	private boolean checkEmptyImages = true;
 
+	@Parameter(label = "Number of frames to read ahead:", min = "0",
+		description = "While an image is processed, this many following images are already being read. Set to 0 to disable.")
+	private int readAhead = 2;
+
+	@Parameter(label = "Number of I/O threads:", min = "1",
+		description = "The number of images that can be read ahead at the same time.")
+	private int noOfIoThreads = 2;
+
 	@Parameter(visibility = ItemVisibility.MESSAGE, persist = false, required = false)
 	private final String pathFooterA
 		= "Note that folder has to comply with certain data format, please see";
@@ -96,10 +110,12 @@ public class plugin_AOGMconsistency implements Command
 	@Override
 	public void run()
 	{
-		try {
+		try (FrameSources frameSources = new FrameSources(log, noOfIoThreads, readAhead))
+		{
+			frameSources.useFrameCache(frameCache);
 			log.info("Input path: "+resPath);
 
-			final TrackDataCache cache = new TrackDataCache(log);
+			final TrackDataCache cache = new FrameSourceTrackDataCache(log, frameSources);
 			final TRA tra = new TRA(log);
 			final int inputNamesChooser = ( resPathType.startsWith("RES") ?
 			                (resPathType.indexOf("????") == -1 ? 0 : 1)
@@ -108,15 +124,15 @@ public class plugin_AOGMconsistency implements Command
 			//load metadata with the lineages
 			cache.LoadTrackFile(resPath+inputNames[inputNamesChooser], cache.res_tracks);
 
-			//iterate through the data folder and read files, one by one,
+			//iterate through the data folder (or container) and read files, one by one,
 			//and call ClassifyLabels() for every file
+			final FrameSource frames = frameSources.forFramesLike(
+				new File(String.format(inputNames[inputNamesChooser+1],resPath,0)).toPath());
 			int time = 0;
-			while (Files.isReadable(
-				new File(String.format(inputNames[inputNamesChooser+1],resPath,time)).toPath()))
+			while (frames.hasFrame(time))
 			{
 				//read the image
-				Img<UnsignedShortType> img
-					= cache.ReadImageG16(String.format(inputNames[inputNamesChooser+1],resPath,time));
+				Img<UnsignedShortType> img = frames.getFrame(time);
 
 				cache.ClassifyLabels(img, img, checkEmptyImages);
 				++time;
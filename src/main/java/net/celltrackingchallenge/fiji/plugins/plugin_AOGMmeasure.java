@@ -34,24 +34,39 @@ import org.scijava.command.Command;
 import org.scijava.plugin.Parameter;
 import org.scijava.plugin.Plugin;
 import org.scijava.log.LogService;
+import org.scijava.log.Logger;
 
 import org.scijava.widget.FileWidget;
+import org.scijava.widget.TextWidget;
 import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.List;
 
 import net.celltrackingchallenge.measures.TRA;
+import net.celltrackingchallenge.fiji.plugins.io.FrameSourceTrackDataCache;
+import net.celltrackingchallenge.fiji.plugins.io.FrameCacheService;
+import net.celltrackingchallenge.fiji.plugins.io.FrameSources;
+import net.celltrackingchallenge.fiji.plugins.util.AOGMerrorCounts;
+import net.celltrackingchallenge.fiji.plugins.util.AOGMerrorTables;
+import net.celltrackingchallenge.fiji.plugins.util.AsyncLogSink;
 
 @Plugin(type = Command.class, menuPath = "Plugins>Tracking>AOGM: Tracking measure",
         name = "CTC_AOGM", headless = true,
 		  description = "Calculates the AOGM tracking performance measure from the AOGM paper.\n"
 				+"The plugin assumes certain data format, please see\n"
 				+"http://celltrackingchallenge.net/submission-of-results/")
-public class plugin_AOGMmeasure implements Command
+public class plugin_AOGMmeasure extends VerboseReportsCommand
 {
 	//------------- GUI stuff -------------
 	//
 	@Parameter
 	private LogService log;
 
+	@Parameter(required = false)
+	private FrameCacheService frameCache;
+
 	@Parameter(label = "Path to computed result folder:",
 		style = FileWidget.DIRECTORY_STYLE,
 		description = "Path should contain result files directly: mask???.tif and res_track.txt",
@@ -68,6 +83,14 @@ public class plugin_AOGMmeasure implements Command
 		description = "Set to 3 if your files are, e.g., t000.tif, or to 5 if your files are, e.g., t00021.tif")
 	public int noOfDigits = 3;
 
+	@Parameter(label = "Number of frames to read ahead:", min = "0",
+		description = "While an image is processed, this many following images are already being read. Set to 0 to disable.")
+	private int readAhead = 2;
+
+	@Parameter(label = "Number of I/O threads:", min = "1",
+		description = "The number of images that can be read ahead at the same time.")
+	private int noOfIoThreads = 2;
+
 	@Parameter(visibility = ItemVisibility.MESSAGE, persist = false, required = false)
 	private final String pathFooterA
 		= "Note that folders has to comply with certain data format, please see";
@@ -113,10 +136,27 @@ public class plugin_AOGMmeasure implements Command
 		description = "Logs which RES/GT segment maps onto which GT/RES in the data.")
 	private boolean doMatchingReports = false;
 
+	@Parameter(label = "Save tracking errors into file (optional):",
+		style = FileWidget.SAVE_STYLE, required = false,
+		description = "If given, the verbose report on tracking errors is not logged but stored as tables into this file, "
+			+"as CSV if the file name ends with .csv, or in a compact binary form otherwise.")
+	private File errorsFile = null;
+
 	@Parameter(label = "Do 1.0-min(AOGM,AOGM_empty)/AOGM_empty (TRA):",
 		description = "The Cell Tracking Challenge TRA is exactly a normalized AOGM with specific penalties. If checked, returns between 0.0 to 1.0, higher is better.")
 	private boolean doTRAnormalization = false;
 
+	@Parameter(label = "Penalty presets to sweep (optional):",
+		style = TextWidget.AREA_STYLE, required = false,
+		description = "One preset per line as six numbers in the order of the penalties above. If given, "
+			+"the error counts are obtained only once and AOGM (and TRA) is reported for every preset.")
+	private String penaltySweep = "";
+
+	@Parameter(label = "Save the sweep results as CSV (optional):",
+		style = FileWidget.SAVE_STYLE, required = false,
+		description = "Leave empty to only log the results of the sweep.")
+	private File sweepResultsFile = null;
+
 
 	//citation footer...
 	@Parameter(visibility = ItemVisibility.MESSAGE, persist = false, required = false, label = "Please, cite us:")
@@ -165,13 +205,22 @@ public class plugin_AOGMmeasure implements Command
 	@Override
 	public void run()
 	{
-		try {
+		try (AsyncLogSink reports = openReports(log, doLogReports || doMatchingReports);
+		     FrameSources frameSources = new FrameSources(log, noOfIoThreads, readAhead))
+		{
+			frameSources.useFrameCache(frameCache);
+			final Logger reportsLog = reports != null ? reports.getLogger() : log;
+
+			//the verbose report on errors goes either to the reports, or into the tables
+			final AOGMerrorTables errorTables
+				= errorsFile != null && errorsFile.getPath().length() > 0 ? new AOGMerrorTables() : null;
+
 			//start up the worker class
-			final TRA tra = new TRA(log);
+			final TRA tra = new TRA(reportsLog);
 
 			//set up its operational details
 			tra.doConsistencyCheck = doConsistencyCheck;
-			tra.doLogReports       = doLogReports;
+			tra.doLogReports       = doLogReports && errorTables == null;
 			tra.doMatchingReports  = doMatchingReports;
 			tra.doAOGM             = (doTRAnormalization == false);
 			tra.noOfDigits         = noOfDigits;
@@ -180,8 +229,25 @@ public class plugin_AOGMmeasure implements Command
 			final TRA.PenaltyConfig penalty = tra.new PenaltyConfig(p1,p2,p3,p4,p5,p6);
 			tra.penalty = penalty;
 
-			//do the calculation
-			AOGM = tra.calculate(gtPath.getPath(),resPath.getPath());
+			//the images are read and classified upfront, with the parallel TIFF reader and prefetching
+			final FrameSourceTrackDataCache cache = FrameSourceTrackDataCache.calculateFor(gtPath.getPath(), resPath.getPath(),
+					noOfDigits, false, reportsLog, frameSources);
+
+			final List<double[]> presets = parsePenaltyPresets();
+			if (presets.size() > 0)
+				runSweep(tra, presets, cache, errorTables);
+			else
+			{
+				//do the calculation
+				AOGM = tra.calculate(gtPath.getPath(),resPath.getPath(),cache);
+				if (errorTables != null) AOGMerrorCounts.count(cache, errorTables);
+			}
+
+			if (errorTables != null)
+			{
+				errorTables.save(errorsFile.toPath());
+				log.info("Tracking errors saved into: "+errorsFile.getPath());
+			}
 
 			//do not report anything explicitly (unless special format for parsing is
 			//desired) as ItemIO.OUTPUT will make it output automatically
@@ -193,4 +259,62 @@ public class plugin_AOGMmeasure implements Command
 			log.error("AOGM error: "+e.getMessage());
 		}
 	}
+
+	/** parses the 'penaltySweep' into the list of six-element penalty vectors */
+	private List<double[]> parsePenaltyPresets()
+	{
+		final List<double[]> presets = new ArrayList<>();
+		if (penaltySweep == null) return presets;
+
+		for (String line : penaltySweep.split("\n"))
+		{
+			line = line.trim();
+			if (line.length() == 0 || line.startsWith("#")) continue;
+
+			final String[] values = line.split("[\\s,;]+");
+			if (values.length != 6)
+				throw new IllegalArgumentException("Expected six penalties, got: "+line);
+
+			final double[] preset = new double[6];
+			for (int i = 0; i < 6; ++i) preset[i] = Double.parseDouble(values[i]);
+			presets.add(preset);
+		}
+		return presets;
+	}
+
+	private void runSweep(final TRA tra, final List<double[]> presets, final FrameSourceTrackDataCache cache,
+	                      final AOGMerrorTables errorTables)
+	throws IOException
+	{
+		//the official value with the penalties from the dialog...
+		AOGM = tra.calculate(gtPath.getPath(), resPath.getPath(), cache);
+
+		//...and the error counts from one pass over the same (already classified) data
+		final AOGMerrorCounts counts = AOGMerrorCounts.count(cache, errorTables);
+		log.info("AOGM error counts: "+counts);
+
+		final double[] guiPenalty = { p1,p2,p3,p4,p5,p6 };
+		final double fromCounts = doTRAnormalization ? counts.tra(guiPenalty) : counts.aogm(guiPenalty);
+		if (Math.abs(fromCounts - AOGM) > 1e-9 * Math.max(1.0, Math.abs(AOGM)))
+			log.warn("The error counts give "+fromCounts+" instead of "+AOGM
+				+" with the penalties from the dialog, the values of the presets may be off too.");
+
+		final boolean doCSV = sweepResultsFile != null && sweepResultsFile.getPath().length() > 0;
+		try (PrintWriter csv = doCSV ? new PrintWriter(sweepResultsFile) : null)
+		{
+			if (csv != null) csv.println("NS,FN,FP,ED,EA,EC,AOGM,AOGM_empty,TRA");
+
+			for (double[] p : presets)
+			{
+				final String penalties = p[0]+","+p[1]+","+p[2]+","+p[3]+","+p[4]+","+p[5];
+				log.info("Penalty ("+penalties+"): AOGM="+counts.aogm(p)
+					+" AOGM_empty="+counts.aogmEmpty(p)+" TRA="+counts.tra(p));
+				if (csv != null)
+					csv.println(penalties+","+counts.aogm(p)+","+counts.aogmEmpty(p)+","+counts.tra(p));
+			}
+
+			if (csv != null && csv.checkError())
+				throw new IOException("Cannot write the sweep results into: "+sweepResultsFile.getPath());
+		}
+	}
 }
@@ -39,6 +39,9 @@ import org.scijava.widget.FileWidget;
 import java.io.File;
 
 import net.celltrackingchallenge.measures.TrackDataCache;
+import net.celltrackingchallenge.fiji.plugins.io.FrameSourceTrackDataCache;
+import net.celltrackingchallenge.fiji.plugins.io.FrameCacheService;
+import net.celltrackingchallenge.fiji.plugins.io.FrameSources;
 import net.celltrackingchallenge.measures.CT;
 import net.celltrackingchallenge.measures.TF;
 import net.celltrackingchallenge.measures.BCi;
@@ -56,6 +59,9 @@ public class plugin_BIOmeasures implements Command
 	@Parameter
 	private LogService log;
 
+	@Parameter(required = false)
+	private FrameCacheService frameCache;
+
 	@Parameter(label = "Path to computed result folder:",
 		style = FileWidget.DIRECTORY_STYLE,
 		description = "Path should contain result files directly: mask???.tif and res_track.txt",
@@ -72,6 +78,14 @@ public class plugin_BIOmeasures implements Command
 		description = "Set to 3 if your files are, e.g., t000.tif, or to 5 if your files are, e.g., t00021.tif")
 	public int noOfDigits = 3;
 
+	@Parameter(label = "Number of frames to read ahead:", min = "0",
+		description = "While an image is processed, this many following images are already being read. Set to 0 to disable.")
+	private int readAhead = 2;
+
+	@Parameter(label = "Number of I/O threads:", min = "1",
+		description = "The number of images that can be read ahead at the same time.")
+	private int noOfIoThreads = 2;
+
 	@Parameter(visibility = ItemVisibility.MESSAGE, persist = false, required = false)
 	private final String pathFooterA
 		= "Note that folders has to comply with certain data format, please see";
@@ -163,10 +177,26 @@ public class plugin_BIOmeasures implements Command
 		RESdir = resPath.getPath();
 
 		//reference on a shared object that does
-		//pre-fetching of data and some common pre-calculation
+		//pre-fetching of data and some common pre-calculation,
+		//the images are read upfront with the parallel TIFF reader and prefetching
 		TrackDataCache cache = new TrackDataCache(log);
 		cache.noOfDigits = noOfDigits;
 		cache.shouldComplainOnEmptyImages = optionStopOnEmptyImages;
+		if (calcCT || calcTF || calcBCi || calcCCA)
+		{
+			try (FrameSources frameSources = new FrameSources(log, noOfIoThreads, readAhead))
+			{
+				frameSources.useFrameCache(frameCache);
+				cache = FrameSourceTrackDataCache.calculateFor(GTdir, RESdir,
+						noOfDigits, optionStopOnEmptyImages, log, frameSources);
+			}
+			catch (RuntimeException e) {
+				log.error("CTC BIO measures problem: "+e.getMessage());
+			}
+			catch (Exception e) {
+				log.error("CTC BIO measures error: "+e.getMessage());
+			}
+		}
 
 		if (calcCT )
 		{
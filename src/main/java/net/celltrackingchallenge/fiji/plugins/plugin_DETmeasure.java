@@ -41,19 +41,26 @@ import java.util.Set;
 
 import net.celltrackingchallenge.measures.DET;
 import net.celltrackingchallenge.measures.util.NumberSequenceHandler;
+import net.celltrackingchallenge.fiji.plugins.util.AsyncLogSink;
+import net.celltrackingchallenge.fiji.plugins.io.FrameSourceTrackDataCache;
+import net.celltrackingchallenge.fiji.plugins.io.FrameCacheService;
+import net.celltrackingchallenge.fiji.plugins.io.FrameSources;
 
 @Plugin(type = Command.class, menuPath = "Plugins>Segmentation>Cell Tracking Challenge DET measure",
         name = "CTC_DET", headless = true,
 		  description = "Calculates segmentation performance measure from the CTC paper.\n"
 				+"The plugin assumes certain data format, please see\n"
 				+"http://celltrackingchallenge.net/submission-of-results/")
-public class plugin_DETmeasure implements Command
+public class plugin_DETmeasure extends VerboseReportsCommand
 {
 	//------------- GUI stuff -------------
 	//
 	@Parameter
 	private LogService log;
 
+	@Parameter(required = false)
+	private FrameCacheService frameCache;
+
 	@Parameter(label = "Path to computed result folder:",
 		style = FileWidget.DIRECTORY_STYLE,
 		description = "Path should contain result files directly: mask???.tif",
@@ -70,6 +77,14 @@ public class plugin_DETmeasure implements Command
 		description = "Set to 3 if your files are, e.g., t000.tif, or to 5 if your files are, e.g., t00021.tif")
 	public int noOfDigits = 3;
 
+	@Parameter(label = "Number of frames to read ahead:", min = "0",
+		description = "While an image is processed, this many following images are already being read. Set to 0 to disable.")
+	private int readAhead = 2;
+
+	@Parameter(label = "Number of I/O threads:", min = "1",
+		description = "The number of images that can be read ahead at the same time.")
+	private int noOfIoThreads = 2;
+
 	@Parameter(visibility = ItemVisibility.MESSAGE, persist = false, required = false)
 	private final String pathFooterA
 		= "Note that folders has to comply with certain data format, please see";
@@ -95,6 +110,19 @@ public class plugin_DETmeasure implements Command
 		description = "Logs which RES/GT segment maps onto which GT/RES in the data.")
 	private boolean doMatchingReports = false;
 
+	@Parameter(label = "Checkpoint file (optional):",
+		style = FileWidget.SAVE_STYLE, required = false,
+		description = "If given, the timepoints read and classified so far are regularly saved into this file. "
+			+"Only this part of the calculation is checkpointed, the comparison of the lineages is always done anew.")
+	private File checkpointFile = null;
+
+	@Parameter(label = "Save the checkpoint after every this many timepoints:", min = "1")
+	private int checkpointPeriod = 10;
+
+	@Parameter(label = "Resume from the checkpoint file:",
+		description = "Timepoints found in the checkpoint file are not read and classified again.")
+	private boolean doResume = false;
+
 	@Parameter(visibility = ItemVisibility.MESSAGE, persist = false, required = false)
 	private final String experimentalSectionNote = "Note that the official measures do not accept empty images (checkbox ticked).";
 	@Parameter(label = "Report (and stop) on empty images",
@@ -151,8 +179,11 @@ public class plugin_DETmeasure implements Command
 		GTdir  = gtPath.getPath();
 		RESdir = resPath.getPath();
 
-		try {
-			final DET det = new DET(log);
+		try (AsyncLogSink reports = openReports(log, doLogReports || doMatchingReports);
+		     FrameSources frameSources = new FrameSources(log, noOfIoThreads, readAhead))
+		{
+			frameSources.useFrameCache(frameCache);
+			final DET det = new DET(reports != null ? reports.getLogger() : log);
 			det.doLogReports      = doLogReports;
 			det.doMatchingReports = doMatchingReports;
 			det.noOfDigits        = noOfDigits;
@@ -162,7 +193,23 @@ public class plugin_DETmeasure implements Command
 			if (timePoints.size() > 0)
 				det.doOnlyTheseTimepoints = timePoints;
 
-			DET = det.calculate(GTdir, RESdir);
+			final boolean doCheckpoint = checkpointFile != null && checkpointFile.getPath().length() > 0;
+			if (timePoints.size() > 0)
+			{
+				if (doCheckpoint) log.warn("Not checkpointing, the checkpoint is used only when all timepoints are processed.");
+				DET = det.calculate(GTdir, RESdir);
+			}
+			else
+			{
+				//all images are read and classified upfront, with the parallel TIFF reader and prefetching
+				final FrameSourceTrackDataCache cache
+					= new FrameSourceTrackDataCache(reports != null ? reports.getLogger() : log, frameSources);
+				cache.noOfDigits = noOfDigits;
+				cache.shouldComplainOnEmptyImages = optionStopOnEmptyImages;
+				if (doCheckpoint) cache.useCheckpoint(checkpointFile.toPath(), checkpointPeriod, doResume);
+				cache.calculate(GTdir, RESdir);
+				DET = det.calculate(GTdir, RESdir, cache);
+			}
 		}
 		catch (RuntimeException e) {
 			log.error("CTC DET measure problem: "+e.getMessage());
@@ -39,7 +39,31 @@ import org.scijava.log.Logger;
 import org.scijava.log.LogService;
 
 import org.scijava.widget.FileWidget;
+import org.scijava.widget.TextWidget;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import net.celltrackingchallenge.fiji.plugins.io.CheckpointFiles;
+import net.celltrackingchallenge.fiji.plugins.io.ColumnarTableWriter;
+import net.celltrackingchallenge.fiji.plugins.util.DatasetMeasuresEngine;
+import net.celltrackingchallenge.fiji.plugins.util.DatasetMeasuresPlan.Measure;
 
 import net.celltrackingchallenge.measures.ImgQualityDataCache;
 import net.celltrackingchallenge.measures.SNR;
@@ -66,7 +90,7 @@ public class plugin_DSmeasures implements Command
 {
 	@Parameter
 	private LogService logService;
-	@Parameter
+	@Parameter(required = false)
 	private OpService opService;
 
 	@Parameter(label = "Path to images folder:",
@@ -97,11 +121,51 @@ public class plugin_DSmeasures implements Command
 	@Parameter(label = "Path to annotations folder:",
 		style = FileWidget.DIRECTORY_STYLE,
 		description = "Path should contain folders BG and TRA and annotation files: "
-			+ "BG/mask???.tif, TRA/man_track???.tif and man_track.txt. "
+			+ "BG/mask???.tif (unless created below), TRA/man_track???.tif and man_track.txt. "
 			+ "The TRA/man_track???.tif must provide realistic masks of cells (not just blobs representing centres etc.).",
 		persistKey = "ctc_sequence_folder")
 	private File annPath;
 
+	@Parameter(label = "Further videos to process (optional):",
+		style = TextWidget.AREA_STYLE, required = false,
+		description = "One video per line as 'images folder ; annotations folder', e.g. the 02 and 02_GT folders of the same dataset. "
+			+ "All videos are then processed concurrently and the reported values are over all cells (frames) of all of them, as if they were one video.")
+	String moreVideos = "";
+
+	@Parameter(label = "Number of videos processed in parallel:", min = "1",
+		description = "Applies only when further videos are given.")
+	int noOfParallelVideos = 2;
+
+	@Parameter(label = "Number of threads for the built-in measures:", min = "1",
+		description = "The frames of one video are measured with this many threads.")
+	int noOfThreads = Runtime.getRuntime().availableProcessors();
+
+	@Parameter(label = "BG masks for the built-in measures:", choices = {
+			"Read from BG/mask???.tif",
+			"Create from TRA, individually for each timepoint",
+			"Create from TRA, one for all timepoints"
+	}, description = "The BG masks can be created on the fly from the TRA masks, the same as with the 'Create BG Masks' plugin, "
+			+ "which saves reading and writing them. The CTC-measures calculations always read them from the files.")
+	String bgMasks = "Read from BG/mask???.tif";
+
+	@Parameter(label = "Post processing erosion of the created BG masks, pixel radius:", min = "0",
+		description = "Set to 0 to disable the post-processing.")
+	int widthOfPostprocessingErosion = 0;
+
+	@Parameter(label = "Save the created BG masks into BG/mask???.tif:")
+	boolean doSaveBgMasks = false;
+
+	@Parameter(label = "Checkpoint file (optional):",
+		style = FileWidget.SAVE_STYLE, required = false,
+		description = "If given, the values of every video finished without errors are saved into this file. "
+			+ "Nothing is saved while a video is being processed, so this helps only with multiple videos.")
+	File checkpointFile = null;
+
+	@Parameter(label = "Resume from the checkpoint file:",
+		description = "Videos found in the checkpoint file are not processed again, "
+			+ "but their per cell tables are then not available.")
+	boolean doResume = false;
+
 	@Parameter(label = "Verbose log:")
 	boolean doVerboseLogging = false;
 
@@ -110,9 +174,17 @@ public class plugin_DSmeasures implements Command
 			"To console, grouped by video, timepoint then cell_id",
 			"To console, grouped by video, cell_id then timepoint",
 			"To console with separating empty lines, grouped by video, cell_id then timepoint"
-	})
+	}, description = "The per cell table is provided only by CTC-measures, so all measures are then "
+			+ "calculated with them regardless of the choices of the built-in calculations.")
 	String doPerCellReporting = "None";
 
+	@Parameter(label = "Per cell export to binary file:",
+		style = FileWidget.SAVE_STYLE, required = false,
+		description = "If given, the per cell table (grouped by video, timepoint then cell_id) is also saved "
+			+ "into this file in a columnar binary layout, which is suitable for memory-mapping. Leave empty to skip. "
+			+ "All measures are then calculated with CTC-measures, as only they provide the per cell table.")
+	File perCellExportFile = null;
+
 	@Parameter(visibility = ItemVisibility.MESSAGE, persist = false, required = false)
 	private final String pathFooterA
 		= "Note that folders has to comply with certain data format, please see";
@@ -141,18 +213,40 @@ public class plugin_DSmeasures implements Command
 		description = "Evaluates the heterogeneity (as standard deviation) of the signal between cells.")
 	private boolean calcHetb = true;
 
+	@Parameter(label = "SNR, CR, Heti and Hetb calculated with:", choices = {
+			"CTC-measures",
+			"Built-in (fast)"
+	}, description = "The CTC-measures one is the original implementation, "
+			+ "the built-in calculation collects all four measures in one scan of every raw image.")
+	String intensityEngine = "CTC-measures";
+
 	@Parameter(label = "Res",
 		description = "Evaluates the average resolution, measured as the average size of the cells in number of pixels (2D) or voxels (3D).")
 	private boolean calcRes = true;
 
 	@Parameter(label = "Sha",
 		description = "Evaluates the average regularity of the cell shape, normalized between 0 (completely irregular) and 1 (perfectly regular).")
-	private boolean calcSha = false;
+	private boolean calcSha = true;
+
+	@Parameter(label = "Sha calculated with:", choices = {
+			"Built-in (fast)",
+			"ImageJ Ops"
+	}, description = "The built-in calculation measures every cell in one scan of its bounding box, it estimates "
+			+ "the cell boundary from the boundary crossings along the pixel grid in many directions. "
+			+ "The ImageJ Ops one is the original (and much slower) implementation from CTC-measures.")
+	String shaEngine = "Built-in (fast)";
 
 	@Parameter(label = "Spa",
 		description = "Evaluates the cell density measured as average minimum pixel (2D) or voxel (3D) distance between cells.")
 	private boolean calcSpa = true;
 
+	@Parameter(label = "Spa calculated with:", choices = {
+			"CTC-measures",
+			"Built-in (fast)"
+	}, description = "The CTC-measures one is the original implementation, the built-in calculation "
+			+ "searches for the nearest other cell with a grid index over the cell boundaries.")
+	String spaEngine = "CTC-measures";
+
 	@Parameter(label = "Cha",
 		description = "Evaluates the absolute change of the average intensity of the cells with time.")
 	private boolean calcCha = true;
@@ -165,6 +259,21 @@ public class plugin_DSmeasures implements Command
 		description = "Evaluates the average number of division events per frame.")
 	private boolean calcMit = true;
 
+	@Parameter(label = "Res and Mit calculated with:", choices = {
+			"CTC-measures",
+			"Built-in (fast)"
+	}, description = "The CTC-measures one is the original implementation, "
+			+ "the built-in calculation reads only the TRA masks for Res, and only man_track.txt for Mit.")
+	String resMitEngine = "CTC-measures";
+
+	@Parameter(label = "Cha and Ove calculated with:", choices = {
+			"CTC-measures",
+			"Built-in (fast)"
+	}, description = "The CTC-measures one is the original implementation, the built-in calculation streams "
+			+ "through the video keeping only two consecutive frames, and obtains both measures from one "
+			+ "comparison of their masks.")
+	String temporalEngine = "CTC-measures";
+
 	/*
 	@Parameter(label = "Syn",
 		description = "Evaluates the foo.")
@@ -252,186 +361,651 @@ public class plugin_DSmeasures implements Command
 		IMGdir = imgPath.getPath();
 		ANNdir = annPath.getPath();
 
+		//the videos to be processed, the one from the paths above comes always first
+		final List<String[]> videos = new ArrayList<>(10);
+		videos.add(new String[] {IMGdir, ANNdir});
+		if (moreVideos != null) for (String line : moreVideos.split("\n"))
+		{
+			line = line.trim();
+			if (line.length() == 0 || line.startsWith("#")) continue;
+			final String[] pair = line.split(";");
+			if (pair.length != 2)
+			{
+				log.error("Skipping video, expected 'images folder ; annotations folder' but got: "+line);
+				continue;
+			}
+			videos.add(new String[] {pair[0].trim(), pair[1].trim()});
+		}
+
+		//values of the already finished videos
+		final Path checkpoint = checkpointFile != null && checkpointFile.getPath().length() > 0
+				? checkpointFile.toPath() : null;
+		final Map<String,MeasuresValues> finished = new LinkedHashMap<>();
+		if (doResume && CheckpointFiles.exists(checkpoint))
+		{
+			try {
+				MeasuresValues.loadCheckpoint(checkpoint, checkpointSettings(resolution), finished);
+				log.info("Resuming with "+finished.size()+" videos from: "+checkpoint);
+			}
+			catch (IOException e) {
+				log.error("Not resuming, the checkpoint cannot be used: "+e.getMessage());
+			}
+		}
+
+		final List<MeasuresValues> results = new ArrayList<>(videos.size());
+		if (videos.size() == 1)
+			results.add( calculateVideo(IMGdir, ANNdir, resolution, log, finished, checkpoint, false) );
+		else
+		{
+			final int noOfThreads = Math.max(1, Math.min(noOfParallelVideos, videos.size()));
+			log.info("Processing "+videos.size()+" videos, "+noOfThreads+" of them in parallel");
+
+			final ExecutorService workers = Executors.newFixedThreadPool(noOfThreads);
+			final List<Future<MeasuresValues>> futures = new ArrayList<>(videos.size());
+			for (int i = 0; i < videos.size(); ++i)
+			{
+				final String[] video = videos.get(i);
+				final Logger videoLog = log.subLogger("video"+(i+1));
+				futures.add( workers.submit(() -> calculateVideo(video[0], video[1], resolution, videoLog, finished, checkpoint, true)) );
+			}
+			workers.shutdown();
+
+			for (int i = 0; i < videos.size(); ++i)
+			{
+				try {
+					results.add( futures.get(i).get() );
+				}
+				catch (InterruptedException | ExecutionException e) {
+					log.error("Video "+videos.get(i)[0]+" failed: "+e.getMessage());
+					results.add( new MeasuresValues() );
+				}
+			}
+
+			for (int i = 0; i < videos.size(); ++i)
+				log.info("Video "+(i+1)+": "+videos.get(i)[0]+" ; "+videos.get(i)[1]+" -> "+results.get(i));
+		}
+
+		//pooled values, which are just the per-video values when only one video is processed
+		if (results.size() > 1) for (Measure m : Measure.values())
+			if (results.stream().anyMatch(r -> r.get(m) >= 0 && r.getWeight(m) == 0))
+				log.warn("Pooled "+m+" leaves out the videos where the number of its terms is not known.");
+		SNR  = MeasuresValues.pool(results, Measure.SNR);
+		CR   = MeasuresValues.pool(results, Measure.CR);
+		Heti = MeasuresValues.pool(results, Measure.HETI);
+		Hetb = MeasuresValues.pool(results, Measure.HETB);
+		Res  = MeasuresValues.pool(results, Measure.RES);
+		Sha  = MeasuresValues.pool(results, Measure.SHA);
+		Spa  = MeasuresValues.pool(results, Measure.SPA);
+		Cha  = MeasuresValues.pool(results, Measure.CHA);
+		Ove  = MeasuresValues.pool(results, Measure.OVE);
+		Mit  = MeasuresValues.pool(results, Measure.MIT);
+
+		if (isPerCellTableWanted() && results.stream().anyMatch(r -> r.cache == null))
+			log.warn("Per cell tables are not available for the videos taken from the checkpoint.");
+
+		if (perCellExportFile != null && perCellExportFile.getPath().length() > 0)
+		{
+			final List<ImgQualityDataCache.MeasuresTableRow> table = new ArrayList<>();
+			for (MeasuresValues r : results)
+				if (r.cache != null) table.addAll( r.cache.getMeasuresTable() );
+			try {
+				ColumnarTableWriter.write(perCellExportFile.toPath(),
+						table, ImgQualityDataCache.MeasuresTableRow.class);
+				log.info("Per cell table saved into: "+perCellExportFile.getPath());
+			}
+			catch (IOException e) {
+				log.error("Per cell export error: "+e.getMessage());
+			}
+		}
+
+		if (doPerCellReporting.startsWith("None")) return;
+		if (doPerCellReporting.contains("timepoint then cell"))
+		{
+			System.out.println(ImgQualityDataCache.MeasuresTableRow.printHeader());
+			for (MeasuresValues r : results)
+				if (r.cache != null)
+					for (ImgQualityDataCache.MeasuresTableRow row : r.cache.getMeasuresTable())
+						System.out.println(row);
+			return;
+		}
+		//
+		//else: cell_id then timepoint
+		int curId = -1;
+		final boolean doSeparating = doPerCellReporting.contains("separating");
+		System.out.println(ImgQualityDataCache.MeasuresTableRow.printHeader());
+		for (MeasuresValues r : results) {
+			if (r.cache == null) continue;
+			for (ImgQualityDataCache.MeasuresTableRow row : r.cache.getMeasuresTable_GroupedByCellsThenByVideos()) {
+				if (doSeparating && row.cellTraId != curId) {
+					if (curId != -1) System.out.println(); //print empty line before the listing of another cell
+					curId = row.cellTraId;
+				}
+				System.out.println(row);
+			}
+			//make sure the next video starts with the separating line too
+			if (curId != -1) curId = -2;
+		}
+	}
+
+	/**
+	 * returns the values of the given video from the checkpoint, or calculates them
+	 * and updates the checkpoint (if given) provided all measures were calculated
+	 * without an error; the checkpoint is thus updated only after the whole video,
+	 * there is no checkpointing within a video (so a run on a single video is not
+	 * resumable)
+	 */
+	MeasuresValues calculateVideo(final String imgDir, final String annDir, final double[] resolution, final Logger log,
+	                              final Map<String,MeasuresValues> finished, final Path checkpoint,
+	                              final boolean withWeights)
+	{
+		final String key = imgDir+" ; "+annDir;
+		synchronized (finished)
+		{
+			final MeasuresValues v = finished.get(key);
+			if (v != null)
+			{
+				log.info("Values taken from the checkpoint: "+v);
+				return v;
+			}
+		}
+
+		final MeasuresValues v = calculateVideo(imgDir, annDir, resolution, log, withWeights);
+		if (checkpoint != null && v.hasFailed)
+			log.warn("Not checkpointing the video as some of its measures have failed: "+key);
+		else if (checkpoint != null) synchronized (finished)
+		{
+			finished.put(key, v);
+			try {
+				CheckpointFiles.writeAtomically(checkpoint,
+						f -> MeasuresValues.saveCheckpoint(f, checkpointSettings(resolution), finished));
+			}
+			catch (IOException e) {
+				log.error("Checkpoint error: "+e.getMessage());
+			}
+		}
+		return v;
+	}
+
+	/** the parameters that the checkpointed values depend on */
+	String checkpointSettings(final double[] resolution)
+	{
+		return "digits="+noOfDigits+" res="+resolution[0]+","+resolution[1]+","+resolution[2]
+			+" measures="+calcSNR+calcCR+calcHeti+calcHetb+calcRes+calcSha+calcSpa+calcCha+calcOve+calcMit
+			+" bg="+bgMasks+","+widthOfPostprocessingErosion
+			+" built-in="+builtInMeasures();
+	}
+
+	/**
+	 * calculates all selected measures on the given video, -1 stands for not-calculated value;
+	 * withWeights asks also for the numbers of terms of the values, to pool them over more videos
+	 */
+	MeasuresValues calculateVideo(final String imgDir, final String annDir, final double[] resolution, final Logger log,
+	                              final boolean withWeights)
+	{
 		//reference on a shared object that does
 		//pre-fetching of data and some common pre-calculation
 		//
 		//create an "empty" object and tell it what features we wanna calculate,
 		//the first measure to be calculated will recognize that this object does not fit
 		//and will make a new one that fits and will retain the flags of demanded features
-		ImgQualityDataCache cache = new ImgQualityDataCache(log,opService);
-		if (calcSpa) cache.doDensityPrecalculation = true;
-		if (calcSha) cache.doShapePrecalculation = true;
+		final MeasuresValues v = new MeasuresValues();
+		final EnumSet<Measure> builtIn = builtInMeasures();
+		final boolean shaWithOps = calcSha && !builtIn.contains(Measure.SHA);
+		final boolean spaWithCTC = calcSpa && !builtIn.contains(Measure.SPA);
+		ImgQualityDataCache cache = opService != null ? new ImgQualityDataCache(log,opService) : new ImgQualityDataCache(log);
+		if (spaWithCTC) cache.doDensityPrecalculation = true;
+		if (shaWithOps) cache.doShapePrecalculation = true;
 		cache.noOfDigits = noOfDigits;
 
+		if (!bgMasks.startsWith("Read")
+				&& ((calcSNR || calcCR || calcHeti || calcHetb) && !isBuiltIn(intensityEngine)
+				 || (calcCha || calcOve) && !isBuiltIn(temporalEngine)
+				 || calcRes && !isBuiltIn(resMitEngine)))
+			log.warn("Measures calculated with CTC-measures read the BG masks from BG/mask???.tif, not the created ones.");
+
 		//do the calculation and retrieve updated cache afterwards
-		if (calcSNR)
+		if (calcSNR && !builtIn.contains(Measure.SNR))
 		{
 			try {
 				final SNR snr = new SNR(log);
-				SNR = snr.calculate(IMGdir, resolution, ANNdir, cache);
+				v.SNR = snr.calculate(imgDir, resolution, annDir, cache);
 				cache = snr.getCache();
 			}
 			catch (RuntimeException e) {
 				log.error("CTC SNR measure problem: "+e.getMessage());
+				v.hasFailed = true;
 			}
 			catch (Exception e) {
 				log.error("CTC SNR measure error: "+e.getMessage());
+				v.hasFailed = true;
 			}
 		}
 
-		if (calcCR)
+		if (calcCR && !builtIn.contains(Measure.CR))
 		{
 			try {
 				final CR cr = new CR(log);
-				CR = cr.calculate(IMGdir, resolution, ANNdir, cache);
+				v.CR = cr.calculate(imgDir, resolution, annDir, cache);
 				cache = cr.getCache();
 			}
 			catch (RuntimeException e) {
 				log.error("CTC CR measure problem: "+e.getMessage());
+				v.hasFailed = true;
 			}
 			catch (Exception e) {
 				log.error("CTC CR measure error: "+e.getMessage());
+				v.hasFailed = true;
 			}
 		}
 
-		if (calcHeti)
+		if (calcHeti && !builtIn.contains(Measure.HETI))
 		{
 			try {
 				final HETI heti = new HETI(log);
-				Heti = heti.calculate(IMGdir, resolution, ANNdir, cache);
+				v.Heti = heti.calculate(imgDir, resolution, annDir, cache);
 				cache = heti.getCache();
 			}
 			catch (RuntimeException e) {
 				log.error("CTC Heti measure problem: "+e.getMessage());
+				v.hasFailed = true;
 			}
 			catch (Exception e) {
 				log.error("CTC Heti measure error: "+e.getMessage());
+				v.hasFailed = true;
 			}
 		}
 
-		if (calcHetb)
+		if (calcHetb && !builtIn.contains(Measure.HETB))
 		{
 			try {
 				final HETB hetb = new HETB(log);
-				Hetb = hetb.calculate(IMGdir, resolution, ANNdir, cache);
+				v.Hetb = hetb.calculate(imgDir, resolution, annDir, cache);
 				cache = hetb.getCache();
 			}
 			catch (RuntimeException e) {
 				log.error("CTC Hetb measure problem: "+e.getMessage());
+				v.hasFailed = true;
 			}
 			catch (Exception e) {
 				log.error("CTC Hetb measure error: "+e.getMessage());
+				v.hasFailed = true;
 			}
 		}
 
-		if (calcRes)
+		if (calcRes && !builtIn.contains(Measure.RES))
 		{
 			try {
 				final RES res = new RES(log);
-				Res = res.calculate(IMGdir, resolution, ANNdir, cache);
+				v.Res = res.calculate(imgDir, resolution, annDir, cache);
 				cache = res.getCache();
 			}
 			catch (RuntimeException e) {
 				log.error("CTC Res measure problem: "+e.getMessage());
+				v.hasFailed = true;
 			}
 			catch (Exception e) {
 				log.error("CTC Res measure error: "+e.getMessage());
+				v.hasFailed = true;
 			}
 		}
 
-		if (calcSha)
+		if (shaWithOps && opService == null)
+		{
+			log.error("CTC Sha measure problem: ImageJ Ops are not available, use the built-in calculation.");
+			v.hasFailed = true;
+		}
+		else if (shaWithOps)
 		{
 			try {
 				final SHA sha = new SHA(log,opService);
-				Sha = sha.calculate(IMGdir, resolution, ANNdir, cache);
+				v.Sha = sha.calculate(imgDir, resolution, annDir, cache);
 				cache = sha.getCache();
 			}
 			catch (RuntimeException e) {
 				log.error("CTC Sha measure problem: "+e.getMessage());
+				v.hasFailed = true;
 			}
 			catch (Exception e) {
 				log.error("CTC Sha measure error: "+e.getMessage());
+				v.hasFailed = true;
 			}
 		}
 
-		if (calcSpa)
+		if (spaWithCTC)
 		{
 			try {
 				final SPA spa = new SPA(log);
-				Spa = spa.calculate(IMGdir, resolution, ANNdir, cache);
+				v.Spa = spa.calculate(imgDir, resolution, annDir, cache);
 				cache = spa.getCache();
 			}
 			catch (RuntimeException e) {
 				log.error("CTC Den measure problem: "+e.getMessage());
+				v.hasFailed = true;
 			}
 			catch (Exception e) {
 				log.error("CTC Den measure error: "+e.getMessage());
+				v.hasFailed = true;
 			}
 		}
 
-		if (calcCha)
+		if (calcCha && !builtIn.contains(Measure.CHA))
 		{
 			try {
 				final CHA cha = new CHA(log);
-				Cha = cha.calculate(IMGdir, resolution, ANNdir, cache);
+				v.Cha = cha.calculate(imgDir, resolution, annDir, cache);
 				cache = cha.getCache();
 			}
 			catch (RuntimeException e) {
 				log.error("CTC Cha measure problem: "+e.getMessage());
+				v.hasFailed = true;
 			}
 			catch (Exception e) {
 				log.error("CTC Cha measure error: "+e.getMessage());
+				v.hasFailed = true;
 			}
 		}
 
-		if (calcOve)
+		if (calcOve && !builtIn.contains(Measure.OVE))
 		{
 			try {
 				final OVE ove = new OVE(log);
-				Ove = ove.calculate(IMGdir, resolution, ANNdir, cache);
+				v.Ove = ove.calculate(imgDir, resolution, annDir, cache);
 				cache = ove.getCache();
 			}
 			catch (RuntimeException e) {
 				log.error("CTC Ove measure problem: "+e.getMessage());
+				v.hasFailed = true;
 			}
 			catch (Exception e) {
 				log.error("CTC Ove measure error: "+e.getMessage());
+				v.hasFailed = true;
 			}
 		}
 
-		if (calcMit)
+		if (calcMit && !builtIn.contains(Measure.MIT))
 		{
 			try {
 				final MIT mit = new MIT(log);
-				Mit = mit.calculate(null,null, ANNdir);
+				v.Mit = mit.calculate(null,null, annDir);
 			}
 			catch (RuntimeException e) {
 				log.error("CTC Mit measure problem: "+e.getMessage());
+				v.hasFailed = true;
 			}
 			catch (Exception e) {
 				log.error("CTC Mit measure error: "+e.getMessage());
+				v.hasFailed = true;
 			}
 		}
 
-		if (doPerCellReporting.startsWith("None")) return;
-		if (doPerCellReporting.contains("timepoint then cell"))
+		if (!builtIn.isEmpty()) calculateBuiltIn(imgDir, annDir, resolution, builtIn, log, v);
+		if (withWeights) countTerms(imgDir, annDir, resolution, log, v);
+
+		//the per cell table is available only if CTC-measures have calculated something
+		final boolean anyWithCTC = calcSNR && !builtIn.contains(Measure.SNR) || calcCR && !builtIn.contains(Measure.CR)
+				|| calcHeti && !builtIn.contains(Measure.HETI) || calcHetb && !builtIn.contains(Measure.HETB)
+				|| calcRes && !builtIn.contains(Measure.RES) || shaWithOps || spaWithCTC
+				|| calcCha && !builtIn.contains(Measure.CHA) || calcOve && !builtIn.contains(Measure.OVE);
+		v.cache = anyWithCTC ? cache : null;
+		return v;
+	}
+
+	/** whether Sha is to be calculated with ImageJ Ops */
+	boolean needsOps()
+	{ return calcSha && !builtInMeasures().contains(Measure.SHA); }
+
+	static boolean isBuiltIn(final String engineChoice)
+	{
+		return engineChoice.startsWith("Built-in");
+	}
+
+	/** the per cell table is filled only by CTC-measures */
+	boolean isPerCellTableWanted()
+	{
+		return !doPerCellReporting.startsWith("None")
+			|| perCellExportFile != null && perCellExportFile.getPath().length() > 0;
+	}
+
+	/**
+	 * the selected measures that are to be calculated with the DatasetMeasuresEngine,
+	 * none if the per cell table is wanted as only CTC-measures provide it
+	 */
+	EnumSet<Measure> builtInMeasures()
+	{
+		final EnumSet<Measure> m = EnumSet.noneOf(Measure.class);
+		if (isPerCellTableWanted()) return m;
+		if (isBuiltIn(intensityEngine))
 		{
-			System.out.println(ImgQualityDataCache.MeasuresTableRow.printHeader());
-			for (ImgQualityDataCache.MeasuresTableRow row : cache.getMeasuresTable())
-				System.out.println(row);
-			return;
+			if (calcSNR)  m.add(Measure.SNR);
+			if (calcCR)   m.add(Measure.CR);
+			if (calcHeti) m.add(Measure.HETI);
+			if (calcHetb) m.add(Measure.HETB);
 		}
-		//
-		//else: cell_id then timepoint
-		int curId = -1;
-		final boolean doSeparating = doPerCellReporting.contains("separating");
-		System.out.println(ImgQualityDataCache.MeasuresTableRow.printHeader());
-		for (ImgQualityDataCache.MeasuresTableRow row : cache.getMeasuresTable_GroupedByCellsThenByVideos()) {
-			if (doSeparating && row.cellTraId != curId) {
-				if (curId != -1) System.out.println(); //print empty line before the listing of another cell
-				curId = row.cellTraId;
+		if (isBuiltIn(resMitEngine))
+		{
+			if (calcRes) m.add(Measure.RES);
+			if (calcMit) m.add(Measure.MIT);
+		}
+		if (calcSha && isBuiltIn(shaEngine)) m.add(Measure.SHA);
+		if (calcSpa && isBuiltIn(spaEngine)) m.add(Measure.SPA);
+		if (isBuiltIn(temporalEngine))
+		{
+			if (calcCha) m.add(Measure.CHA);
+			if (calcOve) m.add(Measure.OVE);
+		}
+		return m;
+	}
+
+	/** calculates the given measures with the DatasetMeasuresEngine */
+	void calculateBuiltIn(final String imgDir, final String annDir, final double[] resolution,
+	                      final EnumSet<Measure> measures, final Logger log, final MeasuresValues v)
+	{
+		try (DatasetMeasuresEngine engine = new DatasetMeasuresEngine(log, resolution, noOfDigits, noOfThreads))
+		{
+			if (bgMasks.contains("individually"))
+				engine.bgMasks = DatasetMeasuresEngine.BgMasks.CREATE_FOR_EACH_TIMEPOINT;
+			else if (bgMasks.contains("one for all"))
+				engine.bgMasks = DatasetMeasuresEngine.BgMasks.CREATE_ONE_FOR_ALL_TIMEPOINTS;
+			engine.bgErosionRadius = widthOfPostprocessingErosion;
+			engine.doSaveBgMasks = doSaveBgMasks;
+
+			for (Measure m : measures) engine.select(m);
+			engine.calculate(Paths.get(imgDir), Paths.get(annDir));
+
+			if (engine.isSelected(Measure.SNR))  v.SNR  = engine.get(Measure.SNR);
+			if (engine.isSelected(Measure.CR))   v.CR   = engine.get(Measure.CR);
+			if (engine.isSelected(Measure.HETI)) v.Heti = engine.get(Measure.HETI);
+			if (engine.isSelected(Measure.HETB)) v.Hetb = engine.get(Measure.HETB);
+			if (engine.isSelected(Measure.RES))  v.Res  = engine.get(Measure.RES);
+			if (engine.isSelected(Measure.SHA))  v.Sha  = engine.get(Measure.SHA);
+			if (engine.isSelected(Measure.SPA))  v.Spa  = engine.get(Measure.SPA);
+			if (engine.isSelected(Measure.CHA))  v.Cha  = engine.get(Measure.CHA);
+			if (engine.isSelected(Measure.OVE))  v.Ove  = engine.get(Measure.OVE);
+			if (engine.isSelected(Measure.MIT))  v.Mit  = engine.get(Measure.MIT);
+			for (Measure m : measures) v.weights.put(m, engine.getWeight(m));
+		}
+		catch (RuntimeException e) {
+			log.error("CTC built-in measures problem: "+e.getMessage());
+			v.hasFailed = true;
+		}
+		catch (Exception e) {
+			log.error("CTC built-in measures error: "+e.getMessage());
+			v.hasFailed = true;
+		}
+	}
+
+
+	/**
+	 * fills the weights of the values calculated with CTC-measures, which do not
+	 * tell how many terms they have averaged: the number of cells in the TRA masks
+	 * for SNR, CR, Heti, Res, Sha and Spa, the number of cells found in two
+	 * consecutive frames for Cha and Ove, and the number of frames for Hetb and Mit;
+	 * terms that CTC-measures skip (e.g. for a zero denominator) are thus counted too
+	 */
+	void countTerms(final String imgDir, final String annDir, final double[] resolution,
+	                final Logger log, final MeasuresValues v)
+	{
+		final EnumSet<Measure> missing = EnumSet.noneOf(Measure.class);
+		for (Measure m : Measure.values())
+			if (v.get(m) >= 0 && v.getWeight(m) == 0) missing.add(m);
+		if (missing.isEmpty()) return;
+
+		try (DatasetMeasuresEngine engine = new DatasetMeasuresEngine(log, resolution, noOfDigits, noOfThreads))
+		{
+			engine.select(Measure.RES);
+			if (missing.contains(Measure.CHA) || missing.contains(Measure.OVE)) engine.select(Measure.OVE);
+			engine.calculate(Paths.get(imgDir), Paths.get(annDir));
+
+			for (Measure m : missing)
+			{
+				switch (m)
+				{
+				case HETB:
+				case MIT:
+					v.weights.put(m, (long)engine.getNoOfFrames());
+					break;
+				case CHA:
+				case OVE:
+					v.weights.put(m, engine.getWeight(Measure.OVE));
+					break;
+				default:
+					v.weights.put(m, engine.getWeight(Measure.RES));
+				}
 			}
-			System.out.println(row);
+		}
+		catch (RuntimeException e) {
+			log.error("Counting cells for pooling problem: "+e.getMessage());
+			v.hasFailed = true;
+		}
+		catch (Exception e) {
+			log.error("Counting cells for pooling error: "+e.getMessage());
+			v.hasFailed = true;
+		}
+	}
+
+
+	/** values of all measures for one video, -1 stands for not-calculated value */
+	static class MeasuresValues
+	{
+		double SNR = -1, CR = -1, Heti = -1, Hetb = -1, Res = -1;
+		double Sha = -1, Spa = -1, Cha = -1, Ove = -1, Mit = -1;
+
+		//the cache that was used for this video
+		ImgQualityDataCache cache = null;
+
+		//whether some measure has failed on this video (such values are not checkpointed)
+		boolean hasFailed = false;
+
+		//the number of terms each value is the average of, see DatasetMeasuresEngine.getWeight()
+		final EnumMap<Measure,Long> weights = new EnumMap<>(Measure.class);
+
+		double get(final Measure measure)
+		{
+			switch (measure)
+			{
+			case SNR:  return SNR;
+			case CR:   return CR;
+			case HETI: return Heti;
+			case HETB: return Hetb;
+			case RES:  return Res;
+			case SHA:  return Sha;
+			case SPA:  return Spa;
+			case CHA:  return Cha;
+			case OVE:  return Ove;
+			default:   return Mit;
+			}
+		}
+
+		long getWeight(final Measure measure)
+		{
+			final Long w = weights.get(measure);
+			return w != null ? w : 0;
+		}
+
+		/**
+		 * average over all terms of the videos where the measure was calculated, which
+		 * equals the value over all the videos together, or -1 if over none of them;
+		 * a single video gives its value
+		 */
+		static double pool(final List<MeasuresValues> videos, final Measure measure)
+		{
+			if (videos.size() == 1) return videos.get(0).get(measure);
+
+			double sum = 0;
+			long cnt = 0;
+			for (MeasuresValues v : videos)
+			{
+				final double val = v.get(measure);
+				final long w = v.getWeight(measure);
+				if (val < 0 || w == 0) continue;
+				sum += val * (double)w;
+				cnt += w;
+			}
+			return cnt > 0 ? sum / (double)cnt : -1;
+		}
+
+		static final long CHECKPOINT_MAGIC = 0x43544344534B5032L; //"CTCDSKP2"
+
+		/** saves the values of the videos, the keys are 'images folder ; annotations folder' */
+		static void saveCheckpoint(final Path file, final String settings, final Map<String,MeasuresValues> videos)
+		throws IOException
+		{
+			try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file))))
+			{
+				out.writeLong(CHECKPOINT_MAGIC);
+				out.writeUTF(settings);
+				out.writeInt(videos.size());
+				for (Map.Entry<String,MeasuresValues> e : videos.entrySet())
+				{
+					out.writeUTF(e.getKey());
+					final MeasuresValues v = e.getValue();
+					for (double val : new double[] {v.SNR,v.CR,v.Heti,v.Hetb,v.Res,v.Sha,v.Spa,v.Cha,v.Ove,v.Mit})
+						out.writeDouble(val);
+					for (Measure m : Measure.values())
+						out.writeLong(v.getWeight(m));
+				}
+			}
+		}
+
+		/** loads the values of the videos, provided the checkpoint was made with the same settings */
+		static void loadCheckpoint(final Path file, final String settings, final Map<String,MeasuresValues> videos)
+		throws IOException
+		{
+			try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file))))
+			{
+				if (in.readLong() != CHECKPOINT_MAGIC)
+					throw new IOException(file+" is not a checkpoint of dataset measures.");
+				final String fileSettings = in.readUTF();
+				if (!fileSettings.equals(settings))
+					throw new IOException("it was made with other settings: "+fileSettings);
+
+				final int noOfVideos = in.readInt();
+				for (int i = 0; i < noOfVideos; ++i)
+				{
+					final String key = in.readUTF();
+					final MeasuresValues v = new MeasuresValues();
+					v.SNR  = in.readDouble();
+					v.CR   = in.readDouble();
+					v.Heti = in.readDouble();
+					v.Hetb = in.readDouble();
+					v.Res  = in.readDouble();
+					v.Sha  = in.readDouble();
+					v.Spa  = in.readDouble();
+					v.Cha  = in.readDouble();
+					v.Ove  = in.readDouble();
+					v.Mit  = in.readDouble();
+					for (Measure m : Measure.values())
+						v.weights.put(m, in.readLong());
+					videos.put(key, v);
+				}
+			}
+		}
+
+		@Override
+		public String toString()
+		{
+			return "SNR="+SNR+" CR="+CR+" Heti="+Heti+" Hetb="+Hetb+" Res="+Res
+				+" Sha="+Sha+" Spa="+Spa+" Cha="+Cha+" Ove="+Ove+" Mit="+Mit;
 		}
 	}
 }
@@ -0,0 +1,76 @@
+/*-
+ * #%L
+ * CTC-Fiji-plugins
+ * %%
+ * Copyright (C) 2017 - 2023 Vladimír Ulman
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package net.celltrackingchallenge.fiji.plugins;
+
+import org.scijava.ItemIO;
+import org.scijava.command.Command;
+import org.scijava.plugin.Parameter;
+import org.scijava.plugin.Plugin;
+import org.scijava.log.LogService;
+
+import net.celltrackingchallenge.fiji.plugins.io.FrameCacheService;
+
+@Plugin(type = Command.class, menuPath = "Plugins>Cell Tracking Challenge>Frame cache settings",
+        name = "CTC_FrameCache", headless = true,
+		  description = "Adjusts the memory for the label images that are kept between runs of the CTC plugins,\n"
+				+"so that evaluations over the same folders need not read the images again.\n"
+				+"The caching is off until this command is run.")
+public class plugin_FrameCache implements Command
+{
+	@Parameter
+	private LogService log;
+
+	@Parameter
+	private FrameCacheService frameCache;
+
+	@Parameter(label = "Memory for the cached images (MB):", min = "0",
+		description = "Set to 0 to disable the caching.")
+	private long budgetInMB = Runtime.getRuntime().maxMemory() / 4 / (1 << 20);
+
+	@Parameter(label = "Empty the cache now:")
+	private boolean doClear = false;
+
+	@Parameter(type = ItemIO.OUTPUT)
+	long usedMB = 0;
+
+	@Parameter(type = ItemIO.OUTPUT)
+	long spilledMB = 0;
+
+
+	@Override
+	public void run()
+	{
+		if (doClear) frameCache.clear();
+		frameCache.setBudget(budgetInMB << 20);
+		usedMB = frameCache.getUsedBytes() >> 20;
+		spilledMB = frameCache.getSpilledBytes() >> 20;
+		log.info("Frame cache uses "+usedMB+" MB out of "+budgetInMB+" MB");
+		if (spilledMB > 0) log.info("Frame cache keeps "+spilledMB+" MB on disk (moved there when the heap was low)");
+	}
+}
@@ -29,6 +29,9 @@
 package net.celltrackingchallenge.fiji.plugins;
 
 import net.celltrackingchallenge.measures.TrackDataCache;
+import net.celltrackingchallenge.fiji.plugins.io.FrameSourceTrackDataCache;
+import net.celltrackingchallenge.fiji.plugins.io.FrameCacheService;
+import net.celltrackingchallenge.fiji.plugins.io.FrameSources;
 import org.scijava.ItemIO;
 import org.scijava.ItemVisibility;
 import org.scijava.command.Command;
@@ -55,6 +58,9 @@ public class plugin_ICTmeasures implements Command
 	@Parameter
 	private LogService log;
 
+	@Parameter(required = false)
+	private FrameCacheService frameCache;
+
 	@Parameter(label = "Path to computed result folder:",
 		style = FileWidget.DIRECTORY_STYLE,
 		description = "Path should contain result files directly: mask???.tif and res_track.txt",
@@ -71,6 +77,14 @@ public class plugin_ICTmeasures implements Command
 		description = "Set to 3 if your files are, e.g., t000.tif, or to 5 if your files are, e.g., t00021.tif")
 	public int noOfDigits = 3;
 
+	@Parameter(label = "Number of frames to read ahead:", min = "0",
+		description = "While an image is processed, this many following images are already being read. Set to 0 to disable.")
+	private int readAhead = 2;
+
+	@Parameter(label = "Number of I/O threads:", min = "1",
+		description = "The number of images that can be read ahead at the same time.")
+	private int noOfIoThreads = 2;
+
 	@Parameter(visibility = ItemVisibility.MESSAGE, persist = false, required = false)
 	private final String pathFooterA
 		= "Note that folders has to comply with certain data format, please see";
@@ -174,7 +188,13 @@ public class plugin_ICTmeasures implements Command
 				tra.doConsistencyCheck = optionConsistency;
 				tra.doLogReports = optionVerboseLogging;
 				tra.noOfDigits = noOfDigits;
-				TRA = tra.calculate(GTdir, RESdir);
+				try (FrameSources frameSources = new FrameSources(log, noOfIoThreads, readAhead))
+				{
+					frameSources.useFrameCache(frameCache);
+					//the images are read and classified upfront, with the parallel TIFF reader and prefetching
+					TRA = tra.calculate(GTdir, RESdir, FrameSourceTrackDataCache.calculateFor(GTdir, RESdir,
+							noOfDigits, false, log, frameSources));
+				}
 				tradetCache = tra.getCache();
 			}
 			catch (RuntimeException e) {
@@ -0,0 +1,334 @@
+/*-
+ * #%L
+ * CTC-Fiji-plugins
+ * %%
+ * Copyright (C) 2017 - 2023 Vladimír Ulman
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package net.celltrackingchallenge.fiji.plugins;
+
+import org.scijava.ItemIO;
+import org.scijava.ItemVisibility;
+import org.scijava.command.Command;
+import org.scijava.plugin.Parameter;
+import org.scijava.plugin.Plugin;
+import org.scijava.log.LogService;
+import org.scijava.widget.FileWidget;
+
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.img.Img;
+import net.imglib2.type.numeric.integer.UnsignedShortType;
+import net.imglib2.view.Views;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import net.celltrackingchallenge.measures.TrackDataCache;
+import net.celltrackingchallenge.measures.util.NumberSequenceHandler;
+import net.celltrackingchallenge.fiji.plugins.io.CheckpointFiles;
+import net.celltrackingchallenge.fiji.plugins.io.FrameSourceTrackDataCache;
+import net.celltrackingchallenge.fiji.plugins.io.FrameCacheService;
+import net.celltrackingchallenge.fiji.plugins.io.FrameSources;
+import net.celltrackingchallenge.fiji.plugins.util.LabelOverlaps;
+import net.celltrackingchallenge.fiji.plugins.util.ParallelLabelClassifier;
+import net.celltrackingchallenge.fiji.plugins.util.PartialMeasures;
+
+@Plugin(type = Command.class, menuPath = "Plugins>Cell Tracking Challenge>Measure SEG and DET on part of timepoints",
+        name = "CTC_Shard", headless = true,
+		  description = "Calculates the ingredients of the SEG and DET measures on the given timepoints only,\n"
+				+"and stores them into a file. Such files, each from different timepoints, can be later\n"
+				+"merged together into the SEG and DET values of all the timepoints.\n"
+				+"The plugin assumes certain data format, please see\n"
+				+"http://celltrackingchallenge.net/submission-of-results/")
+public class plugin_MeasureShard implements Command
+{
+	//------------- GUI stuff -------------
+	//
+	@Parameter
+	private LogService log;
+
+	@Parameter(required = false)
+	private FrameCacheService frameCache;
+
+	@Parameter(label = "Path to computed result folder:",
+		style = FileWidget.DIRECTORY_STYLE,
+		description = "Path should contain result files directly: mask???.tif",
+		persistKey = "ctc_res_folder")
+	private File resPath;
+
+	@Parameter(label = "Path to ground-truth folder:",
+		style = FileWidget.DIRECTORY_STYLE,
+		description = "Path should contain folders SEG and TRA and files: SEG/man_seg*.tif, TRA/man_track???.tif",
+		persistKey = "ctc_gt_folder")
+	private File gtPath;
+
+	@Parameter(label = "Number of digits used in the image filenames:", min = "1",
+		description = "Set to 3 if your files are, e.g., t000.tif, or to 5 if your files are, e.g., t00021.tif")
+	public int noOfDigits = 3;
+
+	@Parameter(label = "Number of frames to read ahead:", min = "0",
+		description = "While an image is processed, this many following images are already being read. Set to 0 to disable.")
+	private int readAhead = 2;
+
+	@Parameter(label = "Number of I/O threads:", min = "1",
+		description = "The number of images that can be read ahead at the same time.")
+	private int noOfIoThreads = 2;
+
+	@Parameter(label = "Do only these timepoints (e.g. 1-9,23,25):",
+		description = "Comma separated list of numbers or intervals, interval is number-hyphen-number. Leave empty to have all images processed.",
+		validater = "timePointsStrValidator")
+	private String fileIdxStr = "";
+
+	@Parameter(label = "Calculate SEG:")
+	private boolean doSEG = true;
+
+	@Parameter(label = "Calculate DET:")
+	private boolean doDET = true;
+
+	@Parameter(label = "Save partial results into file:",
+		style = FileWidget.SAVE_STYLE,
+		description = "The file to be given later, together with files of other timepoints, to the CTC_MergeShards.")
+	private File partialFile;
+
+	@Parameter(label = "Checkpoint file (optional):",
+		style = FileWidget.SAVE_STYLE, required = false,
+		description = "If given, the results of the timepoints processed so far are regularly saved into this file. "
+			+"The TRA and DET measures have their own checkpoints, the dataset measures can be checkpointed "
+			+"only after every whole video.")
+	private File checkpointFile = null;
+
+	@Parameter(label = "Save the checkpoint after every this many timepoints:", min = "1")
+	private int checkpointPeriod = 10;
+
+	@Parameter(label = "Resume from the checkpoint file:",
+		description = "Timepoints found in the checkpoint file are not processed again.")
+	private boolean doResume = false;
+
+	@Parameter(label = "Number of threads:", min = "1",
+		description = "Every image is split into this many slabs that are processed in parallel.")
+	private int noOfThreads = Runtime.getRuntime().availableProcessors();
+
+	@Parameter(visibility = ItemVisibility.MESSAGE, persist = false, required = false)
+	private final String pathFooterA
+		= "Note that folders has to comply with certain data format, please see";
+	@Parameter(visibility = ItemVisibility.MESSAGE, persist = false, required = false)
+	private final String pathFooterB
+		= "http://celltrackingchallenge.net/submission-of-results/";
+
+
+	//hidden output values
+	@Parameter(type = ItemIO.OUTPUT)
+	String RESdir;
+	@Parameter(type = ItemIO.OUTPUT)
+	String GTdir;
+	@Parameter(type = ItemIO.OUTPUT)
+	String sep = "--------------------";
+
+	@Parameter(type = ItemIO.OUTPUT)
+	int noOfSEGframes = 0;
+	@Parameter(type = ItemIO.OUTPUT)
+	int noOfDETframes = 0;
+
+
+	@SuppressWarnings("unused")
+	private void timePointsStrValidator()
+	{
+		//check the string is parse-able
+		NumberSequenceHandler.toSet(fileIdxStr,null);
+	}
+
+
+	//the GUI path entry function:
+	@Override
+	public void run()
+	{
+		//saves the input paths for the final report table
+		GTdir  = gtPath.getPath();
+		RESdir = resPath.getPath();
+
+		//the last two frames are kept in memory, as the RES mask is read
+		//repeatedly when several slices of it are annotated for SEG
+		try (ParallelLabelClassifier classifier = new ParallelLabelClassifier(noOfThreads);
+		     FrameSources frameSources = new FrameSources(log, noOfThreads, noOfIoThreads, readAhead, 2))
+		{
+			frameSources.useFrameCache(frameCache);
+			final Set<Integer> timePoints = NumberSequenceHandler.toSet(fileIdxStr);
+			final TrackDataCache reader = new FrameSourceTrackDataCache(log, frameSources);
+
+			final Path checkpoint = checkpointFile != null && checkpointFile.getPath().length() > 0
+					? checkpointFile.toPath() : null;
+
+			final PartialMeasures partial;
+			if (doResume && CheckpointFiles.exists(checkpoint))
+			{
+				partial = PartialMeasures.load(checkpoint);
+				if (!partial.gtPath.equals(GTdir) || !partial.resPath.equals(RESdir))
+					throw new IllegalArgumentException("The checkpoint was created for other folders: "
+							+partial.gtPath+" and "+partial.resPath);
+
+				//only the timepoints asked for now
+				if (timePoints.size() > 0)
+				{
+					final int before = partial.segFrames.size() + partial.detFrames.size();
+					partial.segFrames.removeIf(f -> !timePoints.contains(f.time));
+					partial.detFrames.removeIf(f -> !timePoints.contains(f.time));
+					final int outside = before - partial.segFrames.size() - partial.detFrames.size();
+					if (outside > 0)
+						log.info("Not taking "+outside+" SEG and DET frames from the checkpoint that are not among the chosen timepoints");
+				}
+				log.info("Resuming with "+partial.segFrames.size()+" SEG and "
+						+partial.detFrames.size()+" DET timepoints from: "+checkpoint);
+			}
+			else
+			{
+				partial = new PartialMeasures();
+				partial.gtPath = GTdir;
+				partial.resPath = RESdir;
+			}
+
+			//what is already done
+			final Set<Long> doneSEG = new HashSet<>();
+			for (PartialMeasures.SegFrame f : partial.segFrames) doneSEG.add(PartialMeasures.segKey(f.time,f.z));
+			final Set<Integer> doneDET = new HashSet<>();
+			for (PartialMeasures.DetFrame f : partial.detFrames) doneDET.add(f.time);
+			int noOfNewFrames = 0;
+
+			//all GT annotations, also those not processed here, for the completeness check in CTC_MergeShards
+			final List<String> segNames = new ArrayList<>();
+			final List<Integer> segTimes = new ArrayList<>(), segSlices = new ArrayList<>();
+			if (doSEG)
+			{
+				//SEG/man_segT.tif are full annotations, SEG/man_seg_T_Z.tif are annotations of one slice
+				final Pattern fullPattern = Pattern.compile("man_seg(\\d+)\\.tif");
+				final Pattern slicePattern = Pattern.compile("man_seg_(\\d+)_(\\d+)\\.tif");
+				for (String name : listFiles(new File(gtPath,"SEG")))
+				{
+					Matcher m = fullPattern.matcher(name);
+					int z = -1;
+					if (!m.matches())
+					{
+						m = slicePattern.matcher(name);
+						if (!m.matches()) continue;
+						z = Integer.parseInt(m.group(2));
+					}
+					segNames.add(name);
+					segTimes.add(Integer.parseInt(m.group(1)));
+					segSlices.add(z);
+				}
+				partial.gtSegTimes = segTimes.stream().mapToInt(Integer::intValue).toArray();
+				partial.gtSegSlices = segSlices.stream().mapToInt(Integer::intValue).toArray();
+			}
+
+			final List<String> detNames = new ArrayList<>();
+			final List<Integer> detTimes = new ArrayList<>();
+			if (doDET)
+			{
+				final Pattern pattern = Pattern.compile("man_track(\\d+)\\.tif");
+				for (String name : listFiles(new File(gtPath,"TRA")))
+				{
+					final Matcher m = pattern.matcher(name);
+					if (!m.matches()) continue;
+					detNames.add(name);
+					detTimes.add(Integer.parseInt(m.group(1)));
+				}
+				partial.gtDetTimes = detTimes.stream().mapToInt(Integer::intValue).toArray();
+			}
+
+			for (int i = 0; i < segNames.size(); ++i)
+			{
+				final int time = segTimes.get(i), z = segSlices.get(i);
+				if (timePoints.size() > 0 && !timePoints.contains(time)) continue;
+				if (doneSEG.contains(PartialMeasures.segKey(time,z))) continue;
+
+				log.info("SEG of timepoint "+time+(z > -1 ? ", slice "+z : ""));
+				final Img<UnsignedShortType> gt = reader.ReadImageG16(new File(new File(gtPath,"SEG"),segNames.get(i)).getPath());
+				RandomAccessibleInterval<UnsignedShortType> res = readResult(reader, time);
+				if (z > -1 && res.numDimensions() > gt.numDimensions())
+					res = Views.hyperSlice(res, res.numDimensions()-1, z);
+
+				partial.addSegFrame(time, z, classifier.classify(gt,res));
+				if (++noOfNewFrames % checkpointPeriod == 0) saveCheckpoint(partial, checkpoint);
+			}
+
+			for (int i = 0; i < detNames.size(); ++i)
+			{
+				final int time = detTimes.get(i);
+				if (timePoints.size() > 0 && !timePoints.contains(time)) continue;
+				if (doneDET.contains(time)) continue;
+
+				log.info("DET of timepoint "+time);
+				final Img<UnsignedShortType> gt = reader.ReadImageG16(new File(new File(gtPath,"TRA"),detNames.get(i)).getPath());
+				final LabelOverlaps o = classifier.classify(gt, readResult(reader, time));
+				final PartialMeasures.DetFrame f = partial.addDetFrame(time, o);
+				log.info("  GT markers: "+f.noOfGT+", RES objects: "+f.noOfRES
+						+", splits: "+f.NS+", FN: "+f.FN+", FP: "+f.FP);
+				if (++noOfNewFrames % checkpointPeriod == 0) saveCheckpoint(partial, checkpoint);
+			}
+
+			noOfSEGframes = partial.segFrames.size();
+			noOfDETframes = partial.detFrames.size();
+			partial.save(partialFile.toPath());
+			log.info("Partial results saved into: "+partialFile.getPath());
+		}
+		catch (RuntimeException e) {
+			log.error("CTC shard problem: "+e.getMessage());
+		}
+		catch (Exception e) {
+			log.error("CTC shard error: "+e.getMessage());
+		}
+	}
+
+	private void saveCheckpoint(final PartialMeasures partial, final Path checkpoint)
+	throws IOException
+	{
+		if (checkpoint == null) return;
+		CheckpointFiles.writeAtomically(checkpoint, partial::save);
+		log.info("Checkpoint saved: "+partial.segFrames.size()+" SEG and "
+				+partial.detFrames.size()+" DET timepoints");
+	}
+
+	private Img<UnsignedShortType> readResult(final TrackDataCache reader, final int time)
+	{
+		return reader.ReadImageG16(String.format("%s%smask%0"+noOfDigits+"d.tif",
+				RESdir, File.separator, time));
+	}
+
+	/** returns names of the files in the folder, sorted */
+	static String[] listFiles(final File folder)
+	throws IOException
+	{
+		final String[] names = folder.list();
+		if (names == null) throw new IOException("Cannot list the folder "+folder.getPath());
+		Arrays.sort(names);
+		return names;
+	}
+}
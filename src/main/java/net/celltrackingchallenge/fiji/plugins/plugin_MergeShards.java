@@ -0,0 +1,147 @@
+/*-
+ * #%L
+ * CTC-Fiji-plugins
+ * %%
+ * Copyright (C) 2017 - 2023 Vladimír Ulman
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package net.celltrackingchallenge.fiji.plugins;
+
+import org.scijava.ItemIO;
+import org.scijava.command.Command;
+import org.scijava.plugin.Parameter;
+import org.scijava.plugin.Plugin;
+import org.scijava.log.LogService;
+import org.scijava.widget.FileWidget;
+import org.scijava.widget.TextWidget;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import net.celltrackingchallenge.fiji.plugins.util.PartialMeasures;
+
+@Plugin(type = Command.class, menuPath = "Plugins>Cell Tracking Challenge>Merge SEG and DET from parts of timepoints",
+        name = "CTC_MergeShards", headless = true,
+		  description = "Combines the partial results of the CTC_Shard into the SEG and DET measures\n"
+				+"as if they were calculated over all timepoints at once.")
+public class plugin_MergeShards implements Command
+{
+	//------------- GUI stuff -------------
+	//
+	@Parameter
+	private LogService log;
+
+	@Parameter(label = "Folder with the partial results:",
+		style = FileWidget.DIRECTORY_STYLE, required = false,
+		description = "All files with the given extension in this folder are merged.")
+	private File partialsFolder;
+
+	@Parameter(label = "Extension of the partial results files:")
+	private String partialsExtension = ".part";
+
+	@Parameter(label = "Or, the partial results files:",
+		style = TextWidget.AREA_STYLE, required = false,
+		description = "One file per line, used only if the folder is not given.")
+	private String partialsList = "";
+
+	@Parameter(label = "Allow missing timepoints:",
+		description = "If not checked, the merging fails when the partial results together do not cover "
+			+"all SEG annotations and TRA timepoints of the GT folder. If checked, the missing ones are only listed.")
+	private boolean allowIncomplete = false;
+
+
+	//hidden output values
+	@Parameter(type = ItemIO.OUTPUT)
+	String RESdir;
+	@Parameter(type = ItemIO.OUTPUT)
+	String GTdir;
+	@Parameter(type = ItemIO.OUTPUT)
+	String sep = "--------------------";
+
+	@Parameter(type = ItemIO.OUTPUT)
+	double SEG = -1;
+	@Parameter(type = ItemIO.OUTPUT)
+	double DET = -1;
+
+
+	//the GUI path entry function:
+	@Override
+	public void run()
+	{
+		try {
+			final List<File> files = new ArrayList<>();
+			if (partialsFolder != null && partialsFolder.getPath().length() > 0)
+			{
+				for (String name : plugin_MeasureShard.listFiles(partialsFolder))
+					if (name.endsWith(partialsExtension)) files.add(new File(partialsFolder,name));
+			}
+			else if (partialsList != null)
+			{
+				for (String line : partialsList.split("\n"))
+					if (line.trim().length() > 0) files.add(new File(line.trim()));
+			}
+			if (files.size() == 0)
+				throw new IllegalArgumentException("No partial results given.");
+
+			final List<PartialMeasures> parts = new ArrayList<>(files.size());
+			for (File f : files)
+			{
+				final PartialMeasures p = PartialMeasures.load(f.toPath());
+				log.info("Loaded "+f.getPath()+": "+p.segFrames.size()+" SEG and "+p.detFrames.size()+" DET frames");
+				parts.add(p);
+			}
+
+			//fails also on parts from different folders
+			final PartialMeasures all = PartialMeasures.merge(parts);
+			if (all.knowsGtTimepoints())
+			{
+				final List<String> missing = all.missingTimepoints();
+				if (missing.size() > 0)
+				{
+					final String msg = "The partial results miss "+missing.size()+" GT timepoints: "+String.join(", ", missing);
+					if (!allowIncomplete) throw new IllegalArgumentException(msg);
+					log.warn(msg);
+				}
+			}
+			else
+				log.warn("The partial results do not record the GT timepoints (made with an older version), "
+					+"cannot check that none is missing.");
+			GTdir  = all.gtPath;
+			RESdir = all.resPath;
+			if (all.segFrames.size() > 0) SEG = all.seg();
+			if (all.detFrames.size() > 0)
+			{
+				DET = all.det();
+				log.info("AOGM-D: "+all.aogmD());
+			}
+		}
+		catch (RuntimeException e) {
+			log.error("CTC merge problem: "+e.getMessage());
+		}
+		catch (Exception e) {
+			log.error("CTC merge error: "+e.getMessage());
+		}
+	}
+}
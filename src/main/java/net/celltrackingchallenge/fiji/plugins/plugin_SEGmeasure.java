@@ -40,6 +40,8 @@ import java.io.File;
 import java.util.Set;
 
 import net.celltrackingchallenge.measures.SEG;
+import net.celltrackingchallenge.fiji.plugins.util.AsyncLogSink;
+import net.celltrackingchallenge.fiji.plugins.util.SEGmeasureEngine;
 import net.celltrackingchallenge.measures.util.NumberSequenceHandler;
 
 @Plugin(type = Command.class, menuPath = "Plugins>Segmentation>Cell Tracking Challenge SEG measure",
@@ -47,7 +49,7 @@ import net.celltrackingchallenge.measures.util.NumberSequenceHandler;
 		  description = "Calculates segmentation performance measure from the CTC paper.\n"
 				+"The plugin assumes certain data format, please see\n"
 				+"http://celltrackingchallenge.net/submission-of-results/")
-public class plugin_SEGmeasure implements Command
+public class plugin_SEGmeasure extends VerboseReportsCommand
 {
 	//------------- GUI stuff -------------
 	//
@@ -99,6 +101,18 @@ public class plugin_SEGmeasure implements Command
 		description = "The calculation stops whenever an empty (only pixels with zero value) image is found either among the ground-truth or result images.")
 	private boolean optionStopOnEmptyImages = false;
 
+	@Parameter(label = "SEG calculated with:", choices = {
+			"CTC-measures",
+			"Built-in (fast)"
+	}, description = "The CTC-measures one is the original implementation. For the annotations of single slices "
+			+ "(SEG/man_seg_T_Z.tif), the built-in calculation reads only the annotated slices of the result images, "
+			+ "not the whole stacks.")
+	String segEngine = "CTC-measures";
+
+	@Parameter(label = "Number of threads for the built-in calculation:", min = "1",
+		description = "The images are decoded and compared with this many threads.")
+	int noOfThreads = Runtime.getRuntime().availableProcessors();
+
 
 	//citation footer...
 	@Parameter(visibility = ItemVisibility.MESSAGE, persist = false, required = false, label = "Please, cite us:")
@@ -140,18 +154,36 @@ public class plugin_SEGmeasure implements Command
 		GTdir  = gtPath.getPath();
 		RESdir = resPath.getPath();
 
-		try {
-			final SEG seg = new SEG(log);
-			seg.doLogReports = optionVerboseLogging;
-			seg.doAllResReports = optionReportAllResultLabels;
-			seg.doStopOnEmptyImages = optionStopOnEmptyImages;
-			seg.noOfDigits = noOfDigits;
-
+		try (AsyncLogSink reports = openReports(log, optionVerboseLogging))
+		{
 			Set<Integer> timePoints = NumberSequenceHandler.toSet(fileIdxStr);
-			if (timePoints.size() > 0)
-				seg.doOnlyTheseTimepoints = timePoints;
 
-			SEG = seg.calculate(GTdir, RESdir);
+			if (segEngine.startsWith("Built-in"))
+			{
+				try (SEGmeasureEngine seg = new SEGmeasureEngine(reports != null ? reports.getLogger() : log, noOfThreads))
+				{
+					seg.doLogReports = optionVerboseLogging;
+					seg.doAllResReports = optionReportAllResultLabels;
+					seg.doStopOnEmptyImages = optionStopOnEmptyImages;
+					seg.noOfDigits = noOfDigits;
+					seg.doOnlyTheseTimepoints = timePoints;
+
+					SEG = seg.calculate(gtPath.toPath(), resPath.toPath());
+				}
+			}
+			else
+			{
+				final SEG seg = new SEG(reports != null ? reports.getLogger() : log);
+				seg.doLogReports = optionVerboseLogging;
+				seg.doAllResReports = optionReportAllResultLabels;
+				seg.doStopOnEmptyImages = optionStopOnEmptyImages;
+				seg.noOfDigits = noOfDigits;
+
+				if (timePoints.size() > 0)
+					seg.doOnlyTheseTimepoints = timePoints;
+
+				SEG = seg.calculate(GTdir, RESdir);
+			}
 		}
 		catch (RuntimeException e) {
 			log.error("CTC SEG measure problem: "+e.getMessage());
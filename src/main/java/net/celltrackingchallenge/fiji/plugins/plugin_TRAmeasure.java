@@ -34,24 +34,34 @@ import org.scijava.command.Command;
 import org.scijava.plugin.Parameter;
 import org.scijava.plugin.Plugin;
 import org.scijava.log.LogService;
+import org.scijava.log.Logger;
 
 import org.scijava.widget.FileWidget;
 import java.io.File;
 
 import net.celltrackingchallenge.measures.TRA;
+import net.celltrackingchallenge.fiji.plugins.util.AsyncLogSink;
+import net.celltrackingchallenge.fiji.plugins.util.AOGMerrorCounts;
+import net.celltrackingchallenge.fiji.plugins.util.AOGMerrorTables;
+import net.celltrackingchallenge.fiji.plugins.io.FrameSourceTrackDataCache;
+import net.celltrackingchallenge.fiji.plugins.io.FrameCacheService;
+import net.celltrackingchallenge.fiji.plugins.io.FrameSources;
 
 @Plugin(type = Command.class, menuPath = "Plugins>Tracking>Cell Tracking Challenge TRA measure",
         name = "CTC_TRA", headless = true,
 		  description = "Calculates segmentation performance measure from the CTC paper.\n"
 				+"The plugin assumes certain data format, please see\n"
 				+"http://celltrackingchallenge.net/submission-of-results/")
-public class plugin_TRAmeasure implements Command
+public class plugin_TRAmeasure extends VerboseReportsCommand
 {
 	//------------- GUI stuff -------------
 	//
 	@Parameter
 	private LogService log;
 
+	@Parameter(required = false)
+	private FrameCacheService frameCache;
+
 	@Parameter(label = "Path to computed result folder:",
 		style = FileWidget.DIRECTORY_STYLE,
 		description = "Path should contain result files directly: mask???.tif and res_track.txt",
@@ -68,6 +78,14 @@ public class plugin_TRAmeasure implements Command
 		description = "Set to 3 if your files are, e.g., t000.tif, or to 5 if your files are, e.g., t00021.tif")
 	public int noOfDigits = 3;
 
+	@Parameter(label = "Number of frames to read ahead:", min = "0",
+		description = "While an image is processed, this many following images are already being read. Set to 0 to disable.")
+	private int readAhead = 2;
+
+	@Parameter(label = "Number of I/O threads:", min = "1",
+		description = "The number of images that can be read ahead at the same time.")
+	private int noOfIoThreads = 2;
+
 	@Parameter(visibility = ItemVisibility.MESSAGE, persist = false, required = false)
 	private final String pathFooterA
 		= "Note that folders has to comply with certain data format, please see";
@@ -92,6 +110,25 @@ public class plugin_TRAmeasure implements Command
 		description = "Logs which RES/GT segment maps onto which GT/RES in the data.")
 	private boolean doMatchingReports = false;
 
+	@Parameter(label = "Save tracking errors into file (optional):",
+		style = FileWidget.SAVE_STYLE, required = false,
+		description = "If given, the verbose report on tracking errors is not logged but stored as tables into this file, "
+			+"as CSV if the file name ends with .csv, or in a compact binary form otherwise.")
+	private File errorsFile = null;
+
+	@Parameter(label = "Checkpoint file (optional):",
+		style = FileWidget.SAVE_STYLE, required = false,
+		description = "If given, the timepoints read and classified so far are regularly saved into this file. "
+			+"Only this part of the calculation is checkpointed, the comparison of the lineages is always done anew.")
+	private File checkpointFile = null;
+
+	@Parameter(label = "Save the checkpoint after every this many timepoints:", min = "1")
+	private int checkpointPeriod = 10;
+
+	@Parameter(label = "Resume from the checkpoint file:",
+		description = "Timepoints found in the checkpoint file are not read and classified again.")
+	private boolean doResume = false;
+
 	@Parameter(visibility = ItemVisibility.MESSAGE, persist = false, required = false)
 	private final String experimentalSectionNote = "Note that the official measures do not accept empty images (checkbox ticked).";
 	@Parameter(label = "Report (and stop) on empty images",
@@ -140,15 +177,38 @@ public class plugin_TRAmeasure implements Command
 		GTdir  = gtPath.getPath();
 		RESdir = resPath.getPath();
 
-		try {
-			final TRA tra = new TRA(log);
+		try (AsyncLogSink reports = openReports(log, doLogReports || doMatchingReports);
+		     FrameSources frameSources = new FrameSources(log, noOfIoThreads, readAhead))
+		{
+			frameSources.useFrameCache(frameCache);
+			final Logger reportsLog = reports != null ? reports.getLogger() : log;
+
+			//the verbose report on errors goes either to the reports, or into the tables
+			final AOGMerrorTables errorTables
+				= errorsFile != null && errorsFile.getPath().length() > 0 ? new AOGMerrorTables() : null;
+
+			final TRA tra = new TRA(reportsLog);
 			tra.doConsistencyCheck = doConsistencyCheck;
-			tra.doLogReports       = doLogReports;
+			tra.doLogReports       = doLogReports && errorTables == null;
 			tra.doMatchingReports  = doMatchingReports;
 			tra.noOfDigits         = noOfDigits;
 			tra.doStopOnEmptyImages = optionStopOnEmptyImages;
 
-			TRA = tra.calculate(GTdir, RESdir);
+			//the images are read and classified upfront, with the parallel TIFF reader and prefetching
+			final FrameSourceTrackDataCache cache = new FrameSourceTrackDataCache(reportsLog, frameSources);
+			cache.noOfDigits = noOfDigits;
+			cache.shouldComplainOnEmptyImages = optionStopOnEmptyImages;
+			if (checkpointFile != null && checkpointFile.getPath().length() > 0)
+				cache.useCheckpoint(checkpointFile.toPath(), checkpointPeriod, doResume);
+			cache.calculate(GTdir, RESdir);
+			TRA = tra.calculate(GTdir, RESdir, cache);
+
+			if (errorTables != null)
+			{
+				AOGMerrorCounts.count(cache, errorTables);
+				errorTables.save(errorsFile.toPath());
+				log.info("Tracking errors saved into: "+errorsFile.getPath());
+			}
 		}
 		catch (RuntimeException e) {
 			log.error("CTC TRA measure problem: "+e.getMessage());
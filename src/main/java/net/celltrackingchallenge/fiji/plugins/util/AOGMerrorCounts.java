@@ -0,0 +1,271 @@
+/*-
+ * #%L
+ * CTC-Fiji-plugins
+ * %%
+ * Copyright (C) 2017 - 2023 Vladimír Ulman
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package net.celltrackingchallenge.fiji.plugins.util;
+
+import net.celltrackingchallenge.fiji.plugins.io.FrameSourceTrackDataCache;
+import net.celltrackingchallenge.fiji.plugins.io.LineageStore;
+import net.celltrackingchallenge.measures.TrackDataCache;
+
+import java.util.Arrays;
+import java.util.Vector;
+
+/**
+ * The vector of AOGM error counts (splits, FN and FP vertices, edges to be
+ * deleted, added and fixed) together with the size of the GT graph.
+ * Since AOGM is a weighted sum of these counts, any penalty vector can be
+ * scored from them without comparing the graphs again.
+ *
+ * Penalty vectors are always given in the order of TRA.PenaltyConfig:
+ * splits, FN vertices, FP vertices, redundant edges, missing edges, wrong semantics.
+ */
+public class AOGMerrorCounts
+{
+	public static final int NS = 0, FN = 1, FP = 2, ED = 3, EA = 4, EC = 5;
+	public static final String[] NAMES = { "NS", "FN", "FP", "ED", "EA", "EC" };
+
+	/** the CTC penalties, which makes aogm() equal to AOGM and tra() equal to TRA */
+	public static final double[] CTC_PENALTY = { 5.0, 10.0, 1.0, 1.0, 1.5, 1.0 };
+
+	public final long[] counts = new long[6];
+	public long gtVertices, gtEdges;
+
+	/** where the individual errors are listed during count(), or null */
+	private AOGMerrorTables tables = null;
+
+	/** the levels of the cache and their label indices, by timepoints, during count() */
+	private TrackDataCache.TemporalLevel[] levelAt;
+	private LabelIndex[] gtIdx, resIdx;
+
+	public double aogm(final double[] penalty)
+	{
+		double sum = 0;
+		for (int i = 0; i < 6; ++i) sum += penalty[i] * (double)counts[i];
+		return sum;
+	}
+
+	/** AOGM of building the GT graph from scratch (adding all its vertices and edges) */
+	public double aogmEmpty(final double[] penalty)
+	{
+		return penalty[FN] * (double)gtVertices + penalty[EA] * (double)gtEdges;
+	}
+
+	/**
+	 * the normalized AOGM: 1.0 - min(AOGM,AOGM_empty)/AOGM_empty, or, if AOGM_empty
+	 * is 0 (no GT, or zero penalties of FN and EA), 1.0 for no error and 0.0 otherwise
+	 */
+	public double tra(final double[] penalty)
+	{
+		final double empty = aogmEmpty(penalty);
+		final double aogm = aogm(penalty);
+		if (!(empty > 0)) return aogm > 0 ? 0.0 : 1.0;
+		return 1.0 - Math.min(aogm, empty) / empty;
+	}
+
+	@Override
+	public String toString()
+	{
+		final StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < 6; ++i) sb.append(NAMES[i]).append('=').append(counts[i]).append(' ');
+		sb.append("GT_vertices=").append(gtVertices).append(" GT_edges=").append(gtEdges);
+		return sb.toString();
+	}
+
+
+	/**
+	 * Counts the errors in one pass over the already calculated cache: its
+	 * classified frames provide the vertex matching (a GT vertex is matched by
+	 * the RES vertex that covers more than half of it), and its GT and RES
+	 * lineages provide the edges, which are the links between consecutive
+	 * timepoints of a track and the links from the last timepoint of a parent
+	 * track to the first timepoint of its daughter. Following the AOGM:
+	 * RES vertices with no match are FP, RES vertices matching m &gt; 1 GT
+	 * vertices need m-1 splits, unmatched GT vertices are FN; RES edges whose
+	 * both ends match exactly one GT vertex are kept if the GT vertices are
+	 * linked too (EC if by the other kind of the link), all other RES edges
+	 * are ED; GT edges that are not covered by the kept RES edges are EA.
+	 *
+	 * The individual errors are listed into the tables, if these are given.
+	 */
+	public static AOGMerrorCounts count(final FrameSourceTrackDataCache cache, final AOGMerrorTables tables)
+	{
+		final LineageStore gt = cache.getGtLineage();
+		final LineageStore res = cache.getResLineage();
+		if (gt == null || res == null)
+			throw new IllegalArgumentException("the cache has not been calculated yet");
+
+		final AOGMerrorCounts c = new AOGMerrorCounts();
+		c.tables = tables;
+		final Vector<TrackDataCache.TemporalLevel> levels = cache.levels;
+
+		//vertices
+		for (TrackDataCache.TemporalLevel level : levels)
+		{
+			for (int i = 0; i < level.m_gt_lab.length; ++i)
+				if (level.m_gt_match[i] == -1) c.addVertex(FN, level.level, level.m_gt_lab[i], 1);
+			for (int j = 0; j < level.m_res_lab.length; ++j)
+			{
+				final int m = level.m_res_match[j].size();
+				if (m == 0) c.addVertex(FP, level.level, level.m_res_lab[j], 1);
+				else if (m > 1) c.addVertex(NS, level.level, level.m_res_lab[j], m-1);
+			}
+		}
+
+		//the levels by their timepoints, which need not be their positions in the vector
+		int maxTime = -1;
+		for (TrackDataCache.TemporalLevel level : levels) maxTime = Math.max(maxTime, level.level);
+		c.levelAt = new TrackDataCache.TemporalLevel[maxTime+1];
+		c.gtIdx = new LabelIndex[maxTime+1];
+		c.resIdx = new LabelIndex[maxTime+1];
+		for (TrackDataCache.TemporalLevel level : levels)
+		{
+			if (level.level < 0) continue;
+			c.levelAt[level.level] = level;
+			c.gtIdx[level.level] = new LabelIndex(level.m_gt_lab);
+			c.resIdx[level.level] = new LabelIndex(level.m_res_lab);
+		}
+
+		//RES edges, the tracks are in the order of their ids so that the pass is always the same
+		for (int r = 0; r < res.size(); ++r)
+		{
+			for (int t = res.begin(r); t < res.end(r); ++t)
+				c.scoreResEdge(gt, t, res.id(r), t+1, res.id(r), false);
+			final int p = res.parentIndex(r);
+			if (p >= 0)
+				c.scoreResEdge(gt, res.end(p), res.id(p), res.begin(r), res.id(r), true);
+		}
+
+		//GT edges
+		c.gtVertices = gt.noOfVertices();
+		c.gtEdges = gt.noOfEdges();
+		for (int g = 0; g < gt.size(); ++g)
+		{
+			for (int t = gt.begin(g); t < gt.end(g); ++t)
+				c.scoreGtEdge(res, t, gt.id(g), t+1, gt.id(g));
+			final int p = gt.parentIndex(g);
+			if (p >= 0)
+				c.scoreGtEdge(res, gt.end(p), gt.id(p), gt.begin(g), gt.id(g));
+		}
+
+		c.levelAt = null;
+		c.gtIdx = c.resIdx = null;
+		return c;
+	}
+
+	private void scoreResEdge(final LineageStore gt, final int t1, final int r1, final int t2, final int r2,
+	                          final boolean isParentLink)
+	{
+		final int g1 = uniqueMatchOfRes(t1, r1);
+		final int g2 = uniqueMatchOfRes(t2, r2);
+		if (g1 <= 0 || g2 <= 0) { addEdge(ED, t1,r1, t2,r2); return; }
+
+		final boolean gtTrackLink = g1 == g2 && t2 == t1+1;
+		final boolean gtParentLink = isParentLink(gt, t1, g1, t2, g2);
+		if (!gtTrackLink && !gtParentLink) addEdge(ED, t1,r1, t2,r2);
+		else if (gtParentLink != isParentLink) addEdge(EC, t1,r1, t2,r2);
+	}
+
+	private void scoreGtEdge(final LineageStore res, final int t1, final int g1, final int t2, final int g2)
+	{
+		final int r1 = uniqueMatchOfGt(t1, g1);
+		final int r2 = uniqueMatchOfGt(t2, g2);
+		if (r1 <= 0 || r2 <= 0) { addEdge(EA, t1,g1, t2,g2); return; }
+
+		final boolean resTrackLink = r1 == r2 && t2 == t1+1;
+		if (!resTrackLink && !isParentLink(res, t1, r1, t2, r2)) addEdge(EA, t1,g1, t2,g2);
+	}
+
+	private void addVertex(final int category, final int time, final int label, final int noOfErrors)
+	{
+		counts[category] += noOfErrors;
+		if (tables != null) tables.addVertex(category, time, label);
+	}
+
+	private void addEdge(final int category, final int time1, final int label1, final int time2, final int label2)
+	{
+		++counts[category];
+		if (tables != null) tables.addEdge(category, time1, label1, time2, label2);
+	}
+
+	/** returns the GT label that the RES vertex alone matches, or 0 */
+	private int uniqueMatchOfRes(final int t, final int label)
+	{
+		if (t < 0 || t >= levelAt.length || levelAt[t] == null) return 0;
+		final int j = resIdx[t].indexOf(label);
+		if (j < 0) return 0;
+		final TrackDataCache.TemporalLevel level = levelAt[t];
+		if (level.m_res_match[j].size() != 1) return 0;
+		return level.m_gt_lab[ level.m_res_match[j].iterator().next() ];
+	}
+
+	/** returns the RES label that matches the GT vertex and no other one, or 0 */
+	private int uniqueMatchOfGt(final int t, final int label)
+	{
+		if (t < 0 || t >= levelAt.length || levelAt[t] == null) return 0;
+		final int i = gtIdx[t].indexOf(label);
+		if (i < 0) return 0;
+		final TrackDataCache.TemporalLevel level = levelAt[t];
+		final int j = level.m_gt_match[i];
+		if (j < 0 || level.m_res_match[j].size() != 1) return 0;
+		return level.m_res_lab[j];
+	}
+
+	private static boolean isParentLink(final LineageStore tracks,
+	                                    final int t1, final int parent, final int t2, final int daughter)
+	{
+		final int d = tracks.indexOf(daughter);
+		final int p = tracks.indexOf(parent);
+		return d >= 0 && p >= 0 && tracks.parent(d) == parent && tracks.end(p) == t1 && tracks.begin(d) == t2;
+	}
+
+	/** finds index of a label in the (not necessarily sorted) labels of one frame */
+	static class LabelIndex
+	{
+		private final long[] labelsAndIdxs;
+
+		LabelIndex(final int[] labels)
+		{
+			labelsAndIdxs = new long[labels.length];
+			for (int i = 0; i < labels.length; ++i) labelsAndIdxs[i] = (long)labels[i] << 32 | i;
+			Arrays.sort(labelsAndIdxs);
+		}
+
+		int indexOf(final int label)
+		{
+			int lo = 0, hi = labelsAndIdxs.length;
+			while (lo < hi)
+			{
+				final int mid = (lo + hi) >>> 1;
+				if ((int)(labelsAndIdxs[mid] >> 32) < label) lo = mid+1;
+				else hi = mid;
+			}
+			return lo < labelsAndIdxs.length && (int)(labelsAndIdxs[lo] >> 32) == label
+				? (int)labelsAndIdxs[lo] : -1;
+		}
+	}
+}
@@ -0,0 +1,184 @@
+/*-
+ * #%L
+ * CTC-Fiji-plugins
+ * %%
+ * Copyright (C) 2017 - 2023 Vladimír Ulman
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package net.celltrackingchallenge.fiji.plugins.util;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * The per-category lists of the AOGM errors, as compact primitive tables,
+ * filled by AOGMerrorCounts.count() directly during its pass over the data
+ * (no report text is formatted nor parsed). Vertices are stored as
+ * (time, label) pairs: the GT label for FN, the RES label for FP and NS
+ * (one row per RES vertex that needs splitting, regardless of into how many).
+ * Edges are stored as (time, label, time, label) quadruples: the RES edge
+ * for ED and EC, the GT edge for EA. The categories are indexed the same
+ * as in AOGMerrorCounts.
+ */
+public class AOGMerrorTables
+{
+	public AOGMerrorTables()
+	{
+		for (int c = 0; c < 6; ++c)
+			tables[c] = new IntTable(c == AOGMerrorCounts.NS || c == AOGMerrorCounts.FN || c == AOGMerrorCounts.FP ? 2 : 4);
+	}
+
+	private final IntTable[] tables = new IntTable[6];
+
+	/** returns the table of the given category, see AOGMerrorCounts.NS etc. */
+	public IntTable getTable(final int category)
+	{ return tables[category]; }
+
+	void addVertex(final int category, final int time, final int label)
+	{
+		tables[category].add(time, label, 0, 0);
+	}
+
+	void addEdge(final int category, final int time1, final int label1, final int time2, final int label2)
+	{
+		tables[category].add(time1, label1, time2, label2);
+	}
+
+
+	/** saves all tables as CSV if the file name ends with ".csv", or as binary otherwise */
+	public void save(final Path file)
+	throws IOException
+	{
+		if (file.toString().toLowerCase().endsWith(".csv")) saveAsCSV(file);
+		else saveAsBinary(file);
+	}
+
+	public void saveAsCSV(final Path file)
+	throws IOException
+	{
+		try (PrintWriter out = new PrintWriter(file.toFile(), "UTF-8"))
+		{
+			out.println("category,time,label,time2,label2");
+			for (int c = 0; c < 6; ++c)
+			{
+				final IntTable t = tables[c];
+				for (int r = 0; r < t.size(); ++r)
+				{
+					out.print(AOGMerrorCounts.NAMES[c]);
+					out.print(',');
+					out.print(t.get(r,0));
+					out.print(',');
+					out.print(t.get(r,1));
+					if (t.width == 4)
+					{
+						out.print(',');
+						out.print(t.get(r,2));
+						out.print(',');
+						out.println(t.get(r,3));
+					}
+					else out.println(",,");
+				}
+			}
+		}
+	}
+
+	/**
+	 * Binary layout, little-endian: 8 bytes magic "CTCAOGME", int number of
+	 * categories (6), and then for every category: int width, int number of
+	 * rows, and rows*width ints stored row after row.
+	 */
+	public void saveAsBinary(final Path file)
+	throws IOException
+	{
+		try (FileChannel ch = FileChannel.open(file,
+				StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING))
+		{
+			final ByteBuffer buf = ByteBuffer.allocate(1 << 16).order(ByteOrder.LITTLE_ENDIAN);
+			buf.put("CTCAOGME".getBytes(StandardCharsets.US_ASCII));
+			buf.putInt(6);
+			for (IntTable t : tables)
+			{
+				flushIfAlmostFull(ch,buf);
+				buf.putInt(t.width);
+				buf.putInt(t.size());
+				for (int i = 0; i < t.size()*t.width; ++i)
+				{
+					flushIfAlmostFull(ch,buf);
+					buf.putInt(t.data[i]);
+				}
+			}
+			buf.flip();
+			while (buf.hasRemaining()) ch.write(buf);
+		}
+	}
+
+	private static void flushIfAlmostFull(final FileChannel ch, final ByteBuffer buf)
+	throws IOException
+	{
+		if (buf.remaining() >= 8) return;
+		buf.flip();
+		while (buf.hasRemaining()) ch.write(buf);
+		buf.clear();
+	}
+
+
+	/** growable table of ints with fixed number of columns */
+	public static class IntTable
+	{
+		public final int width;
+		private int[] data = new int[1024];
+		private int rows = 0;
+
+		IntTable(final int width)
+		{ this.width = width; }
+
+		public int size()
+		{ return rows; }
+
+		public int get(final int row, final int column)
+		{ return data[row*width + column]; }
+
+		/** adds a row, of which only the first 'width' values are used */
+		void add(final int v0, final int v1, final int v2, final int v3)
+		{
+			if ((rows+1)*width > data.length) data = Arrays.copyOf(data, 2*data.length);
+			final int pos = rows*width;
+			data[pos] = v0;
+			data[pos+1] = v1;
+			if (width == 4)
+			{
+				data[pos+2] = v2;
+				data[pos+3] = v3;
+			}
+			++rows;
+		}
+	}
+}
@@ -0,0 +1,267 @@
+/*-
+ * #%L
+ * CTC-Fiji-plugins
+ * %%
+ * Copyright (C) 2017 - 2023 Vladimír Ulman
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package net.celltrackingchallenge.fiji.plugins.util;
+
+import org.scijava.log.DefaultLogger;
+import org.scijava.log.LogLevel;
+import org.scijava.log.LogListener;
+import org.scijava.log.LogMessage;
+import org.scijava.log.LogSource;
+import org.scijava.log.Logger;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Takes over the verbose reports of the measures (the "doLogReports" and
+ * "doMatchingReports" listings) so that the measure never waits on the log
+ * output: messages are only stored into a fixed-size ring buffer and a
+ * dedicated writer thread moves them into a file, or into the original
+ * logger if no file is given. If the buffer is full, the message is not
+ * written but only counted, the measure does not wait for the writer.
+ *
+ * Errors and warnings are always passed also directly to the original logger.
+ * At most 'maxLines' of the other messages are written (0 means no limit),
+ * the messages beyond are only counted too. The numbers of the messages that
+ * were not written are reported in close(), which must be called (it also
+ * waits until everything is written), and the last few of these messages
+ * (e.g. the final values of the measure) are written after that report.
+ */
+public class AsyncLogSink implements LogListener, AutoCloseable
+{
+	public AsyncLogSink(final Logger forwardTo, final Path file, final int bufferSize, final long maxLines)
+	throws IOException
+	{
+		this.forwardTo = forwardTo;
+		this.logger = new DefaultLogger(this, LogSource.newRoot(), forwardTo.getLevel());
+		this.out = file != null ? Files.newBufferedWriter(file, StandardCharsets.UTF_8) : null;
+		this.maxLines = maxLines;
+
+		levels = new int[bufferSize];
+		texts = new String[bufferSize];
+
+		writer = new Thread(this::writeLoop, "CTC log writer");
+		writer.setDaemon(true);
+		writer.start();
+	}
+
+	public static final int DEFAULT_BUFFER_SIZE = 1 << 16;
+	static final int TAIL_SIZE = 16;
+
+	/**
+	 * Convenience for the plugins: a sink with the default buffer size into
+	 * the given file, or into the original logger if the file is null or empty.
+	 */
+	public static AsyncLogSink forReports(final Logger forwardTo, final File file, final long maxLines)
+	throws IOException
+	{
+		final Path path = file != null && file.getPath().length() > 0 ? file.toPath() : null;
+		return new AsyncLogSink(forwardTo, path, DEFAULT_BUFFER_SIZE, maxLines);
+	}
+
+	private final Logger forwardTo;
+	private final Logger logger;
+	private final BufferedWriter out;
+	private final long maxLines;
+
+	//the ring buffer, guarded with 'this'
+	private final int[] levels;
+	private final String[] texts;
+	private int head = 0, count = 0;
+	private boolean closing = false;
+
+	private long acceptedLines = 0;
+	private long suppressedLines = 0;
+	private long droppedLines = 0;
+	private long notWrittenLines = 0;
+
+	//the last of the not written messages, also guarded with 'this'
+	private final int[] tailLevels = new int[TAIL_SIZE];
+	private final String[] tailTexts = new String[TAIL_SIZE];
+
+	private final Thread writer;
+	/** guarded with 'out' */
+	private IOException writeError = null;
+
+	/** the logger to be given to a measure */
+	public Logger getLogger()
+	{ return logger; }
+
+
+	@Override
+	public void messageLogged(final LogMessage message)
+	{
+		final int level = message.level();
+		final boolean isImportant = level <= LogLevel.WARN;
+		if (isImportant) forwardTo.log(level, message.text());
+		if (isImportant && out == null) return;
+
+		synchronized (this)
+		{
+			if (closing) return;
+			if (!isImportant && maxLines > 0 && acceptedLines >= maxLines)
+			{
+				++suppressedLines;
+				keepInTail(level, message.text());
+				return;
+			}
+			if (count == texts.length)
+			{
+				++droppedLines;
+				keepInTail(level, message.text());
+				return;
+			}
+
+			final int tail = (head + count) % texts.length;
+			levels[tail] = level;
+			texts[tail] = message.text();
+			if (count++ == 0) this.notifyAll();
+			if (!isImportant) ++acceptedLines;
+		}
+	}
+
+	/** remembers the message among the last few not written ones, must be called with 'this' locked */
+	private void keepInTail(final int level, final String text)
+	{
+		final int t = (int)(notWrittenLines++ % TAIL_SIZE);
+		tailLevels[t] = level;
+		tailTexts[t] = text;
+	}
+
+	/** the number of messages beyond the cap of lines */
+	public synchronized long getNoOfSuppressedLines()
+	{ return suppressedLines; }
+
+	/** the number of messages that came while the buffer was full */
+	public synchronized long getNoOfDroppedLines()
+	{ return droppedLines; }
+
+
+	private void writeLoop()
+	{
+		final int[] batchLevels = new int[Math.min(levels.length, 1024)];
+		final String[] batchTexts = new String[batchLevels.length];
+
+		while (true)
+		{
+			int batchSize = 0;
+			synchronized (this)
+			{
+				while (count == 0 && !closing)
+				{
+					try { this.wait(); }
+					catch (InterruptedException e) { closing = true; }
+				}
+				if (count == 0) return; //closing and drained
+
+				//take out as many messages as possible, to spend the I/O outside the lock
+				while (count > 0 && batchSize < batchLevels.length)
+				{
+					batchLevels[batchSize] = levels[head];
+					batchTexts[batchSize] = texts[head];
+					texts[head] = null;
+					head = (head+1) % texts.length;
+					--count;
+					++batchSize;
+				}
+			}
+
+			for (int i = 0; i < batchSize; ++i)
+			{
+				if (out == null) forwardTo.log(batchLevels[i], batchTexts[i]);
+				else writeDirectly(batchTexts[i]);
+				batchTexts[i] = null;
+			}
+		}
+	}
+
+
+	/** writes the line into the file, the writer thread and close() may both do it */
+	private void writeDirectly(final String text)
+	{
+		synchronized (out)
+		{
+			if (writeError != null) return;
+			try {
+				out.write(String.valueOf(text));
+				out.newLine();
+			}
+			catch (IOException e) { writeError = e; }
+		}
+	}
+
+
+	/** waits until all buffered messages are written, and reports on the not written ones */
+	@Override
+	public void close()
+	throws IOException
+	{
+		synchronized (this)
+		{
+			closing = true;
+			this.notifyAll();
+		}
+		try { writer.join(); }
+		catch (InterruptedException e) { Thread.currentThread().interrupt(); }
+
+		//no new messages are accepted after 'closing' is set
+		String summary = null;
+		if (notWrittenLines > 0)
+		{
+			summary = "Verbose report was shortened: "
+				+(suppressedLines > 0 ? suppressedLines+" lines beyond the cap of "+maxLines+" lines" : "")
+				+(suppressedLines > 0 && droppedLines > 0 ? " and " : "")
+				+(droppedLines > 0 ? droppedLines+" lines that came while the writer was behind" : "")
+				+" were not written, the last "+Math.min(notWrittenLines, TAIL_SIZE)+" of them follow";
+			forwardTo.warn(summary);
+		}
+
+		//the tail of the not written messages, in the order they came
+		final long tailStart = Math.max(notWrittenLines - TAIL_SIZE, 0);
+		if (out == null)
+			for (long i = tailStart; i < notWrittenLines; ++i)
+				forwardTo.log(tailLevels[(int)(i % TAIL_SIZE)], tailTexts[(int)(i % TAIL_SIZE)]);
+		else
+		{
+			try {
+				if (summary != null) writeDirectly(summary);
+				for (long i = tailStart; i < notWrittenLines; ++i)
+					writeDirectly(tailTexts[(int)(i % TAIL_SIZE)]);
+			}
+			finally {
+				out.close();
+			}
+		}
+		if (writeError != null) throw writeError;
+	}
+}
@@ -0,0 +1,123 @@
+/*-
+ * #%L
+ * CTC-Fiji-plugins
+ * %%
+ * Copyright (C) 2017 - 2023 Vladimír Ulman
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package net.celltrackingchallenge.fiji.plugins.util;
+
+/**
+ * Background masks computed from the TRA masks, the same that BgMaskCreator
+ * of CTC-measures makes and saves into BG/mask*.tif: the background is
+ * everything but the cells, eroded with the given radius, that is, only
+ * the pixels farther than the radius from any cell are kept. Pixels out of
+ * the image are considered to be background. The background is marked with
+ * non-zero pixels.
+ *
+ * The erosion is done with the Euclidean distance transform (the separable
+ * algorithm by Felzenszwalb and Huttenlocher), so its cost does not depend
+ * on the radius.
+ */
+public class BackgroundMask
+{
+	/** returns the background mask of the foreground given as non-zero pixels */
+	public static short[] of(final short[] fg, final long[] dims, final int erosionRadius)
+	{
+		final short[] bg = new short[fg.length];
+		if (erosionRadius <= 0)
+		{
+			for (int i = 0; i < fg.length; ++i) bg[i] = fg[i] == 0 ? (short)1 : 0;
+			return bg;
+		}
+
+		//squared distances to the nearest foreground pixel
+		final float[] dist = new float[fg.length];
+		for (int i = 0; i < fg.length; ++i) dist[i] = fg[i] != 0 ? 0 : INF;
+
+		int stride = 1;
+		final int noOfDims = dims.length > 2 && dims[2] > 1 ? 3 : 2;
+		final int longest = (int)Math.max(dims[0], Math.max(dims[1], noOfDims > 2 ? dims[2] : 1));
+		final double[] f = new double[longest];
+		final double[] z = new double[longest+1];
+		final int[] v = new int[longest];
+		for (int d = 0; d < noOfDims; ++d)
+		{
+			final int n = (int)dims[d];
+			//all lines along the axis d: start positions are those with the d-th coordinate 0
+			for (int start = 0; start < dist.length; ++start)
+			{
+				if ((start / stride) % n != 0) continue;
+				distanceTransform1D(dist, start, stride, n, f, z, v);
+			}
+			stride *= n;
+		}
+
+		final float r2 = (float)erosionRadius * (float)erosionRadius;
+		for (int i = 0; i < fg.length; ++i) bg[i] = dist[i] > r2 ? (short)1 : 0;
+		return bg;
+	}
+
+	/** marks the foreground pixels of the labels into the union */
+	public static void addForeground(final short[] labels, final short[] union)
+	{
+		for (int i = 0; i < labels.length; ++i)
+			if (labels[i] != 0) union[i] = 1;
+	}
+
+	static final float INF = 1e20f;
+
+	/** squared distance transform of one line of the image, in place */
+	static void distanceTransform1D(final float[] dist, final int start, final int stride, final int n,
+	                                final double[] f, final double[] z, final int[] v)
+	{
+		for (int q = 0; q < n; ++q) f[q] = dist[start + q*stride];
+
+		int k = 0;
+		v[0] = 0;
+		z[0] = Double.NEGATIVE_INFINITY;
+		z[1] = Double.POSITIVE_INFINITY;
+		for (int q = 1; q < n; ++q)
+		{
+			double s = ((f[q] + q*q) - (f[v[k]] + v[k]*v[k])) / (2.0*q - 2.0*v[k]);
+			while (s <= z[k])
+			{
+				--k;
+				s = ((f[q] + q*q) - (f[v[k]] + v[k]*v[k])) / (2.0*q - 2.0*v[k]);
+			}
+			++k;
+			v[k] = q;
+			z[k] = s;
+			z[k+1] = Double.POSITIVE_INFINITY;
+		}
+
+		k = 0;
+		for (int q = 0; q < n; ++q)
+		{
+			while (z[k+1] < q) ++k;
+			final double d = (double)(q - v[k]) * (double)(q - v[k]) + f[v[k]];
+			dist[start + q*stride] = (float)Math.min(d, INF);
+		}
+	}
+}
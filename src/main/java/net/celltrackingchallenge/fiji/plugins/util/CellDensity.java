@@ -0,0 +1,271 @@
+/*-
+ * #%L
+ * CTC-Fiji-plugins
+ * %%
+ * Copyright (C) 2017 - 2023 Vladimír Ulman
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package net.celltrackingchallenge.fiji.plugins.util;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * Density of the cells, which is the distance of every cell to its nearest
+ * other cell, averaged over all cells (that have some other cell in their
+ * frame) of all frames added. The distance is the Euclidean distance between
+ * the closest pixels (voxels) of the two cells, measured in pixels along
+ * the x-axis (the other axes are scaled according to the resolution).
+ *
+ * Only the boundary pixels of the cells are considered, and they are
+ * indexed with a uniform grid: the nearest other cell is searched in rings
+ * of grid cells around every boundary pixel, until the ring is farther
+ * than the nearest one found so far for the same cell. Every cell is
+ * processed in parallel.
+ */
+public class CellDensity
+{
+	public CellDensity(final double[] resolution, final ExecutorService workers)
+	{
+		this.workers = workers;
+		this.scale = new double[] { 1.0, resolution[1]/resolution[0], resolution[2]/resolution[0] };
+	}
+
+	private final ExecutorService workers;
+	private final double[] scale;
+
+	/** edge of the grid cell, in pixels along the x-axis */
+	static final int GRID_SIZE = 8;
+
+	private double sum = 0;
+	private long noOfCells = 0;
+
+	/** the average distance, or -1 if no cell has been added */
+	public double getAverage()
+	{
+		return noOfCells > 0 ? sum / (double)noOfCells : -1;
+	}
+
+	public long getNoOfCells()
+	{ return noOfCells; }
+
+	/** adds all cells of the frame, given as pixels in which x runs the fastest */
+	public void addFrame(final short[] labels, final long[] dims)
+	throws IOException
+	{
+		final BoundaryIndex index = new BoundaryIndex(labels, dims);
+		if (index.noOfCells < 2) return;
+
+		//cells in parallel, in chunks that are summed up in a fixed order
+		final int chunk = Math.max(1, index.noOfCells / 64);
+		final List<Future<double[]>> tasks = new ArrayList<>();
+		for (int from = 0; from < index.noOfCells; from += chunk)
+		{
+			final int first = from;
+			final int last = Math.min(from+chunk, index.noOfCells);
+			tasks.add( workers.submit(() -> {
+				final double[] sumAndCnt = new double[2];
+				for (int c = first; c < last; ++c)
+				{
+					final double dist = index.nearestOtherCell(c);
+					if (dist < 0) continue;
+					sumAndCnt[0] += dist;
+					++sumAndCnt[1];
+				}
+				return sumAndCnt;
+			}) );
+		}
+
+		try {
+			for (Future<double[]> t : tasks)
+			{
+				final double[] sumAndCnt = t.get();
+				sum += sumAndCnt[0];
+				noOfCells += (long)sumAndCnt[1];
+			}
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("interrupted while measuring the density");
+		}
+		catch (ExecutionException e) {
+			throw new IOException("density measuring failed: "+e.getCause().getMessage(), e.getCause());
+		}
+	}
+
+
+	/** boundary pixels of one frame, grouped by grid cells and by labels */
+	class BoundaryIndex
+	{
+		final int[] xs, ys, zs;
+		final short[] ls;
+
+		/** indices of the boundary pixels of the k-th grid cell are gridItems[gridStarts[k]..gridStarts[k+1]-1] */
+		final int[] gridStarts, gridItems;
+		final int gx, gy, gz;
+		final int gridW, gridH, gridD;
+		/** the smallest edge of a grid cell, after the scaling */
+		final double gridMin;
+
+		/** the same for the labels, grouped into noOfCells cells */
+		final int[] cellStarts, cellItems;
+		final int noOfCells;
+
+		BoundaryIndex(final short[] labels, final long[] dims)
+		{
+			final int w = (int)dims[0];
+			final int h = (int)dims[1];
+			final int d = dims.length > 2 ? (int)dims[2] : 1;
+			final int slice = w*h;
+
+			//boundary pixels are those touching another label (not the image border)
+			int n = 0;
+			final int[] perLabel = new int[1 << 16];
+			for (int pass = 0; pass < 2; ++pass)
+			{
+				if (pass == 1) n = 0;
+				int i = 0;
+				for (int z = 0; z < d; ++z)
+					for (int y = 0; y < h; ++y)
+						for (int x = 0; x < w; ++x, ++i)
+						{
+							final short l = labels[i];
+							if (l == 0) continue;
+							if ((x > 0   && labels[i-1] != l) || (x < w-1 && labels[i+1] != l)
+							 || (y > 0   && labels[i-w] != l) || (y < h-1 && labels[i+w] != l)
+							 || (z > 0   && labels[i-slice] != l) || (z < d-1 && labels[i+slice] != l))
+							{
+								if (pass == 0) ++perLabel[l & 0xFFFF];
+								else
+								{
+									xsTmp[n] = x; ysTmp[n] = y; zsTmp[n] = z; lsTmp[n] = l;
+								}
+								++n;
+							}
+						}
+				if (pass == 0)
+				{
+					xsTmp = new int[n]; ysTmp = new int[n]; zsTmp = new int[n]; lsTmp = new short[n];
+				}
+			}
+			xs = xsTmp; ys = ysTmp; zs = zsTmp; ls = lsTmp;
+
+			//the grid, with cells of (about) the same size along all axes after the scaling
+			gx = GRID_SIZE;
+			gy = Math.max(1, (int)Math.round(GRID_SIZE / scale[1]));
+			gz = Math.max(1, (int)Math.round(GRID_SIZE / scale[2]));
+			gridW = (w + gx-1) / gx;
+			gridH = (h + gy-1) / gy;
+			gridD = (d + gz-1) / gz;
+			gridMin = d > 1 ? Math.min(gx, Math.min(gy*scale[1], gz*scale[2])) : Math.min(gx, gy*scale[1]);
+
+			gridStarts = new int[gridW*gridH*gridD + 1];
+			for (int j = 0; j < n; ++j) ++gridStarts[gridCellOf(j) + 1];
+			for (int k = 0; k < gridStarts.length-1; ++k) gridStarts[k+1] += gridStarts[k];
+			gridItems = new int[n];
+			final int[] gridFill = new int[gridStarts.length];
+			for (int j = 0; j < n; ++j)
+			{
+				final int k = gridCellOf(j);
+				gridItems[gridStarts[k] + gridFill[k]++] = j;
+			}
+
+			//the labels
+			int cells = 0;
+			final int[] labelToCell = new int[1 << 16];
+			for (int l = 1; l < perLabel.length; ++l)
+				if (perLabel[l] > 0) labelToCell[l] = cells++;
+			noOfCells = cells;
+			cellStarts = new int[cells + 1];
+			for (int l = 1; l < perLabel.length; ++l)
+				if (perLabel[l] > 0) cellStarts[labelToCell[l] + 1] = perLabel[l];
+			for (int c = 0; c < cells; ++c) cellStarts[c+1] += cellStarts[c];
+			cellItems = new int[n];
+			final int[] cellFill = new int[cells];
+			for (int j = 0; j < n; ++j)
+			{
+				final int c = labelToCell[ls[j] & 0xFFFF];
+				cellItems[cellStarts[c] + cellFill[c]++] = j;
+			}
+		}
+
+		//only for the construction
+		private int[] xsTmp, ysTmp, zsTmp;
+		private short[] lsTmp;
+
+		int gridCellOf(final int j)
+		{
+			return (zs[j]/gz * gridH + ys[j]/gy) * gridW + xs[j]/gx;
+		}
+
+		/** returns the distance of the c-th cell to its nearest other cell, or -1 if there is none */
+		double nearestOtherCell(final int c)
+		{
+			double best = Double.MAX_VALUE; //squared
+			for (int q = cellStarts[c]; q < cellStarts[c+1]; ++q)
+			{
+				final int j = cellItems[q];
+				final short l = ls[j];
+				final int cx = xs[j]/gx, cy = ys[j]/gy, cz = zs[j]/gz;
+				final int maxR = Math.max(Math.max(cx, gridW-1-cx), Math.max(Math.max(cy, gridH-1-cy), Math.max(cz, gridD-1-cz)));
+
+				for (int r = 0; r <= maxR; ++r)
+				{
+					final double ringDist = (r-1) * gridMin;
+					if (r > 0 && ringDist > 0 && ringDist*ringDist >= best) break;
+
+					for (int kz = Math.max(0, cz-r); kz <= Math.min(gridD-1, cz+r); ++kz)
+						for (int ky = Math.max(0, cy-r); ky <= Math.min(gridH-1, cy+r); ++ky)
+						{
+							final boolean inner = Math.abs(kz-cz) < r && Math.abs(ky-cy) < r;
+							for (int kx = Math.max(0, cx-r); kx <= Math.min(gridW-1, cx+r); ++kx)
+							{
+								//only the cells on the ring
+								if (inner && Math.abs(kx-cx) < r) kx = cx+r-1;
+								else
+								{
+									final int k = (kz*gridH + ky)*gridW + kx;
+									for (int p = gridStarts[k]; p < gridStarts[k+1]; ++p)
+									{
+										final int o = gridItems[p];
+										if (ls[o] == l) continue;
+										final double dx = xs[o] - xs[j];
+										final double dy = (ys[o] - ys[j]) * scale[1];
+										final double dz = (zs[o] - zs[j]) * scale[2];
+										final double dist = dx*dx + dy*dy + dz*dz;
+										if (dist < best) best = dist;
+									}
+								}
+							}
+						}
+				}
+			}
+			return best < Double.MAX_VALUE ? Math.sqrt(best) : -1;
+		}
+	}
+}
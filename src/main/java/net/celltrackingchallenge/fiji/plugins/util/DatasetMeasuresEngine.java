@@ -0,0 +1,315 @@
+/*-
+ * #%L
+ * CTC-Fiji-plugins
+ * %%
+ * Copyright (C) 2017 - 2023 Vladimír Ulman
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package net.celltrackingchallenge.fiji.plugins.util;
+
+import net.celltrackingchallenge.fiji.plugins.io.FrameSource;
+import net.celltrackingchallenge.fiji.plugins.io.FrameSources;
+import net.celltrackingchallenge.fiji.plugins.io.LineageStore;
+import net.celltrackingchallenge.fiji.plugins.io.MaskTiffWriter;
+import net.celltrackingchallenge.fiji.plugins.io.RawImageReader;
+import net.celltrackingchallenge.fiji.plugins.util.DatasetMeasuresPlan.Feature;
+import net.celltrackingchallenge.fiji.plugins.util.DatasetMeasuresPlan.Measure;
+import net.imglib2.Cursor;
+import net.imglib2.img.Img;
+import net.imglib2.type.numeric.integer.UnsignedShortType;
+import net.imglib2.view.Views;
+import org.scijava.log.Logger;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Calculates those dataset measures that have their own implementation in
+ * this project (instead of the one from CTC-measures), all of them in one
+ * pass over the frames of a video.
+ *
+ * Select the measures, run calculate() and get() the values, -1 stands for
+ * a not-calculated value. Only the data in the DatasetMeasuresPlan of the
+ * selected measures is read and computed. The frames are the TRA/man_track*.tif
+ * from the timepoint 0 up to the first missing one, Mit is the number of
+ * divisions in TRA/man_track.txt per frame.
+ * The BG masks can be also created from the TRA masks on the fly, see bgMasks.
+ */
+public class DatasetMeasuresEngine implements AutoCloseable
+{
+	public DatasetMeasuresEngine(final Logger log, final double[] resolution,
+	                             final int noOfDigits, final int noOfThreads)
+	{
+		this.log = log;
+		this.resolution = resolution.clone();
+		this.noOfDigits = noOfDigits;
+		this.noOfThreads = noOfThreads;
+		this.workers = Executors.newFixedThreadPool(noOfThreads, r -> {
+			final Thread t = new Thread(r, "CTC dataset measures");
+			t.setDaemon(true);
+			return t;
+		});
+		this.frames = new FrameSources(log, noOfThreads, 1, 1, 0);
+		this.classifier = new ParallelLabelClassifier(workers, noOfThreads);
+	}
+
+	private final Logger log;
+	private final double[] resolution;
+	private final int noOfDigits;
+	private final int noOfThreads;
+	private final ExecutorService workers;
+	private final FrameSources frames;
+	private final ParallelLabelClassifier classifier;
+	private final RawImageReader rawReader = new RawImageReader();
+
+	/** where the background of the intensity measures comes from */
+	public enum BgMasks { READ, CREATE_FOR_EACH_TIMEPOINT, CREATE_ONE_FOR_ALL_TIMEPOINTS }
+
+	public BgMasks bgMasks = BgMasks.READ;
+	/** the radius of erosion of the created BG masks */
+	public int bgErosionRadius = 0;
+	/** the created BG masks are also saved into BG/mask*.tif */
+	public boolean doSaveBgMasks = false;
+
+	private final EnumSet<Measure> selected = EnumSet.noneOf(Measure.class);
+	private final EnumMap<Measure,Double> values = new EnumMap<>(Measure.class);
+	private final EnumMap<Measure,Long> weights = new EnumMap<>(Measure.class);
+	private int noOfFrames = 0;
+
+	public void select(final Measure measure)
+	{ selected.add(measure); }
+
+	public boolean isSelected(final Measure measure)
+	{ return selected.contains(measure); }
+
+	/** the value of the measure from the last calculate(), or -1 if it was not calculated */
+	public double get(final Measure measure)
+	{
+		final Double v = values.get(measure);
+		return v != null ? v : -1;
+	}
+
+	/**
+	 * the number of terms the value from get() is the average of (cells, cells
+	 * found in two consecutive frames, or frames), or 0 if it was not calculated;
+	 * values of more videos are pooled with these weights
+	 */
+	public long getWeight(final Measure measure)
+	{
+		final Long w = weights.get(measure);
+		return w != null ? w : 0;
+	}
+
+	/** the number of frames (timepoints) seen in the last calculate() */
+	public int getNoOfFrames()
+	{ return noOfFrames; }
+
+	@Override
+	public void close()
+	{
+		frames.close();
+		workers.shutdownNow();
+	}
+
+
+	public void calculate(final Path imgDir, final Path annDir)
+	throws IOException
+	{
+		values.clear();
+		weights.clear();
+		final DatasetMeasuresPlan plan = DatasetMeasuresPlan.of(selected);
+		log.debug("built-in measures "+selected+" need "+plan);
+
+		final FrameSource traFrames = frames.forFolder(annDir.resolve("TRA"), "man_track", noOfDigits);
+		final CellSizes res = plan.needs(Feature.CELL_SIZES) ? new CellSizes() : null;
+		final ShapeRegularity sha = plan.needs(Feature.CELL_SHAPES) ? new ShapeRegularity(resolution, workers) : null;
+		final CellDensity spa = plan.needs(Feature.CELL_DISTANCES) ? new CellDensity(resolution, workers) : null;
+		final TemporalMeasures temporal = plan.needs(Feature.CONSECUTIVE_OVERLAPS) ? new TemporalMeasures(classifier) : null;
+		final IntensityMeasures intensity = isSelected(Measure.SNR) || isSelected(Measure.CR)
+				|| isSelected(Measure.HETI) || isSelected(Measure.HETB) ? new IntensityMeasures() : null;
+
+		final FrameSource bgFrames = frames.forFolder(annDir.resolve("BG"), "mask", noOfDigits);
+		final String rawFileFormat = "t%0"+noOfDigits+"d.tif";
+		//two buffers: of the current frame and of the previous one (for the temporal measures)
+		final boolean needsIntensities = plan.needs(Feature.CELL_INTENSITIES);
+		FrameIntensities intensities = needsIntensities ? new FrameIntensities() : null;
+		FrameIntensities prevIntensities = needsIntensities ? new FrameIntensities() : null;
+
+		//the union of all cells over the whole video is needed before anything else
+		final short[] oneBgMask = needsIntensities && bgMasks == BgMasks.CREATE_ONE_FOR_ALL_TIMEPOINTS
+				? oneBgMaskFor(traFrames) : null;
+		final String bgFileFormat = "mask%0"+noOfDigits+"d.tif";
+
+		int time = 0;
+		for (; traFrames.hasFrame(time); ++time)
+		{
+			//only the number of frames is of interest
+			if (!plan.needs(Feature.TRA_MASKS)) continue;
+
+			final Img<UnsignedShortType> traImg = traFrames.getFrame(time);
+			final long[] dims = new long[traImg.numDimensions()];
+			traImg.dimensions(dims);
+			final short[] tra = labelsOf(traImg);
+
+			if (res != null) res.addFrame(tra);
+			if (sha != null) sha.addFrame(tra, dims);
+			if (spa != null) spa.addFrame(tra, dims);
+
+			if (intensities != null)
+			{
+				final FrameIntensities swap = prevIntensities;
+				prevIntensities = intensities;
+				intensities = swap;
+				intensities.clear();
+
+				final RawImageReader.RawFrame raw = rawReader.read(imgDir.resolve(String.format(rawFileFormat, time)));
+				if (raw.noOfPixels() != tra.length)
+					throw new IOException("raw image and TRA mask of timepoint "+time+" are of different sizes");
+				final short[] bg;
+				if (bgMasks == BgMasks.READ)
+				{
+					bg = bgFrames.hasFrame(time) ? labelsOf(bgFrames.getFrame(time)) : null;
+					if (bg == null) log.warn("missing BG mask of timepoint "+time);
+				}
+				else
+				{
+					bg = oneBgMask != null ? oneBgMask : BackgroundMask.of(tra, dims, bgErosionRadius);
+					if (doSaveBgMasks)
+						MaskTiffWriter.write(annDir.resolve("BG").resolve(String.format(bgFileFormat, time)), bg, dims);
+				}
+				intensities.add(raw, tra, bg, workers, noOfThreads);
+				if (intensity != null) intensity.addFrame(intensities);
+			}
+			if (temporal != null) temporal.addFrame(traImg, isSelected(Measure.CHA) ? intensities : null);
+			log.trace("built-in measures: done timepoint "+time);
+		}
+		if (time == 0) throw new IOException("no TRA/man_track*.tif found in "+annDir);
+		noOfFrames = time;
+
+		if (plan.needs(Feature.LINEAGE))
+		{
+			final LineageStore lineage = LineageStore.load(annDir.resolve("TRA").resolve("man_track.txt"));
+			values.put(Measure.MIT, (double)lineage.noOfDivisions() / (double)time);
+			weights.put(Measure.MIT, (long)time);
+		}
+
+		if (res != null)
+		{
+			values.put(Measure.RES, res.getAverage());
+			weights.put(Measure.RES, res.noOfCells);
+		}
+		if (sha != null)
+		{
+			values.put(Measure.SHA, sha.getAverage());
+			weights.put(Measure.SHA, sha.getNoOfCells());
+		}
+		if (spa != null)
+		{
+			values.put(Measure.SPA, spa.getAverage());
+			weights.put(Measure.SPA, spa.getNoOfCells());
+		}
+		if (intensity != null)
+		{
+			values.put(Measure.SNR,  intensity.getSNR());
+			values.put(Measure.CR,   intensity.getCR());
+			values.put(Measure.HETI, intensity.getHeti());
+			values.put(Measure.HETB, intensity.getHetb());
+			weights.put(Measure.SNR,  intensity.getNoOfSNRterms());
+			weights.put(Measure.CR,   intensity.getNoOfCRterms());
+			weights.put(Measure.HETI, intensity.getNoOfHetiTerms());
+			weights.put(Measure.HETB, intensity.getNoOfHetbTerms());
+		}
+		if (temporal != null)
+		{
+			values.put(Measure.CHA, temporal.getCha());
+			values.put(Measure.OVE, temporal.getOve());
+			weights.put(Measure.CHA, temporal.getNoOfChaTerms());
+			weights.put(Measure.OVE, temporal.getNoOfOveTerms());
+		}
+		//only what was asked for
+		values.keySet().retainAll(selected);
+		weights.keySet().retainAll(selected);
+	}
+
+	/** sizes of the cells, in pixels (voxels), averaged over all cells of all frames */
+	static class CellSizes
+	{
+		private final int[] sizes = new int[1 << 16];
+		private long sum = 0, noOfCells = 0;
+
+		void addFrame(final short[] labels)
+		{
+			for (short l : labels) ++sizes[l & 0xFFFF];
+			for (int l = 1; l < sizes.length; ++l)
+			{
+				if (sizes[l] == 0) continue;
+				sum += sizes[l];
+				++noOfCells;
+				sizes[l] = 0;
+			}
+			sizes[0] = 0;
+		}
+
+		double getAverage()
+		{ return noOfCells > 0 ? (double)sum / (double)noOfCells : -1; }
+	}
+
+	/** the BG mask of the union of the cells of all frames */
+	short[] oneBgMaskFor(final FrameSource traFrames)
+	throws IOException
+	{
+		short[] union = null;
+		long[] dims = null;
+		for (int time = 0; traFrames.hasFrame(time); ++time)
+		{
+			final Img<UnsignedShortType> traImg = traFrames.getFrame(time);
+			if (union == null)
+			{
+				dims = new long[traImg.numDimensions()];
+				traImg.dimensions(dims);
+				union = new short[(int)traImg.size()];
+			}
+			else if (traImg.size() != union.length)
+				throw new IOException("TRA mask of timepoint "+time+" is of different size than the others");
+			BackgroundMask.addForeground(labelsOf(traImg), union);
+		}
+		return union != null ? BackgroundMask.of(union, dims, bgErosionRadius) : null;
+	}
+
+	/** returns the pixels of the image, which are shared if it is backed by one array */
+	static short[] labelsOf(final Img<UnsignedShortType> img)
+	{
+		final short[] pixels = ParallelLabelClassifier.shortArrayOf(img);
+		if (pixels != null) return pixels;
+
+		final short[] copy = new short[(int)img.size()];
+		final Cursor<UnsignedShortType> c = Views.flatIterable(img).cursor();
+		for (int i = 0; i < copy.length; ++i) copy[i] = (short)c.next().get();
+		return copy;
+	}
+}
@@ -0,0 +1,110 @@
+/*-
+ * #%L
+ * CTC-Fiji-plugins
+ * %%
+ * Copyright (C) 2017 - 2023 Vladimír Ulman
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package net.celltrackingchallenge.fiji.plugins.util;
+
+import java.util.Collection;
+import java.util.EnumSet;
+import java.util.Set;
+
+/**
+ * Which data the DatasetMeasuresEngine has to obtain for the selected measures:
+ * every measure declares the per-cell features it is finished from, every
+ * feature declares the inputs it is computed from, and the plan is the union
+ * of all of them. Nothing outside the plan is read or computed.
+ */
+public class DatasetMeasuresPlan
+{
+	public enum Feature
+	{
+		TRA_MASKS, RAW_IMAGES, BG_MASKS, LINEAGE,
+		CELL_SIZES, CELL_INTENSITIES, CELL_SHAPES, CELL_DISTANCES, CONSECUTIVE_OVERLAPS;
+
+		/** the inputs this feature is computed from */
+		EnumSet<Feature> inputs()
+		{
+			switch (this)
+			{
+			case CELL_INTENSITIES:
+				return EnumSet.of(TRA_MASKS, RAW_IMAGES, BG_MASKS);
+			case CELL_SIZES:
+			case CELL_SHAPES:
+			case CELL_DISTANCES:
+			case CONSECUTIVE_OVERLAPS:
+				return EnumSet.of(TRA_MASKS);
+			default:
+				return EnumSet.noneOf(Feature.class);
+			}
+		}
+	}
+
+	public enum Measure
+	{
+		SNR(Feature.CELL_INTENSITIES),
+		CR(Feature.CELL_INTENSITIES),
+		HETI(Feature.CELL_INTENSITIES),
+		HETB(Feature.CELL_INTENSITIES),
+		RES(Feature.CELL_SIZES),
+		SHA(Feature.CELL_SHAPES),
+		SPA(Feature.CELL_DISTANCES),
+		CHA(Feature.CELL_INTENSITIES, Feature.CONSECUTIVE_OVERLAPS),
+		OVE(Feature.CONSECUTIVE_OVERLAPS),
+		MIT(Feature.LINEAGE);
+
+		Measure(final Feature... needs)
+		{ this.needs = needs; }
+
+		/** the features this measure is finished from */
+		final Feature[] needs;
+	}
+
+
+	private DatasetMeasuresPlan(final Set<Feature> features)
+	{ this.features = features; }
+
+	private final Set<Feature> features;
+
+	public static DatasetMeasuresPlan of(final Collection<Measure> measures)
+	{
+		final EnumSet<Feature> features = EnumSet.noneOf(Feature.class);
+		for (Measure m : measures)
+			for (Feature f : m.needs)
+			{
+				features.add(f);
+				features.addAll(f.inputs());
+			}
+		return new DatasetMeasuresPlan(features);
+	}
+
+	public boolean needs(final Feature feature)
+	{ return features.contains(feature); }
+
+	@Override
+	public String toString()
+	{ return features.toString(); }
+}
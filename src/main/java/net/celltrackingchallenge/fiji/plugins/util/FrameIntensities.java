@@ -0,0 +1,205 @@
+/*-
+ * #%L
+ * CTC-Fiji-plugins
+ * %%
+ * Copyright (C) 2017 - 2023 Vladimír Ulman
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package net.celltrackingchallenge.fiji.plugins.util;
+
+import net.celltrackingchallenge.fiji.plugins.io.RawImageReader.RawFrame;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * Intensity statistics (count, mean and the sum of squared differences
+ * from the mean) of all cells (from the TRA mask) and of the background
+ * (from the BG mask) of one frame, collected in one scan over the raw image.
+ * The BG mask marks the background with non-zero pixels.
+ *
+ * The statistics are accumulated with the Welford's online algorithm into
+ * primitive arrays indexed with labels, the background is kept under the
+ * index 0. The scan is split into slabs that are accumulated in parallel
+ * and merged in a fixed order afterwards. The raw pixels are read from their
+ * native arrays, with a separate loop for every pixel type.
+ */
+public class FrameIntensities
+{
+	static final int BG = 0;
+
+	private final long[] counts = new long[1 << 16];
+	private final double[] means = new double[1 << 16];
+	private final double[] m2s = new double[1 << 16];
+
+	public void clear()
+	{
+		Arrays.fill(counts, 0);
+		Arrays.fill(means, 0);
+		Arrays.fill(m2s, 0);
+	}
+
+	/** adds the pixels using the workers, all arrays have the same layout; bg may be null */
+	public void add(final RawFrame raw, final short[] labels, final short[] bg,
+	                final ExecutorService workers, final int noOfSlabs)
+	throws IOException
+	{
+		final int noOfPixels = raw.noOfPixels();
+		final int slabs = Math.max(1, Math.min(noOfSlabs, noOfPixels / 65536));
+		if (slabs == 1)
+		{
+			addSlab(raw, labels, bg, 0, noOfPixels);
+			return;
+		}
+
+		final List<Future<FrameIntensities>> tasks = new ArrayList<>(slabs);
+		for (int s = 0; s < slabs; ++s)
+		{
+			final int from = (int)((long)noOfPixels *  s    / slabs);
+			final int to   = (int)((long)noOfPixels * (s+1) / slabs);
+			tasks.add( workers.submit(() -> {
+				final FrameIntensities slab = new FrameIntensities();
+				slab.addSlab(raw, labels, bg, from, to);
+				return slab;
+			}) );
+		}
+
+		try {
+			for (Future<FrameIntensities> t : tasks) merge(t.get());
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("interrupted while collecting the intensities");
+		}
+		catch (ExecutionException e) {
+			throw new IOException("collecting the intensities failed: "+e.getCause().getMessage(), e.getCause());
+		}
+	}
+
+	void addSlab(final RawFrame raw, final short[] labels, final short[] bg, final int from, final int to)
+	{
+		final int sliceSize = raw.width * raw.height;
+		for (int z = from / sliceSize; z < raw.depth() && z*sliceSize < to; ++z)
+		{
+			final int offset = z * sliceSize;
+			final int sliceFrom = Math.max(from, offset);
+			final int sliceTo = Math.min(to, offset + sliceSize);
+			final Object pixels = raw.slices[z];
+			if (pixels instanceof byte[])
+				addSlice((byte[])pixels, offset, labels, bg, sliceFrom, sliceTo);
+			else if (pixels instanceof short[])
+				addSlice((short[])pixels, offset, labels, bg, sliceFrom, sliceTo);
+			else
+				addSlice((float[])pixels, offset, labels, bg, sliceFrom, sliceTo);
+		}
+	}
+
+	private void addSlice(final byte[] pixels, final int offset, final short[] labels, final short[] bg,
+	                      final int from, final int to)
+	{
+		for (int i = from; i < to; ++i)
+		{
+			final int value = pixels[i-offset] & 0xFF;
+			final int l = labels[i] & 0xFFFF;
+			if (l > 0) accumulate(l, value);
+			if (bg != null && bg[i] != 0) accumulate(BG, value);
+		}
+	}
+
+	private void addSlice(final short[] pixels, final int offset, final short[] labels, final short[] bg,
+	                      final int from, final int to)
+	{
+		for (int i = from; i < to; ++i)
+		{
+			final int value = pixels[i-offset] & 0xFFFF;
+			final int l = labels[i] & 0xFFFF;
+			if (l > 0) accumulate(l, value);
+			if (bg != null && bg[i] != 0) accumulate(BG, value);
+		}
+	}
+
+	private void addSlice(final float[] pixels, final int offset, final short[] labels, final short[] bg,
+	                      final int from, final int to)
+	{
+		for (int i = from; i < to; ++i)
+		{
+			final float value = pixels[i-offset];
+			final int l = labels[i] & 0xFFFF;
+			if (l > 0) accumulate(l, value);
+			if (bg != null && bg[i] != 0) accumulate(BG, value);
+		}
+	}
+
+	private void accumulate(final int idx, final double value)
+	{
+		final long n = ++counts[idx];
+		final double delta = value - means[idx];
+		means[idx] += delta / (double)n;
+		m2s[idx] += delta * (value - means[idx]);
+	}
+
+	/** adds the statistics of the other (disjoint) part of the same frame */
+	void merge(final FrameIntensities o)
+	{
+		for (int l = 0; l < counts.length; ++l)
+		{
+			final long nb = o.counts[l];
+			if (nb == 0) continue;
+			final long na = counts[l];
+			final long n = na + nb;
+			final double delta = o.means[l] - means[l];
+			means[l] += delta * (double)nb / (double)n;
+			m2s[l] += o.m2s[l] + delta*delta * (double)na * (double)nb / (double)n;
+			counts[l] = n;
+		}
+	}
+
+	public boolean hasCell(final int label)
+	{ return label > 0 && counts[label] > 0; }
+
+	/** the average intensity of the cell, or NaN if it is not present */
+	public double mean(final int label)
+	{
+		return counts[label] > 0 ? means[label] : Double.NaN;
+	}
+
+	/** the (population) standard deviation of the intensity of the cell, or NaN if it is not present */
+	public double std(final int label)
+	{
+		return counts[label] > 0 ? Math.sqrt(m2s[label] / (double)counts[label]) : Double.NaN;
+	}
+
+	/** the average intensity of the background, or NaN if there is none */
+	public double bgMean()
+	{ return mean(BG); }
+
+	/** the standard deviation of the intensity of the background, or NaN if there is none */
+	public double bgStd()
+	{ return std(BG); }
+}
@@ -0,0 +1,116 @@
+/*-
+ * #%L
+ * CTC-Fiji-plugins
+ * %%
+ * Copyright (C) 2017 - 2023 Vladimír Ulman
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package net.celltrackingchallenge.fiji.plugins.util;
+
+import javax.management.Notification;
+import javax.management.NotificationEmitter;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryNotificationInfo;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.MemoryUsage;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Notifies the registered listeners when the heap, as measured right after
+ * a garbage collection, is filled above the THRESHOLD of its maximum. The
+ * listeners are expected to release (or move to a more compact form) what
+ * they can re-create later, before the JVM runs out of memory.
+ *
+ * The listeners are notified from a JVM internal thread.
+ */
+public final class HeapPressureMonitor
+{
+	public interface Listener
+	{
+		void heapIsLow();
+	}
+
+	/** the fraction of the heap pool that triggers the notification */
+	public static final double THRESHOLD = 0.8;
+
+	private static final List<Listener> listeners = new CopyOnWriteArrayList<>();
+	private static boolean isInstalled = false;
+
+	private HeapPressureMonitor() {}
+
+	public static void addListener(final Listener l)
+	{
+		install();
+		listeners.add(l);
+	}
+
+	public static void removeListener(final Listener l)
+	{
+		listeners.remove(l);
+	}
+
+	/**
+	 * returns true if any heap pool was filled above the threshold after its
+	 * last garbage collection, i.e. the same condition as of the notification
+	 * (the current usage includes garbage and would report low heap too often)
+	 */
+	public static boolean isHeapLow()
+	{
+		for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans())
+		{
+			if (pool.getType() != MemoryType.HEAP || !pool.isCollectionUsageThresholdSupported()) continue;
+			final MemoryUsage afterGC = pool.getCollectionUsage();
+			if (afterGC == null) continue;
+			final long max = afterGC.getMax();
+			if (max > 0 && afterGC.getUsed() > THRESHOLD * max) return true;
+		}
+		return false;
+	}
+
+	private static synchronized void install()
+	{
+		if (isInstalled) return;
+		isInstalled = true;
+
+		for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans())
+		{
+			if (pool.getType() != MemoryType.HEAP || !pool.isCollectionUsageThresholdSupported()) continue;
+			final long max = pool.getUsage().getMax();
+			if (max <= 0) continue;
+
+			//do not loosen a threshold that someone else has set
+			final long threshold = (long)(THRESHOLD * max);
+			if (pool.getCollectionUsageThreshold() == 0 || pool.getCollectionUsageThreshold() > threshold)
+				pool.setCollectionUsageThreshold(threshold);
+		}
+
+		((NotificationEmitter)ManagementFactory.getMemoryMXBean()).addNotificationListener(
+			(final Notification n, final Object handback) -> {
+				if (MemoryNotificationInfo.MEMORY_COLLECTION_THRESHOLD_EXCEEDED.equals(n.getType()))
+					for (Listener l : listeners) l.heapIsLow();
+			}, null, null);
+	}
+}
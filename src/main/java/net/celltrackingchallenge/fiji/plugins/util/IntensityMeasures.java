@@ -0,0 +1,90 @@
+/*-
+ * #%L
+ * CTC-Fiji-plugins
+ * %%
+ * Copyright (C) 2017 - 2023 Vladimír Ulman
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package net.celltrackingchallenge.fiji.plugins.util;
+
+/**
+ * SNR, CR, Heti and Hetb, finished from the FrameIntensities of the frames
+ * of one video. With the average (avgBG) and standard deviation (stdBG) of
+ * the background, and the average (avgFG) and standard deviation (stdFG)
+ * of every cell, of the same frame:
+ *
+ * SNR  is the average of |avgFG - avgBG| / stdBG over all cells,
+ * CR   is the average of avgFG / avgBG over all cells,
+ * Heti is the average of stdFG / |avgFG - avgBG| over all cells,
+ * Hetb is the average over frames of the standard deviation of avgFG
+ *      of the cells divided by |average of avgFG of the cells - avgBG|.
+ *
+ * Frames without the background, and terms with zero denominators, are skipped.
+ */
+public class IntensityMeasures
+{
+	private double snrSum = 0, crSum = 0, hetiSum = 0, hetbSum = 0;
+	private long snrCnt = 0, crCnt = 0, hetiCnt = 0, hetbCnt = 0;
+
+	public void addFrame(final FrameIntensities f)
+	{
+		final double avgBG = f.bgMean();
+		final double stdBG = f.bgStd();
+		if (Double.isNaN(avgBG)) return;
+
+		long noOfCells = 0;
+		double avgOfCells = 0, m2OfCells = 0;
+		for (int l = 1; l < 1 << 16; ++l)
+		{
+			if (!f.hasCell(l)) continue;
+			final double avgFG = f.mean(l);
+			final double signal = Math.abs(avgFG - avgBG);
+
+			if (stdBG > 0) { snrSum += signal / stdBG; ++snrCnt; }
+			if (avgBG != 0) { crSum += avgFG / avgBG; ++crCnt; }
+			if (signal > 0) { hetiSum += f.std(l) / signal; ++hetiCnt; }
+
+			++noOfCells;
+			final double delta = avgFG - avgOfCells;
+			avgOfCells += delta / (double)noOfCells;
+			m2OfCells += delta * (avgFG - avgOfCells);
+		}
+
+		if (noOfCells == 0) return;
+		final double stdOfCells = Math.sqrt(m2OfCells / (double)noOfCells);
+		final double signal = Math.abs(avgOfCells - avgBG);
+		if (signal > 0) { hetbSum += stdOfCells / signal; ++hetbCnt; }
+	}
+
+	public double getSNR()  { return snrCnt  > 0 ? snrSum  / (double)snrCnt  : -1; }
+	public double getCR()   { return crCnt   > 0 ? crSum   / (double)crCnt   : -1; }
+	public double getHeti() { return hetiCnt > 0 ? hetiSum / (double)hetiCnt : -1; }
+	public double getHetb() { return hetbCnt > 0 ? hetbSum / (double)hetbCnt : -1; }
+
+	/** the numbers of terms the averages above are made of */
+	public long getNoOfSNRterms()  { return snrCnt; }
+	public long getNoOfCRterms()   { return crCnt; }
+	public long getNoOfHetiTerms() { return hetiCnt; }
+	public long getNoOfHetbTerms() { return hetbCnt; }
+}
@@ -0,0 +1,131 @@
+/*-
+ * #%L
+ * CTC-Fiji-plugins
+ * %%
+ * Copyright (C) 2017 - 2023 Vladimír Ulman
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package net.celltrackingchallenge.fiji.plugins.util;
+
+import java.util.Arrays;
+
+/**
+ * Result of ParallelLabelClassifier on one frame: labels present in the
+ * GT and RES images together with their sizes (in pixels/voxels), and the
+ * sizes of all non-empty GT-RES overlaps. All arrays are sorted by labels,
+ * overlaps are sorted by the GT label first and the RES label second.
+ */
+public class LabelOverlaps
+{
+	public final int[]  gtLabels;
+	public final long[] gtSizes;
+	public final int[]  resLabels;
+	public final long[] resSizes;
+
+	public final int[]  overlapGtLabels;
+	public final int[]  overlapResLabels;
+	public final long[] overlapSizes;
+
+	LabelOverlaps(final int[] gtLabels, final long[] gtSizes,
+	              final int[] resLabels, final long[] resSizes,
+	              final int[] overlapGtLabels, final int[] overlapResLabels, final long[] overlapSizes)
+	{
+		this.gtLabels = gtLabels;
+		this.gtSizes = gtSizes;
+		this.resLabels = resLabels;
+		this.resSizes = resSizes;
+		this.overlapGtLabels = overlapGtLabels;
+		this.overlapResLabels = overlapResLabels;
+		this.overlapSizes = overlapSizes;
+	}
+
+	/** returns index of the GT label, or -1 if it is not present */
+	public int gtIndexOf(final int label)
+	{
+		final int i = Arrays.binarySearch(gtLabels, label);
+		return i >= 0 ? i : -1;
+	}
+
+	/** returns index of the RES label, or -1 if it is not present */
+	public int resIndexOf(final int label)
+	{
+		final int i = Arrays.binarySearch(resLabels, label);
+		return i >= 0 ? i : -1;
+	}
+
+	/**
+	 * Returns the RES label that covers more than half of the given GT object,
+	 * which is the CTC matching criterion, or 0 if there is no such label.
+	 */
+	public int matchOfGt(final int gtLabel)
+	{
+		final int gtIdx = gtIndexOf(gtLabel);
+		if (gtIdx < 0) return 0;
+		final long gtSize = gtSizes[gtIdx];
+
+		int i = firstOverlapOf(gtLabel);
+		while (i < overlapGtLabels.length && overlapGtLabels[i] == gtLabel)
+		{
+			if (2*overlapSizes[i] > gtSize) return overlapResLabels[i];
+			++i;
+		}
+		return 0;
+	}
+
+	/** returns the size of overlap of the given GT and RES objects */
+	public long overlap(final int gtLabel, final int resLabel)
+	{
+		int i = firstOverlapOf(gtLabel);
+		while (i < overlapGtLabels.length && overlapGtLabels[i] == gtLabel)
+		{
+			if (overlapResLabels[i] == resLabel) return overlapSizes[i];
+			++i;
+		}
+		return 0;
+	}
+
+	/** returns the Jaccard index of the given GT and RES objects */
+	public double jaccard(final int gtLabel, final int resLabel)
+	{
+		final int gtIdx = gtIndexOf(gtLabel);
+		final int resIdx = resIndexOf(resLabel);
+		if (gtIdx < 0 || resIdx < 0) return 0;
+
+		final long intersection = overlap(gtLabel,resLabel);
+		return (double)intersection / (double)(gtSizes[gtIdx] + resSizes[resIdx] - intersection);
+	}
+
+	/** returns the index of the first overlap record of the given GT label */
+	private int firstOverlapOf(final int gtLabel)
+	{
+		int lo = 0, hi = overlapGtLabels.length;
+		while (lo < hi)
+		{
+			final int mid = (lo + hi) >>> 1;
+			if (overlapGtLabels[mid] < gtLabel) lo = mid+1;
+			else hi = mid;
+		}
+		return lo;
+	}
+}
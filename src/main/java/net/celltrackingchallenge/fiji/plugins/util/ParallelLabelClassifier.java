@@ -0,0 +1,390 @@
+/*-
+ * #%L
+ * CTC-Fiji-plugins
+ * %%
+ * Copyright (C) 2017 - 2023 Vladimír Ulman
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package net.celltrackingchallenge.fiji.plugins.util;
+
+import net.imglib2.Cursor;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.img.array.ArrayImg;
+import net.imglib2.img.basictypeaccess.array.ShortArray;
+import net.imglib2.type.numeric.integer.UnsignedShortType;
+import net.imglib2.view.Views;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Collects label sizes and GT-RES overlaps of one frame, which is what
+ * TrackDataCache.ClassifyLabels() does, but in parallel: the volume is
+ * split into slabs along its last axis, every slab is swept by one thread
+ * into its own primitive histograms, and these are merged afterwards.
+ * Since only integer counts are merged, the result does not depend on
+ * the number of threads nor on the order in which the slabs finish.
+ *
+ * If both images are array-backed (which is what reading a TIFF produces),
+ * the slabs are swept directly over the underlying short[] arrays with
+ * a run-length kernel: a run of identical GT-RES label pairs (typically
+ * the background, or the interior of a cell along the x-axis) is found with
+ * a tight compare loop and is counted into the histograms only once.
+ */
+public class ParallelLabelClassifier implements AutoCloseable
+{
+	/** labels are 16-bit, so the sizes are kept in directly indexed arrays */
+	static final int NO_OF_LABELS = 1 << 16;
+
+	private final ExecutorService workers;
+	private final boolean ownsWorkers;
+	private final int noOfSlabs;
+
+	/** creates own pool of the given number of threads, use close() to release it */
+	public ParallelLabelClassifier(final int noOfThreads)
+	{
+		this.noOfSlabs = Math.max(1, noOfThreads);
+		this.workers = Executors.newFixedThreadPool(noOfSlabs);
+		this.ownsWorkers = true;
+	}
+
+	/** uses the given pool to process the given number of slabs concurrently */
+	public ParallelLabelClassifier(final ExecutorService workers, final int noOfSlabs)
+	{
+		this.noOfSlabs = Math.max(1, noOfSlabs);
+		this.workers = workers;
+		this.ownsWorkers = false;
+	}
+
+	@Override
+	public void close()
+	{
+		if (ownsWorkers) workers.shutdown();
+	}
+
+
+	/**
+	 * Classifies labels of both images, which must be of the same size.
+	 * The 'res' may be null, in which case only the GT labels are collected.
+	 */
+	public LabelOverlaps classify(final RandomAccessibleInterval<UnsignedShortType> gt,
+	                              final RandomAccessibleInterval<UnsignedShortType> res)
+	{
+		final int n = gt.numDimensions();
+		if (res != null)
+			for (int d = 0; d < n; ++d)
+				if (gt.dimension(d) != res.dimension(d))
+					throw new IllegalArgumentException("Images are of different sizes.");
+
+		//slabs along the last axis
+		final int slabAxis = n-1;
+		final long extent = gt.dimension(slabAxis);
+		final int slabs = (int)Math.min(noOfSlabs, extent);
+
+		//fast path over the raw arrays?
+		final short[] gtArray  = shortArrayOf(gt);
+		final short[] resArray = res != null ? shortArrayOf(res) : null;
+		final boolean useArrays = gtArray != null && (res == null || resArray != null);
+		long sliceSize = 1;
+		for (int d = 0; d < slabAxis; ++d) sliceSize *= gt.dimension(d);
+
+		final List<Future<SlabHistograms>> futures = new ArrayList<>(slabs);
+		for (int s = 0; s < slabs; ++s)
+		{
+			if (useArrays)
+			{
+				//the last axis is the slowest one, so a slab is a contiguous range in the array
+				final int from = (int)(sliceSize * (extent *  s    / slabs));
+				final int to   = (int)(sliceSize * (extent * (s+1) / slabs));
+				futures.add( workers.submit(() -> {
+					final SlabHistograms h = new SlabHistograms();
+					h.sweep(gtArray, resArray, from, to);
+					return h;
+				}) );
+				continue;
+			}
+
+			final long[] min = new long[n];
+			final long[] max = new long[n];
+			for (int d = 0; d < n; ++d)
+			{
+				min[d] = gt.min(d);
+				max[d] = gt.max(d);
+			}
+			min[slabAxis] = gt.min(slabAxis) + extent *  s    / slabs;
+			max[slabAxis] = gt.min(slabAxis) + extent * (s+1) / slabs - 1;
+
+			futures.add( workers.submit(() -> {
+				final SlabHistograms h = new SlabHistograms();
+				h.sweep(Views.interval(gt, min, max),
+				        res != null ? Views.interval(res, offsetBy(min,gt,res), offsetBy(max,gt,res)) : null);
+				return h;
+			}) );
+		}
+
+		//merge in the order of slabs
+		final long[] gtSizes  = new long[NO_OF_LABELS];
+		final long[] resSizes = new long[NO_OF_LABELS];
+		final PairCounts overlaps = new PairCounts(1024);
+		try {
+			for (Future<SlabHistograms> f : futures)
+			{
+				final SlabHistograms h = f.get();
+				for (int l = 1; l < NO_OF_LABELS; ++l)
+				{
+					gtSizes[l]  += h.gtSizes[l];
+					resSizes[l] += h.resSizes[l];
+				}
+				h.overlaps.addAllInto(overlaps);
+			}
+		}
+		catch (InterruptedException | ExecutionException e) {
+			throw new RuntimeException("Label classification failed: "+e.getMessage(), e);
+		}
+
+		return toLabelOverlaps(gtSizes, resSizes, overlaps);
+	}
+
+	static LabelOverlaps toLabelOverlaps(final long[] gtSizes, final long[] resSizes, final PairCounts overlaps)
+	{
+		int gtCnt = 0, resCnt = 0;
+		for (int l = 1; l < NO_OF_LABELS; ++l)
+		{
+			if (gtSizes[l]  > 0) ++gtCnt;
+			if (resSizes[l] > 0) ++resCnt;
+		}
+
+		final int[]  gtLabels  = new int[gtCnt];
+		final long[] gtSz      = new long[gtCnt];
+		final int[]  resLabels = new int[resCnt];
+		final long[] resSz     = new long[resCnt];
+		gtCnt = 0;
+		resCnt = 0;
+		for (int l = 1; l < NO_OF_LABELS; ++l)
+		{
+			if (gtSizes[l] > 0)
+			{
+				gtLabels[gtCnt] = l;
+				gtSz[gtCnt++] = gtSizes[l];
+			}
+			if (resSizes[l] > 0)
+			{
+				resLabels[resCnt] = l;
+				resSz[resCnt++] = resSizes[l];
+			}
+		}
+
+		//the pair keys are (gt << 16 | res), so sorting them sorts by GT and then by RES
+		final long[] keys = overlaps.sortedKeys();
+		final int[]  ovGt  = new int[keys.length];
+		final int[]  ovRes = new int[keys.length];
+		final long[] ovSz  = new long[keys.length];
+		for (int i = 0; i < keys.length; ++i)
+		{
+			ovGt[i]  = (int)(keys[i] >>> 16);
+			ovRes[i] = (int)(keys[i] & 0xFFFF);
+			ovSz[i]  = overlaps.get((int)keys[i]);
+		}
+
+		return new LabelOverlaps(gtLabels,gtSz, resLabels,resSz, ovGt,ovRes,ovSz);
+	}
+
+	/** returns the backing array if the image is a plain ArrayImg, or null otherwise */
+	public static short[] shortArrayOf(final RandomAccessibleInterval<UnsignedShortType> img)
+	{
+		if (!(img instanceof ArrayImg)) return null;
+		final Object access = ((ArrayImg<?,?>)img).update(null);
+		return access instanceof ShortArray ? ((ShortArray)access).getCurrentStorageArray() : null;
+	}
+
+	private static long[] offsetBy(final long[] pos,
+	                               final RandomAccessibleInterval<?> from, final RandomAccessibleInterval<?> to)
+	{
+		final long[] p = pos.clone();
+		for (int d = 0; d < p.length; ++d) p[d] += to.min(d) - from.min(d);
+		return p;
+	}
+
+
+	/** thread-local histograms of one slab */
+	static class SlabHistograms
+	{
+		final int[] gtSizes  = new int[NO_OF_LABELS];
+		final int[] resSizes = new int[NO_OF_LABELS];
+		final PairCounts overlaps = new PairCounts(256);
+
+		void sweep(final RandomAccessibleInterval<UnsignedShortType> gt,
+		           final RandomAccessibleInterval<UnsignedShortType> res)
+		{
+			final Cursor<UnsignedShortType> gtC = Views.flatIterable(gt).cursor();
+			if (res == null)
+			{
+				while (gtC.hasNext()) ++gtSizes[ gtC.next().get() ];
+				gtSizes[0] = 0;
+				return;
+			}
+
+			final Cursor<UnsignedShortType> resC = Views.flatIterable(res).cursor();
+			while (gtC.hasNext())
+			{
+				final int g = gtC.next().get();
+				final int r = resC.next().get();
+				++gtSizes[g];
+				++resSizes[r];
+				if (g > 0 && r > 0) overlaps.add(g << 16 | r, 1);
+			}
+			gtSizes[0] = 0;
+			resSizes[0] = 0;
+		}
+
+		/** the run-length kernel over the index range [from,to) of the raw arrays */
+		void sweep(final short[] gt, final short[] res, final int from, final int to)
+		{
+			int i = from;
+			if (res == null)
+			{
+				while (i < to)
+				{
+					final short g = gt[i];
+					int j = i+1;
+					while (j < to && gt[j] == g) ++j;
+					gtSizes[g & 0xFFFF] += j-i;
+					i = j;
+				}
+				gtSizes[0] = 0;
+				return;
+			}
+
+			while (i < to)
+			{
+				final short g = gt[i];
+				final short r = res[i];
+				int j = i+1;
+				if ((g | r) == 0)
+				{
+					//the most frequent case: background in both images
+					while (j < to && (gt[j] | res[j]) == 0) ++j;
+				}
+				else
+				{
+					while (j < to && gt[j] == g && res[j] == r) ++j;
+					final int gl = g & 0xFFFF;
+					final int rl = r & 0xFFFF;
+					gtSizes[gl]  += j-i;
+					resSizes[rl] += j-i;
+					if (gl > 0 && rl > 0) overlaps.add(gl << 16 | rl, j-i);
+				}
+				i = j;
+			}
+			gtSizes[0] = 0;
+			resSizes[0] = 0;
+		}
+	}
+
+
+	/** open-addressing map from non-zero int keys to long counts */
+	static class PairCounts
+	{
+		private int[] keys;
+		private long[] values;
+		private int size = 0;
+
+		PairCounts(final int initialCapacity)
+		{
+			int cap = 16;
+			while (cap < 2*initialCapacity) cap <<= 1;
+			keys = new int[cap];
+			values = new long[cap];
+		}
+
+		private static int slot(final int key, final int mask)
+		{
+			final int h = key * 0x9E3779B9;
+			return (h ^ (h >>> 16)) & mask;
+		}
+
+		void add(final int key, final long value)
+		{
+			final int mask = keys.length-1;
+			int i = slot(key,mask);
+			while (keys[i] != 0 && keys[i] != key) i = (i+1) & mask;
+			if (keys[i] == 0)
+			{
+				keys[i] = key;
+				if (++size > keys.length/2)
+				{
+					values[i] = value;
+					grow();
+					return;
+				}
+			}
+			values[i] += value;
+		}
+
+		long get(final int key)
+		{
+			final int mask = keys.length-1;
+			int i = slot(key,mask);
+			while (keys[i] != 0)
+			{
+				if (keys[i] == key) return values[i];
+				i = (i+1) & mask;
+			}
+			return 0;
+		}
+
+		void addAllInto(final PairCounts target)
+		{
+			for (int i = 0; i < keys.length; ++i)
+				if (keys[i] != 0) target.add(keys[i], values[i]);
+		}
+
+		/** returns the keys as unsigned values in the increasing order */
+		long[] sortedKeys()
+		{
+			final long[] out = new long[size];
+			int cnt = 0;
+			for (int k : keys)
+				if (k != 0) out[cnt++] = k & 0xFFFFFFFFL;
+			Arrays.sort(out);
+			return out;
+		}
+
+		private void grow()
+		{
+			final int[] oldKeys = keys;
+			final long[] oldValues = values;
+			keys = new int[2*oldKeys.length];
+			values = new long[2*oldValues.length];
+			size = 0;
+			for (int i = 0; i < oldKeys.length; ++i)
+				if (oldKeys[i] != 0) add(oldKeys[i], oldValues[i]);
+		}
+	}
+}
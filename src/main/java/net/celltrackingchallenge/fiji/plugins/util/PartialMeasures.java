@@ -0,0 +1,377 @@
+/*-
+ * #%L
+ * CTC-Fiji-plugins
+ * %%
+ * Copyright (C) 2017 - 2023 Vladimír Ulman
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package net.celltrackingchallenge.fiji.plugins.util;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Per-timepoint ingredients of the SEG and DET measures, so that they can be
+ * collected for a range of timepoints independently (e.g. on different cluster
+ * nodes), saved as partial results, and merged later into the value that an
+ * evaluation of all timepoints at once would give.
+ *
+ * SEG keeps, for every GT object, its matching RES label and their Jaccard index.
+ * DET keeps the numbers of splits, FN and FP detections (together with the
+ * GT-to-RES matching) as these are summed up into the AOGM-D.
+ */
+public class PartialMeasures
+{
+	/** the data the partial result was computed from, to detect mixing of unrelated shards */
+	public String gtPath = "", resPath = "";
+
+	/**
+	 * All SEG annotations (their timepoints and slices, z is -1 for full annotations)
+	 * and all TRA timepoints found in the GT folder, regardless of which of them
+	 * the partial result covers, to detect missing shards; empty if not known.
+	 */
+	public int[] gtSegTimes = new int[0], gtSegSlices = new int[0];
+	public int[] gtDetTimes = new int[0];
+
+	public final List<SegFrame> segFrames = new ArrayList<>();
+	public final List<DetFrame> detFrames = new ArrayList<>();
+
+	/** SEG details of one timepoint, z is -1 unless only one slice was annotated */
+	public static class SegFrame
+	{
+		public int time, z;
+		public int[] gtLabels, resLabels;
+		public double[] jaccards;
+	}
+
+	/** DET details of one timepoint, resLabels[i] is 0 when gtLabels[i] was not detected */
+	public static class DetFrame
+	{
+		public int time;
+		public int noOfGT, noOfRES;
+		public int NS, FN, FP;
+		public int[] gtLabels, resLabels;
+	}
+
+
+	/** scores one SEG frame from the overlaps of its SEG annotation with the RES mask */
+	public SegFrame addSegFrame(final int time, final int z, final LabelOverlaps o)
+	{
+		final SegFrame f = new SegFrame();
+		f.time = time;
+		f.z = z;
+		f.gtLabels = Arrays.copyOf(o.gtLabels, o.gtLabels.length);
+		f.resLabels = new int[f.gtLabels.length];
+		f.jaccards = new double[f.gtLabels.length];
+		for (int i = 0; i < f.gtLabels.length; ++i)
+		{
+			f.resLabels[i] = o.matchOfGt(f.gtLabels[i]);
+			f.jaccards[i] = f.resLabels[i] > 0 ? o.jaccard(f.gtLabels[i], f.resLabels[i]) : 0.0;
+		}
+		segFrames.add(f);
+		return f;
+	}
+
+	/** scores one DET frame from the overlaps of its TRA markers with the RES mask */
+	public DetFrame addDetFrame(final int time, final LabelOverlaps o)
+	{
+		final DetFrame f = new DetFrame();
+		f.time = time;
+		f.noOfGT = o.gtLabels.length;
+		f.noOfRES = o.resLabels.length;
+		f.gtLabels = Arrays.copyOf(o.gtLabels, o.gtLabels.length);
+		f.resLabels = new int[f.gtLabels.length];
+
+		//how many GT markers every RES object has matched
+		final int[] noOfMatches = new int[o.resLabels.length];
+		for (int i = 0; i < f.gtLabels.length; ++i)
+		{
+			f.resLabels[i] = o.matchOfGt(f.gtLabels[i]);
+			if (f.resLabels[i] > 0) ++noOfMatches[ o.resIndexOf(f.resLabels[i]) ];
+			else ++f.FN;
+		}
+		for (int m : noOfMatches)
+		{
+			if (m == 0) ++f.FP;
+			else f.NS += m-1;
+		}
+		detFrames.add(f);
+		return f;
+	}
+
+
+	/** the SEG measure, the mean Jaccard index over all GT objects */
+	public double seg()
+	{
+		final List<SegFrame> frames = new ArrayList<>(segFrames);
+		frames.sort(Comparator.comparingInt((SegFrame f) -> f.time).thenComparingInt(f -> f.z));
+
+		//summed up always in the same order, so that the value does not depend on the sharding
+		double sum = 0;
+		long cnt = 0;
+		for (SegFrame f : frames)
+		{
+			for (double j : f.jaccards) sum += j;
+			cnt += f.jaccards.length;
+		}
+		if (cnt == 0) throw new IllegalStateException("No GT objects found for SEG.");
+		return sum / (double)cnt;
+	}
+
+	/** the AOGM-D, with the CTC penalties */
+	public long aogmD()
+	{
+		long aogm = 0;
+		for (DetFrame f : detFrames) aogm += 5L*f.NS + 10L*f.FN + f.FP;
+		return aogm;
+	}
+
+	/** the DET measure, the normalized AOGM-D */
+	public double det()
+	{
+		long empty = 0;
+		for (DetFrame f : detFrames) empty += 10L*f.noOfGT;
+		if (empty == 0) throw new IllegalStateException("No GT markers found for DET.");
+		return 1.0 - (double)Math.min(aogmD(), empty) / (double)empty;
+	}
+
+
+	/** returns true if the GT annotations and timepoints are known, see gtSegTimes and gtDetTimes */
+	public boolean knowsGtTimepoints()
+	{
+		return gtSegTimes.length > 0 || gtDetTimes.length > 0;
+	}
+
+	/**
+	 * Lists the GT annotations and timepoints that are not covered by the
+	 * frames of this result, e.g. "SEG 5", "SEG 7 (slice 3)" or "DET 12".
+	 * SEG (or DET) is checked only if this result has any SEG (or DET) frame.
+	 */
+	public List<String> missingTimepoints()
+	{
+		final List<String> missing = new ArrayList<>();
+		if (segFrames.size() > 0)
+		{
+			final Set<Long> covered = new HashSet<>();
+			for (SegFrame f : segFrames) covered.add(segKey(f.time,f.z));
+			for (int i = 0; i < gtSegTimes.length; ++i)
+				if (!covered.contains(segKey(gtSegTimes[i],gtSegSlices[i])))
+					missing.add("SEG "+gtSegTimes[i]+(gtSegSlices[i] > -1 ? " (slice "+gtSegSlices[i]+")" : ""));
+		}
+		if (detFrames.size() > 0)
+		{
+			final Set<Integer> covered = new HashSet<>();
+			for (DetFrame f : detFrames) covered.add(f.time);
+			for (int t : gtDetTimes)
+				if (!covered.contains(t)) missing.add("DET "+t);
+		}
+		return missing;
+	}
+
+	public static long segKey(final int time, final int z)
+	{
+		return ((long)time << 32) | (z & 0xffffffffL);
+	}
+
+
+	/**
+	 * Combines the partial results, which must be calculated from the same
+	 * GT and RES folders; a timepoint (or an annotated slice) may however be
+	 * present only in one of them.
+	 */
+	public static PartialMeasures merge(final List<PartialMeasures> parts)
+	{
+		final PartialMeasures all = new PartialMeasures();
+		if (parts.size() > 0)
+		{
+			all.gtPath = parts.get(0).gtPath;
+			all.resPath = parts.get(0).resPath;
+		}
+		for (PartialMeasures p : parts)
+		{
+			if (!p.gtPath.equals(all.gtPath) || !p.resPath.equals(all.resPath))
+				throw new IllegalArgumentException("Partial results were calculated from different folders: "
+						+all.gtPath+" and "+all.resPath+" vs. "+p.gtPath+" and "+p.resPath);
+			all.segFrames.addAll(p.segFrames);
+			all.detFrames.addAll(p.detFrames);
+
+			//the GT annotations are the same in all parts, unless some was made without them
+			if (p.gtSegTimes.length > all.gtSegTimes.length)
+			{
+				all.gtSegTimes = p.gtSegTimes;
+				all.gtSegSlices = p.gtSegSlices;
+			}
+			if (p.gtDetTimes.length > all.gtDetTimes.length) all.gtDetTimes = p.gtDetTimes;
+		}
+
+		all.segFrames.sort(Comparator.comparingInt((SegFrame f) -> f.time).thenComparingInt(f -> f.z));
+		for (int i = 1; i < all.segFrames.size(); ++i)
+			if (all.segFrames.get(i).time == all.segFrames.get(i-1).time
+					&& all.segFrames.get(i).z == all.segFrames.get(i-1).z)
+				throw new IllegalArgumentException("SEG of timepoint "+all.segFrames.get(i).time
+						+" is in more than one partial result.");
+
+		all.detFrames.sort(Comparator.comparingInt(f -> f.time));
+		for (int i = 1; i < all.detFrames.size(); ++i)
+			if (all.detFrames.get(i).time == all.detFrames.get(i-1).time)
+				throw new IllegalArgumentException("DET of timepoint "+all.detFrames.get(i).time
+						+" is in more than one partial result.");
+		return all;
+	}
+
+
+	static final long MAGIC_V1 = 0x4354435041525431L; //"CTCPART1", without the GT timepoints
+	static final long MAGIC = 0x4354435041525432L; //"CTCPART2"
+
+	public void save(final Path file)
+	throws IOException
+	{
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file))))
+		{
+			out.writeLong(MAGIC);
+			out.writeUTF(gtPath);
+			out.writeUTF(resPath);
+
+			out.writeInt(gtSegTimes.length);
+			for (int i = 0; i < gtSegTimes.length; ++i)
+			{
+				out.writeInt(gtSegTimes[i]);
+				out.writeInt(gtSegSlices[i]);
+			}
+			out.writeInt(gtDetTimes.length);
+			for (int t : gtDetTimes) out.writeInt(t);
+
+			out.writeInt(segFrames.size());
+			for (SegFrame f : segFrames)
+			{
+				out.writeInt(f.time);
+				out.writeInt(f.z);
+				out.writeInt(f.gtLabels.length);
+				for (int i = 0; i < f.gtLabels.length; ++i)
+				{
+					out.writeInt(f.gtLabels[i]);
+					out.writeInt(f.resLabels[i]);
+					out.writeDouble(f.jaccards[i]);
+				}
+			}
+
+			out.writeInt(detFrames.size());
+			for (DetFrame f : detFrames)
+			{
+				out.writeInt(f.time);
+				out.writeInt(f.noOfGT);
+				out.writeInt(f.noOfRES);
+				out.writeInt(f.NS);
+				out.writeInt(f.FN);
+				out.writeInt(f.FP);
+				out.writeInt(f.gtLabels.length);
+				for (int i = 0; i < f.gtLabels.length; ++i)
+				{
+					out.writeInt(f.gtLabels[i]);
+					out.writeInt(f.resLabels[i]);
+				}
+			}
+		}
+	}
+
+	public static PartialMeasures load(final Path file)
+	throws IOException
+	{
+		final PartialMeasures p = new PartialMeasures();
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file))))
+		{
+			final long magic = in.readLong();
+			if (magic != MAGIC && magic != MAGIC_V1)
+				throw new IOException(file+" is not a file with partial results.");
+			p.gtPath = in.readUTF();
+			p.resPath = in.readUTF();
+
+			if (magic == MAGIC)
+			{
+				final int noOfSegs = in.readInt();
+				p.gtSegTimes = new int[noOfSegs];
+				p.gtSegSlices = new int[noOfSegs];
+				for (int i = 0; i < noOfSegs; ++i)
+				{
+					p.gtSegTimes[i] = in.readInt();
+					p.gtSegSlices[i] = in.readInt();
+				}
+				p.gtDetTimes = new int[in.readInt()];
+				for (int i = 0; i < p.gtDetTimes.length; ++i) p.gtDetTimes[i] = in.readInt();
+			}
+
+			int noOfFrames = in.readInt();
+			for (int n = 0; n < noOfFrames; ++n)
+			{
+				final SegFrame f = new SegFrame();
+				f.time = in.readInt();
+				f.z = in.readInt();
+				final int size = in.readInt();
+				f.gtLabels = new int[size];
+				f.resLabels = new int[size];
+				f.jaccards = new double[size];
+				for (int i = 0; i < size; ++i)
+				{
+					f.gtLabels[i] = in.readInt();
+					f.resLabels[i] = in.readInt();
+					f.jaccards[i] = in.readDouble();
+				}
+				p.segFrames.add(f);
+			}
+
+			noOfFrames = in.readInt();
+			for (int n = 0; n < noOfFrames; ++n)
+			{
+				final DetFrame f = new DetFrame();
+				f.time = in.readInt();
+				f.noOfGT = in.readInt();
+				f.noOfRES = in.readInt();
+				f.NS = in.readInt();
+				f.FN = in.readInt();
+				f.FP = in.readInt();
+				final int size = in.readInt();
+				f.gtLabels = new int[size];
+				f.resLabels = new int[size];
+				for (int i = 0; i < size; ++i)
+				{
+					f.gtLabels[i] = in.readInt();
+					f.resLabels[i] = in.readInt();
+				}
+				p.detFrames.add(f);
+			}
+		}
+		return p;
+	}
+}
@@ -0,0 +1,251 @@
+/*-
+ * #%L
+ * CTC-Fiji-plugins
+ * %%
+ * Copyright (C) 2017 - 2023 Vladimír Ulman
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package net.celltrackingchallenge.fiji.plugins.util;
+
+import net.celltrackingchallenge.fiji.plugins.io.FrameSources;
+import net.celltrackingchallenge.fiji.plugins.io.TiffLabelReader;
+import net.celltrackingchallenge.measures.TrackDataCache;
+import net.imglib2.Cursor;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.img.Img;
+import net.imglib2.img.array.ArrayImgs;
+import net.imglib2.type.numeric.integer.UnsignedShortType;
+import net.imglib2.view.Views;
+import org.scijava.log.Logger;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * The SEG measure, the mean Jaccard index over all GT objects of the SEG
+ * annotations, where a GT object is matched with the RES object that
+ * covers more than half of it (or is scored 0 if there is no such).
+ *
+ * The annotations SEG/man_segT.tif are compared with the whole RES mask of
+ * that timepoint. The annotations of single slices, SEG/man_seg_T_Z.tif,
+ * are compared with only those slices of the RES mask, and only these are
+ * read from the TIFF file: the IFDs of the other slices are walked through
+ * but their pixel data is not read nor decoded. All annotated slices of one
+ * timepoint are read with one opening of the RES file.
+ */
+public class SEGmeasureEngine implements AutoCloseable
+{
+	public SEGmeasureEngine(final Logger log, final int noOfThreads)
+	{
+		this.log = log;
+		this.reader = new TiffLabelReader(noOfThreads);
+		this.classifier = new ParallelLabelClassifier(reader.getWorkers(), noOfThreads);
+		this.sources = null;
+	}
+
+	/**
+	 * reads the whole images through the given sources (and thus through their
+	 * frame cache, if any), and uses their reader and classifier, which are
+	 * then left open in close()
+	 */
+	public SEGmeasureEngine(final Logger log, final FrameSources sources)
+	{
+		this.log = log;
+		this.reader = sources.getReader();
+		this.classifier = sources.getClassifier();
+		this.sources = sources;
+	}
+
+	private final Logger log;
+	private final TiffLabelReader reader;
+	private final ParallelLabelClassifier classifier;
+	/** null if the reader and classifier are own ones */
+	private final FrameSources sources;
+
+	public int noOfDigits = 3;
+	public boolean doLogReports = false;
+	public boolean doAllResReports = false;
+	public boolean doStopOnEmptyImages = false;
+	/** if not empty, only these timepoints are evaluated */
+	public Set<Integer> doOnlyTheseTimepoints = Collections.emptySet();
+
+	@Override
+	public void close()
+	{
+		if (sources != null) return;
+		classifier.close();
+		reader.close();
+	}
+
+	static final Pattern FULL_ANNOTATION = Pattern.compile("man_seg(\\d+)\\.tif");
+	static final Pattern SLICE_ANNOTATION = Pattern.compile("man_seg_(\\d+)_(\\d+)\\.tif");
+
+	/** the SEG annotation file, z is -1 unless only one slice was annotated */
+	static class Annotation
+	{
+		Annotation(final String name, final int z) { this.name = name; this.z = z; }
+		final String name;
+		final int z;
+	}
+
+	public double calculate(final Path gtPath, final Path resPath)
+	throws IOException
+	{
+		final Path segFolder = gtPath.resolve("SEG");
+		final String[] names = segFolder.toFile().list();
+		if (names == null) throw new IOException("Cannot list the folder "+segFolder);
+		Arrays.sort(names);
+
+		//the annotations grouped by timepoints
+		final Map<Integer,List<Annotation>> annotations = new TreeMap<>();
+		for (String name : names)
+		{
+			Matcher m = FULL_ANNOTATION.matcher(name);
+			int z = -1;
+			if (!m.matches())
+			{
+				m = SLICE_ANNOTATION.matcher(name);
+				if (!m.matches()) continue;
+				z = Integer.parseInt(m.group(2));
+			}
+			final int time = Integer.parseInt(m.group(1));
+			if (doOnlyTheseTimepoints.size() > 0 && !doOnlyTheseTimepoints.contains(time)) continue;
+			annotations.computeIfAbsent(time, k -> new ArrayList<>()).add(new Annotation(name, z));
+		}
+		if (annotations.isEmpty())
+			throw new IllegalArgumentException("No reference (GT) image was found in "+segFolder);
+
+		final PartialMeasures scores = new PartialMeasures();
+		for (Map.Entry<Integer,List<Annotation>> e : annotations.entrySet())
+		{
+			final int time = e.getKey();
+			final Path resFile = resPath.resolve(String.format("mask%0"+noOfDigits+"d.tif", time));
+			if (!resFile.toFile().exists())
+				throw new IllegalArgumentException("Missing result image: "+resFile);
+
+			//the whole RES mask only if there is a full annotation, otherwise only the annotated slices
+			Img<UnsignedShortType> resImg = null;
+			final List<Integer> zPlanes = new ArrayList<>();
+			for (Annotation a : e.getValue())
+			{
+				if (a.z < 0) { if (resImg == null) resImg = readImage(resFile); }
+				else zPlanes.add(a.z);
+			}
+			final long[] resDims = new long[3];
+			final short[][] resSlices = zPlanes.isEmpty() ? null : readSlices(resFile, zPlanes, resDims);
+
+			for (Annotation a : e.getValue())
+			{
+				final Img<UnsignedShortType> gt = readImage(segFolder.resolve(a.name));
+				final RandomAccessibleInterval<UnsignedShortType> res = a.z < 0 ? resImg
+						: ArrayImgs.unsignedShorts(resSlices[zPlanes.indexOf(a.z)], resDims[0], resDims[1]);
+
+				final LabelOverlaps o = classifier.classify(gt, res);
+				if (doStopOnEmptyImages && (o.gtLabels.length == 0 || o.resLabels.length == 0))
+					throw new IllegalArgumentException("An empty "+(o.gtLabels.length == 0 ? "GT" : "RES")
+							+" image was found for timepoint "+time+(a.z > -1 ? ", slice "+a.z : ""));
+
+				final PartialMeasures.SegFrame f = scores.addSegFrame(time, a.z, o);
+				if (doLogReports) report(f, o);
+			}
+		}
+
+		final double seg = scores.seg();
+		log.info("SEG: "+seg);
+		return seg;
+	}
+
+	private void report(final PartialMeasures.SegFrame f, final LabelOverlaps o)
+	{
+		log.info("----------T="+f.time+(f.z > -1 ? " Z="+f.z : "")+"----------");
+		for (int i = 0; i < f.gtLabels.length; ++i)
+			log.info("GT_label="+f.gtLabels[i]+" J="+f.jaccards[i]);
+
+		if (!doAllResReports) return;
+		for (int resLabel : o.resLabels)
+		{
+			int matchedGt = 0;
+			double j = 0;
+			for (int i = 0; i < f.gtLabels.length; ++i)
+				if (f.resLabels[i] == resLabel) { matchedGt = f.gtLabels[i]; j = f.jaccards[i]; break; }
+			log.info("RES_label="+resLabel+(matchedGt > 0 ? " matched GT_label="+matchedGt : " not matched")+" J="+j);
+		}
+	}
+
+	/** reads through the sources, or with the parallel reader, or with the general one */
+	private Img<UnsignedShortType> readImage(final Path file)
+	throws IOException
+	{
+		if (sources != null) return sources.readFile(file);
+		try {
+			return reader.read(file);
+		}
+		catch (TiffLabelReader.UnsupportedTiffException e) {
+			log.debug("Reading with the general reader, "+e.getMessage());
+		}
+		return new TrackDataCache(log).ReadImageG16(file.toString());
+	}
+
+	/** reads only the given slices with the parallel reader, or the whole image with the general one;
+	    fills the size of the whole image into dims */
+	private short[][] readSlices(final Path file, final List<Integer> zPlanes, final long[] dims)
+	throws IOException
+	{
+		final int[] zs = new int[zPlanes.size()];
+		for (int i = 0; i < zs.length; ++i) zs[i] = zPlanes.get(i);
+		try {
+			return reader.readSlices(file, dims, zs);
+		}
+		catch (TiffLabelReader.UnsupportedTiffException e) {
+			log.debug("Reading with the general reader, "+e.getMessage());
+		}
+
+		final Img<UnsignedShortType> img = new TrackDataCache(log).ReadImageG16(file.toString());
+		final int lastAxis = img.numDimensions()-1;
+		dims[0] = img.dimension(0);
+		dims[1] = img.dimension(1);
+		dims[2] = lastAxis < 2 ? 1 : img.dimension(lastAxis);
+		final short[][] slices = new short[zs.length][];
+		for (int i = 0; i < zs.length; ++i)
+		{
+			if (zs[i] >= dims[2])
+				throw new IOException(file+": there is no slice "+zs[i]);
+			final RandomAccessibleInterval<UnsignedShortType> slice
+				= lastAxis < 2 ? img : Views.hyperSlice(img, lastAxis, zs[i]);
+			slices[i] = new short[(int)(img.dimension(0) * img.dimension(1))];
+			final Cursor<UnsignedShortType> c = Views.flatIterable(slice).cursor();
+			for (int p = 0; p < slices[i].length; ++p) slices[i][p] = (short)c.next().get();
+		}
+		return slices;
+	}
+}
@@ -0,0 +1,326 @@
+/*-
+ * #%L
+ * CTC-Fiji-plugins
+ * %%
+ * Copyright (C) 2017 - 2023 Vladimír Ulman
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package net.celltrackingchallenge.fiji.plugins.util;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * Regularity of the cell shapes, which is the circularity 4*pi*A/P^2 in 2D
+ * and the sphericity pi^(1/3)*(6V)^(2/3)/A in 3D, averaged over all cells
+ * of all frames added.
+ *
+ * The bounding boxes of all cells are found in one scan of the frame,
+ * and every cell is then measured within its box in parallel. The
+ * perimeter (surface) is estimated with the Cauchy-Crofton formula: the
+ * boundary crossings are counted along the lines of the pixel grid in 16
+ * directions in 2D and in 49 directions in 3D (all directions to the
+ * pixels up to 3, or 2 in 3D, pixels away along every axis), and each
+ * direction is weighted with the part of the circle (sphere) that is
+ * closest to it. Smooth boundaries are then measured within one percent.
+ * Sharp corners (edges) are underestimated a bit, as the lines that only
+ * clip them miss the pixel centres: a square of 40 pixels, in any rotation,
+ * comes out up to 5% more regular than it is.
+ */
+public class ShapeRegularity
+{
+	public ShapeRegularity(final double[] resolution, final ExecutorService workers)
+	{
+		this.workers = workers;
+		this.resolution = resolution.clone();
+
+		directions2D = gridDirections(2, 3);
+		weights2D = croftonWeights2D(directions2D, resolution);
+		directions3D = gridDirections(3, 2);
+		weights3D = croftonWeights3D(directions3D, resolution);
+
+		Arrays.fill(minX, Integer.MAX_VALUE);
+		Arrays.fill(minY, Integer.MAX_VALUE);
+		Arrays.fill(minZ, Integer.MAX_VALUE);
+	}
+
+	private final ExecutorService workers;
+	private final double[] resolution;
+
+	/** the directions of the grid lines and the length (area) of boundary per one crossing along them */
+	private final int[][] directions2D, directions3D;
+	private final double[] weights2D, weights3D;
+
+	/**
+	 * all directions between the pixels (voxels) that are at most 'reach'
+	 * pixels apart along every axis, each direction only once (not also
+	 * its opposite one); it gives 16 directions in 2D and 49 in 3D for
+	 * the reaches used here
+	 */
+	static int[][] gridDirections(final int dimensionality, final int reach)
+	{
+		final List<int[]> directions = new ArrayList<>();
+		final int zReach = dimensionality > 2 ? reach : 0;
+		for (int z = -zReach; z <= zReach; ++z)
+			for (int y = -reach; y <= reach; ++y)
+				for (int x = -reach; x <= reach; ++x)
+				{
+					//the last non-zero coordinate is positive, and the vector is not a multiple of a shorter one
+					final int last = z != 0 ? z : y != 0 ? y : x;
+					if (last <= 0 || gcd(gcd(Math.abs(x), Math.abs(y)), Math.abs(z)) != 1) continue;
+					directions.add(dimensionality > 2 ? new int[] {x,y,z} : new int[] {x,y});
+				}
+		return directions.toArray(new int[0][]);
+	}
+
+	/**
+	 * the perimeter is pi/2 times the average (over the directions) boundary
+	 * length projected onto a line perpendicular to the direction, which is
+	 * the number of crossings times the distance between the grid lines;
+	 * every direction represents the arc of the directions closest to it
+	 */
+	static double[] croftonWeights2D(final int[][] directions, final double[] res)
+	{
+		final int n = directions.length;
+		final double[] angles = new double[n];
+		for (int i = 0; i < n; ++i)
+		{
+			angles[i] = Math.atan2(directions[i][1]*res[1], directions[i][0]*res[0]);
+			if (angles[i] < 0) angles[i] += Math.PI;
+		}
+		final Integer[] order = new Integer[n];
+		for (int i = 0; i < n; ++i) order[i] = i;
+		Arrays.sort(order, (a,b) -> Double.compare(angles[a], angles[b]));
+
+		final double[] weights = new double[n];
+		for (int k = 0; k < n; ++k)
+		{
+			final double prev = angles[order[(k+n-1) % n]] - (k == 0 ? Math.PI : 0);
+			final double next = angles[order[(k+1) % n]] + (k == n-1 ? Math.PI : 0);
+			final int i = order[k];
+			final double arc = (next - prev) / 2.0;
+			final double lineDistance = res[0]*res[1] / Math.hypot(directions[i][0]*res[0], directions[i][1]*res[1]);
+			//pi/2 * arc/pi * lineDistance per crossing, twice as only the crossings out of the cell are counted
+			weights[i] = arc * lineDistance;
+		}
+		return weights;
+	}
+
+	/**
+	 * the surface is twice the average (over the directions) boundary area
+	 * projected onto a plane perpendicular to the direction, which is the
+	 * number of crossings times the area per one grid line; the parts of the
+	 * sphere closest to the directions are integrated numerically
+	 */
+	static double[] croftonWeights3D(final int[][] directions, final double[] res)
+	{
+		final int n = directions.length;
+		final double[][] unit = new double[n][3];
+		for (int i = 0; i < n; ++i)
+		{
+			final double len = Math.sqrt(sq(directions[i][0]*res[0]) + sq(directions[i][1]*res[1]) + sq(directions[i][2]*res[2]));
+			for (int a = 0; a < 3; ++a) unit[i][a] = directions[i][a]*res[a] / len;
+		}
+
+		//solid angles of the parts of the sphere closest to +-direction
+		final double[] solidAngles = new double[n];
+		double sphere = 0;
+		final int steps = 360;
+		final double dTheta = Math.PI / steps, dPhi = 2.0*Math.PI / (2*steps);
+		for (int t = 0; t < steps; ++t)
+		{
+			final double theta = (t+0.5) * dTheta;
+			final double area = Math.sin(theta) * dTheta * dPhi;
+			for (int f = 0; f < 2*steps; ++f)
+			{
+				final double phi = (f+0.5) * dPhi;
+				final double x = Math.sin(theta)*Math.cos(phi), y = Math.sin(theta)*Math.sin(phi), z = Math.cos(theta);
+				int closest = 0;
+				double best = -1;
+				for (int i = 0; i < n; ++i)
+				{
+					final double dot = Math.abs(x*unit[i][0] + y*unit[i][1] + z*unit[i][2]);
+					if (dot > best) { best = dot; closest = i; }
+				}
+				solidAngles[closest] += area;
+				sphere += area;
+			}
+		}
+
+		final double[] weights = new double[n];
+		for (int i = 0; i < n; ++i)
+		{
+			final double len = Math.sqrt(sq(directions[i][0]*res[0]) + sq(directions[i][1]*res[1]) + sq(directions[i][2]*res[2]));
+			final double lineArea = res[0]*res[1]*res[2] / len;
+			//2 * solidAngle/sphere * lineArea per crossing, twice as only the crossings out of the cell are counted
+			weights[i] = 4.0 * solidAngles[i]/sphere * lineArea;
+		}
+		return weights;
+	}
+
+	/** bounding boxes indexed with labels, unused labels have minX = MAX_VALUE */
+	private final int[] minX = new int[1 << 16], maxX = new int[1 << 16];
+	private final int[] minY = new int[1 << 16], maxY = new int[1 << 16];
+	private final int[] minZ = new int[1 << 16], maxZ = new int[1 << 16];
+
+	private double sum = 0;
+	private long noOfCells = 0;
+
+	/** the average regularity, or -1 if no cell has been added */
+	public double getAverage()
+	{
+		return noOfCells > 0 ? sum / (double)noOfCells : -1;
+	}
+
+	public long getNoOfCells()
+	{ return noOfCells; }
+
+	/** adds all cells of the frame, given as pixels in which x runs the fastest */
+	public void addFrame(final short[] labels, final long[] dims)
+	throws IOException
+	{
+		final int w = (int)dims[0];
+		final int h = (int)dims[1];
+		final int d = dims.length > 2 ? (int)dims[2] : 1;
+
+		//bounding boxes
+		final int[] cells = new int[1 << 16];
+		int noOfFrameCells = 0;
+		int i = 0;
+		for (int z = 0; z < d; ++z)
+			for (int y = 0; y < h; ++y)
+				for (int x = 0; x < w; ++x, ++i)
+				{
+					final int l = labels[i] & 0xFFFF;
+					if (l == 0) continue;
+					if (minX[l] == Integer.MAX_VALUE) cells[noOfFrameCells++] = l;
+					if (x < minX[l]) minX[l] = x;
+					if (x > maxX[l]) maxX[l] = x;
+					if (y < minY[l]) minY[l] = y;
+					if (y > maxY[l]) maxY[l] = y;
+					if (z < minZ[l]) minZ[l] = z;
+					if (z > maxZ[l]) maxZ[l] = z;
+				}
+
+		//cells in parallel, in chunks that are summed up in a fixed order
+		final int noOfCellsInFrame = noOfFrameCells;
+		final int chunk = Math.max(1, noOfFrameCells / 64);
+		final List<Future<Double>> tasks = new ArrayList<>();
+		for (int from = 0; from < noOfFrameCells; from += chunk)
+		{
+			final int first = from;
+			final int last = Math.min(from+chunk, noOfCellsInFrame);
+			tasks.add( workers.submit(() -> {
+				double s = 0;
+				for (int c = first; c < last; ++c) s += regularity(cells[c], labels, w, h, d);
+				return s;
+			}) );
+		}
+
+		try {
+			for (Future<Double> t : tasks) sum += t.get();
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("interrupted while measuring the shapes");
+		}
+		catch (ExecutionException e) {
+			throw new IOException("shape measuring failed: "+e.getCause().getMessage(), e.getCause());
+		}
+		finally {
+			for (int c = 0; c < noOfFrameCells; ++c)
+			{
+				final int l = cells[c];
+				minX[l] = minY[l] = minZ[l] = Integer.MAX_VALUE;
+				maxX[l] = maxY[l] = maxZ[l] = 0;
+			}
+		}
+		noOfCells += noOfFrameCells;
+	}
+
+	/** the regularity of one cell, measured within its bounding box */
+	double regularity(final int label, final short[] labels, final int w, final int h, final int d)
+	{
+		final short l = (short)label;
+		final int slice = w*h;
+		final int[][] directions = d > 1 ? directions3D : directions2D;
+		final double[] weights = d > 1 ? weights3D : weights2D;
+		final int[] offsets = new int[directions.length];
+		for (int k = 0; k < directions.length; ++k)
+			offsets[k] = directions[k][0] + directions[k][1]*w + (d > 1 ? directions[k][2]*slice : 0);
+
+		long volume = 0;
+		double boundary = 0;
+		for (int z = minZ[label]; z <= maxZ[label]; ++z)
+			for (int y = minY[label]; y <= maxY[label]; ++y)
+			{
+				int i = z*slice + y*w + minX[label];
+				for (int x = minX[label]; x <= maxX[label]; ++x, ++i)
+				{
+					if (labels[i] != l) continue;
+					++volume;
+
+					//along every line, there are as many crossings into the cell as out of it,
+					//so only the latter are found and the weights count for both
+					for (int k = 0; k < directions.length; ++k)
+					{
+						final int[] v = directions[k];
+						if (!isInside(x+v[0], y+v[1], d > 1 ? z+v[2] : 0, w, h, d) || labels[i+offsets[k]] != l)
+							boundary += weights[k];
+					}
+				}
+			}
+
+		final double regularity;
+		if (d > 1)
+		{
+			final double v = volume * resolution[0]*resolution[1]*resolution[2];
+			regularity = Math.cbrt(Math.PI) * Math.pow(6.0*v, 2.0/3.0) / boundary;
+		}
+		else
+		{
+			final double a = volume * resolution[0]*resolution[1];
+			regularity = 4.0*Math.PI * a / (boundary*boundary);
+		}
+		return Math.min(regularity, 1.0);
+	}
+
+	private static boolean isInside(final int x, final int y, final int z, final int w, final int h, final int d)
+	{
+		return x >= 0 && x < w && y >= 0 && y < h && z >= 0 && z < d;
+	}
+
+	private static int gcd(final int a, final int b)
+	{
+		return b == 0 ? a : gcd(b, a % b);
+	}
+
+	private static double sq(final double x)
+	{ return x*x; }
+}
@@ -0,0 +1,111 @@
+/*-
+ * #%L
+ * CTC-Fiji-plugins
+ * %%
+ * Copyright (C) 2017 - 2023 Vladimír Ulman
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package net.celltrackingchallenge.fiji.plugins.util;
+
+import net.imglib2.img.Img;
+import net.imglib2.type.numeric.integer.UnsignedShortType;
+
+/**
+ * Ove and Cha, which compare every cell to itself (the same TRA label) in
+ * the next frame, calculated while streaming through the video: only the
+ * previous frame is kept, and the labels of the two frames are classified
+ * only once, which gives both the cells present in both frames and their
+ * overlaps.
+ *
+ * Ove is the Jaccard index of the cell in the two frames, and Cha is the
+ * absolute change of the average intensity of the cell relative to its
+ * contrast (average intensity minus the background one) in the first frame,
+ * both averaged over all such pairs of the video.
+ */
+public class TemporalMeasures
+{
+	public TemporalMeasures(final ParallelLabelClassifier classifier)
+	{
+		this.classifier = classifier;
+	}
+
+	private final ParallelLabelClassifier classifier;
+
+	private Img<UnsignedShortType> prevLabels = null;
+	private FrameIntensities prevIntensities = null;
+
+	private double oveSum = 0, chaSum = 0;
+	private long oveCnt = 0, chaCnt = 0;
+
+	/**
+	 * Adds the next frame of the video, the intensities may be null if
+	 * Cha is not needed. Both objects are kept until the next call.
+	 */
+	public void addFrame(final Img<UnsignedShortType> labels, final FrameIntensities intensities)
+	{
+		if (prevLabels != null && sameSize(prevLabels, labels))
+		{
+			final LabelOverlaps o = classifier.classify(prevLabels, labels);
+			for (int l : o.gtLabels)
+			{
+				if (o.resIndexOf(l) < 0) continue;
+				oveSum += o.jaccard(l,l);
+				++oveCnt;
+
+				if (intensities == null || prevIntensities == null) continue;
+				final double contrast = Math.abs(prevIntensities.mean(l) - prevIntensities.bgMean());
+				if (!(contrast > 0)) continue;
+				chaSum += Math.abs(intensities.mean(l) - prevIntensities.mean(l)) / contrast;
+				++chaCnt;
+			}
+		}
+
+		prevLabels = labels;
+		prevIntensities = intensities;
+	}
+
+	/** the average overlap, or -1 if no cell was found in two consecutive frames */
+	public double getOve()
+	{ return oveCnt > 0 ? oveSum / (double)oveCnt : -1; }
+
+	/** the average change of intensity, or -1 if no cell was found in two consecutive frames */
+	public double getCha()
+	{ return chaCnt > 0 ? chaSum / (double)chaCnt : -1; }
+
+	/** the number of cells the average overlap is made of */
+	public long getNoOfOveTerms()
+	{ return oveCnt; }
+
+	/** the number of cells the average change of intensity is made of */
+	public long getNoOfChaTerms()
+	{ return chaCnt; }
+
+	private static boolean sameSize(final Img<?> a, final Img<?> b)
+	{
+		if (a.numDimensions() != b.numDimensions()) return false;
+		for (int d = 0; d < a.numDimensions(); ++d)
+			if (a.dimension(d) != b.dimension(d)) return false;
+		return true;
+	}
+}
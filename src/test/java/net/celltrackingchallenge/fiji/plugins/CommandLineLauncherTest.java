@@ -0,0 +1,131 @@
+/*-
+ * #%L
+ * CTC-Fiji-plugins
+ * %%
+ * Copyright (C) 2017 - 2023 Vladimír Ulman
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package net.celltrackingchallenge.fiji.plugins;
+
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.scijava.Context;
+import org.scijava.command.Command;
+import org.scijava.convert.ConvertService;
+
+import java.io.File;
+import java.lang.reflect.Field;
+
+/**
+ * Checks that the command-line arguments are set into the commands
+ * as the GUI would do it.
+ */
+public class CommandLineLauncherTest
+{
+	@Test
+	public void convertsBoxedAndOtherTypes() throws Exception
+	{
+		final plugin_AOGMmeasure aogm = new plugin_AOGMmeasure();
+		set(aogm, "gtPath=/data/01_GT", "resPath=/data/01_RES", "noOfDigits=4", "p2=2.5", "doConsistencyCheck=false");
+		assertEquals(new File("/data/01_GT"), get(aogm, "gtPath"));
+		assertEquals(4, get(aogm, "noOfDigits"));
+		assertEquals(2.5, get(aogm, "p2"));
+		assertEquals(false, get(aogm, "doConsistencyCheck"));
+	}
+
+	@Test
+	public void runsTheCallbacks() throws Exception
+	{
+		//the first choice is there before any argument, changing a penalty leaves the preset
+		final plugin_AOGMmeasure aogm = new plugin_AOGMmeasure();
+		set(aogm, "gtPath=gt", "resPath=res", "p1=7");
+		assertEquals(7.0, get(aogm, "p1"));
+		assertEquals("use the values below", get(aogm, "penaltyModel"));
+
+		//choosing the preset sets its penalties
+		set(aogm, "gtPath=gt", "resPath=res", "p1=7", "penaltyModel=Cell Tracking Challenge");
+		assertEquals(5.0, get(aogm, "p1"));
+		assertEquals("Cell Tracking Challenge", get(aogm, "penaltyModel"));
+	}
+
+	@Test
+	public void missingRequiredInputs() throws Exception
+	{
+		assertFails(new plugin_TRAmeasure(), "Missing required parameter: gtPath", "resPath=res");
+		assertFails(new plugin_TRAmeasure(), "Missing required parameters: ");
+		try {
+			set(new plugin_TRAmeasure());
+		}
+		catch (IllegalArgumentException e) {
+			assertTrue(e.getMessage(), e.getMessage().contains("gtPath") && e.getMessage().contains("resPath"));
+		}
+	}
+
+	@Test
+	public void wrongValues() throws Exception
+	{
+		assertFails(new plugin_AOGMmeasure(), "must be one of: Cell Tracking Challenge | use the values below",
+				"gtPath=gt", "resPath=res", "penaltyModel=my own");
+		assertFails(new plugin_TRAmeasure(), "Parameter noOfDigits expects int, got: three",
+				"gtPath=gt", "resPath=res", "noOfDigits=three");
+		assertFails(new plugin_AOGMmeasure(), "Parameter p3 expects Double, got: 1,5",
+				"gtPath=gt", "resPath=res", "p3=1,5");
+		assertFails(new plugin_TRAmeasure(), "Unknown parameter: gtpath", "gtpath=gt");
+		assertFails(new plugin_TRAmeasure(), "Expected 'name=value' but got: gt", "gt");
+	}
+
+
+	static void set(final Command command, final String... args) throws Exception
+	{
+		try (Context context = new Context(ConvertService.class))
+		{
+			CommandLineLauncher.setInputs(command, args, context.service(ConvertService.class));
+		}
+	}
+
+	static void assertFails(final Command command, final String message, final String... args) throws Exception
+	{
+		try {
+			set(command, args);
+			fail("no error for: "+String.join(" ", args));
+		}
+		catch (IllegalArgumentException e) {
+			assertTrue(e.getMessage(), e.getMessage().contains(message));
+		}
+	}
+
+	static Object get(final Command command, final String name) throws Exception
+	{
+		for (Field f : CommandLineLauncher.parameterFields(command.getClass()))
+			if (f.getName().equals(name))
+			{
+				f.setAccessible(true);
+				return f.get(command);
+			}
+		throw new NoSuchFieldException(name);
+	}
+}
@@ -0,0 +1,89 @@
+/*-
+ * #%L
+ * CTC-Fiji-plugins
+ * %%
+ * Copyright (C) 2017 - 2023 Vladimír Ulman
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package net.celltrackingchallenge.fiji.plugins;
+
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import net.celltrackingchallenge.fiji.plugins.util.DatasetMeasuresPlan.Measure;
+
+import java.io.File;
+import java.util.EnumSet;
+
+/**
+ * Checks which dataset measures are left to the built-in calculations.
+ */
+public class DSmeasuresEnginesTest
+{
+	@Test
+	public void officialMeasuresByDefault()
+	{
+		final plugin_DSmeasures ds = new plugin_DSmeasures();
+		assertEquals("only Sha is built-in by default", EnumSet.of(Measure.SHA), ds.builtInMeasures());
+		assertFalse("Sha is not calculated with Ops by default", ds.needsOps());
+	}
+
+	@Test
+	public void builtInWhenChosen()
+	{
+		final plugin_DSmeasures ds = allBuiltIn();
+		assertTrue(ds.builtInMeasures().containsAll(EnumSet.of(Measure.SNR, Measure.CR, Measure.HETI,
+				Measure.HETB, Measure.RES, Measure.SPA, Measure.CHA, Measure.OVE, Measure.MIT)));
+	}
+
+	@Test
+	public void perCellReportingUsesCTCmeasures()
+	{
+		final plugin_DSmeasures ds = allBuiltIn();
+		ds.doPerCellReporting = "To console, grouped by video, timepoint then cell_id";
+		assertEquals(EnumSet.noneOf(Measure.class), ds.builtInMeasures());
+	}
+
+	@Test
+	public void perCellExportUsesCTCmeasures()
+	{
+		final plugin_DSmeasures ds = allBuiltIn();
+		ds.perCellExportFile = new File("cells.bin");
+		assertEquals(EnumSet.noneOf(Measure.class), ds.builtInMeasures());
+	}
+
+
+	static plugin_DSmeasures allBuiltIn()
+	{
+		final plugin_DSmeasures ds = new plugin_DSmeasures();
+		ds.intensityEngine = "Built-in (fast)";
+		ds.resMitEngine = "Built-in (fast)";
+		ds.shaEngine = "Built-in (fast)";
+		ds.spaEngine = "Built-in (fast)";
+		ds.temporalEngine = "Built-in (fast)";
+		return ds;
+	}
+}
@@ -0,0 +1,166 @@
+/*-
+ * #%L
+ * CTC-Fiji-plugins
+ * %%
+ * Copyright (C) 2017 - 2023 Vladimír Ulman
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package net.celltrackingchallenge.fiji.plugins;
+
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import net.celltrackingchallenge.fiji.plugins.io.TestTiffs;
+import net.celltrackingchallenge.fiji.plugins.util.DatasetMeasuresPlan.Measure;
+import org.scijava.log.StderrLogService;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.stream.Stream;
+
+/**
+ * Checks that the values pooled over two videos equal the values
+ * of one video made of the frames of both of them.
+ */
+public class DSmeasuresPoolingTest
+{
+	static final long[] DIMS = {40, 30};
+	static final double[] RESOLUTION = {1,1,1};
+
+	@Test
+	public void poolingEqualsOneEvaluation()
+	throws IOException
+	{
+		final Path dir = Files.createTempDirectory("ctc-pooling");
+		final Random rnd = new Random(7);
+
+		//video A: one cell that divides, video B: two cells; the frames of B follow
+		//after the frames of A in the joint video, with their labels shifted by 10
+		final int[][][] cellsA = { {{1,5,5,8}}, {{2,3,3,6},{3,15,12,7}}, {{2,4,4,6},{3,16,13,7}} };
+		final int[][][] cellsB = { {{1,20,5,9},{2,5,18,5}}, {{1,22,6,9},{2,6,19,5}} };
+		final String[] lineageA = { "1 0 0 0", "2 1 2 1", "3 1 2 1" };
+		final String[] lineageB = { "1 0 1 0", "2 0 1 0" };
+
+		final Path a = dir.resolve("A"), b = dir.resolve("B"), ab = dir.resolve("AB");
+		for (int t = 0; t < cellsA.length; ++t)
+		{
+			final short[][] frame = frame(cellsA[t], rnd);
+			writeFrame(a, t, frame);
+			writeFrame(ab, t, frame);
+		}
+		for (int t = 0; t < cellsB.length; ++t)
+		{
+			final short[][] frame = frame(cellsB[t], rnd);
+			writeFrame(b, t, frame);
+			final short[] shifted = frame[0].clone();
+			for (int i = 0; i < shifted.length; ++i) if (shifted[i] > 0) shifted[i] += 10;
+			writeFrame(ab, cellsA.length + t, new short[][] {shifted, frame[1]});
+		}
+		writeLineage(a, lineageA);
+		writeLineage(b, lineageB);
+		writeLineage(ab, "1 0 0 0", "2 1 2 1", "3 1 2 1", "11 3 4 0", "12 3 4 0");
+
+		final plugin_DSmeasures ds = DSmeasuresEnginesTest.allBuiltIn();
+		ds.bgMasks = "Create from TRA, individually for each timepoint";
+		final StderrLogService log = new StderrLogService();
+		final plugin_DSmeasures.MeasuresValues va = ds.calculateVideo(a.toString(), a.toString(), RESOLUTION, log, true);
+		final plugin_DSmeasures.MeasuresValues vb = ds.calculateVideo(b.toString(), b.toString(), RESOLUTION, log, true);
+		final plugin_DSmeasures.MeasuresValues vab = ds.calculateVideo(ab.toString(), ab.toString(), RESOLUTION, log, false);
+		assertFalse(va.hasFailed || vb.hasFailed || vab.hasFailed);
+
+		final List<plugin_DSmeasures.MeasuresValues> videos = Arrays.asList(va, vb);
+		for (Measure m : ds.builtInMeasures())
+		{
+			assertTrue(m+" was calculated", vab.get(m) >= 0);
+			assertEquals(m.toString(), vab.get(m), plugin_DSmeasures.MeasuresValues.pool(videos, m), 1e-9);
+		}
+		//the plain average of the two videos is something else
+		assertTrue(Math.abs(vab.get(Measure.MIT) - (va.Mit + vb.Mit)/2.0) > 0.01);
+
+		try (Stream<Path> files = Files.walk(dir)) {
+			files.sorted(Comparator.reverseOrder()).forEach(f -> f.toFile().delete());
+		}
+	}
+
+	@Test
+	public void checkpointKeepsWeights()
+	throws IOException
+	{
+		final plugin_DSmeasures.MeasuresValues v = new plugin_DSmeasures.MeasuresValues();
+		v.Res = 12.5;
+		v.weights.put(Measure.RES, 42L);
+		final Map<String,plugin_DSmeasures.MeasuresValues> videos = new LinkedHashMap<>();
+		videos.put("img ; ann", v);
+
+		final Path file = Files.createTempFile("ctc-ds", ".ckp");
+		plugin_DSmeasures.MeasuresValues.saveCheckpoint(file, "settings", videos);
+		final Map<String,plugin_DSmeasures.MeasuresValues> loaded = new LinkedHashMap<>();
+		plugin_DSmeasures.MeasuresValues.loadCheckpoint(file, "settings", loaded);
+		Files.delete(file);
+
+		assertEquals(12.5, loaded.get("img ; ann").Res, 0);
+		assertEquals(42L, loaded.get("img ; ann").getWeight(Measure.RES));
+		assertEquals(0L, loaded.get("img ; ann").getWeight(Measure.SNR));
+	}
+
+
+	/** TRA mask and raw image with the given cells {label, x, y, half-size} */
+	static short[][] frame(final int[][] cells, final Random rnd)
+	{
+		final int w = (int)DIMS[0], h = (int)DIMS[1];
+		final short[] tra = new short[w*h];
+		final short[] raw = new short[w*h];
+		for (int i = 0; i < raw.length; ++i) raw[i] = (short)(100 + rnd.nextInt(20));
+		for (int[] c : cells)
+			for (int y = Math.max(0, c[2]-c[3]); y <= Math.min(h-1, c[2]+c[3]); ++y)
+				for (int x = Math.max(0, c[1]-c[3]); x <= Math.min(w-1, c[1]+c[3]); ++x)
+				{
+					tra[y*w + x] = (short)c[0];
+					raw[y*w + x] = (short)(300 + 20*c[0] + rnd.nextInt(60));
+				}
+		return new short[][] {tra, raw};
+	}
+
+	static void writeFrame(final Path video, final int time, final short[][] frame)
+	throws IOException
+	{
+		TestTiffs.write(video.resolve("TRA").resolve(String.format("man_track%03d.tif", time)), frame[0], DIMS);
+		TestTiffs.write(video.resolve(String.format("t%03d.tif", time)), frame[1], DIMS);
+	}
+
+	static void writeLineage(final Path video, final String... lines)
+	throws IOException
+	{
+		Files.write(video.resolve("TRA").resolve("man_track.txt"), Arrays.asList(lines));
+	}
+}
@@ -0,0 +1,129 @@
+/*-
+ * #%L
+ * CTC-Fiji-plugins
+ * %%
+ * Copyright (C) 2017 - 2023 Vladimír Ulman
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package net.celltrackingchallenge.fiji.plugins;
+
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import net.celltrackingchallenge.fiji.plugins.io.TestTiffs;
+import org.scijava.command.Command;
+import org.scijava.log.StderrLogService;
+
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+/**
+ * Checks that the Evaluator gives the same values as the TRA, DET and SEG
+ * plugins, with both SEG engines, on a small synthetic GT and RES pair.
+ */
+public class EvaluatorTest
+{
+	static final long[] DIMS = {40, 30};
+
+	@Test
+	public void sameAsThePlugins()
+	throws Exception
+	{
+		final Path dir = Files.createTempDirectory("ctc-evaluator");
+		final Path gt = dir.resolve("01_GT"), res = dir.resolve("01_RES");
+
+		//two GT cells (the second one appears later), the result misses a bit of them,
+		//swaps the labels at the last timepoint and adds a false positive there
+		final int[][][] gtCells  = { {{1,10,10,5}}, {{1,11,10,5},{2,28,18,4}}, {{1,12,11,5},{2,28,19,4}} };
+		final int[][][] resCells = { {{5,10,11,4}}, {{5,11,10,5},{7,27,18,4}}, {{7,12,11,4},{8,28,19,3},{9,34,4,2}} };
+		for (int t = 0; t < gtCells.length; ++t)
+		{
+			TestTiffs.write(gt.resolve("TRA").resolve(String.format("man_track%03d.tif", t)), mask(gtCells[t]), DIMS);
+			TestTiffs.write(res.resolve(String.format("mask%03d.tif", t)), mask(resCells[t]), DIMS);
+		}
+		//SEG annotations of some timepoints only
+		TestTiffs.write(gt.resolve("SEG").resolve("man_seg000.tif"), mask(gtCells[0]), DIMS);
+		TestTiffs.write(gt.resolve("SEG").resolve("man_seg002.tif"), mask(gtCells[2]), DIMS);
+		Files.write(gt.resolve("TRA").resolve("man_track.txt"), Arrays.asList("1 0 2 0", "2 1 2 0"));
+		Files.write(res.resolve("res_track.txt"), Arrays.asList("5 0 1 0", "7 1 2 0", "8 2 2 5", "9 2 2 0"));
+
+		final double tra = runPlugin(new plugin_TRAmeasure(), "TRA", gt, res);
+		final double det = runPlugin(new plugin_DETmeasure(), "DET", gt, res);
+		final double segCtc = runPlugin(new plugin_SEGmeasure(), "SEG", gt, res);
+		final double segBuiltIn = runPlugin(new plugin_SEGmeasure(), "SEG", gt, res, "segEngine=Built-in (fast)");
+		assertTrue("built-in SEG was calculated", segBuiltIn > 0 && segBuiltIn < 1);
+
+		try (Evaluator byDefault = Evaluator.forGT(gt).noOfThreads(2).build();
+		     Evaluator builtIn = Evaluator.forGT(gt).segEngine(Evaluator.SegEngine.BUILT_IN).build())
+		{
+			//the second evaluation takes the GT from the cache
+			for (int i = 0; i < 2; ++i)
+			{
+				final Evaluator.Result r = byDefault.evaluate(res);
+				assertEquals(tra, r.TRA, 1e-9);
+				assertEquals(det, r.DET, 1e-9);
+				assertEquals(segCtc, r.SEG, 1e-9);
+				assertEquals(segBuiltIn, builtIn.evaluate(res).SEG, 1e-9);
+			}
+		}
+
+		try (Stream<Path> files = Files.walk(dir)) {
+			files.sorted(Comparator.reverseOrder()).forEach(f -> f.toFile().delete());
+		}
+	}
+
+
+	/** runs the plugin as the command line would, returns its output */
+	static double runPlugin(final Command plugin, final String output, final Path gt, final Path res, final String... args)
+	throws Exception
+	{
+		final String[] allArgs = Arrays.copyOf(new String[] {"gtPath="+gt, "resPath="+res}, 2 + args.length);
+		System.arraycopy(args, 0, allArgs, 2, args.length);
+		CommandLineLauncherTest.set(plugin, allArgs);
+
+		final Field log = plugin.getClass().getDeclaredField("log");
+		log.setAccessible(true);
+		log.set(plugin, new StderrLogService());
+		plugin.run();
+		return (double)CommandLineLauncherTest.get(plugin, output);
+	}
+
+	/** the mask with the given cells {label, x, y, half-size} */
+	static short[] mask(final int[][] cells)
+	{
+		final int w = (int)DIMS[0], h = (int)DIMS[1];
+		final short[] mask = new short[w*h];
+		for (int[] c : cells)
+			for (int y = Math.max(0, c[2]-c[3]); y <= Math.min(h-1, c[2]+c[3]); ++y)
+				for (int x = Math.max(0, c[1]-c[3]); x <= Math.min(w-1, c[1]+c[3]); ++x)
+					mask[y*w + x] = (short)c[0];
+		return mask;
+	}
+}
@@ -0,0 +1,139 @@
+/*-
+ * #%L
+ * CTC-Fiji-plugins
+ * %%
+ * Copyright (C) 2017 - 2023 Vladimír Ulman
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package net.celltrackingchallenge.fiji.plugins.io;
+
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+
+import java.nio.DoubleBuffer;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Writes a table with columns of all supported types (and fields that
+ * are to be skipped) and reads it back through the memory-mapped reader.
+ */
+public class ColumnarTableTest
+{
+	public static class Row
+	{
+		public int id;
+		public short time;
+		public long size;
+		public float ratio;
+		public double intensity;
+
+		//not exported: not numeric, static, not public
+		public String name = "x";
+		public static int counter = 0;
+		double hidden = 0;
+	}
+
+	@Test
+	public void roundTrip() throws Exception
+	{
+		final List<Row> rows = new ArrayList<>();
+		//more rows than fit into one chunk of the writer
+		for (int i = 0; i < 20000; ++i)
+		{
+			final Row r = new Row();
+			r.id = i;
+			r.time = (short)(i % 300);
+			r.size = 10_000_000_000L + i;
+			r.ratio = i / 7.0f;
+			r.intensity = Math.sqrt(i);
+			rows.add(r);
+		}
+
+		final Path file = Files.createTempFile("ctc-columns", ".bin");
+		try {
+			ColumnarTableWriter.write(file, rows, Row.class);
+			final ColumnarTableReader t = new ColumnarTableReader(file);
+
+			assertEquals(rows.size(), t.getNoOfRows());
+			assertEquals(5, t.getNoOfColumns());
+			assertEquals("id", t.getColumnName(0));
+			assertEquals(-1, t.findColumn("name"));
+			assertEquals(-1, t.findColumn("hidden"));
+			assertEquals((long)ColumnarTableWriter.TYPE_INT, (long)t.getColumnType(t.findColumn("time")));
+			assertEquals((long)ColumnarTableWriter.TYPE_LONG, (long)t.getColumnType(t.findColumn("size")));
+
+			final IntBuffer id = t.getIntColumn(t.findColumn("id"));
+			final IntBuffer time = t.getIntColumn(t.findColumn("time"));
+			final LongBuffer size = t.getLongColumn(t.findColumn("size"));
+			final FloatBuffer ratio = t.getFloatColumn(t.findColumn("ratio"));
+			final DoubleBuffer intensity = t.getDoubleColumn(t.findColumn("intensity"));
+			for (int i = 0; i < rows.size(); ++i)
+			{
+				final Row r = rows.get(i);
+				assertEquals(r.id, id.get(i));
+				assertEquals(r.time, time.get(i));
+				assertEquals(r.size, size.get(i));
+				assertEquals(r.ratio, ratio.get(i), 0.0);
+				assertEquals(r.intensity, intensity.get(i), 0.0);
+			}
+		}
+		finally {
+			Files.delete(file);
+		}
+	}
+
+	@Test
+	public void emptyTable() throws Exception
+	{
+		final Path file = Files.createTempFile("ctc-columns", ".bin");
+		try {
+			ColumnarTableWriter.write(file, new ArrayList<Row>(), Row.class);
+			final ColumnarTableReader t = new ColumnarTableReader(file);
+			assertEquals(0, t.getNoOfRows());
+			assertEquals(0, t.getDoubleColumn(t.findColumn("intensity")).remaining());
+		}
+		finally {
+			Files.delete(file);
+		}
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void wrongTypeIsRefused() throws Exception
+	{
+		final Path file = Files.createTempFile("ctc-columns", ".bin");
+		try {
+			ColumnarTableWriter.write(file, new ArrayList<Row>(), Row.class);
+			new ColumnarTableReader(file).getIntColumn(4);
+		}
+		finally {
+			Files.delete(file);
+		}
+	}
+}
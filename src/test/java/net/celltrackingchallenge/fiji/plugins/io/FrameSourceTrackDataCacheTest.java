@@ -0,0 +1,288 @@
+/*-
+ * #%L
+ * CTC-Fiji-plugins
+ * %%
+ * Copyright (C) 2017 - 2023 Vladimír Ulman
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package net.celltrackingchallenge.fiji.plugins.io;
+
+import org.junit.Test;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import net.celltrackingchallenge.measures.TrackDataCache;
+import net.imglib2.IterableInterval;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.img.Img;
+import net.imglib2.img.array.ArrayImgs;
+import net.imglib2.type.numeric.integer.UnsignedShortType;
+import org.scijava.log.StderrLogService;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.stream.Stream;
+
+/**
+ * Checks that the levels classified through the FrameSources (with the
+ * ParallelLabelClassifier) are the same as those of TrackDataCache,
+ * also when they are restored from a checkpoint.
+ */
+public class FrameSourceTrackDataCacheTest
+{
+	@Test
+	public void sameLevelsAsTrackDataCache()
+	{
+		final Random rnd = new Random(29);
+		final StderrLogService log = new StderrLogService();
+		try (FrameSources sources = new FrameSources(log, 3, 1))
+		{
+			final TrackDataCache reference = new TrackDataCache(log);
+			final FrameSourceTrackDataCache cache = new FrameSourceTrackDataCache(log, sources);
+
+			final long[][] allDims = { {64, 48}, {33, 17}, {20, 18, 9}, {31, 7, 13} };
+			for (long[] dims : allDims)
+				for (int i = 0; i < 3; ++i)
+				{
+					final short[][] pair = randomGtAndRes(rnd, dims, 5 + rnd.nextInt(20));
+					final RandomAccessibleInterval<UnsignedShortType> gt = ArrayImgs.unsignedShorts(pair[0], dims);
+					final RandomAccessibleInterval<UnsignedShortType> res = ArrayImgs.unsignedShorts(pair[1], dims);
+					reference.ClassifyLabels(ArrayImgs.unsignedShorts(pair[0], dims), res, false);
+					cache.ClassifyLabels(ArrayImgs.unsignedShorts(pair[0], dims), res, false);
+					assertEquals(reference.levels.size(), cache.levels.size());
+				}
+
+			for (int t = 0; t < reference.levels.size(); ++t)
+				assertSameLevel(reference.levels.get(t), cache.levels.get(t));
+		}
+	}
+
+	/**
+	 * A calculation interrupted after some timepoints and resumed from its
+	 * checkpoint gives the same levels as an uninterrupted one, and does not
+	 * read again the timepoints from the checkpoint.
+	 */
+	@Test
+	public void resumesFromCheckpoint()
+	throws IOException
+	{
+		final Random rnd = new Random(35);
+		final long[] dims = {40, 32};
+		final Path dir = Files.createTempDirectory("ctc-levels");
+		final Path gt = dir.resolve("GT"), res = dir.resolve("RES");
+		for (int t = 0; t < 6; ++t)
+		{
+			final short[][] pair = randomGtAndRes(rnd, dims, 10);
+			TestTiffs.write(gt.resolve("TRA").resolve(String.format("man_track%03d.tif", t)), pair[0], dims);
+			TestTiffs.write(res.resolve(String.format("mask%03d.tif", t)), pair[1], dims);
+		}
+		Files.write(gt.resolve("TRA").resolve("man_track.txt"), Arrays.asList("1 0 5 0"));
+		Files.write(res.resolve("res_track.txt"), Arrays.asList("1 0 5 0"));
+		final Path checkpoint = dir.resolve("levels.ckp");
+
+		final StderrLogService log = new StderrLogService();
+		try (FrameSources sources = new FrameSources(log, 2, 1))
+		{
+			final FrameSourceTrackDataCache reference = FrameSourceTrackDataCache.calculateFor(gt.toString(), res.toString(), 3, false, log, sources);
+			assertEquals(6, reference.levels.size());
+
+			final FrameSourceTrackDataCache interrupted = new FrameSourceTrackDataCache(log, sources)
+			{
+				@Override
+				public void ClassifyLabels(final IterableInterval<UnsignedShortType> gt_img,
+				                           final RandomAccessibleInterval<UnsignedShortType> res_img,
+				                           final boolean complainOnEmptyImages)
+				{
+					super.ClassifyLabels(gt_img, res_img, complainOnEmptyImages);
+					if (levels.size() == 4) throw new IllegalStateException("interrupted");
+				}
+			};
+			interrupted.useCheckpoint(checkpoint, 2, false);
+			try {
+				interrupted.calculate(gt.toString(), res.toString());
+				fail("not interrupted");
+			}
+			catch (IllegalStateException e) {
+				assertEquals("interrupted", e.getMessage());
+			}
+
+			final int[] noOfReads = {0};
+			final FrameSourceTrackDataCache resumed = new FrameSourceTrackDataCache(log, sources)
+			{
+				@Override
+				public Img<UnsignedShortType> ReadImageG16(final String fname)
+				{
+					final Img<UnsignedShortType> img = super.ReadImageG16(fname);
+					if (img.size() > 1) ++noOfReads[0];
+					return img;
+				}
+			};
+			resumed.useCheckpoint(checkpoint, 2, true);
+			resumed.calculate(gt.toString(), res.toString());
+			assertEquals(2*2, noOfReads[0]);
+			assertEquals(reference.levels.size(), resumed.levels.size());
+			for (int t = 0; t < reference.levels.size(); ++t)
+				assertSameLevel(reference.levels.get(t), resumed.levels.get(t));
+
+			//the checkpoint is not for other data
+			final FrameSourceTrackDataCache other = new FrameSourceTrackDataCache(log, sources);
+			other.useCheckpoint(checkpoint, 2, true);
+			try {
+				other.calculate(gt.toString(), gt.toString());
+				fail("checkpoint of other folders was used");
+			}
+			catch (IllegalArgumentException e) {
+				assertTrue(e.getMessage(), e.getMessage().contains("other data"));
+			}
+		}
+		finally
+		{
+			try (Stream<Path> files = Files.walk(dir)) {
+				files.sorted(Comparator.reverseOrder()).forEach(f -> f.toFile().delete());
+			}
+		}
+	}
+
+	/**
+	 * TrackDataCache does not define the order of the labels within the level,
+	 * so the levels are compared label by label: the same GT and RES labels,
+	 * the same RES label matched by every GT label, and the same GT labels
+	 * matching every RES label.
+	 */
+	static void assertSameLevel(final TrackDataCache.TemporalLevel expected, final TrackDataCache.TemporalLevel actual)
+	{
+		assertEquals(expected.level, actual.level);
+		assertArrayEquals(sorted(expected.m_gt_lab), sorted(actual.m_gt_lab));
+		assertArrayEquals(sorted(expected.m_res_lab), sorted(actual.m_res_lab));
+		assertEquals(expected.m_gt_lab.length, actual.m_gt_match.length);
+		assertEquals(expected.m_res_lab.length, actual.m_res_match.length);
+
+		for (int i = 0; i < expected.m_gt_lab.length; ++i)
+		{
+			final int label = expected.m_gt_lab[i];
+			final int a = indexOf(actual.m_gt_lab, label);
+			final int expMatch = expected.m_gt_match[i] >= 0 ? expected.m_res_lab[expected.m_gt_match[i]] : 0;
+			final int actMatch = actual.m_gt_match[a] >= 0 ? actual.m_res_lab[actual.m_gt_match[a]] : 0;
+			assertEquals("match of GT label "+label+" at time "+expected.level, expMatch, actMatch);
+		}
+
+		for (int j = 0; j < expected.m_res_lab.length; ++j)
+		{
+			final int label = expected.m_res_lab[j];
+			final int a = indexOf(actual.m_res_lab, label);
+			assertEquals("matches of RES label "+label+" at time "+expected.level,
+					gtLabelsOf(expected, expected.m_res_match[j]), gtLabelsOf(actual, actual.m_res_match[a]));
+		}
+	}
+
+	/**
+	 * Random GT cells (boxes, some overlapping) with sparse labels, and RES cells
+	 * made of them: shifted, relabeled, some of them merged, some missing, and
+	 * some extra ones; returns the GT and RES pixels, x runs the fastest.
+	 */
+	public static short[][] randomGtAndRes(final Random rnd, final long[] dims, final int noOfCells)
+	{
+		final int size = (int)Arrays.stream(dims).reduce(1, (a,b) -> a*b);
+		final short[] gt = new short[size];
+		final short[] res = new short[size];
+
+		int resLabel = 1 + rnd.nextInt(1000);
+		for (int c = 0; c < noOfCells; ++c)
+		{
+			final long[] min = new long[dims.length], max = new long[dims.length];
+			for (int d = 0; d < dims.length; ++d)
+			{
+				min[d] = rnd.nextInt((int)dims[d]);
+				max[d] = Math.min(dims[d]-1, min[d] + 1 + rnd.nextInt(Math.max(2, (int)dims[d]/3)));
+			}
+			final int gtLabel = 1 + rnd.nextInt(65535); //also above 32767
+			fillBox(gt, dims, min, max, gtLabel);
+
+			final int kind = rnd.nextInt(10);
+			if (kind == 0) continue; //missing in RES
+			if (kind > 1) resLabel = 1 + rnd.nextInt(65535); //else merged with the previous one
+			for (int d = 0; d < dims.length; ++d)
+			{
+				final long shift = rnd.nextInt(3) - 1;
+				min[d] = Math.min(dims[d]-1, Math.max(0, min[d] + shift));
+				max[d] = Math.max(min[d], Math.min(dims[d]-1, max[d] + shift));
+			}
+			fillBox(res, dims, min, max, resLabel);
+		}
+		//extra RES cell
+		final long[] min = new long[dims.length], max = new long[dims.length];
+		for (int d = 0; d < dims.length; ++d) max[d] = Math.min(dims[d]-1, 2);
+		fillBox(res, dims, min, max, 65535);
+
+		return new short[][] {gt, res};
+	}
+
+	static void fillBox(final short[] pixels, final long[] dims, final long[] min, final long[] max, final int label)
+	{
+		final long[] pos = min.clone();
+		while (true)
+		{
+			long i = 0;
+			for (int d = dims.length-1; d >= 0; --d) i = i*dims[d] + pos[d];
+			pixels[(int)i] = (short)label;
+
+			int d = 0;
+			for (; d < dims.length; ++d)
+			{
+				if (++pos[d] <= max[d]) break;
+				pos[d] = min[d];
+			}
+			if (d == dims.length) return;
+		}
+	}
+
+	static int[] sorted(final int[] labels)
+	{
+		final int[] s = labels.clone();
+		Arrays.sort(s);
+		return s;
+	}
+
+	static int indexOf(final int[] labels, final int label)
+	{
+		for (int i = 0; i < labels.length; ++i)
+			if (labels[i] == label) return i;
+		throw new AssertionError("missing label "+label);
+	}
+
+	static Set<Integer> gtLabelsOf(final TrackDataCache.TemporalLevel level, final Set<Integer> gtIndices)
+	{
+		final Set<Integer> labels = new TreeSet<>();
+		for (int i : gtIndices) labels.add(level.m_gt_lab[i]);
+		return labels;
+	}
+}
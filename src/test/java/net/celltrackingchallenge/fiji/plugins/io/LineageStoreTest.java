@@ -0,0 +1,165 @@
+/*-
+ * #%L
+ * CTC-Fiji-plugins
+ * %%
+ * Copyright (C) 2017 - 2023 Vladimír Ulman
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package net.celltrackingchallenge.fiji.plugins.io;
+
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Checks the parsing of the lineage files.
+ */
+public class LineageStoreTest
+{
+	@Test
+	public void parsesWhitespaceVariants()
+	throws IOException
+	{
+		final LineageStore l = parse("1 0 4 0\n"
+				+ "  2\t5 7  1\r\n"
+				+ "\n"
+				+ "3 5\t\t9 1   \r\n"
+				+ " \t \n"
+				+ "4 10 10 3"); //no end of line at the end of file
+
+		assertEquals(4, l.size());
+		assertTrack(l, 2, 5, 7, 1);
+		assertTrack(l, 3, 5, 9, 1);
+		assertTrack(l, 4, 10, 10, 3);
+		assertEquals(2, l.noOfChildren(l.indexOf(1)));
+		assertEquals(1, l.noOfDivisions());
+		assertEquals(5+3+5+1, l.noOfVertices());
+		assertEquals(4+2+4+0 + 3, l.noOfEdges());
+		assertEquals(0, l.firstTimepoint());
+		assertEquals(10, l.lastTimepoint());
+	}
+
+	@Test
+	public void sortsTheTracksByIds()
+	throws IOException
+	{
+		final LineageStore l = parse("30 2 3 10\n10 0 1 0\n20 2 5 10\n");
+		assertEquals(10, l.id(0));
+		assertEquals(20, l.id(1));
+		assertEquals(30, l.id(2));
+		assertEquals(l.indexOf(10), l.parentIndex(l.indexOf(30)));
+		assertEquals(-1, l.indexOf(15));
+	}
+
+	@Test
+	public void sparseIds()
+	throws IOException
+	{
+		final LineageStore l = parse("7 0 1 0\n1000000 2 3 7\n");
+		assertTrack(l, 1000000, 2, 3, 7);
+		assertEquals(0, l.parentIndex(l.indexOf(1000000)));
+	}
+
+	@Test
+	public void unknownParentIsNoParent()
+	throws IOException
+	{
+		final LineageStore l = parse("1 0 3 0\n2 4 5 9\n");
+		assertEquals(9, l.parent(l.indexOf(2)));
+		assertEquals(-1, l.parentIndex(l.indexOf(2)));
+		assertEquals(4+2 - 2, l.noOfEdges());
+	}
+
+	@Test
+	public void emptyFile()
+	throws IOException
+	{
+		final LineageStore l = parse("");
+		assertEquals(0, l.size());
+		assertEquals(0, l.noOfVertices());
+		assertEquals(0, l.noOfEdges());
+		assertEquals(-1, l.indexOf(1));
+
+		assertEquals(0, parse("\n\r\n  \n").size());
+	}
+
+	@Test
+	public void malformedLines()
+	throws IOException
+	{
+		assertFails("1 0 4 0\n2 5 7\n", ":2:");
+		assertFails("1 0 4 0 0\n", ":1:");
+		assertFails("1 0 4 0\n\n2 a 7 1\n", ":3:");
+		assertFails("1 0 4 0\n2 5,7 1 0\n", ":2:");
+	}
+
+	@Test
+	public void duplicateIds()
+	throws IOException
+	{
+		assertFails("1 0 4 0\n2 5 7 1\n2 5 8 1\n", "track 2 is defined more than once");
+		assertFails("5 0 4 0\n2 5 7 1\n5 5 8 1\n", "track 5 is defined more than once");
+	}
+
+
+	static LineageStore parse(final String content)
+	throws IOException
+	{
+		final Path file = Files.createTempFile("ctc-lineage", ".txt");
+		try {
+			Files.write(file, content.getBytes(StandardCharsets.US_ASCII));
+			return LineageStore.load(file);
+		}
+		finally {
+			Files.delete(file);
+		}
+	}
+
+	static void assertFails(final String content, final String message)
+	{
+		try {
+			parse(content);
+			fail("no error for: "+content);
+		}
+		catch (IOException e) {
+			assertTrue(e.getMessage(), e.getMessage().contains(message));
+		}
+	}
+
+	static void assertTrack(final LineageStore l, final int id, final int begin, final int end, final int parent)
+	{
+		final int i = l.indexOf(id);
+		assertTrue("track "+id+" exists", i >= 0);
+		assertEquals(id, l.id(i));
+		assertEquals(begin, l.begin(i));
+		assertEquals(end, l.end(i));
+		assertEquals(parent, l.parent(i));
+	}
+}
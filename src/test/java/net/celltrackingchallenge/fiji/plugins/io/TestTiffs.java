@@ -0,0 +1,341 @@
+/*-
+ * #%L
+ * CTC-Fiji-plugins
+ * %%
+ * Copyright (C) 2017 - 2023 Vladimír Ulman
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package net.celltrackingchallenge.fiji.plugins.io;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.zip.Deflater;
+
+/**
+ * Writes small 8- or 16-bit TIFF stacks, by default uncompressed with one IFD
+ * and one strip per slice, for the tests that need label or raw images on the
+ * disk; the other compressions and layouts are for the tests of the reader.
+ */
+public class TestTiffs
+{
+	/** saves the pixels, in which x runs the fastest, as an uncompressed 16-bit stack */
+	public static void write(final Path file, final short[] pixels, final long[] dims)
+	throws IOException
+	{
+		write(file, pixels, dims, new Layout());
+	}
+
+	/** the tags that must be of the SHORT type, the others are written as LONG */
+	static final Set<Integer> SHORT_TAGS = new HashSet<>(Arrays.asList(258, 259, 262, 317));
+
+	/** how the stack is stored */
+	public static class Layout
+	{
+		int bits = 16;
+		int compression = TiffLabelReader.COMPRESSION_NONE;
+		boolean predictor = false;
+		int rowsPerStrip = 0; //0 means one strip per slice
+		int tileSize = 0;     //0 means strips
+		ByteOrder order = ByteOrder.LITTLE_ENDIAN;
+		boolean imageJStack = false;
+
+		public Layout bits(final int bits) { this.bits = bits; return this; }
+		public Layout compression(final int compression) { this.compression = compression; return this; }
+		public Layout predictor() { this.predictor = true; return this; }
+		public Layout strips(final int rowsPerStrip) { this.rowsPerStrip = rowsPerStrip; return this; }
+		public Layout tiles(final int tileSize) { this.tileSize = tileSize; return this; }
+		public Layout bigEndian() { this.order = ByteOrder.BIG_ENDIAN; return this; }
+		/** one IFD for all slices that follow one another, as ImageJ saves large stacks */
+		public Layout imageJStack() { this.imageJStack = true; return this; }
+
+		@Override
+		public String toString()
+		{
+			return bits+"-bit, compression "+compression+(predictor ? " with predictor" : "")
+				+(tileSize > 0 ? ", tiles "+tileSize : rowsPerStrip > 0 ? ", strips of "+rowsPerStrip+" rows" : "")
+				+(order == ByteOrder.BIG_ENDIAN ? ", big-endian" : "")+(imageJStack ? ", ImageJ stack" : "");
+		}
+	}
+
+	/** saves the pixels, in which x runs the fastest, as a stack in the given layout */
+	public static void write(final Path file, final short[] pixels, final long[] dims, final Layout layout)
+	throws IOException
+	{
+		final int w = (int)dims[0];
+		final int h = (int)dims[1];
+		final int d = dims.length > 2 ? (int)dims[2] : 1;
+		final int blockWidth  = layout.tileSize > 0 ? layout.tileSize : w;
+		final int blockHeight = layout.tileSize > 0 ? layout.tileSize
+		                      : layout.rowsPerStrip > 0 ? Math.min(layout.rowsPerStrip, h) : h;
+
+		//the data of all blocks of all slices first, then the IFDs
+		final ByteArrayOutputStream data = new ByteArrayOutputStream();
+		data.write(new byte[8], 0, 8);
+		final List<long[]> offsets = new ArrayList<>(), byteCounts = new ArrayList<>();
+		for (int z = 0; z < d; ++z)
+		{
+			final List<byte[]> blocks = new ArrayList<>();
+			for (int y0 = 0; y0 < h; y0 += blockHeight)
+				for (int x0 = 0; x0 < w; x0 += blockWidth)
+					blocks.add( encode(block(pixels, z*w*h, w, h, x0, y0, blockWidth, blockHeight, layout), layout) );
+
+			final long[] o = new long[blocks.size()], c = new long[blocks.size()];
+			for (int i = 0; i < blocks.size(); ++i)
+			{
+				o[i] = data.size();
+				c[i] = blocks.get(i).length;
+				data.write(blocks.get(i), 0, blocks.get(i).length);
+			}
+			offsets.add(o);
+			byteCounts.add(c);
+		}
+		if (data.size() % 2 == 1) data.write(0);
+
+		final int noOfIfds = layout.imageJStack ? 1 : d;
+		final ByteBuffer b = ByteBuffer.allocate(data.size() + noOfIfds*4096).order(layout.order);
+		b.put(data.toByteArray());
+		b.put(0, (byte)(layout.order == ByteOrder.BIG_ENDIAN ? 'M' : 'I'));
+		b.put(1, (byte)(layout.order == ByteOrder.BIG_ENDIAN ? 'M' : 'I'));
+		b.putShort(2, (short)42);
+		b.putInt(4, b.position());
+		for (int z = 0; z < noOfIfds; ++z)
+		{
+			final Map<Integer,long[]> tags = new HashMap<>();
+			tags.put(256, new long[] {w});
+			tags.put(257, new long[] {h});
+			tags.put(258, new long[] {layout.bits});
+			tags.put(259, new long[] {layout.compression});
+			tags.put(262, new long[] {1});
+			if (layout.tileSize > 0)
+			{
+				tags.put(322, new long[] {blockWidth});
+				tags.put(323, new long[] {blockHeight});
+				tags.put(324, offsets.get(z));
+				tags.put(325, byteCounts.get(z));
+			}
+			else
+			{
+				tags.put(273, offsets.get(z));
+				tags.put(278, new long[] {blockHeight});
+				tags.put(279, byteCounts.get(z));
+			}
+			if (layout.predictor) tags.put(317, new long[] {2});
+			final byte[] description = layout.imageJStack ? ("ImageJ=1.54f\nimages="+d+"\nslices="+d+"\n\0").getBytes() : null;
+			if (description != null) tags.put(270, new long[0]);
+
+			//the entries, then the values that do not fit into them
+			final int ifdStart = b.position();
+			int extra = ifdStart + 2 + 12*tags.size() + 4;
+			b.putShort((short)tags.size());
+			final List<long[]> extraValues = new ArrayList<>();
+			for (int tag : new TreeSet<>(tags.keySet()))
+			{
+				final long[] values = tags.get(tag);
+				if (tag == 270)
+				{
+					b.putShort((short)270).putShort((short)2).putInt(description.length).putInt(extra);
+					extraValues.add(null);
+					extra += description.length + description.length % 2;
+					continue;
+				}
+				if (SHORT_TAGS.contains(tag))
+				{
+					b.putShort((short)tag).putShort((short)3).putInt(1).putShort((short)values[0]).putShort((short)0);
+					continue;
+				}
+				b.putShort((short)tag).putShort((short)4).putInt(values.length);
+				if (values.length == 1) b.putInt((int)values[0]);
+				else
+				{
+					b.putInt(extra);
+					extraValues.add(values);
+					extra += 4*values.length;
+				}
+			}
+			b.putInt(z+1 < noOfIfds ? extra : 0);
+			for (long[] values : extraValues)
+			{
+				if (values == null)
+				{
+					b.put(description);
+					if (description.length % 2 == 1) b.put((byte)0);
+				}
+				else for (long v : values) b.putInt((int)v);
+			}
+		}
+
+		if (file.getParent() != null) Files.createDirectories(file.getParent());
+		final byte[] content = new byte[b.position()];
+		System.arraycopy(b.array(), 0, content, 0, content.length);
+		Files.write(file, content);
+	}
+
+	/** the bytes of one strip or tile, a strip ends with the last row of the image, a tile is always full */
+	static byte[] block(final short[] pixels, final int sliceOffset, final int w, final int h,
+	                    final int x0, final int y0, final int blockWidth, final int blockHeight, final Layout layout)
+	{
+		final int bytesPerSample = layout.bits / 8;
+		final int rows = layout.tileSize > 0 ? blockHeight : Math.min(blockHeight, h - y0);
+		final ByteBuffer b = ByteBuffer.allocate(rows * blockWidth * bytesPerSample).order(layout.order);
+		for (int y = y0; y < y0+rows; ++y)
+		{
+			int prev = 0;
+			for (int x = x0; x < x0+blockWidth; ++x)
+			{
+				final int val = x < w && y < h ? pixels[sliceOffset + y*w + x] & 0xffff : 0;
+				final int stored = layout.predictor ? val - prev : val;
+				prev = val;
+				if (bytesPerSample == 1) b.put((byte)stored);
+				else b.putShort((short)stored);
+			}
+		}
+		return b.array();
+	}
+
+	static byte[] encode(final byte[] raw, final Layout layout)
+	{
+		switch (layout.compression)
+		{
+		case TiffLabelReader.COMPRESSION_LZW:
+			return encodeLZW(raw);
+		case TiffLabelReader.COMPRESSION_DEFLATE:
+			final Deflater deflater = new Deflater();
+			deflater.setInput(raw);
+			deflater.finish();
+			final ByteArrayOutputStream out = new ByteArrayOutputStream();
+			final byte[] buf = new byte[4096];
+			while (!deflater.finished()) out.write(buf, 0, deflater.deflate(buf));
+			deflater.end();
+			return out.toByteArray();
+		case TiffLabelReader.COMPRESSION_PACKBITS:
+			return encodePackBits(raw);
+		default:
+			return raw;
+		}
+	}
+
+	/** runs of at least three equal bytes are replicated, the rest goes as literals */
+	static byte[] encodePackBits(final byte[] raw)
+	{
+		final ByteArrayOutputStream out = new ByteArrayOutputStream();
+		int i = 0;
+		while (i < raw.length)
+		{
+			int run = 1;
+			while (i+run < raw.length && run < 128 && raw[i+run] == raw[i]) ++run;
+			if (run >= 3)
+			{
+				out.write(1 - run);
+				out.write(raw[i]);
+				i += run;
+				continue;
+			}
+			int literals = 0;
+			while (i+literals < raw.length && literals < 128
+			       && !(i+literals+2 < raw.length && raw[i+literals] == raw[i+literals+1] && raw[i+literals] == raw[i+literals+2]))
+				++literals;
+			out.write(literals - 1);
+			out.write(raw, i, literals);
+			i += literals;
+		}
+		return out.toByteArray();
+	}
+
+	/** the TIFF variant of LZW: MSB-first codes of 9 to 12 bits, with the "early change" */
+	static byte[] encodeLZW(final byte[] raw)
+	{
+		final int CLEAR = 256, EOI = 257;
+		final ByteArrayOutputStream out = new ByteArrayOutputStream();
+		final long[] bits = new long[2]; //the pending bits, their count
+
+		final Map<Long,Integer> table = new HashMap<>();
+		int nextCode = 258, codeWidth = 9;
+		putCode(out, bits, CLEAR, codeWidth);
+		if (raw.length == 0)
+		{
+			putCode(out, bits, EOI, codeWidth);
+			flushCodes(out, bits);
+			return out.toByteArray();
+		}
+
+		int prefix = raw[0] & 0xff;
+		for (int i = 1; i < raw.length; ++i)
+		{
+			final int c = raw[i] & 0xff;
+			final Integer code = table.get(((long)prefix << 8) | c);
+			if (code != null)
+			{
+				prefix = code;
+				continue;
+			}
+			putCode(out, bits, prefix, codeWidth);
+			table.put(((long)prefix << 8) | c, nextCode++);
+			if (nextCode == 4094)
+			{
+				putCode(out, bits, CLEAR, codeWidth);
+				table.clear();
+				nextCode = 258;
+				codeWidth = 9;
+			}
+			else if (nextCode > (1 << codeWidth) - 1) ++codeWidth;
+			prefix = c;
+		}
+		putCode(out, bits, prefix, codeWidth);
+		//the decoder adds an entry also after the last code
+		if (++nextCode > (1 << codeWidth) - 1 && codeWidth < 12) ++codeWidth;
+		putCode(out, bits, EOI, codeWidth);
+		flushCodes(out, bits);
+		return out.toByteArray();
+	}
+
+	static void putCode(final ByteArrayOutputStream out, final long[] bits, final int code, final int codeWidth)
+	{
+		bits[0] = (bits[0] << codeWidth) | code;
+		bits[1] += codeWidth;
+		while (bits[1] >= 8)
+		{
+			out.write((int)(bits[0] >> (bits[1] - 8)) & 0xff);
+			bits[1] -= 8;
+		}
+		bits[0] &= (1L << bits[1]) - 1;
+	}
+
+	static void flushCodes(final ByteArrayOutputStream out, final long[] bits)
+	{
+		if (bits[1] > 0) out.write((int)(bits[0] << (8 - bits[1])) & 0xff);
+		bits[0] = bits[1] = 0;
+	}
+}
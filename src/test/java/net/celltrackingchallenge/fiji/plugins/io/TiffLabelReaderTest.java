@@ -0,0 +1,330 @@
+/*-
+ * #%L
+ * CTC-Fiji-plugins
+ * %%
+ * Copyright (C) 2017 - 2023 Vladimír Ulman
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package net.celltrackingchallenge.fiji.plugins.io;
+
+import org.junit.Test;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import net.celltrackingchallenge.measures.TrackDataCache;
+import net.imglib2.Cursor;
+import net.imglib2.img.Img;
+import net.imglib2.type.numeric.integer.UnsignedShortType;
+import net.imglib2.view.Views;
+import org.scijava.log.StderrLogService;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.stream.Stream;
+
+/**
+ * Writes stacks in all supported compressions and layouts, and checks that
+ * the reader decodes the same pixels as were written, and the same as the
+ * general reader of TrackDataCache does.
+ */
+public class TiffLabelReaderTest
+{
+	static final long[][] ALL_DIMS = { {37, 29}, {37, 29, 3} };
+
+	static final int[] COMPRESSIONS = { TiffLabelReader.COMPRESSION_NONE, TiffLabelReader.COMPRESSION_LZW,
+		TiffLabelReader.COMPRESSION_DEFLATE, TiffLabelReader.COMPRESSION_PACKBITS };
+
+	/** all layouts of the given bits and compression, the predictor is used only with LZW and Deflate */
+	static List<TestTiffs.Layout> layouts(final int bits, final int compression)
+	{
+		final List<TestTiffs.Layout> layouts = new ArrayList<>();
+		final boolean[] predictors = compression == TiffLabelReader.COMPRESSION_LZW
+		                          || compression == TiffLabelReader.COMPRESSION_DEFLATE
+		                           ? new boolean[] {false, true} : new boolean[] {false};
+		for (boolean predictor : predictors)
+			for (int i = 0; i < 4; ++i)
+			{
+				final TestTiffs.Layout l = new TestTiffs.Layout().bits(bits).compression(compression);
+				if (predictor) l.predictor();
+				if (i == 1) l.strips(5);
+				if (i == 2) l.tiles(16);
+				if (i == 3) l.strips(3).bigEndian();
+				layouts.add(l);
+			}
+		return layouts;
+	}
+
+	@Test
+	public void roundTrips()
+	throws IOException
+	{
+		final Path dir = Files.createTempDirectory("ctc-tiff");
+		final Random rnd = new Random(36);
+		try (TiffLabelReader reader = new TiffLabelReader(3))
+		{
+			for (long[] dims : ALL_DIMS)
+				for (int bits : new int[] {8, 16})
+					for (int compression : COMPRESSIONS)
+						for (TestTiffs.Layout layout : layouts(bits, compression))
+						{
+							final short[] pixels = labels(rnd, dims, bits);
+							final Path file = dir.resolve("mask.tif");
+							TestTiffs.write(file, pixels, dims, layout);
+							assertReads(reader, file, pixels, dims, layout.toString());
+						}
+		}
+		finally {
+			delete(dir);
+		}
+	}
+
+	@Test
+	public void imageJStacks()
+	throws IOException
+	{
+		final Path dir = Files.createTempDirectory("ctc-tiff");
+		final Random rnd = new Random(360);
+		final long[] dims = {37, 29, 4};
+		try (TiffLabelReader reader = new TiffLabelReader(2))
+		{
+			for (int bits : new int[] {8, 16})
+			{
+				final TestTiffs.Layout layout = new TestTiffs.Layout().bits(bits).imageJStack();
+				final short[] pixels = labels(rnd, dims, bits);
+				final Path file = dir.resolve("mask.tif");
+				TestTiffs.write(file, pixels, dims, layout);
+
+				//not all general readers know this extension of ImageJ, only the written pixels are compared
+				final long[] readDims = new long[3];
+				assertArrayEquals(layout.toString(), pixels, reader.readPixels(file, readDims));
+				assertArrayEquals(layout.toString(), dims, readDims);
+			}
+		}
+		finally {
+			delete(dir);
+		}
+	}
+
+	/** noise does not compress, the LZW table gets full and is cleared several times */
+	@Test
+	public void largeNoisyImage()
+	throws IOException
+	{
+		final Path dir = Files.createTempDirectory("ctc-tiff");
+		final Random rnd = new Random(3600);
+		final long[] dims = {300, 200, 2};
+		final short[] pixels = new short[300*200*2];
+		for (int i = 0; i < pixels.length; ++i) pixels[i] = (short)rnd.nextInt(65536);
+		try (TiffLabelReader reader = new TiffLabelReader(4))
+		{
+			for (int compression : COMPRESSIONS)
+			{
+				final TestTiffs.Layout layout = new TestTiffs.Layout().compression(compression).strips(64);
+				final Path file = dir.resolve("mask.tif");
+				TestTiffs.write(file, pixels, dims, layout);
+				assertReads(reader, file, pixels, dims, layout.toString());
+			}
+		}
+		finally {
+			delete(dir);
+		}
+	}
+
+	@Test
+	public void readsOnlyTheGivenSlices()
+	throws IOException
+	{
+		final Path dir = Files.createTempDirectory("ctc-tiff");
+		final Random rnd = new Random(36000);
+		final long[] dims = {37, 29, 5};
+		final int sliceSize = 37*29;
+		try (TiffLabelReader reader = new TiffLabelReader(2))
+		{
+			for (TestTiffs.Layout layout : new TestTiffs.Layout[] {
+					new TestTiffs.Layout(),
+					new TestTiffs.Layout().compression(TiffLabelReader.COMPRESSION_LZW).predictor().tiles(16),
+					new TestTiffs.Layout().bits(8).compression(TiffLabelReader.COMPRESSION_PACKBITS).strips(4),
+					new TestTiffs.Layout().imageJStack() })
+			{
+				final short[] pixels = labels(rnd, dims, layout.bits);
+				final Path file = dir.resolve("man_seg.tif");
+				TestTiffs.write(file, pixels, dims, layout);
+
+				final long[] readDims = new long[3];
+				final int[] zPlanes = {4, 0, 2};
+				final short[][] slices = reader.readSlices(file, readDims, zPlanes);
+				assertArrayEquals(layout.toString(), dims, readDims);
+				assertEquals(zPlanes.length, slices.length);
+				for (int i = 0; i < zPlanes.length; ++i)
+				{
+					final short[] expected = new short[sliceSize];
+					System.arraycopy(pixels, zPlanes[i]*sliceSize, expected, 0, sliceSize);
+					assertArrayEquals(layout+", slice "+zPlanes[i], expected, slices[i]);
+				}
+
+				try {
+					reader.readSlices(file, readDims, new int[] {1, 5});
+					fail("no error for a slice that is not in the image");
+				}
+				catch (IOException e) {
+					assertTrue(e.getMessage(), e.getMessage().contains("there is no slice 5"));
+				}
+			}
+		}
+		finally {
+			delete(dir);
+		}
+	}
+
+	@Test
+	public void cycleOfIfdsIsRefused()
+	throws IOException
+	{
+		final Path dir = Files.createTempDirectory("ctc-tiff");
+		final long[] dims = {37, 29, 3};
+		try (TiffLabelReader reader = new TiffLabelReader(2))
+		{
+			final Path file = dir.resolve("mask.tif");
+			TestTiffs.write(file, labels(new Random(3), dims, 16), dims);
+
+			//the last IFD points back to the second one
+			final ByteBuffer b = ByteBuffer.wrap(Files.readAllBytes(file)).order(ByteOrder.LITTLE_ENDIAN);
+			final List<Integer> ifds = new ArrayList<>();
+			for (int ifd = b.getInt(4); ifd != 0; ifd = b.getInt(ifd + 2 + 12*b.getShort(ifd))) ifds.add(ifd);
+			assertEquals(3, ifds.size());
+			final int last = ifds.get(2);
+			b.putInt(last + 2 + 12*b.getShort(last), ifds.get(1));
+			Files.write(file, b.array());
+
+			try {
+				reader.read(file);
+				fail("no error for the cycle");
+			}
+			catch (TiffLabelReader.UnsupportedTiffException e) {
+				assertTrue(e.getMessage(), e.getMessage().contains("cycle"));
+			}
+		}
+		finally {
+			delete(dir);
+		}
+	}
+
+	/** the reading is started from the only thread of the pool that decodes for the reader */
+	@Test
+	public void readsFromWorkerThread()
+	throws Exception
+	{
+		final Path dir = Files.createTempDirectory("ctc-tiff");
+		final long[] dims = {37, 29, 3};
+		final short[] pixels = labels(new Random(30), dims, 16);
+		final Path file = dir.resolve("mask.tif");
+		TestTiffs.write(file, pixels, dims, new TestTiffs.Layout().compression(TiffLabelReader.COMPRESSION_DEFLATE).strips(2));
+
+		final ExecutorService workers = Executors.newFixedThreadPool(1);
+		try (TiffLabelReader reader = new TiffLabelReader(workers, 4))
+		{
+			final Future<short[]> read = workers.submit(() -> reader.readPixels(file, new long[3]));
+			assertArrayEquals(pixels, read.get(30, TimeUnit.SECONDS));
+		}
+		catch (TimeoutException e) {
+			fail("the reading waits for the workers that are busy with the reading itself");
+		}
+		finally {
+			workers.shutdownNow();
+			delete(dir);
+		}
+	}
+
+
+	static void assertReads(final TiffLabelReader reader, final Path file,
+	                        final short[] pixels, final long[] dims, final String layout)
+	throws IOException
+	{
+		final long[] readDims = new long[3];
+		assertArrayEquals(layout, pixels, reader.readPixels(file, readDims));
+		assertEquals(layout, dims[0], readDims[0]);
+		assertEquals(layout, dims[1], readDims[1]);
+		assertEquals(layout, dims.length > 2 ? dims[2] : 1, readDims[2]);
+
+		final Img<UnsignedShortType> img = reader.read(file);
+		final Img<UnsignedShortType> general = new TrackDataCache(new StderrLogService()).ReadImageG16(file.toString());
+		assertEquals(layout, general.numDimensions(), img.numDimensions());
+		for (int d = 0; d < img.numDimensions(); ++d)
+			assertEquals(layout, general.dimension(d), img.dimension(d));
+		final Cursor<UnsignedShortType> c = Views.flatIterable(img).cursor();
+		final Cursor<UnsignedShortType> g = Views.flatIterable(general).cursor();
+		int i = 0;
+		while (c.hasNext())
+		{
+			final int val = c.next().get();
+			assertEquals(layout+", pixel "+i, g.next().get(), val);
+			assertEquals(layout+", pixel "+i, pixels[i++] & 0xffff, val);
+		}
+	}
+
+	/** boxes of labels, also of the largest value, on background with a few stray pixels */
+	static short[] labels(final Random rnd, final long[] dims, final int bits)
+	{
+		final int w = (int)dims[0], h = (int)dims[1];
+		final int d = dims.length > 2 ? (int)dims[2] : 1;
+		final int maxLabel = (1 << bits) - 1;
+		final short[] pixels = new short[w*h*d];
+		for (int z = 0; z < d; ++z)
+		{
+			for (int n = 0; n < 6; ++n)
+			{
+				final int label = n == 0 ? maxLabel : 1 + rnd.nextInt(maxLabel);
+				final int x0 = rnd.nextInt(w), y0 = rnd.nextInt(h);
+				final int x1 = Math.min(w, x0 + 3 + rnd.nextInt(12)), y1 = Math.min(h, y0 + 3 + rnd.nextInt(12));
+				for (int y = y0; y < y1; ++y)
+					for (int x = x0; x < x1; ++x) pixels[(z*h + y)*w + x] = (short)label;
+			}
+			for (int n = 0; n < 20; ++n)
+				pixels[z*w*h + rnd.nextInt(w*h)] = (short)rnd.nextInt(maxLabel+1);
+		}
+		return pixels;
+	}
+
+	static void delete(final Path dir)
+	throws IOException
+	{
+		try (Stream<Path> files = Files.walk(dir)) {
+			files.sorted(Comparator.reverseOrder()).forEach(f -> f.toFile().delete());
+		}
+	}
+}
@@ -0,0 +1,292 @@
+/*-
+ * #%L
+ * CTC-Fiji-plugins
+ * %%
+ * Copyright (C) 2017 - 2023 Vladimír Ulman
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package net.celltrackingchallenge.fiji.plugins.util;
+
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import net.celltrackingchallenge.fiji.plugins.io.FrameSourceTrackDataCache;
+import net.celltrackingchallenge.fiji.plugins.io.FrameSources;
+import net.celltrackingchallenge.fiji.plugins.io.TestTiffs;
+import net.celltrackingchallenge.measures.TRA;
+import net.celltrackingchallenge.measures.TrackDataCache;
+import org.scijava.log.StderrLogService;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.stream.Stream;
+
+/**
+ * Checks the error counts on hand-made levels with known errors, and
+ * the TRA from them against the TRA of CTC-measures on the same data.
+ */
+public class AOGMerrorCountsTest
+{
+	/**
+	 * GT: track 1 (t=0..2) divides into 2 and 3 (t=3..4), track 4 (t=0..4),
+	 * and track 5 (t=2) next to 4; RES: 10 follows 1 and divides into 11
+	 * (follows 2) and 12 (follows 3 only at t=3, and without the link to 10),
+	 * 20 covers 4 and at t=2 also 5, 21 follows 4 at t=4 as a daughter of 20,
+	 * and 30 (t=4) matches nothing.
+	 */
+	static final String[] GT_LINEAGE = { "1 0 2 0", "2 3 4 1", "3 3 4 1", "4 0 4 0", "5 2 2 0" };
+	static final String[] RES_LINEAGE = { "10 0 2 0", "11 3 4 10", "12 3 3 0", "20 0 3 0", "21 4 4 20", "30 4 4 0" };
+
+	/** per timepoint: pairs {GT label, RES label matching it (or 0)}, and the RES labels */
+	static final int[][][] MATCHES = {
+		{ {1,10}, {4,20} },
+		{ {1,10}, {4,20} },
+		{ {1,10}, {4,20}, {5,20} },
+		{ {2,11}, {3,12}, {4,20} },
+		{ {2,11}, {3,0}, {4,21} } };
+	static final int[][] RES_LABELS = { {10,20}, {10,20}, {10,20}, {11,12,20}, {11,21,30} };
+
+	@Test
+	public void knownErrors()
+	throws IOException
+	{
+		final AOGMerrorCounts c = countFor(0, false);
+		assertEquals(1, c.counts[AOGMerrorCounts.NS]);
+		assertEquals(1, c.counts[AOGMerrorCounts.FN]);
+		assertEquals(1, c.counts[AOGMerrorCounts.FP]);
+		assertEquals(2, c.counts[AOGMerrorCounts.ED]);
+		assertEquals(4, c.counts[AOGMerrorCounts.EA]);
+		assertEquals(1, c.counts[AOGMerrorCounts.EC]);
+		assertEquals(13, c.gtVertices);
+		assertEquals(10, c.gtEdges);
+
+		final double aogm = 5*1 + 10*1 + 1*1 + 1*2 + 1.5*4 + 1*1;
+		final double aogmEmpty = 10*13 + 1.5*10;
+		assertEquals(aogm, c.aogm(AOGMerrorCounts.CTC_PENALTY), 1e-9);
+		assertEquals(aogmEmpty, c.aogmEmpty(AOGMerrorCounts.CTC_PENALTY), 1e-9);
+		assertEquals(1.0 - aogm/aogmEmpty, c.tra(AOGMerrorCounts.CTC_PENALTY), 1e-9);
+	}
+
+	@Test
+	public void levelsAreFoundByTheirTimepoints()
+	throws IOException
+	{
+		final AOGMerrorCounts expected = countFor(0, false);
+		for (int offset : new int[] {0, 1, 7})
+			for (boolean reversed : new boolean[] {false, true})
+			{
+				final AOGMerrorCounts c = countFor(offset, reversed);
+				assertEquals("offset "+offset+(reversed ? ", reversed" : ""),
+						Arrays.toString(expected.counts), Arrays.toString(c.counts));
+				assertEquals(expected.gtVertices, c.gtVertices);
+				assertEquals(expected.gtEdges, c.gtEdges);
+			}
+	}
+
+	/**
+	 * Images with a division, a merge of the two daughters (NS), a missing
+	 * cell (FN) and an extra cell (FP); the TRA and AOGM from the counts must
+	 * equal those of CTC-measures.
+	 */
+	@Test
+	public void sameAsTraOfCtcMeasures()
+	throws IOException
+	{
+		final Path dir = Files.createTempDirectory("ctc-aogm");
+		final String[] paths = writeVideo(dir);
+		final StderrLogService log = new StderrLogService();
+		try (FrameSources sources = new FrameSources(log, 2, 1))
+		{
+			final FrameSourceTrackDataCache cache = FrameSourceTrackDataCache.calculateFor(paths[0], paths[1], 3, false, log, sources);
+			final AOGMerrorCounts c = AOGMerrorCounts.count(cache, null);
+			assertTrue(c.tra(AOGMerrorCounts.CTC_PENALTY) < 1.0);
+
+			final TRA tra = new TRA(log);
+			assertEquals(tra.calculate(paths[0], paths[1], cache), c.tra(AOGMerrorCounts.CTC_PENALTY), 1e-9);
+			tra.doAOGM = true;
+			assertEquals(tra.calculate(paths[0], paths[1], cache), c.aogm(AOGMerrorCounts.CTC_PENALTY), 1e-9);
+		}
+		finally
+		{
+			delete(dir);
+		}
+	}
+
+
+	/**
+	 * The AOGM and TRA of two penalty presets from the one set of counts, as
+	 * the sweep of plugin_AOGMmeasure reports them, must equal those of
+	 * CTC-measures calculated with each of the presets.
+	 */
+	@Test
+	public void sweepSameAsTraOfCtcMeasures()
+	throws IOException
+	{
+		final double[][] presets = { {5.0, 10.0, 1.0, 1.0, 1.5, 1.0}, {2.0, 3.0, 0.5, 7.0, 0.25, 4.0} };
+		final Path dir = Files.createTempDirectory("ctc-aogm");
+		final String[] paths = writeVideo(dir);
+		final StderrLogService log = new StderrLogService();
+		try (FrameSources sources = new FrameSources(log, 2, 1))
+		{
+			final FrameSourceTrackDataCache cache = FrameSourceTrackDataCache.calculateFor(paths[0], paths[1], 3, false, log, sources);
+			final AOGMerrorCounts c = AOGMerrorCounts.count(cache, null);
+			assertTrue(Math.abs(c.aogm(presets[0]) - c.aogm(presets[1])) > 1.0);
+
+			final TRA tra = new TRA(log);
+			for (double[] p : presets)
+			{
+				tra.penalty = tra.new PenaltyConfig(p[0],p[1],p[2],p[3],p[4],p[5]);
+				tra.doAOGM = true;
+				assertEquals(tra.calculate(paths[0], paths[1], cache), c.aogm(p), 1e-9);
+				tra.doAOGM = false;
+				assertEquals(tra.calculate(paths[0], paths[1], cache), c.tra(p), 1e-9);
+			}
+		}
+		finally
+		{
+			delete(dir);
+		}
+	}
+
+
+	/** the levels and lineages of the scenario above, starting at the given timepoint */
+	static AOGMerrorCounts countFor(final int offset, final boolean reversed)
+	throws IOException
+	{ return countFor(offset, reversed, null); }
+
+	static AOGMerrorCounts countFor(final int offset, final boolean reversed, final AOGMerrorTables tables)
+	throws IOException
+	{
+		final FrameSourceTrackDataCache cache = new FrameSourceTrackDataCache(new StderrLogService(), null);
+		final List<TrackDataCache.TemporalLevel> levels = new ArrayList<>();
+		for (int t = 0; t < MATCHES.length; ++t)
+			levels.add(level(cache, offset+t, MATCHES[t], RES_LABELS[t]));
+		if (reversed) Collections.reverse(levels);
+		cache.levels.addAll(levels);
+
+		loadLineage(cache, cache.gt_tracks, GT_LINEAGE, offset);
+		loadLineage(cache, cache.res_tracks, RES_LINEAGE, offset);
+		return AOGMerrorCounts.count(cache, tables);
+	}
+
+	@SuppressWarnings("unchecked")
+	static TrackDataCache.TemporalLevel level(final TrackDataCache cache, final int time,
+	                                          final int[][] matches, final int[] resLabels)
+	{
+		final TrackDataCache.TemporalLevel level = cache.new TemporalLevel(time);
+		level.m_gt_lab = new int[matches.length];
+		level.m_gt_match = new int[matches.length];
+		level.m_res_lab = resLabels.clone();
+		level.m_res_match = new HashSet[resLabels.length];
+		for (int j = 0; j < resLabels.length; ++j) level.m_res_match[j] = new HashSet<>();
+
+		for (int i = 0; i < matches.length; ++i)
+		{
+			level.m_gt_lab[i] = matches[i][0];
+			level.m_gt_match[i] = -1;
+			for (int j = 0; j < resLabels.length; ++j)
+				if (resLabels[j] == matches[i][1])
+				{
+					level.m_gt_match[i] = j;
+					level.m_res_match[j].add(i);
+				}
+		}
+		return level;
+	}
+
+	static void loadLineage(final TrackDataCache cache, final java.util.Map<Integer,TrackDataCache.Track> tracks,
+	                        final String[] lines, final int offset)
+	throws IOException
+	{
+		final List<String> shifted = new ArrayList<>();
+		for (String line : lines)
+		{
+			final String[] f = line.split(" ");
+			shifted.add(f[0]+" "+(Integer.parseInt(f[1])+offset)+" "+(Integer.parseInt(f[2])+offset)+" "+f[3]);
+		}
+		final Path file = Files.createTempFile("ctc-lineage", ".txt");
+		try {
+			Files.write(file, shifted);
+			cache.LoadTrackFile(file.toString(), tracks);
+		}
+		finally {
+			Files.delete(file);
+		}
+	}
+
+	static final long[] DIMS = {40, 30};
+
+	/** writes the GT and RES folders of the images scenario, returns their paths */
+	static String[] writeVideo(final Path dir)
+	throws IOException
+	{
+		//{label, x, y, half-size}
+		final int[][][] gt = {
+			{ {1,8,8,3}, {2,28,8,3} },
+			{ {1,9,9,3}, {2,29,9,3} },
+			{ {3,6,20,3}, {4,14,20,3}, {2,30,10,3} },
+			{ {3,6,21,3}, {4,14,21,3}, {2,30,11,3} } };
+		final int[][][] res = {
+			{ {1,8,8,3}, {2,28,8,3} },
+			{ {1,9,9,3}, {2,29,9,3} },
+			{ {5,10,20,7}, {2,30,10,3} },
+			{ {3,6,21,3}, {4,14,21,3}, {9,25,25,2} } };
+		final Path gtDir = dir.resolve("GT"), resDir = dir.resolve("RES");
+		for (int t = 0; t < gt.length; ++t)
+		{
+			TestTiffs.write(gtDir.resolve("TRA").resolve(String.format("man_track%03d.tif", t)), draw(gt[t]), DIMS);
+			TestTiffs.write(resDir.resolve(String.format("mask%03d.tif", t)), draw(res[t]), DIMS);
+		}
+		Files.write(gtDir.resolve("TRA").resolve("man_track.txt"), Arrays.asList("1 0 1 0", "2 0 3 0", "3 2 3 1", "4 2 3 1"));
+		Files.write(resDir.resolve("res_track.txt"), Arrays.asList("1 0 1 0", "2 0 2 0", "5 2 2 1", "3 3 3 5", "4 3 3 5", "9 3 3 0"));
+		return new String[] { gtDir.toString(), resDir.toString() };
+	}
+
+	static short[] draw(final int[][] cells)
+	{
+		final int w = (int)DIMS[0], h = (int)DIMS[1];
+		final short[] pixels = new short[w*h];
+		for (int[] c : cells)
+			for (int y = Math.max(0, c[2]-c[3]); y <= Math.min(h-1, c[2]+c[3]); ++y)
+				for (int x = Math.max(0, c[1]-c[3]); x <= Math.min(w-1, c[1]+c[3]); ++x)
+					pixels[y*w + x] = (short)c[0];
+		return pixels;
+	}
+
+	static void delete(final Path dir)
+	throws IOException
+	{
+		try (Stream<Path> files = Files.walk(dir)) {
+			files.sorted(Comparator.reverseOrder()).forEach(f -> f.toFile().delete());
+		}
+	}
+}
@@ -0,0 +1,150 @@
+/*-
+ * #%L
+ * CTC-Fiji-plugins
+ * %%
+ * Copyright (C) 2017 - 2023 Vladimír Ulman
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package net.celltrackingchallenge.fiji.plugins.util;
+
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.TreeSet;
+
+/**
+ * Checks the lists of errors of the scenario of AOGMerrorCountsTest,
+ * and that they are saved completely in both formats.
+ */
+public class AOGMerrorTablesTest
+{
+	@Test
+	public void listsTheKnownErrors()
+	throws IOException
+	{
+		final AOGMerrorTables tables = new AOGMerrorTables();
+		final AOGMerrorCounts c = AOGMerrorCountsTest.countFor(0, false, tables);
+
+		assertRows(tables, AOGMerrorCounts.NS, "2 20");
+		assertRows(tables, AOGMerrorCounts.FN, "4 3");
+		assertRows(tables, AOGMerrorCounts.FP, "4 30");
+		assertRows(tables, AOGMerrorCounts.ED, "1 20 2 20", "2 20 3 20");
+		assertRows(tables, AOGMerrorCounts.EA, "1 4 2 4", "2 1 3 3", "2 4 3 4", "3 3 4 3");
+		assertRows(tables, AOGMerrorCounts.EC, "3 20 4 21");
+
+		//no split into more than two here, so every error is one row
+		for (int cat = 0; cat < 6; ++cat)
+			assertEquals(AOGMerrorCounts.NAMES[cat], c.counts[cat], tables.getTable(cat).size());
+	}
+
+	@Test
+	public void timepointsOfTheLevels()
+	throws IOException
+	{
+		final AOGMerrorTables tables = new AOGMerrorTables();
+		AOGMerrorCountsTest.countFor(5, true, tables);
+		assertRows(tables, AOGMerrorCounts.NS, "7 20");
+		assertRows(tables, AOGMerrorCounts.EC, "8 20 9 21");
+	}
+
+	@Test
+	public void savesAsCSV()
+	throws IOException
+	{
+		final AOGMerrorTables tables = new AOGMerrorTables();
+		AOGMerrorCountsTest.countFor(0, false, tables);
+
+		final Path file = Files.createTempFile("ctc-aogm", ".csv");
+		try {
+			tables.save(file);
+			final List<String> lines = Files.readAllLines(file, StandardCharsets.UTF_8);
+			assertEquals("category,time,label,time2,label2", lines.get(0));
+			assertEquals(1+1+1+1+2+4+1, lines.size());
+			final List<String> rows = new ArrayList<>(lines.subList(1, lines.size()));
+			Collections.sort(rows);
+			assertEquals(Arrays.asList("EA,1,4,2,4", "EA,2,1,3,3", "EA,2,4,3,4", "EA,3,3,4,3",
+					"EC,3,20,4,21", "ED,1,20,2,20", "ED,2,20,3,20", "FN,4,3,,", "FP,4,30,,", "NS,2,20,,"), rows);
+		}
+		finally {
+			Files.delete(file);
+		}
+	}
+
+	@Test
+	public void savesAsBinary()
+	throws IOException
+	{
+		final AOGMerrorTables tables = new AOGMerrorTables();
+		AOGMerrorCountsTest.countFor(0, false, tables);
+
+		final Path file = Files.createTempFile("ctc-aogm", ".bin");
+		try {
+			tables.save(file);
+			final ByteBuffer b = ByteBuffer.wrap(Files.readAllBytes(file)).order(ByteOrder.LITTLE_ENDIAN);
+			final byte[] magic = new byte[8];
+			b.get(magic);
+			assertEquals("CTCAOGME", new String(magic, StandardCharsets.US_ASCII));
+			assertEquals(6, b.getInt());
+			for (int cat = 0; cat < 6; ++cat)
+			{
+				final AOGMerrorTables.IntTable t = tables.getTable(cat);
+				assertEquals(t.width, b.getInt());
+				assertEquals(t.size(), b.getInt());
+				for (int r = 0; r < t.size(); ++r)
+					for (int col = 0; col < t.width; ++col)
+						assertEquals(t.get(r,col), b.getInt());
+			}
+			assertEquals(0, b.remaining());
+		}
+		finally {
+			Files.delete(file);
+		}
+	}
+
+
+	/** compares the rows, regardless of their order, given as space-separated values */
+	static void assertRows(final AOGMerrorTables tables, final int category, final String... rows)
+	{
+		final AOGMerrorTables.IntTable t = tables.getTable(category);
+		final TreeSet<String> actual = new TreeSet<>();
+		for (int r = 0; r < t.size(); ++r)
+		{
+			final StringBuilder sb = new StringBuilder();
+			for (int col = 0; col < t.width; ++col) sb.append(col > 0 ? " " : "").append(t.get(r,col));
+			actual.add(sb.toString());
+		}
+		assertEquals(AOGMerrorCounts.NAMES[category], new TreeSet<>(Arrays.asList(rows)), actual);
+		assertEquals(AOGMerrorCounts.NAMES[category], rows.length, t.size());
+	}
+}
@@ -0,0 +1,166 @@
+/*-
+ * #%L
+ * CTC-Fiji-plugins
+ * %%
+ * Copyright (C) 2017 - 2023 Vladimír Ulman
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package net.celltrackingchallenge.fiji.plugins.util;
+
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.scijava.log.DefaultLogger;
+import org.scijava.log.LogLevel;
+import org.scijava.log.LogMessage;
+import org.scijava.log.LogSource;
+import org.scijava.log.Logger;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Checks that the cap of lines applies to the report lines, that the measure
+ * is never blocked when the writer is behind, and that the summary and the last
+ * not written lines come at the end.
+ */
+public class AsyncLogSinkTest
+{
+	@Test
+	public void capOfLinesIntoFile()
+	throws IOException
+	{
+		final List<String> log = Collections.synchronizedList(new ArrayList<>());
+		final Path file = Files.createTempFile("ctc-reports", ".txt");
+		try
+		{
+			try (AsyncLogSink sink = new AsyncLogSink(collectingLogger(log, null), file, 1000, 10))
+			{
+				final Logger reports = sink.getLogger();
+				for (int i = 0; i < 100; ++i) reports.info("line "+i);
+				reports.warn("a warning");
+				reports.info("result");
+				assertEquals(91, sink.getNoOfSuppressedLines());
+				assertEquals(0, sink.getNoOfDroppedLines());
+			}
+
+			final List<String> lines = Files.readAllLines(file, StandardCharsets.UTF_8);
+			assertEquals(10 + 1 + 1 + AsyncLogSink.TAIL_SIZE, lines.size());
+			for (int i = 0; i < 10; ++i) assertEquals("line "+i, lines.get(i));
+			assertEquals("a warning", lines.get(10));
+			assertTrue(lines.get(11), lines.get(11).startsWith("Verbose report was shortened: 91 lines beyond the cap of 10 lines"));
+			for (int i = 0; i < AsyncLogSink.TAIL_SIZE-1; ++i)
+				assertEquals("line "+(100-AsyncLogSink.TAIL_SIZE+1+i), lines.get(12+i));
+			assertEquals("result", lines.get(lines.size()-1));
+
+			//the original logger got only the warning and the summary
+			assertEquals(2, log.size());
+			assertEquals("a warning", log.get(0));
+			assertEquals(lines.get(11), log.get(1));
+		}
+		finally
+		{
+			Files.delete(file);
+		}
+	}
+
+	@Test
+	public void capOfLinesIntoLog()
+	throws IOException
+	{
+		final List<String> log = Collections.synchronizedList(new ArrayList<>());
+		try (AsyncLogSink sink = new AsyncLogSink(collectingLogger(log, null), null, 1000, 5))
+		{
+			for (int i = 0; i < 8; ++i) sink.getLogger().info("line "+i);
+		}
+		assertEquals(5 + 1 + 3, log.size());
+		assertTrue(log.get(5), log.get(5).startsWith("Verbose report was shortened: 3 lines beyond the cap of 5 lines"));
+		assertEquals("line 7", log.get(8));
+	}
+
+	@Test
+	public void noLimit()
+	throws IOException
+	{
+		final List<String> log = Collections.synchronizedList(new ArrayList<>());
+		try (AsyncLogSink sink = new AsyncLogSink(collectingLogger(log, null), null, 1 << 12, 0))
+		{
+			for (int i = 0; i < 3000; ++i) sink.getLogger().info("line "+i);
+		}
+		assertEquals(3000, log.size());
+		assertEquals("line 2999", log.get(2999));
+	}
+
+	/**
+	 * The original logger blocks, so does the writer thread then, and the
+	 * measure must nevertheless log all its lines without waiting.
+	 */
+	@Test
+	public void neverBlocksWhenWriterIsBehind()
+	throws Exception
+	{
+		final List<String> log = Collections.synchronizedList(new ArrayList<>());
+		final CountDownLatch release = new CountDownLatch(1);
+		final AsyncLogSink sink = new AsyncLogSink(collectingLogger(log, release), null, 4, 0);
+
+		final Thread measure = new Thread(() -> {
+			for (int i = 0; i < 100; ++i) sink.getLogger().info("line "+i);
+		});
+		measure.start();
+		measure.join(TimeUnit.SECONDS.toMillis(10));
+		final boolean wasBlocked = measure.isAlive();
+		release.countDown();
+		sink.close();
+		assertTrue("the measure was blocked", !wasBlocked);
+
+		final long dropped = sink.getNoOfDroppedLines();
+		assertTrue(dropped > 0);
+		final int written = (int)(100 - dropped);
+		assertEquals(written + 1 + Math.min(dropped, AsyncLogSink.TAIL_SIZE), log.size());
+		assertTrue(log.get(written), log.get(written).startsWith("Verbose report was shortened: "+dropped+" lines"));
+		assertEquals("line 99", log.get(log.size()-1));
+	}
+
+
+	/** a logger that collects what it is given, and that waits for the latch (if given) before that */
+	static Logger collectingLogger(final List<String> log, final CountDownLatch latch)
+	{
+		return new DefaultLogger((LogMessage m) -> {
+			if (latch != null)
+			{
+				try { latch.await(); }
+				catch (InterruptedException e) { Thread.currentThread().interrupt(); }
+			}
+			log.add(m.text());
+		}, LogSource.newRoot(), LogLevel.INFO);
+	}
+}
@@ -0,0 +1,95 @@
+/*-
+ * #%L
+ * CTC-Fiji-plugins
+ * %%
+ * Copyright (C) 2017 - 2023 Vladimír Ulman
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package net.celltrackingchallenge.fiji.plugins.util;
+
+import org.junit.Test;
+import static org.junit.Assert.assertArrayEquals;
+
+import java.util.Random;
+
+/**
+ * Compares the background masks eroded with the distance transform with
+ * the brute-force erosion, which keeps only the pixels farther than the
+ * radius from every foreground pixel.
+ */
+public class BackgroundMaskTest
+{
+	@Test
+	public void matchesBruteForce2D()
+	{
+		final Random rnd = new Random(5);
+		final long[] dims = {45, 35};
+		for (int r = 0; r <= 6; r += 2)
+		{
+			final short[] fg = CellDensityTest.randomCells(rnd, dims, 6);
+			assertArrayEquals("radius "+r, bruteForce(fg, dims, r), BackgroundMask.of(fg, dims, r));
+		}
+	}
+
+	@Test
+	public void matchesBruteForce3D()
+	{
+		final Random rnd = new Random(6);
+		final long[] dims = {25, 20, 15};
+		for (int r = 1; r <= 5; r += 2)
+		{
+			final short[] fg = CellDensityTest.randomCells(rnd, dims, 5);
+			assertArrayEquals("radius "+r, bruteForce(fg, dims, r), BackgroundMask.of(fg, dims, r));
+		}
+	}
+
+	@Test
+	public void emptyForegroundIsAllBackground()
+	{
+		final long[] dims = {10, 10};
+		final short[] all = new short[100];
+		java.util.Arrays.fill(all, (short)1);
+		assertArrayEquals(all, BackgroundMask.of(new short[100], dims, 3));
+	}
+
+
+	static short[] bruteForce(final short[] fg, final long[] dims, final int radius)
+	{
+		final int w = (int)dims[0], h = (int)dims[1];
+		final short[] bg = new short[fg.length];
+		for (int i = 0; i < fg.length; ++i)
+		{
+			final int xi = i % w, yi = i / w % h, zi = i / (w*h);
+			boolean far = true;
+			for (int j = 0; j < fg.length && far; ++j)
+			{
+				if (fg[j] == 0) continue;
+				final int dx = xi - j % w, dy = yi - j / w % h, dz = zi - j / (w*h);
+				if (dx*dx + dy*dy + dz*dz <= radius*radius) far = false;
+			}
+			bg[i] = (short)(far ? 1 : 0);
+		}
+		return bg;
+	}
+}
@@ -0,0 +1,171 @@
+/*-
+ * #%L
+ * CTC-Fiji-plugins
+ * %%
+ * Copyright (C) 2017 - 2023 Vladimír Ulman
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package net.celltrackingchallenge.fiji.plugins.util;
+
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Compares the grid-indexed search of the built-in Spa with the brute-force
+ * search over all pairs of pixels of different cells.
+ */
+public class CellDensityTest
+{
+	@Test
+	public void matchesBruteForce2D() throws Exception
+	{
+		final Random rnd = new Random(42);
+		for (int run = 0; run < 5; ++run)
+		{
+			final long[] dims = {70, 50};
+			final short[] labels = randomCells(rnd, dims, 12);
+			assertMatches(labels, dims, new double[] {1.0, 1.0, 1.0});
+		}
+	}
+
+	@Test
+	public void matchesBruteForce3D() throws Exception
+	{
+		final Random rnd = new Random(7);
+		for (int run = 0; run < 3; ++run)
+		{
+			final long[] dims = {30, 25, 20};
+			final short[] labels = randomCells(rnd, dims, 8);
+			assertMatches(labels, dims, new double[] {1.0, 1.0, 1.0});
+		}
+	}
+
+	@Test
+	public void matchesBruteForceAnisotropic() throws Exception
+	{
+		final Random rnd = new Random(3);
+		for (int run = 0; run < 3; ++run)
+		{
+			final long[] dims = {40, 30, 12};
+			final short[] labels = randomCells(rnd, dims, 8);
+			assertMatches(labels, dims, new double[] {0.5, 0.7, 2.0});
+		}
+	}
+
+	@Test
+	public void singleCellHasNoNeighbour() throws Exception
+	{
+		final long[] dims = {20, 20};
+		final short[] labels = new short[400];
+		labels[5*20+5] = 1;
+
+		final ExecutorService workers = Executors.newFixedThreadPool(2);
+		try {
+			final CellDensity spa = new CellDensity(new double[] {1.0, 1.0, 1.0}, workers);
+			spa.addFrame(labels, dims);
+			assertEquals(0, spa.getNoOfCells());
+			assertEquals(-1.0, spa.getAverage(), 0.0);
+		}
+		finally {
+			workers.shutdownNow();
+		}
+	}
+
+
+	static void assertMatches(final short[] labels, final long[] dims, final double[] resolution)
+	throws Exception
+	{
+		final double[] expected = bruteForce(labels, dims, resolution);
+
+		final ExecutorService workers = Executors.newFixedThreadPool(3);
+		try {
+			final CellDensity spa = new CellDensity(resolution, workers);
+			spa.addFrame(labels, dims);
+			assertEquals("number of cells", (long)expected[1], spa.getNoOfCells());
+			assertEquals("average distance", expected[0], spa.getAverage(), 1e-9);
+		}
+		finally {
+			workers.shutdownNow();
+		}
+	}
+
+	/** returns the average distance to the nearest other cell, and the number of such cells */
+	static double[] bruteForce(final short[] labels, final long[] dims, final double[] resolution)
+	{
+		final int w = (int)dims[0], h = (int)dims[1], d = dims.length > 2 ? (int)dims[2] : 1;
+		final double sy = resolution[1]/resolution[0], sz = resolution[2]/resolution[0];
+
+		final double[] nearest = new double[1 << 16];
+		java.util.Arrays.fill(nearest, Double.POSITIVE_INFINITY);
+		final boolean[] present = new boolean[1 << 16];
+
+		for (int i = 0; i < labels.length; ++i)
+		{
+			final int li = labels[i] & 0xFFFF;
+			if (li == 0) continue;
+			present[li] = true;
+			final int xi = i % w, yi = i / w % h, zi = i / (w*h);
+			for (int j = 0; j < labels.length; ++j)
+			{
+				final int lj = labels[j] & 0xFFFF;
+				if (lj == 0 || lj == li) continue;
+				final double dx = xi - j % w, dy = (yi - j / w % h)*sy, dz = (zi - j / (w*h))*sz;
+				final double dist = Math.sqrt(dx*dx + dy*dy + dz*dz);
+				if (dist < nearest[li]) nearest[li] = dist;
+			}
+		}
+
+		double sum = 0;
+		int cnt = 0;
+		for (int l = 1; l < 1 << 16; ++l)
+			if (present[l] && nearest[l] < Double.POSITIVE_INFINITY)
+			{
+				sum += nearest[l];
+				++cnt;
+			}
+		return new double[] { cnt > 0 ? sum / cnt : -1, cnt };
+	}
+
+	/** random boxes, later ones overwrite the earlier ones */
+	static short[] randomCells(final Random rnd, final long[] dims, final int noOfCells)
+	{
+		final int w = (int)dims[0], h = (int)dims[1], d = dims.length > 2 ? (int)dims[2] : 1;
+		final short[] labels = new short[w*h*d];
+		for (int c = 1; c <= noOfCells; ++c)
+		{
+			final int x0 = rnd.nextInt(w), y0 = rnd.nextInt(h), z0 = rnd.nextInt(d);
+			final int x1 = Math.min(w, x0+1+rnd.nextInt(6));
+			final int y1 = Math.min(h, y0+1+rnd.nextInt(6));
+			final int z1 = Math.min(d, z0+1+rnd.nextInt(4));
+			for (int z = z0; z < z1; ++z)
+				for (int y = y0; y < y1; ++y)
+					for (int x = x0; x < x1; ++x) labels[(z*h + y)*w + x] = (short)c;
+		}
+		return labels;
+	}
+}
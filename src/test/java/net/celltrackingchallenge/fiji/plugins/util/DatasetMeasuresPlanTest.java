@@ -0,0 +1,93 @@
+/*-
+ * #%L
+ * CTC-Fiji-plugins
+ * %%
+ * Copyright (C) 2017 - 2023 Vladimír Ulman
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package net.celltrackingchallenge.fiji.plugins.util;
+
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import net.celltrackingchallenge.fiji.plugins.util.DatasetMeasuresPlan.Feature;
+import net.celltrackingchallenge.fiji.plugins.util.DatasetMeasuresPlan.Measure;
+
+import java.util.EnumSet;
+
+/**
+ * Checks that the plan of the built-in dataset measures reads only
+ * the inputs that the selected measures are finished from.
+ */
+public class DatasetMeasuresPlanTest
+{
+	@Test
+	public void mitReadsOnlyTheLineage()
+	{
+		final DatasetMeasuresPlan p = DatasetMeasuresPlan.of(EnumSet.of(Measure.MIT));
+		assertEquals(EnumSet.of(Feature.LINEAGE), needed(p));
+	}
+
+	@Test
+	public void resReadsOnlyTheMasks()
+	{
+		final DatasetMeasuresPlan p = DatasetMeasuresPlan.of(EnumSet.of(Measure.RES));
+		assertEquals(EnumSet.of(Feature.CELL_SIZES, Feature.TRA_MASKS), needed(p));
+	}
+
+	@Test
+	public void chaReadsTheRawImagesAndBackground()
+	{
+		final DatasetMeasuresPlan p = DatasetMeasuresPlan.of(EnumSet.of(Measure.CHA));
+		assertTrue(p.needs(Feature.RAW_IMAGES));
+		assertTrue(p.needs(Feature.BG_MASKS));
+		assertTrue(p.needs(Feature.CONSECUTIVE_OVERLAPS));
+		assertFalse(p.needs(Feature.LINEAGE));
+		assertFalse(p.needs(Feature.CELL_SHAPES));
+	}
+
+	@Test
+	public void planIsTheUnionOfTheMeasures()
+	{
+		final DatasetMeasuresPlan p = DatasetMeasuresPlan.of(EnumSet.of(Measure.SPA, Measure.OVE, Measure.MIT));
+		assertEquals(EnumSet.of(Feature.CELL_DISTANCES, Feature.CONSECUTIVE_OVERLAPS,
+				Feature.TRA_MASKS, Feature.LINEAGE), needed(p));
+	}
+
+	@Test
+	public void nothingIsNeededForNoMeasure()
+	{
+		assertEquals(EnumSet.noneOf(Feature.class), needed(DatasetMeasuresPlan.of(EnumSet.noneOf(Measure.class))));
+	}
+
+
+	static EnumSet<Feature> needed(final DatasetMeasuresPlan p)
+	{
+		final EnumSet<Feature> s = EnumSet.noneOf(Feature.class);
+		for (Feature f : Feature.values()) if (p.needs(f)) s.add(f);
+		return s;
+	}
+}
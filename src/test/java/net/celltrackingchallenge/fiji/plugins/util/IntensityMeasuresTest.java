@@ -0,0 +1,182 @@
+/*-
+ * #%L
+ * CTC-Fiji-plugins
+ * %%
+ * Copyright (C) 2017 - 2023 Vladimír Ulman
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package net.celltrackingchallenge.fiji.plugins.util;
+
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+
+import net.celltrackingchallenge.fiji.plugins.io.RawImageReader.RawFrame;
+
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Compares SNR, CR, Heti and Hetb of the built-in one-scan calculation with
+ * the values computed with the two-pass mean and standard deviation, for all
+ * raw pixel types and with the frame split into several slabs.
+ */
+public class IntensityMeasuresTest
+{
+	static final int W = 300, H = 250, D = 3, T = 2;
+
+	@Test
+	public void matchesDefinitionsOn8bit() throws Exception
+	{
+		assertMatches('B');
+	}
+
+	@Test
+	public void matchesDefinitionsOn16bit() throws Exception
+	{
+		assertMatches('S');
+	}
+
+	@Test
+	public void matchesDefinitionsOn32bit() throws Exception
+	{
+		assertMatches('F');
+	}
+
+
+	static void assertMatches(final char type) throws Exception
+	{
+		final Random rnd = new Random(type);
+		final IntensityMeasures built = new IntensityMeasures();
+		double snrSum = 0, crSum = 0, hetiSum = 0, hetbSum = 0;
+		int snrCnt = 0, crCnt = 0, hetiCnt = 0, hetbCnt = 0;
+
+		final ExecutorService workers = Executors.newFixedThreadPool(3);
+		try {
+			for (int t = 0; t < T; ++t)
+			{
+				final short[] labels = CellDensityTest.randomCells(rnd, new long[] {W,H,D}, 40);
+				final short[] bg = new short[labels.length];
+				final double[] raw = new double[labels.length];
+				for (int i = 0; i < raw.length; ++i)
+				{
+					bg[i] = (short)(labels[i] == 0 ? 1 : 0);
+					final int base = labels[i] != 0 ? 100 + 3*(labels[i] & 0xFFFF) : 20;
+					raw[i] = type == 'F' ? base + 30.0*rnd.nextDouble() : base + rnd.nextInt(30);
+				}
+
+				final FrameIntensities f = new FrameIntensities();
+				f.add(rawFrame(raw, type), labels, bg, workers, 3);
+				built.addFrame(f);
+
+				//the same from the definitions
+				final double avgBG = mean(raw, bg, 1), stdBG = std(raw, bg, 1, avgBG);
+				double avgOfCells = 0;
+				int noOfCells = 0;
+				final double[] avgFG = new double[1 << 16];
+				for (int l = 1; l < 1 << 16; ++l)
+				{
+					if (TemporalMeasuresTest.count(labels, l) == 0) continue;
+					avgFG[l] = mean(raw, labels, l);
+					final double signal = Math.abs(avgFG[l] - avgBG);
+					snrSum += signal / stdBG;  ++snrCnt;
+					crSum += avgFG[l] / avgBG; ++crCnt;
+					hetiSum += std(raw, labels, l, avgFG[l]) / signal; ++hetiCnt;
+					avgOfCells += avgFG[l];
+					++noOfCells;
+				}
+				avgOfCells /= noOfCells;
+				double varOfCells = 0;
+				for (int l = 1; l < 1 << 16; ++l)
+					if (avgFG[l] != 0) varOfCells += (avgFG[l] - avgOfCells)*(avgFG[l] - avgOfCells);
+				hetbSum += Math.sqrt(varOfCells / noOfCells) / Math.abs(avgOfCells - avgBG);
+				++hetbCnt;
+			}
+		}
+		finally {
+			workers.shutdownNow();
+		}
+
+		assertEquals("SNR",  snrSum / snrCnt,   built.getSNR(),  1e-9 * built.getSNR());
+		assertEquals("CR",   crSum / crCnt,     built.getCR(),   1e-9 * built.getCR());
+		assertEquals("Heti", hetiSum / hetiCnt, built.getHeti(), 1e-9 * built.getHeti());
+		assertEquals("Hetb", hetbSum / hetbCnt, built.getHetb(), 1e-9 * built.getHetb());
+	}
+
+	static RawFrame rawFrame(final double[] raw, final char type)
+	{
+		final Object[] slices = new Object[D];
+		for (int z = 0; z < D; ++z)
+		{
+			final int off = z*W*H;
+			if (type == 'B')
+			{
+				final byte[] s = new byte[W*H];
+				for (int i = 0; i < s.length; ++i) s[i] = (byte)raw[off+i];
+				slices[z] = s;
+			}
+			else if (type == 'S')
+			{
+				final short[] s = new short[W*H];
+				for (int i = 0; i < s.length; ++i) s[i] = (short)raw[off+i];
+				slices[z] = s;
+			}
+			else
+			{
+				final float[] s = new float[W*H];
+				for (int i = 0; i < s.length; ++i) s[i] = (float)raw[off+i];
+				slices[z] = s;
+			}
+		}
+		return new RawFrame(W,H, slices);
+	}
+
+	static double mean(final double[] raw, final short[] mask, final int label)
+	{
+		double sum = 0;
+		long n = 0;
+		for (int i = 0; i < raw.length; ++i)
+			if ((mask[i] & 0xFFFF) == label)
+			{
+				sum += (float)raw[i];
+				++n;
+			}
+		return sum / n;
+	}
+
+	/** the population standard deviation */
+	static double std(final double[] raw, final short[] mask, final int label, final double mean)
+	{
+		double sum = 0;
+		long n = 0;
+		for (int i = 0; i < raw.length; ++i)
+			if ((mask[i] & 0xFFFF) == label)
+			{
+				final double d = (float)raw[i] - mean;
+				sum += d*d;
+				++n;
+			}
+		return Math.sqrt(sum / n);
+	}
+}
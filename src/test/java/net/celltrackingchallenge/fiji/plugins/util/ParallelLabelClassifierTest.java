@@ -0,0 +1,182 @@
+/*-
+ * #%L
+ * CTC-Fiji-plugins
+ * %%
+ * Copyright (C) 2017 - 2023 Vladimír Ulman
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package net.celltrackingchallenge.fiji.plugins.util;
+
+import org.junit.Test;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import net.celltrackingchallenge.fiji.plugins.io.FrameSourceTrackDataCacheTest;
+import net.celltrackingchallenge.measures.TrackDataCache;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.img.array.ArrayImgs;
+import net.imglib2.type.numeric.integer.UnsignedShortType;
+import net.imglib2.view.Views;
+import org.scijava.log.StderrLogService;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Checks that the run-length sweep over the arrays (of ArrayImgs) and the
+ * sweep with cursors (of any other image, here views) give the same result,
+ * which is also the result of TrackDataCache.ClassifyLabels().
+ */
+public class ParallelLabelClassifierTest
+{
+	static final long[][] ALL_DIMS = { {64, 48}, {33, 17}, {20, 18, 9}, {31, 7, 13} };
+
+	@Test
+	public void arraysAndCursorsGiveTheSame()
+	{
+		final Random rnd = new Random(30);
+		try (ParallelLabelClassifier classifier = new ParallelLabelClassifier(4))
+		{
+			for (long[] dims : ALL_DIMS)
+				for (int i = 0; i < 3; ++i)
+				{
+					final short[][] pair = FrameSourceTrackDataCacheTest.randomGtAndRes(rnd, dims, 5 + rnd.nextInt(20));
+					final RandomAccessibleInterval<UnsignedShortType> gt = ArrayImgs.unsignedShorts(pair[0], dims);
+					final RandomAccessibleInterval<UnsignedShortType> res = ArrayImgs.unsignedShorts(pair[1], dims);
+					assertNull(ParallelLabelClassifier.shortArrayOf(Views.interval(gt, gt)));
+
+					final LabelOverlaps arrays = classifier.classify(gt, res);
+					assertSame(arrays, classifier.classify(Views.interval(gt, gt), Views.interval(res, res)));
+					assertSame(arrays, classifier.classify(gt, Views.interval(res, res)));
+					assertSame(arrays, classifier.classify(Views.interval(gt, gt), res));
+					assertSameAsTrackDataCache(gt, res, arrays);
+
+					//only the GT
+					final LabelOverlaps gtOnly = classifier.classify(gt, null);
+					assertArrayEquals(arrays.gtLabels, gtOnly.gtLabels);
+					assertArrayEquals(arrays.gtSizes, gtOnly.gtSizes);
+					assertSame(gtOnly, classifier.classify(Views.interval(gt, gt), null));
+				}
+		}
+	}
+
+	@Test
+	public void viewsWithOffset()
+	{
+		final Random rnd = new Random(300);
+		try (ParallelLabelClassifier classifier = new ParallelLabelClassifier(3))
+		{
+			for (long[] dims : ALL_DIMS)
+			{
+				final short[][] pair = FrameSourceTrackDataCacheTest.randomGtAndRes(rnd, dims, 15);
+				final RandomAccessibleInterval<UnsignedShortType> gt = ArrayImgs.unsignedShorts(pair[0], dims);
+				final RandomAccessibleInterval<UnsignedShortType> res = ArrayImgs.unsignedShorts(pair[1], dims);
+
+				//the inner part of the image, as a view and as a copy in an ArrayImg
+				final long[] min = new long[dims.length], max = new long[dims.length], cropDims = new long[dims.length];
+				for (int d = 0; d < dims.length; ++d)
+				{
+					min[d] = 1 + rnd.nextInt(3);
+					max[d] = dims[d] - 1 - rnd.nextInt(3);
+					cropDims[d] = max[d] - min[d] + 1;
+				}
+				final LabelOverlaps views = classifier.classify(Views.interval(gt, min, max), Views.interval(res, min, max));
+				final LabelOverlaps arrays = classifier.classify(ArrayImgs.unsignedShorts(crop(pair[0], dims, min, max), cropDims),
+				                                                 ArrayImgs.unsignedShorts(crop(pair[1], dims, min, max), cropDims));
+				assertSame(arrays, views);
+			}
+		}
+	}
+
+	@Test
+	public void resultDoesNotDependOnThreads()
+	{
+		final Random rnd = new Random(3000);
+		final long[] dims = {40, 30, 11};
+		final short[][] pair = FrameSourceTrackDataCacheTest.randomGtAndRes(rnd, dims, 30);
+		final RandomAccessibleInterval<UnsignedShortType> gt = ArrayImgs.unsignedShorts(pair[0], dims);
+		final RandomAccessibleInterval<UnsignedShortType> res = ArrayImgs.unsignedShorts(pair[1], dims);
+
+		final LabelOverlaps one;
+		try (ParallelLabelClassifier classifier = new ParallelLabelClassifier(1)) { one = classifier.classify(gt, res); }
+		for (int threads : new int[] {2, 5, 11, 16})
+			try (ParallelLabelClassifier classifier = new ParallelLabelClassifier(threads))
+			{
+				assertSame(one, classifier.classify(gt, res));
+				assertSame(one, classifier.classify(Views.interval(gt, gt), Views.interval(res, res)));
+			}
+	}
+
+
+	static void assertSame(final LabelOverlaps expected, final LabelOverlaps actual)
+	{
+		assertArrayEquals(expected.gtLabels, actual.gtLabels);
+		assertArrayEquals(expected.gtSizes, actual.gtSizes);
+		assertArrayEquals(expected.resLabels, actual.resLabels);
+		assertArrayEquals(expected.resSizes, actual.resSizes);
+		assertArrayEquals(expected.overlapGtLabels, actual.overlapGtLabels);
+		assertArrayEquals(expected.overlapResLabels, actual.overlapResLabels);
+		assertArrayEquals(expected.overlapSizes, actual.overlapSizes);
+	}
+
+	/** the same labels and the same matching as in the level of TrackDataCache */
+	static void assertSameAsTrackDataCache(final RandomAccessibleInterval<UnsignedShortType> gt,
+	                                       final RandomAccessibleInterval<UnsignedShortType> res,
+	                                       final LabelOverlaps o)
+	{
+		final TrackDataCache cache = new TrackDataCache(new StderrLogService());
+		cache.ClassifyLabels(Views.iterable(gt), res, false);
+		final TrackDataCache.TemporalLevel level = cache.levels.get(0);
+
+		final int[] gtLabels = level.m_gt_lab.clone();
+		Arrays.sort(gtLabels);
+		assertArrayEquals(gtLabels, o.gtLabels);
+		final int[] resLabels = level.m_res_lab.clone();
+		Arrays.sort(resLabels);
+		assertArrayEquals(resLabels, o.resLabels);
+
+		for (int i = 0; i < level.m_gt_lab.length; ++i)
+		{
+			final int match = level.m_gt_match[i] >= 0 ? level.m_res_lab[ level.m_gt_match[i] ] : 0;
+			assertEquals("match of GT label "+level.m_gt_lab[i], match, o.matchOfGt(level.m_gt_lab[i]));
+		}
+	}
+
+	static short[] crop(final short[] pixels, final long[] dims, final long[] min, final long[] max)
+	{
+		final int w = (int)(max[0]-min[0]+1), h = (int)(max[1]-min[1]+1);
+		final int d = dims.length > 2 ? (int)(max[2]-min[2]+1) : 1;
+		final short[] crop = new short[w*h*d];
+		int i = 0;
+		for (int z = 0; z < d; ++z)
+			for (int y = 0; y < h; ++y)
+				for (int x = 0; x < w; ++x)
+				{
+					final long zz = dims.length > 2 ? z + min[2] : 0;
+					crop[i++] = pixels[(int)(((zz * dims[1]) + y + min[1]) * dims[0] + x + min[0])];
+				}
+		return crop;
+	}
+}
@@ -0,0 +1,163 @@
+/*-
+ * #%L
+ * CTC-Fiji-plugins
+ * %%
+ * Copyright (C) 2017 - 2023 Vladimír Ulman
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package net.celltrackingchallenge.fiji.plugins.util;
+
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import net.celltrackingchallenge.fiji.plugins.io.FrameSourceTrackDataCacheTest;
+import net.imglib2.img.array.ArrayImgs;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Checks that the partial results of some timepoints, saved, loaded and
+ * merged together, give the same SEG and DET as one run over all timepoints.
+ */
+public class PartialMeasuresTest
+{
+	static final long[] DIMS = {48, 40};
+	static final int NO_OF_TIMEPOINTS = 8;
+
+	@Test
+	public void shardsGiveTheSameAsOneRun()
+	throws IOException
+	{
+		final PartialMeasures oneRun = newPart();
+		final PartialMeasures shardA = newPart(), shardB = newPart(), shardC = newPart();
+
+		final Random rnd = new Random(34);
+		try (ParallelLabelClassifier classifier = new ParallelLabelClassifier(2))
+		{
+			for (int t = 0; t < NO_OF_TIMEPOINTS; ++t)
+			{
+				//every timepoint goes into one run and into one of the shards, not in the order of time
+				final PartialMeasures shard = t % 3 == 0 ? shardA : (t % 3 == 1 ? shardB : shardC);
+
+				final short[][] det = FrameSourceTrackDataCacheTest.randomGtAndRes(rnd, DIMS, 5 + rnd.nextInt(10));
+				final LabelOverlaps detO = classifier.classify(ArrayImgs.unsignedShorts(det[0], DIMS), ArrayImgs.unsignedShorts(det[1], DIMS));
+				oneRun.addDetFrame(t, detO);
+				shard.addDetFrame(t, detO);
+
+				if (t % 2 == 1) continue; //not all timepoints are annotated for SEG
+				final short[][] seg = FrameSourceTrackDataCacheTest.randomGtAndRes(rnd, DIMS, 5 + rnd.nextInt(10));
+				final LabelOverlaps segO = classifier.classify(ArrayImgs.unsignedShorts(seg[0], DIMS), ArrayImgs.unsignedShorts(seg[1], DIMS));
+				final int z = t == 4 ? 2 : -1; //one annotation of a slice only
+				oneRun.addSegFrame(t, z, segO);
+				shard.addSegFrame(t, z, segO);
+			}
+		}
+
+		final Path dir = Files.createTempDirectory("ctc-parts");
+		try
+		{
+			final List<PartialMeasures> loaded = new ArrayList<>();
+			for (PartialMeasures p : Arrays.asList(shardC, shardA, shardB))
+			{
+				final Path file = dir.resolve("shard"+loaded.size()+".part");
+				p.save(file);
+				loaded.add(PartialMeasures.load(file));
+			}
+			final PartialMeasures merged = PartialMeasures.merge(loaded);
+
+			assertEquals(oneRun.seg(), merged.seg(), 0.0);
+			assertEquals(oneRun.det(), merged.det(), 0.0);
+			assertEquals(oneRun.aogmD(), merged.aogmD());
+			assertTrue(merged.knowsGtTimepoints());
+			assertEquals(new ArrayList<String>(), merged.missingTimepoints());
+
+			//without the last shard
+			final PartialMeasures incomplete = PartialMeasures.merge(loaded.subList(0, 2));
+			assertEquals(Arrays.asList("SEG 4 (slice 2)", "DET 1", "DET 4", "DET 7"), incomplete.missingTimepoints());
+		}
+		finally
+		{
+			for (int i = 0; i < 3; ++i) Files.deleteIfExists(dir.resolve("shard"+i+".part"));
+			Files.delete(dir);
+		}
+	}
+
+	@Test
+	public void differentFoldersAreNotMerged()
+	{
+		final PartialMeasures a = newPart(), b = newPart();
+		b.resPath = "/data/01_RES_other";
+		try {
+			PartialMeasures.merge(Arrays.asList(a, b));
+			fail("parts of different folders were merged");
+		}
+		catch (IllegalArgumentException e) {
+			assertTrue(e.getMessage(), e.getMessage().contains("different folders"));
+		}
+	}
+
+	@Test
+	public void sameTimepointTwiceIsNotMerged()
+	{
+		final PartialMeasures a = newPart(), b = newPart();
+		final LabelOverlaps o;
+		try (ParallelLabelClassifier classifier = new ParallelLabelClassifier(1))
+		{
+			final short[][] det = FrameSourceTrackDataCacheTest.randomGtAndRes(new Random(340), DIMS, 5);
+			o = classifier.classify(ArrayImgs.unsignedShorts(det[0], DIMS), ArrayImgs.unsignedShorts(det[1], DIMS));
+		}
+		a.addDetFrame(3, o);
+		b.addDetFrame(3, o);
+		try {
+			PartialMeasures.merge(Arrays.asList(a, b));
+			fail("the same timepoint was merged twice");
+		}
+		catch (IllegalArgumentException e) {
+			assertFalse(e.getMessage().contains("folders"));
+		}
+	}
+
+
+	/** an empty part of the video of NO_OF_TIMEPOINTS, SEG annotations at even timepoints, at 4 only slice 2 */
+	static PartialMeasures newPart()
+	{
+		final PartialMeasures p = new PartialMeasures();
+		p.gtPath = "/data/01_GT";
+		p.resPath = "/data/01_RES";
+		p.gtSegTimes = new int[] {0, 2, 4, 6};
+		p.gtSegSlices = new int[] {-1, -1, 2, -1};
+		p.gtDetTimes = new int[NO_OF_TIMEPOINTS];
+		for (int t = 0; t < NO_OF_TIMEPOINTS; ++t) p.gtDetTimes[t] = t;
+		return p;
+	}
+}
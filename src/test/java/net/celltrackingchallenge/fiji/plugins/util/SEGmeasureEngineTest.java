@@ -0,0 +1,154 @@
+/*-
+ * #%L
+ * CTC-Fiji-plugins
+ * %%
+ * Copyright (C) 2017 - 2023 Vladimír Ulman
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package net.celltrackingchallenge.fiji.plugins.util;
+
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+
+import net.celltrackingchallenge.fiji.plugins.io.FrameSourceTrackDataCacheTest;
+import net.celltrackingchallenge.fiji.plugins.io.TestTiffs;
+import net.celltrackingchallenge.measures.SEG;
+import org.scijava.log.StderrLogService;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.stream.Stream;
+
+/**
+ * Checks that the built-in SEG gives the value of the CTC-measures SEG,
+ * for the annotations of whole images as well as of single slices.
+ */
+public class SEGmeasureEngineTest
+{
+	static final long[] DIMS = {30, 20, 6};
+
+	@Test
+	public void knownValue()
+	throws IOException
+	{
+		final Path dir = Files.createTempDirectory("ctc-seg");
+		final long[] dims = {20, 10};
+
+		//GT 1 is 5x5 and covered by 4x5 of RES 7 (J=0.8), GT 2 is 5x5 and only 2x5 of it is RES 9 (J=0)
+		final short[] gt = new short[200], res = new short[200];
+		for (int y = 2; y < 7; ++y)
+			for (int x = 0; x < 5; ++x)
+			{
+				gt[y*20 + 2+x] = 1;
+				gt[y*20 + 12+x] = 2;
+				if (x > 0) res[y*20 + 2+x] = 7;
+				if (x > 2) res[y*20 + 12+x] = 9;
+			}
+		TestTiffs.write(dir.resolve("GT").resolve("SEG").resolve("man_seg000.tif"), gt, dims);
+		TestTiffs.write(dir.resolve("RES").resolve("mask000.tif"), res, dims);
+
+		try (SEGmeasureEngine seg = new SEGmeasureEngine(new StderrLogService(), 2))
+		{
+			assertEquals(0.4, seg.calculate(dir.resolve("GT"), dir.resolve("RES")), 1e-9);
+		}
+		delete(dir);
+	}
+
+	@Test
+	public void sameAsCtcMeasuresOnFullAnnotations()
+	throws IOException
+	{
+		final Path dir = Files.createTempDirectory("ctc-seg");
+		final Random rnd = new Random(50);
+		for (int t = 0; t < 4; ++t)
+		{
+			final short[][] pair = FrameSourceTrackDataCacheTest.randomGtAndRes(rnd, DIMS, 8 + rnd.nextInt(10));
+			TestTiffs.write(dir.resolve("GT").resolve("SEG").resolve(String.format("man_seg%03d.tif", t)), pair[0], DIMS);
+			TestTiffs.write(dir.resolve("RES").resolve(String.format("mask%03d.tif", t)), pair[1], DIMS);
+		}
+		assertSameAsCtcMeasures(dir);
+		delete(dir);
+	}
+
+	@Test
+	public void sameAsCtcMeasuresOnSingleSlices()
+	throws IOException
+	{
+		final Path dir = Files.createTempDirectory("ctc-seg");
+		final Random rnd = new Random(500);
+		final int sliceSize = (int)(DIMS[0]*DIMS[1]);
+		for (int t = 0; t < 4; ++t)
+		{
+			final short[][] pair = FrameSourceTrackDataCacheTest.randomGtAndRes(rnd, DIMS, 8 + rnd.nextInt(10));
+			TestTiffs.write(dir.resolve("RES").resolve(String.format("mask%03d.tif", t)), pair[1], DIMS);
+
+			//two annotated slices of every RES volume
+			for (int z : new int[] {t, 5-t})
+				TestTiffs.write(dir.resolve("GT").resolve("SEG").resolve(String.format("man_seg_%03d_%03d.tif", t, z)),
+						Arrays.copyOfRange(pair[0], z*sliceSize, (z+1)*sliceSize), new long[] {DIMS[0], DIMS[1]});
+		}
+		assertSameAsCtcMeasures(dir);
+		delete(dir);
+	}
+
+
+	/** the built-in SEG equals the CTC-measures one, also on the chosen timepoints only */
+	static void assertSameAsCtcMeasures(final Path dir)
+	throws IOException
+	{
+		final Path gt = dir.resolve("GT"), res = dir.resolve("RES");
+		final StderrLogService log = new StderrLogService();
+		for (int[] timepoints : new int[][] { {}, {1,3} })
+		{
+			final HashSet<Integer> only = new HashSet<>();
+			for (int t : timepoints) only.add(t);
+
+			final SEG ctc = new SEG(log);
+			ctc.doLogReports = false;
+			if (only.size() > 0) ctc.doOnlyTheseTimepoints = only;
+			final double expected = ctc.calculate(gt.toString(), res.toString());
+
+			for (int threads : new int[] {1, 3})
+				try (SEGmeasureEngine seg = new SEGmeasureEngine(log, threads))
+				{
+					seg.doOnlyTheseTimepoints = only.size() > 0 ? only : Collections.emptySet();
+					assertEquals("timepoints "+only+", "+threads+" threads", expected, seg.calculate(gt, res), 1e-9);
+				}
+		}
+	}
+
+	static void delete(final Path dir)
+	throws IOException
+	{
+		try (Stream<Path> files = Files.walk(dir)) {
+			files.sorted(Comparator.reverseOrder()).forEach(f -> f.toFile().delete());
+		}
+	}
+}
@@ -0,0 +1,178 @@
+/*-
+ * #%L
+ * CTC-Fiji-plugins
+ * %%
+ * Copyright (C) 2017 - 2023 Vladimír Ulman
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package net.celltrackingchallenge.fiji.plugins.util;
+
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * The built-in Sha is checked against the analytic circularity and sphericity
+ * of ideal shapes. A disc of radius 40 and a ball of radius 20 come out within
+ * 0.3% of 1.0, which is checked with SMOOTH_TOL; a disc of radius 10 is coarse
+ * enough to give 0.978. The corners of the polygons are underestimated a bit
+ * (a square of 40 pixels gives 0.79 to 0.82 in different rotations instead of
+ * 0.785, a cube of 30 voxels gives 0.851 instead of 0.806), which is what the
+ * tolerance TOL covers.
+ */
+public class ShapeRegularityTest
+{
+	/** the largest difference from the analytic regularity that is accepted */
+	static final double SMOOTH_TOL = 0.01, TOL = 0.05;
+
+	@Test
+	public void discIsCircular() throws Exception
+	{
+		assertEquals("disc", 1.0, regularityOf(ball(101,101,1, 40)), SMOOTH_TOL);
+		assertEquals("small disc", 1.0, regularityOf(ball(31,31,1, 10)), TOL);
+	}
+
+	@Test
+	public void squareIsQuarterPi() throws Exception
+	{
+		assertEquals("square", Math.PI/4.0, regularityOf(box(60,60,1, 10,50)), TOL);
+		for (double angle : new double[] {10, 22.5, 30, 45})
+			assertEquals("square rotated by "+angle, Math.PI/4.0, regularityOf(rotatedSquare(101, 40, angle)), TOL);
+	}
+
+	@Test
+	public void discIsToldFromSquare() throws Exception
+	{
+		final double disc = regularityOf(ball(101,101,1, 40));
+		for (double angle : new double[] {0, 22.5, 45})
+			assertTrue("square rotated by "+angle, disc - regularityOf(rotatedSquare(101, 40, angle)) > 0.15);
+	}
+
+	@Test
+	public void ballIsSpherical() throws Exception
+	{
+		assertEquals("ball", 1.0, regularityOf(ball(51,51,51, 20)), SMOOTH_TOL);
+	}
+
+	@Test
+	public void cubeIsSphericityOfCube() throws Exception
+	{
+		//pi^(1/3) * (6a^3)^(2/3) / (6a^2)
+		final double cube = Math.cbrt(Math.PI) * Math.pow(6.0, 2.0/3.0) / 6.0;
+		assertEquals("cube", cube, regularityOf(box(40,40,40, 5,35)), TOL);
+	}
+
+	@Test
+	public void resolutionIsRespected() throws Exception
+	{
+		//80x40 pixels that are twice as tall as wide make a square
+		final int w = 100, h = 60;
+		final short[] labels = new short[w*h];
+		for (int y = 10; y < 50; ++y)
+			for (int x = 10; x < 90; ++x) labels[y*w+x] = 1;
+
+		final ExecutorService workers = Executors.newFixedThreadPool(2);
+		try {
+			final ShapeRegularity sha = new ShapeRegularity(new double[] {1.0, 2.0, 1.0}, workers);
+			sha.addFrame(labels, new long[] {w,h});
+			assertEquals("anisotropic square", Math.PI/4.0, sha.getAverage(), TOL);
+		}
+		finally {
+			workers.shutdownNow();
+		}
+	}
+
+
+	static double regularityOf(final Frame f) throws Exception
+	{
+		final ExecutorService workers = Executors.newFixedThreadPool(2);
+		try {
+			final ShapeRegularity sha = new ShapeRegularity(new double[] {1.0, 1.0, 1.0}, workers);
+			sha.addFrame(f.labels, f.dims);
+			assertEquals(1, sha.getNoOfCells());
+			return sha.getAverage();
+		}
+		finally {
+			workers.shutdownNow();
+		}
+	}
+
+	static class Frame
+	{
+		Frame(final int w, final int h, final int d)
+		{
+			labels = new short[w*h*d];
+			dims = d > 1 ? new long[] {w,h,d} : new long[] {w,h};
+		}
+
+		final short[] labels;
+		final long[] dims;
+	}
+
+	/** label 1 within the radius around the centre of the image */
+	static Frame ball(final int w, final int h, final int d, final double radius)
+	{
+		final Frame f = new Frame(w,h,d);
+		int i = 0;
+		for (int z = 0; z < d; ++z)
+			for (int y = 0; y < h; ++y)
+				for (int x = 0; x < w; ++x, ++i)
+				{
+					final double dx = x - w/2, dy = y - h/2, dz = d > 1 ? z - d/2 : 0;
+					if (dx*dx + dy*dy + dz*dz <= radius*radius) f.labels[i] = 1;
+				}
+		return f;
+	}
+
+	/** label 1 in the square of the given side, rotated around the centre of the image */
+	static Frame rotatedSquare(final int size, final double side, final double angle)
+	{
+		final Frame f = new Frame(size,size,1);
+		final double cos = Math.cos(Math.toRadians(angle)), sin = Math.sin(Math.toRadians(angle));
+		int i = 0;
+		for (int y = 0; y < size; ++y)
+			for (int x = 0; x < size; ++x, ++i)
+			{
+				final double dx = x - size/2, dy = y - size/2;
+				if (Math.abs(dx*cos + dy*sin) < side/2 && Math.abs(dy*cos - dx*sin) < side/2) f.labels[i] = 1;
+			}
+		return f;
+	}
+
+	/** label 1 in [from,to) along every axis */
+	static Frame box(final int w, final int h, final int d, final int from, final int to)
+	{
+		final Frame f = new Frame(w,h,d);
+		int i = 0;
+		for (int z = 0; z < d; ++z)
+			for (int y = 0; y < h; ++y)
+				for (int x = 0; x < w; ++x, ++i)
+					if (x >= from && x < to && y >= from && y < to && (d == 1 || z >= from && z < to))
+						f.labels[i] = 1;
+		return f;
+	}
+}
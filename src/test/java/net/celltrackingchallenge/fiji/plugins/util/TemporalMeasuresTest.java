@@ -0,0 +1,156 @@
+/*-
+ * #%L
+ * CTC-Fiji-plugins
+ * %%
+ * Copyright (C) 2017 - 2023 Vladimír Ulman
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package net.celltrackingchallenge.fiji.plugins.util;
+
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+
+import net.imglib2.img.array.ArrayImgs;
+import net.celltrackingchallenge.fiji.plugins.io.RawImageReader.RawFrame;
+
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Compares the streamed Ove and Cha of the built-in engine with the values
+ * computed directly from their definitions on every pair of consecutive frames.
+ */
+public class TemporalMeasuresTest
+{
+	static final int W = 40, H = 30, D = 3, T = 4;
+
+	@Test
+	public void matchesDefinitions() throws Exception
+	{
+		final Random rnd = new Random(11);
+		final short[][] labels = new short[T][];
+		final short[][] raws = new short[T][];
+		for (int t = 0; t < T; ++t)
+		{
+			labels[t] = CellDensityTest.randomCells(rnd, new long[] {W,H,D}, 10);
+			raws[t] = new short[W*H*D];
+			for (int i = 0; i < raws[t].length; ++i)
+				raws[t][i] = (short)(labels[t][i] != 0 ? 1000 + rnd.nextInt(2000) : 100 + rnd.nextInt(50));
+		}
+
+		final ExecutorService workers = Executors.newFixedThreadPool(3);
+		try {
+			final TemporalMeasures tm = new TemporalMeasures(new ParallelLabelClassifier(workers, 3));
+			for (int t = 0; t < T; ++t)
+				tm.addFrame(ArrayImgs.unsignedShorts(labels[t], W,H,D), intensities(raws[t], labels[t], workers));
+
+			double oveSum = 0, chaSum = 0;
+			int oveCnt = 0, chaCnt = 0;
+			for (int t = 1; t < T; ++t)
+				for (int l = 1; l < 1 << 16; ++l)
+				{
+					final long a = count(labels[t-1], l), b = count(labels[t], l);
+					if (a == 0 || b == 0) continue;
+					long both = 0;
+					for (int i = 0; i < W*H*D; ++i)
+						if ((labels[t-1][i] & 0xFFFF) == l && (labels[t][i] & 0xFFFF) == l) ++both;
+					oveSum += (double)both / (double)(a + b - both);
+					++oveCnt;
+
+					final double prevFG = mean(raws[t-1], labels[t-1], l);
+					final double prevBG = mean(raws[t-1], labels[t-1], 0);
+					chaSum += Math.abs(mean(raws[t], labels[t], l) - prevFG) / Math.abs(prevFG - prevBG);
+					++chaCnt;
+				}
+
+			assertEquals("Ove", oveSum / oveCnt, tm.getOve(), 1e-9);
+			assertEquals("Cha", chaSum / chaCnt, tm.getCha(), 1e-9);
+		}
+		finally {
+			workers.shutdownNow();
+		}
+	}
+
+	@Test
+	public void noPairGivesMinusOne() throws Exception
+	{
+		final ExecutorService workers = Executors.newFixedThreadPool(1);
+		try {
+			final TemporalMeasures tm = new TemporalMeasures(new ParallelLabelClassifier(workers, 1));
+			final short[] first = new short[W*H];
+			final short[] second = new short[W*H];
+			first[0] = 1;
+			second[1] = 2;
+			tm.addFrame(ArrayImgs.unsignedShorts(first, W,H), null);
+			tm.addFrame(ArrayImgs.unsignedShorts(second, W,H), null);
+			assertEquals(-1.0, tm.getOve(), 0.0);
+			assertEquals(-1.0, tm.getCha(), 0.0);
+		}
+		finally {
+			workers.shutdownNow();
+		}
+	}
+
+
+	/** the background is everything but the cells */
+	static FrameIntensities intensities(final short[] raw, final short[] labels, final ExecutorService workers)
+	throws Exception
+	{
+		final short[] bg = new short[labels.length];
+		for (int i = 0; i < bg.length; ++i) bg[i] = (short)(labels[i] == 0 ? 1 : 0);
+
+		final Object[] slices = new Object[D];
+		for (int z = 0; z < D; ++z)
+		{
+			final short[] slice = new short[W*H];
+			System.arraycopy(raw, z*W*H, slice, 0, W*H);
+			slices[z] = slice;
+		}
+
+		final FrameIntensities f = new FrameIntensities();
+		f.add(new RawFrame(W,H, slices), labels, bg, workers, 3);
+		return f;
+	}
+
+	static long count(final short[] labels, final int label)
+	{
+		long n = 0;
+		for (short l : labels) if ((l & 0xFFFF) == label) ++n;
+		return n;
+	}
+
+	static double mean(final short[] raw, final short[] labels, final int label)
+	{
+		double sum = 0;
+		long n = 0;
+		for (int i = 0; i < raw.length; ++i)
+			if ((labels[i] & 0xFFFF) == label)
+			{
+				sum += raw[i] & 0xFFFF;
+				++n;
+			}
+		return sum / n;
+	}
+}